@@ -0,0 +1,330 @@
+package com.jmr.wrapper.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Networking Library
+ * NitroPacketProcessor.java
+ * Purpose: Generates a serializer for every class marked with NitroPacket. The serializer writes the fields in the same 
+ * order and form as the ReflectionSerializer, sorted by name, but reads and writes them directly so no reflection is 
+ * used. Objects are created with the class's constructor without arguments, or with the constructor taking every field
+ * in the order they are declared.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+@SupportedAnnotationTypes(NitroPacketProcessor.ANNOTATION)
+public class NitroPacketProcessor extends AbstractProcessor {
+
+	/** The name of the annotation. */
+	static final String ANNOTATION = "com.jmr.wrapper.common.codec.NitroPacket";
+	
+	/** The ending of the name of a generated serializer. Has to match GeneratedSerializer.SUFFIX. */
+	private static final String SUFFIX = "$$NitroSerializer";
+	
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+	
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+		for (TypeElement annotation : annotations) {
+			for (Element element : env.getElementsAnnotatedWith(annotation)) {
+				if (element.getKind() != ElementKind.CLASS) {
+					error(element, "@NitroPacket can only be used on classes.");
+					continue;
+				}
+				try {
+					generate((TypeElement) element);
+				} catch (IOException e) {
+					error(element, "Can't write the serializer: " + e.getMessage());
+				}
+			}
+		}
+		return true;
+	}
+	
+	/** Checks a class and writes its serializer.
+	 * @param type The class.
+	 * @throws IOException Thrown when the source file can't be written.
+	 */
+	private void generate(TypeElement type) throws IOException {
+		Set<Modifier> modifiers = type.getModifiers();
+		if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.ABSTRACT)) {
+			error(type, "@NitroPacket classes can't be private or abstract.");
+			return;
+		}
+		if (type.getNestingKind() != NestingKind.TOP_LEVEL && (type.getNestingKind() != NestingKind.MEMBER || !modifiers.contains(Modifier.STATIC))) {
+			error(type, "@NitroPacket classes have to be top level or static member classes.");
+			return;
+		}
+		if (!type.getTypeParameters().isEmpty()) {
+			error(type, "@NitroPacket classes can't have type parameters.");
+			return;
+		}
+		if (hasInheritedFields(type)) {
+			error(type, "The superclasses of @NitroPacket classes can't have fields.");
+			return;
+		}
+		
+		List<VariableElement> fields = new ArrayList<VariableElement>();
+		boolean hasFinal = false;
+		for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+			if (field.getModifiers().contains(Modifier.STATIC) || field.getModifiers().contains(Modifier.TRANSIENT))
+				continue;
+			if (field.getModifiers().contains(Modifier.PRIVATE)) {
+				error(field, "Fields of @NitroPacket classes can't be private.");
+				return;
+			}
+			hasFinal |= field.getModifiers().contains(Modifier.FINAL);
+			fields.add(field);
+		}
+		
+		boolean noArgs = false, allFields = false;
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getModifiers().contains(Modifier.PRIVATE))
+				continue;
+			if (constructor.getParameters().isEmpty() && !hasFinal)
+				noArgs = true;
+			else if (matchesFields(constructor, fields))
+				allFields = true;
+		}
+		if (!noArgs && !allFields) {
+			error(type, "@NitroPacket classes need a constructor without arguments or one taking every field in order.");
+			return;
+		}
+		
+		List<VariableElement> sorted = new ArrayList<VariableElement>(fields);
+		Collections.sort(sorted, new Comparator<VariableElement>() {
+			@Override
+			public int compare(VariableElement f1, VariableElement f2) {
+				return f1.getSimpleName().toString().compareTo(f2.getSimpleName().toString());
+			}
+		});
+		write(type, fields, sorted, noArgs);
+	}
+	
+	/** Writes the source file of the serializer.
+	 * @param type The class.
+	 * @param fields The fields in the order they are declared.
+	 * @param sorted The fields sorted by name, the order they are written in.
+	 * @param noArgs Whether to use the constructor without arguments.
+	 * @throws IOException Thrown when the source file can't be written.
+	 */
+	private void write(TypeElement type, List<VariableElement> fields, List<VariableElement> sorted, boolean noArgs) throws IOException {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+		String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+		String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + SUFFIX;
+		String typeName = type.getQualifiedName().toString();
+		
+		StringBuilder src = new StringBuilder();
+		if (!packageName.isEmpty())
+			src.append("package ").append(packageName).append(";\n\n");
+		src.append("import java.io.IOException;\n\n");
+		src.append("import com.jmr.wrapper.common.codec.CodecInput;\n");
+		src.append("import com.jmr.wrapper.common.codec.CodecOutput;\n");
+		src.append("import com.jmr.wrapper.common.codec.GeneratedSerializer;\n\n");
+		src.append("/** Generated by the NitroNet processor for ").append(typeName).append(". Don't edit. */\n");
+		src.append("public final class ").append(simpleName).append(" extends GeneratedSerializer<").append(typeName).append("> {\n\n");
+		
+		src.append("\t@Override\n");
+		src.append("\tpublic void write(CodecOutput out, ").append(typeName).append(" object) throws IOException {\n");
+		for (VariableElement field : sorted)
+			src.append("\t\tout.").append(getWriteMethod(field.asType())).append("(object.").append(field.getSimpleName()).append(");\n");
+		src.append("\t}\n\n");
+		
+		src.append("\t@Override\n");
+		src.append("\t@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+		src.append("\tpublic ").append(typeName).append(" read(CodecInput in) throws IOException {\n");
+		if (noArgs) {
+			src.append("\t\t").append(typeName).append(" object = new ").append(typeName).append("();\n");
+			for (VariableElement field : sorted)
+				src.append("\t\tobject.").append(field.getSimpleName()).append(" = ").append(getRead(field.asType())).append(";\n");
+			src.append("\t\treturn object;\n");
+		} else {
+			for (VariableElement field : sorted) {
+				src.append("\t\t").append(field.asType()).append(" f_").append(field.getSimpleName()).append(" = ")
+						.append(getRead(field.asType())).append(";\n");
+			}
+			src.append("\t\treturn new ").append(typeName).append("(");
+			for (int i = 0; i < fields.size(); i++)
+				src.append(i > 0 ? ", " : "").append("f_").append(fields.get(i).getSimpleName());
+			src.append(");\n");
+		}
+		src.append("\t}\n\n");
+		
+		StringBuilder layout = new StringBuilder();
+		for (VariableElement field : sorted)
+			layout.append(field.getSimpleName()).append(':').append(getClassName(field.asType())).append(';');
+		src.append("\t@Override\n");
+		src.append("\tpublic String getLayout() {\n");
+		src.append("\t\treturn \"").append(layout.toString().replace("\\", "\\\\").replace("\"", "\\\"")).append("\";\n");
+		src.append("\t}\n\n");
+		src.append("}\n");
+		
+		String fileName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(fileName, type);
+		Writer writer = file.openWriter();
+		try {
+			writer.write(src.toString());
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/** Gets the CodecOutput method that writes a field, matching the ReflectionSerializer.
+	 * @param type The type of the field.
+	 * @return The name of the method.
+	 */
+	private String getWriteMethod(TypeMirror type) {
+		switch (type.getKind()) {
+		case BOOLEAN: return "writeBoolean";
+		case BYTE: return "writeByte";
+		case SHORT: return "writeShort";
+		case CHAR: return "writeChar";
+		case INT: return "writeInt";
+		case LONG: return "writeLong";
+		case FLOAT: return "writeFloat";
+		case DOUBLE: return "writeDouble";
+		default: return isString(type) ? "writeString" : "writeObject";
+		}
+	}
+	
+	/** Gets the code that reads a field, matching the ReflectionSerializer.
+	 * @param type The type of the field.
+	 * @return The code.
+	 */
+	private String getRead(TypeMirror type) {
+		switch (type.getKind()) {
+		case BOOLEAN: return "in.readBoolean()";
+		case BYTE: return "in.readByte()";
+		case SHORT: return "in.readShort()";
+		case CHAR: return "in.readChar()";
+		case INT: return "in.readInt()";
+		case LONG: return "in.readLong()";
+		case FLOAT: return "in.readFloat()";
+		case DOUBLE: return "in.readDouble()";
+		default:
+			if (isString(type))
+				return "in.readString()";
+			return "(" + processingEnv.getTypeUtils().erasure(type) + ") in.readObject()";
+		}
+	}
+	
+	/** @return Whether the type is String. */
+	private boolean isString(TypeMirror type) {
+		return type.getKind() == TypeKind.DECLARED && ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().contentEquals("java.lang.String");
+	}
+	
+	/** Gets the name Class.getName() returns for a type, which is used in the layout.
+	 * @param type The type.
+	 * @return The name.
+	 */
+	private String getClassName(TypeMirror type) {
+		if (type.getKind().isPrimitive())
+			return type.getKind().name().toLowerCase();
+		if (type.getKind() == TypeKind.ARRAY)
+			return "[" + getDescriptor(((ArrayType) type).getComponentType());
+		return getBinaryName(type);
+	}
+	
+	/** Gets the descriptor of an array's component, the way Class.getName() writes it.
+	 * @param type The type.
+	 * @return The descriptor.
+	 */
+	private String getDescriptor(TypeMirror type) {
+		switch (type.getKind()) {
+		case BOOLEAN: return "Z";
+		case BYTE: return "B";
+		case SHORT: return "S";
+		case CHAR: return "C";
+		case INT: return "I";
+		case LONG: return "J";
+		case FLOAT: return "F";
+		case DOUBLE: return "D";
+		case ARRAY: return "[" + getDescriptor(((ArrayType) type).getComponentType());
+		default: return "L" + getBinaryName(type) + ";";
+		}
+	}
+	
+	/** @return The binary name of a class or the erasure of a type variable. */
+	private String getBinaryName(TypeMirror type) {
+		TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+		if (erased.getKind() != TypeKind.DECLARED)
+			return erased.toString();
+		return processingEnv.getElementUtils().getBinaryName((TypeElement) ((DeclaredType) erased).asElement()).toString();
+	}
+	
+	/** Checks whether a constructor takes every field in the order they are declared.
+	 * @param constructor The constructor.
+	 * @param fields The fields.
+	 * @return Whether it does.
+	 */
+	private boolean matchesFields(ExecutableElement constructor, List<VariableElement> fields) {
+		List<? extends VariableElement> parameters = constructor.getParameters();
+		if (parameters.size() != fields.size())
+			return false;
+		for (int i = 0; i < fields.size(); i++) {
+			if (!processingEnv.getTypeUtils().isSameType(parameters.get(i).asType(), fields.get(i).asType()))
+				return false;
+		}
+		return true;
+	}
+	
+	/** Checks whether one of the superclasses of a class has fields that would have to be written.
+	 * @param type The class.
+	 * @return Whether it does.
+	 */
+	private boolean hasInheritedFields(TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+		while (superclass.getKind() == TypeKind.DECLARED) {
+			TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+			if (element.getQualifiedName().contentEquals("java.lang.Object"))
+				return false;
+			for (VariableElement field : ElementFilter.fieldsIn(element.getEnclosedElements())) {
+				if (!field.getModifiers().contains(Modifier.STATIC) && !field.getModifiers().contains(Modifier.TRANSIENT))
+					return true;
+			}
+			superclass = element.getSuperclass();
+		}
+		return false;
+	}
+	
+	/** Reports an error on an element.
+	 * @param element The element.
+	 * @param message The message.
+	 */
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+	
+}
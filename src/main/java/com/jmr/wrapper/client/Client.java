@@ -7,14 +7,23 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import com.jmr.wrapper.client.threads.ClientTcpReadThread;
 import com.jmr.wrapper.common.Connection;
 import com.jmr.wrapper.common.IProtocol;
 import com.jmr.wrapper.common.complex.ComplexManager;
+import com.jmr.wrapper.common.buffer.BufferPool;
+import com.jmr.wrapper.common.codec.Codec;
+import com.jmr.wrapper.common.codec.SerializationCodec;
 import com.jmr.wrapper.common.config.Config;
+import com.jmr.wrapper.common.dispatch.Dispatcher;
 import com.jmr.wrapper.common.listener.SocketListener;
+import com.jmr.wrapper.common.listener.StreamListener;
+import com.jmr.wrapper.common.request.RequestManager;
+import com.jmr.wrapper.common.stream.StreamManager;
+import com.jmr.wrapper.common.threads.IdleCheckThread;
+import com.jmr.wrapper.common.utils.ThreadUtils;
+import com.jmr.wrapper.common.utils.TimerWheel;
 import com.jmr.wrapper.encryption.IEncryptor;
 import com.jmr.wrapper.server.ConnectionManager;
 import com.jmr.wrapper.server.threads.UdpReadThread;
@@ -51,6 +60,9 @@ public class Client implements IProtocol {
 	/** The listener object. */
 	private SocketListener listener;
 	
+	/** The listener receiving streams, or null to refuse them. */
+	private StreamListener streamListener;
+	
 	/** The connection to the server. */
 	private Connection serverConnection;
 	
@@ -60,6 +72,33 @@ public class Client implements IProtocol {
 	/** The type of encryption to use when sending and receiving packets. */
 	private IEncryptor encryptionMethod;
 	
+	/** The codec offered to connections. */
+	private Codec codec = SerializationCodec.INSTANCE;
+	
+	/** The pool of buffers used to send and receive packets. */
+	private BufferPool bufferPool;
+	
+	/** The connections of the client. */
+	private final ConnectionManager connectionManager = new ConnectionManager();
+	
+	/** The complex objects being formed for the connections. */
+	private final ComplexManager complexManager = new ComplexManager(this);
+	
+	/** The streams of the connections. */
+	private final StreamManager streamManager = new StreamManager();
+	
+	/** The responders answering requests and the requests waiting for their responses. */
+	private final RequestManager requestManager = new RequestManager();
+	
+	/** The dispatcher passing received objects to the listener. */
+	private final Dispatcher dispatcher = new Dispatcher(this);
+	
+	/** The number of times the UDP port is sent again after connecting. */
+	private static final int UDP_PORT_RESENDS = 3;
+	
+	/** The timer wheel running the timeouts of the connections. */
+	private final TimerWheel timerWheel = ThreadUtils.createTimerWheel();
+	
 	/** Creates a new client sets the variables to be used to connect to a server later.
 	 * @param address The address to the server.
 	 * @param tcpPort The TCP port.
@@ -83,35 +122,55 @@ public class Client implements IProtocol {
 		clientConfig = new ClientConfig();
 		tcpPort = -1;
 		udpPort = -1;
-		mainExecutor = Executors.newCachedThreadPool();
+		mainExecutor = ThreadUtils.createExecutor(clientConfig);
+		bufferPool = new BufferPool(clientConfig.BUFFER_POOLING);
 	}
 	
 	/** Connects to the server. */
 	public void connect() {
+		bufferPool = new BufferPool(clientConfig.BUFFER_POOLING);
 		try {
 			udpSocket = new DatagramSocket();
 			tcpSocket = new Socket(address, tcpPort);
 			//tcpSocket.connect(address);
-			serverConnection = new Connection(udpPort, tcpSocket, udpSocket);
+			serverConnection = new Connection(udpPort, tcpSocket, udpSocket, null, clientConfig);
 			serverConnection.setProtocol(this);
-			ComplexManager.getInstance().setProtocol(this);
 			if (listener != null) {
 				((SocketListener)listener).connected(serverConnection);
 			}
-			ConnectionManager.getInstance().addConnection(serverConnection);
+			connectionManager.addConnection(serverConnection);
 		} catch (SocketException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	
-		mainExecutor = Executors.newCachedThreadPool();
+		mainExecutor = ThreadUtils.createExecutor(clientConfig);
 		
 		if (tcpSocket != null && tcpSocket.isConnected() && udpSocket != null) {
 			mainExecutor.execute(new UdpReadThread(this, udpSocket));
 			mainExecutor.execute(new ClientTcpReadThread(this, serverConnection));
-			serverConnection.sendTcp(new String("ConnectedToServer"));
-			serverConnection.sendUdp(new String("SettingUdpPort"));
+			new IdleCheckThread(serverConnection).run();
+			sendUdpPort(0);
+		}
+	}
+	
+	/** Sends the server the port of the UDP socket. Servers reading control packets bind with the session token instead.
+	 * Older servers drop it if it gets there before they registered the connection, so it's sent a few more times; 
+	 * once bound, the server maps it to the same connection and nothing changes.
+	 * @param attempt The number of times it was sent before.
+	 */
+	private void sendUdpPort(final int attempt) {
+		if (serverConnection.getSocket() == null)
+			return;
+		serverConnection.sendUdp(new String("SettingUdpPort"));
+		if (attempt < UDP_PORT_RESENDS) {
+			ThreadUtils.schedule(this, new Runnable() {
+				@Override
+				public void run() {
+					sendUdpPort(attempt + 1);
+				}
+			}, 100L << attempt);
 		}
 	}
 	
@@ -127,6 +186,18 @@ public class Client implements IProtocol {
 		return listener;
 	}
 	
+	/** Sets the listener receiving streams. Streams are refused while it isn't set.
+	 * @param streamListener The listener.
+	 */
+	public void setStreamListener(StreamListener streamListener) {
+		this.streamListener = streamListener;
+	}
+	
+	@Override
+	public StreamListener getStreamListener() {
+		return streamListener;
+	}
+	
 	@Override
 	public Config getConfig() {
 		return clientConfig;
@@ -142,6 +213,51 @@ public class Client implements IProtocol {
 		this.encryptionMethod = encryptor;
 	}
 	
+	@Override
+	public void setCodec(Codec codec) {
+		this.codec = codec;
+	}
+	
+	@Override
+	public Codec getCodec() {
+		return codec;
+	}
+	
+	@Override
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+	
+	@Override
+	public ConnectionManager getConnectionManager() {
+		return connectionManager;
+	}
+	
+	@Override
+	public ComplexManager getComplexManager() {
+		return complexManager;
+	}
+	
+	@Override
+	public StreamManager getStreamManager() {
+		return streamManager;
+	}
+	
+	@Override
+	public RequestManager getRequestManager() {
+		return requestManager;
+	}
+	
+	@Override
+	public Dispatcher getDispatcher() {
+		return dispatcher;
+	}
+	
+	@Override
+	public TimerWheel getTimerWheel() {
+		return timerWheel;
+	}
+	
 	@Override
 	public boolean isConnected() {
 		return udpSocket != null && tcpSocket != null && tcpSocket.isConnected() && tcpSocket.isBound() && !tcpSocket.isClosed();
@@ -165,6 +281,8 @@ public class Client implements IProtocol {
 			e.printStackTrace();
 		}
 		udpSocket.close();
+		dispatcher.close();
+		timerWheel.stop();
 	}
 	
 	/** @return The connection to the server. */
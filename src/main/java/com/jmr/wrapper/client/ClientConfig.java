@@ -5,7 +5,7 @@ import com.jmr.wrapper.common.config.Config;
 /**
  * Networking Library
  * ClientConfig.java
- * Purpose: Holds all client side configuration variables. Currently there is none that are only client-sided.
+ * Purpose: Holds all client side configuration variables.
  *
  * @author Jon R (Baseball435)
  * @version 1.0 7/19/2014
@@ -13,4 +13,10 @@ import com.jmr.wrapper.common.config.Config;
 
 public class ClientConfig extends Config {
 	
+	/** Whether or not to ping the server so it knows the client is still connected. */
+	public boolean PING_SERVER = true;
+	
+	/** The milliseconds the connection may go without sending anything to the server before it's pinged. */
+	public int PING_SLEEP_TIME = 5000;
+	
 }
@@ -1,16 +1,13 @@
 package com.jmr.wrapper.client.threads;
 
-import java.io.ByteArrayInputStream;
 import java.io.ObjectInputStream;
 
 import com.jmr.wrapper.client.Client;
 import com.jmr.wrapper.common.Connection;
-import com.jmr.wrapper.common.complex.ComplexManager;
-import com.jmr.wrapper.common.complex.ReceivedComplexPiece;
 import com.jmr.wrapper.common.listener.SocketListener;
+import com.jmr.wrapper.common.utils.FrameUtils;
 import com.jmr.wrapper.common.utils.PacketUtils;
 import com.jmr.wrapper.server.threads.DisconnectedThread;
-import com.jmr.wrapper.server.threads.ReceivedThread;
 
 /**
  * Networking Library
@@ -41,52 +38,41 @@ public class ClientTcpReadThread implements Runnable {
 	
 	@Override
 	public void run() {
+		/** Every packet is read into the same buffer since packets are handled before the next one is read. */
+		byte[] data = client.getBufferPool().acquire(FrameUtils.getMaxPacketSize(client));
 		try {
 			ObjectInputStream in = new ObjectInputStream(serverConnection.getSocket().getInputStream());
+			byte[] header = new byte[FrameUtils.HEADER_SIZE];
 			while (!serverConnection.getSocket().isClosed() && in != null) {
 				/** Get all data from the packet that was sent. */
-				byte[] data = new byte[client.getConfig().PACKET_BUFFER_SIZE];
+				boolean compact = serverConnection.isCompactTcpIn();
+				int length;
 				try {
-					in.readFully(data);
+					if (compact) {
+						in.readFully(header);
+						length = FrameUtils.getLength(client, header);
+					} else {
+						length = client.getConfig().PACKET_BUFFER_SIZE;
+					}
+					in.readFully(data, 0, length);
 				} catch (Exception e) { //Connection lost to server and didnt finish sending data
-					serverConnection.close();
-					client.executeThread(new DisconnectedThread((SocketListener)client.getListener(), serverConnection));
+					client.getConnectionManager().close(serverConnection);
+					client.getDispatcher().dispatch(serverConnection, new DisconnectedThread((SocketListener)client.getListener(), serverConnection));
 					return; //kill thread
 				}
-				/** Decrypt the data if the encryptor is set. */
-				if (client.getEncryptionMethod() != null)
-					data = client.getEncryptionMethod().decrypt(data);
-
-				/** Get the checksum found before the packet was sent. */
-				String checksumSent = PacketUtils.getChecksumFromPacket(data);
-				
-				/** Return the object in bytes from the sent packet. */
-				byte[] objectArray = PacketUtils.getObjectFromPacket(data);
-				
-				if (objectArray[0] == 99) { //Complex object
-					PacketUtils.handleComplexPiece(checksumSent, objectArray, serverConnection);
-				} else {
-					
-					/** Get the checksum value of the object array. */
-					String checksumVal = PacketUtils.getChecksumOfObject(objectArray);
-					
-					/** Get the object from the bytes. */
-					ByteArrayInputStream objIn = new ByteArrayInputStream(objectArray);
-					ObjectInputStream is = new ObjectInputStream(objIn);
-					Object object = is.readObject();
-					
-					/** Check if the checksums are equal. If they aren't it means the packet was edited or didn't send completely. */
-					if (checksumSent.equals(checksumVal)) {
-						if (object != null) {					
-							client.executeThread(new ReceivedThread(client.getListener(), serverConnection, object));
-						}
-					}
-				}
+				serverConnection.markRead();
+				if (compact)
+					FrameUtils.handleFrame(client, serverConnection, true, header, data, 0, length);
+				else
+					PacketUtils.handleTcpPacket(client, serverConnection, data, length);
 			}
+			client.getDispatcher().dispatch(serverConnection, new DisconnectedThread((SocketListener)client.getListener(), serverConnection)); //The socket was closed between packets
 		} catch (Exception e) {
 			e.printStackTrace();
-			serverConnection.close();
-			client.executeThread(new DisconnectedThread((SocketListener)client.getListener(), serverConnection));
+			client.getConnectionManager().close(serverConnection);
+			client.getDispatcher().dispatch(serverConnection, new DisconnectedThread((SocketListener)client.getListener(), serverConnection));
+		} finally {
+			client.getBufferPool().release(data);
 		}
 	}
 
@@ -0,0 +1,104 @@
+package com.jmr.wrapper.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import com.jmr.wrapper.common.buffer.PacketBuffer;
+import com.jmr.wrapper.common.codec.Codec;
+
+/**
+ * Networking Library
+ * BroadcastPacket.java
+ * Purpose: An object being sent to many connections. The object is encoded once for every framing, codec, checksum and
+ * compression the connections use, and the packets are shared by all connections using the same ones. The packets are 
+ * kept until the broadcast is released.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class BroadcastPacket {
+
+	/** The object being sent. */
+	private final Object object;
+	
+	/** The packets created so far. There are only a few so a list is faster than a map. */
+	private final ArrayList<Entry> entries = new ArrayList<Entry>(2);
+	
+	/** Whether the broadcast was released. Packets created afterwards aren't kept. */
+	private boolean released = false;
+	
+	/** Creates a new broadcast.
+	 * @param object The object to send.
+	 */
+	public BroadcastPacket(Object object) {
+		this.object = object;
+	}
+	
+	/** @return The object being sent. */
+	public Object getObject() {
+		return object;
+	}
+	
+	/** Gets the packet for a framing and codec, encoding the object if no connection used them yet.
+	 * @param protocol The protocol of the connection.
+	 * @param compact Whether the compact framing is used.
+	 * @param codec The codec to encode the object with.
+	 * @param frameFlags The checksum and compression flags of a compact packet.
+	 * @return The packet. Has to be released by the caller.
+	 * @throws IOException Thrown when the object can't be encoded.
+	 */
+	public synchronized PacketBuffer getPacket(IProtocol protocol, boolean compact, Codec codec, byte frameFlags) throws IOException {
+		for (Entry entry : entries) {
+			if (entry.protocol == protocol && entry.compact == compact && entry.codec == codec && entry.frameFlags == frameFlags)
+				return entry.packet.retain();
+		}
+		PacketBuffer packet = Connection.createPacket(protocol, compact, codec, frameFlags, object);
+		if (released) //A queued packet whose framing changed
+			return packet;
+		entries.add(new Entry(protocol, compact, codec, frameFlags, packet));
+		return packet.retain();
+	}
+	
+	/** @return The amount of times the object was encoded. */
+	public synchronized int getEncodedCount() {
+		return entries.size();
+	}
+	
+	/** Releases the packets. Connections still writing them keep them until they are done. */
+	public synchronized void release() {
+		released = true;
+		for (Entry entry : entries)
+			entry.packet.release();
+		entries.clear();
+	}
+	
+	/** A packet for one framing and codec. */
+	private static class Entry {
+		
+		/** The protocol the packet was created with. */
+		private final IProtocol protocol;
+		
+		/** Whether the packet is in the compact framing. */
+		private final boolean compact;
+		
+		/** The codec the object was encoded with. */
+		private final Codec codec;
+		
+		/** The checksum and compression flags the packet was created with. */
+		private final byte frameFlags;
+		
+		/** The packet. */
+		private final PacketBuffer packet;
+		
+		private Entry(IProtocol protocol, boolean compact, Codec codec, byte frameFlags, PacketBuffer packet) {
+			this.protocol = protocol;
+			this.compact = compact;
+			this.codec = codec;
+			this.frameFlags = frameFlags;
+			this.packet = packet;
+		}
+		
+	}
+	
+}
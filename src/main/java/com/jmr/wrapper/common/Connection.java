@@ -1,23 +1,71 @@
 package com.jmr.wrapper.common;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import com.jmr.wrapper.common.buffer.BufferPool;
+import com.jmr.wrapper.common.buffer.PacketBuffer;
+import com.jmr.wrapper.common.buffer.PooledOutputStream;
+import com.jmr.wrapper.common.codec.Codec;
+import com.jmr.wrapper.common.codec.SerializationCodec;
 import com.jmr.wrapper.common.complex.ComplexObject;
-import com.jmr.wrapper.common.listener.SocketListener;
+import com.jmr.wrapper.common.complex.ComplexPiece;
+import com.jmr.wrapper.common.compression.CompressionDictionary;
+import com.jmr.wrapper.common.compression.DeflateCompressor;
+import com.jmr.wrapper.common.compression.DeflateStream;
+import com.jmr.wrapper.common.config.Config;
+import com.jmr.wrapper.common.dispatch.Mailbox;
+import com.jmr.wrapper.common.exceptions.NNPacketDropped;
+import com.jmr.wrapper.common.exceptions.NNRequestFailed;
+import com.jmr.wrapper.common.stream.OutgoingStream;
+import com.jmr.wrapper.common.stream.StreamManager;
+import com.jmr.wrapper.common.threads.StreamSendThread;
+import com.jmr.wrapper.common.threads.TcpFlushThread;
+import com.jmr.wrapper.common.threads.WritabilityChangedThread;
+import com.jmr.wrapper.common.udp.ReliableChannel;
+import com.jmr.wrapper.common.udp.SequencedChannels;
+import com.jmr.wrapper.common.udp.UdpPacer;
+import com.jmr.wrapper.common.utils.ControlUtils;
+import com.jmr.wrapper.common.utils.Crc32c;
+import com.jmr.wrapper.common.utils.FrameUtils;
 import com.jmr.wrapper.common.utils.PacketUtils;
-import com.jmr.wrapper.server.ConnectionManager;
+import com.jmr.wrapper.common.utils.ThreadUtils;
+import com.jmr.wrapper.encryption.ICipher;
+import com.jmr.wrapper.encryption.KeyExchange;
 
 /**
  * Networking Library
  * Connection.java
  * Purpose: Holds the TCP and UDP information on both the client and server side. It takes care
- * of sending packets and encrypting them. 
+ * of sending packets and encrypting them. TCP packets are queued and whichever thread gets the TCP lock writes every
+ * queued packet and flushes the stream once, so packets sent at the same time share a single write to the socket. Large
+ * files and input streams are sent as streams in chunks, without loading them into memory. Objects that have to arrive
+ * in order without going over TCP are sent on the reliable UDP channel, and states where only the newest one matters on
+ * sequenced UDP channels. UDP packets are paced for every connection so bursts don't overflow the other side.
  * 
  * @author Jon R (Baseball435)
  * @version 1.0 7/19/2014
@@ -25,18 +73,18 @@ import com.jmr.wrapper.server.ConnectionManager;
 
 public class Connection {
 
-	/** Counter used to set the id of connections. */
-	private static int counter = 0;
-	
-	/** The id of the connection. */
-	private final int id;
+	/** The id of the connection, given by the connection manager of its protocol. */
+	private volatile int id;
 	
 	/** The port to UDP connection. */
-	private int port = -1;
+	private volatile int port = -1;
 	
 	/** The InetAddress of the connection. */
 	private transient final InetAddress address;
 	
+	/** The address UDP packets are sent to. The TCP address unless the UDP endpoint was bound to another one. */
+	private transient volatile InetAddress udpAddress;
+	
 	/** Instance of the UDP socket. */
 	private transient DatagramSocket udpSocket;
 	
@@ -46,30 +94,170 @@ public class Connection {
 	/** Instance of the TCP Object Output Stream. */
 	private transient ObjectOutputStream tcpOut;
 	
+	/** The stream beneath the TCP Object Output Stream. Files sent as streams are written to it directly, in block data
+	 * the other side's Object Input Stream reads like any other. */
+	private transient OutputStream rawOut;
+	
+	/** Held while writing to the TCP stream. A lock instead of a monitor so that virtual threads aren't pinned while 
+	 * they wait on the socket. */
+	private final ReentrantLock tcpLock = new ReentrantLock();
+	
+	/** TCP packets waiting to be written. */
+	private final Queue<OutboundPacket> tcpQueue = new ConcurrentLinkedQueue<OutboundPacket>();
+	
+	/** The amount of bytes waiting in the TCP queue. */
+	private final AtomicInteger tcpQueueSize = new AtomicInteger();
+	
+	/** The amount of bytes written to the TCP stream that the socket hasn't taken yet. */
+	private final AtomicInteger unsentBytes = new AtomicInteger();
+	
+	/** Whether less TCP data than the high water mark is waiting to be written. */
+	private final AtomicBoolean writable = new AtomicBoolean(true);
+	
+	/** Whether writing to the TCP stream can block, in which case asynchronous sends are written by another thread. */
+	private final boolean blockingOut;
+	
+	/** Whether the TCP queue is already waiting for the flush delay to pass. */
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	
+	/** Writes the TCP queue once the flush delay passed. */
+	private final Runnable flushTask = new TcpFlushThread(this);
+	
 	/** The amount of UDP packets received that were corrupted. */
 	private int packetsLost = 0;
 	
 	/** Instance of the protocol. */
 	private IProtocol protocol;
 	
+	/** Whether TCP packets are written in the compact framing. Only changed while holding the TCP lock. */
+	private volatile boolean compactTcpOut = false;
+	
+	/** Whether TCP packets are read in the compact framing. */
+	private volatile boolean compactTcpIn = false;
+	
+	/** Whether UDP packets are written in the compact framing. */
+	private volatile boolean compactUdp = false;
+	
+	/** The codec agreed on while connecting. Only used for compact packets. */
+	private volatile Codec codec = SerializationCodec.INSTANCE;
+	
+	/** Whether the other side reads the checksum flags of compact packets, agreed on while connecting. */
+	private volatile boolean checksumFlags = false;
+	
+	/** Whether the other side reads compressed packets, agreed on while connecting. */
+	private volatile boolean compression = false;
+	
+	/** Whether the other side has the same compression dictionary, agreed on while connecting. */
+	private volatile boolean dictionaryShared = false;
+	
+	/** Whether the other side reads stream packets, agreed on while connecting. */
+	private volatile boolean streams = false;
+	
+	/** Whether the other side reads reliable UDP packets, agreed on while connecting. */
+	private volatile boolean reliableUdp = false;
+	
+	/** The reliable UDP channel of the connection, created once it's needed. */
+	private ReliableChannel reliableChannel;
+	
+	/** Whether the other side reads sequenced UDP packets, agreed on while connecting. */
+	private volatile boolean sequencedUdp = false;
+	
+	/** The sequenced UDP channels of the connection, created once they're needed. */
+	private SequencedChannels sequencedChannels;
+	
+	/** The pacer of the UDP packets sent to the connection, created once it's needed. */
+	private UdpPacer pacer;
+	
+	/** Whether the other side reads the parity pieces of complex objects, agreed on while connecting. */
+	private volatile boolean parity = false;
+	
+	/** Whether the other side reads control packets, agreed on while connecting. */
+	private volatile boolean control = false;
+	
+	/** The session token binding the connection's UDP endpoint to it, or 0 if it has none. */
+	private volatile long udpToken = 0;
+	
+	/** Whether the UDP endpoint was bound with the session token. */
+	private volatile boolean udpBound = false;
+	
+	/** Whether the other side pings the connection when it has nothing else to send, agreed on while connecting. */
+	private volatile boolean heartbeats = false;
+	
+	/** Whether the other side answers requests, agreed on while connecting. */
+	private volatile boolean requests = false;
+	
+	/** Whether the other side reads complex pieces holding the id of their object, agreed on while connecting. */
+	private volatile boolean complexIds = false;
+	
+	/** The session ciphers of TCP and UDP packets, set once both sides agreed on session keys, or null. */
+	private volatile ICipher tcpCipher, udpCipher;
+	
+	/** The key pair sent in the handshake until the other side's answer gave the session keys, or null. */
+	private volatile KeyExchange keyExchange;
+	
+	/** The time in nanoseconds something was last received from the other side. */
+	private volatile long lastRead = System.nanoTime();
+	
+	/** The time in nanoseconds a TCP packet was last queued. */
+	private volatile long lastWrite = System.nanoTime();
+	
+	/** The Deflate stream of the connection, created once it's needed. */
+	private DeflateStream deflateStream;
+	
+	/** The listener calls of the connection waiting to be run one at a time, created once they're needed. */
+	private Mailbox mailbox;
+	
 	/** Creates a new connection.
 	 * @param port Instance of the UDP port.
 	 * @param socket Instance of the TCP socket.
 	 * @param udpSocket Instance of the UDP socket.
 	 */
 	public Connection(int port, Socket socket, DatagramSocket udpSocket) {
+		this(port, socket, udpSocket, null, null);
+	}
+	
+	/** Creates a new connection that writes its TCP data to the given stream instead of the socket's own stream. Used
+	 * by the selector engine where the socket is non-blocking and the data is queued on an event loop.
+	 * @param port Instance of the UDP port.
+	 * @param socket Instance of the TCP socket.
+	 * @param udpSocket Instance of the UDP socket.
+	 * @param out The stream to write TCP data to, or null to use the socket's stream.
+	 */
+	public Connection(int port, Socket socket, DatagramSocket udpSocket, OutputStream out) {
+		this(port, socket, udpSocket, out, null);
+	}
+	
+	/** Creates a new connection using the socket settings of the configuration.
+	 * @param port Instance of the UDP port.
+	 * @param socket Instance of the TCP socket.
+	 * @param udpSocket Instance of the UDP socket.
+	 * @param out The stream to write TCP data to, or null to use the socket's stream.
+	 * @param config The configuration settings, or null to use the default ones.
+	 */
+	public Connection(int port, Socket socket, DatagramSocket udpSocket, OutputStream out, Config config) {
 		this.port = port;
 		this.socket = socket;
 		this.udpSocket = udpSocket;
 		address = socket.getInetAddress();
+		udpAddress = address;
+		if (config == null)
+			config = new Config();
+		blockingOut = out == null;
 
 		try {
 			socket.setSoLinger(true, 0);
-			tcpOut = new ObjectOutputStream(socket.getOutputStream());
+			socket.setTcpNoDelay(config.TCP_NO_DELAY);
+			if (out == null) { //Collects the queued packets so they are written to the socket at once
+				rawOut = new BufferedOutputStream(socket.getOutputStream(), Math.max(config.TCP_FLUSH_SIZE, 1024));
+				tcpOut = new ObjectOutputStream(rawOut);
+				tcpOut.flush(); //Sends the stream header
+			} else {
+				rawOut = out;
+				tcpOut = new ObjectOutputStream(out);
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		id = ++counter;
 	}	
 	
 	/** @return The address to the connection. */
@@ -91,7 +279,21 @@ public class Connection {
 	 * @param port The UDP port.
 	 */
 	public void setUdpPort(int port) {
+		setUdpEndpoint(udpAddress, port);
+	}
+	
+	/** Sets the address and port UDP packets are sent to and come from, such as after the other side's NAT gave it a new 
+	 * one.
+	 * @param address The address.
+	 * @param port The UDP port.
+	 */
+	public void setUdpEndpoint(InetAddress address, int port) {
+		InetAddress oldAddress = udpAddress;
+		int oldPort = this.port;
+		udpAddress = address;
 		this.port = port;
+		if ((oldPort != port || !oldAddress.equals(address)) && protocol != null)
+			protocol.getConnectionManager().udpEndpointChanged(this, oldAddress, oldPort);
 	}
 	
 	/** @return The port UDP is bound to. */
@@ -99,6 +301,11 @@ public class Connection {
 		return port;
 	}
 	
+	/** @return The address UDP packets are sent to. */
+	public InetAddress getUdpAddress() {
+		return udpAddress;
+	}
+	
 	public boolean isConnected() {
 		return udpSocket != null && socket != null && socket.isConnected() && socket.isBound() && !socket.isClosed();
 	}
@@ -107,69 +314,822 @@ public class Connection {
 	 * @param object The object to send.
 	 */
 	public void sendUdp(Object object) {
+		sendUdp(object, null);
+	}
+	
+	/** Sends a broadcast object over the UDP socket, using the packet already encoded for the same framing and codec.
+	 * @param broadcast The broadcast.
+	 */
+	public void sendUdp(BroadcastPacket broadcast) {
+		sendUdp(broadcast.getObject(), broadcast);
+	}
+	
+	/** Sends an object over the UDP socket.
+	 * @param object The object to send.
+	 * @param broadcast The broadcast the object is part of, or null.
+	 */
+	private void sendUdp(Object object, BroadcastPacket broadcast) {
+		PacketBuffer packet;
 		try {
-			ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
-			ObjectOutputStream objOut = new ObjectOutputStream(byteOutStream);
-			objOut.writeObject(object);
-			byte[] data = PacketUtils.getByteArray(protocol, byteOutStream);
-
-			DatagramPacket sendPacket = new DatagramPacket(data, data.length, address, port);
-			udpSocket.send(sendPacket);
-			objOut.flush();
-			byteOutStream.flush();
-			objOut.close();
-			byteOutStream.close();
+			packet = getPacket(compactUdp, false, object, broadcast);
 		} catch (IOException e) {
-			if (protocol.getListener() != null && protocol.getListener() instanceof SocketListener)
-				((SocketListener)protocol.getListener()).disconnected(this);
-			ConnectionManager.getInstance().close(this);
-			e.printStackTrace();
+			udpFailed(e);
+			return;
+		}
+		sendDatagram(packet, false);
+	}
+	
+	/** Sends an object over UDP so that it arrives, in the order it was sent, on the connection's reliable channel. Falls
+	 * back to TCP if the other side doesn't read reliable UDP packets.
+	 * @param object The object to send. Has to fit in a single packet.
+	 * @return A future completed once the other side acknowledged the object. Completed exceptionally if the object
+	 * couldn't be encoded, is too large for a packet or the connection was closed first.
+	 */
+	public CompletableFuture<Void> sendReliableUdp(Object object) {
+		if (!compactUdp || !reliableUdp)
+			return sendTcpAsync(object);
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		if (socket == null) { //Closed, so no channel is created for it
+			future.completeExceptionally(new NNPacketDropped("The connection was closed."));
+			return future;
+		}
+		try {
+			Codec codec = getCodec(true);
+			PooledOutputStream stream = codec.encode(protocol, object);
+			getReliableChannel().send(stream.getBuffer(), stream.size(), (byte) (FrameUtils.getFlags(codec) | getCompressionFlags(true)), future);
+		} catch (IOException | RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
+	/** Sends an object over UDP on a sequenced channel. The other side drops it if it already received a newer object on
+	 * the same channel, so only the newest state is ever passed to its listener. Nothing is sent again if it's lost. Sent 
+	 * like any other UDP object if the other side doesn't read sequenced packets.
+	 * @param channel The number of the channel, from 0 to 255.
+	 * @param object The object to send. Has to fit in a single packet.
+	 */
+	public void sendSequencedUdp(int channel, Object object) {
+		if (!compactUdp || !sequencedUdp) {
+			sendUdp(object);
+			return;
+		}
+		try {
+			Codec codec = getCodec(true);
+			PooledOutputStream stream = codec.encode(protocol, object);
+			byte flags = (byte) (FrameUtils.getFlags(codec) | getCompressionFlags(true) | FrameUtils.getChecksumFlags(protocol, this, false));
+			getSequencedChannels().send(channel, stream.getBuffer(), stream.size(), flags);
+		} catch (IOException e) {
+			udpFailed(e);
 		}
 	}
 	
+	/** Sends an object over UDP on the first sequenced channel.
+	 * @param object The object to send. Has to fit in a single packet.
+	 */
+	public void sendSequencedUdp(Object object) {
+		sendSequencedUdp(0, object);
+	}
+	
+	/** Sends a packet over the UDP socket, paced by the connection's pacer unless pacing is turned off.
+	 * @param packet The packet. It's released once it's sent.
+	 * @param urgent Whether it's sent before the packets already waiting.
+	 */
+	public void sendDatagram(PacketBuffer packet, boolean urgent) {
+		if (protocol.getConfig().UDP_PACING) {
+			getUdpPacer().send(packet, urgent);
+			return;
+		}
+		try {
+			writeDatagram(packet);
+		} catch (IOException e) {
+			udpFailed(e);
+		} finally {
+			packet.release();
+		}
+	}
+	
+	/** Writes a packet to the UDP socket right away. Used by the pacer.
+	 * @param packet The packet.
+	 * @throws IOException Thrown when the UDP socket failed.
+	 */
+	public void writeDatagram(PacketBuffer packet) throws IOException {
+		ICipher cipher = udpCipher;
+		if (cipher == null || !FrameUtils.isFrame(packet.getData(), packet.getLength()) || packet.getData()[4] == FrameUtils.TYPE_CONTROL) {
+			udpSocket.send(new DatagramPacket(packet.getData(), packet.getLength(), udpAddress, port));
+			return;
+		}
+		PacketBuffer sealed = encrypt(cipher, packet); //Encrypted every time it's written so a packet sent again gets a new sequence
+		try {
+			udpSocket.send(new DatagramPacket(sealed.getData(), sealed.getLength(), udpAddress, port));
+		} finally {
+			sealed.release();
+		}
+	}
+	
+	/** Encrypts a compact packet with a session cipher.
+	 * @param cipher The cipher.
+	 * @param packet The packet. It's left as it is.
+	 * @return The encrypted packet. Has to be released once it's written.
+	 * @throws IOException Thrown when it can't be encrypted.
+	 */
+	private PacketBuffer encrypt(ICipher cipher, PacketBuffer packet) throws IOException {
+		try {
+			return FrameUtils.encrypt(protocol, cipher, packet);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("A packet couldn't be encrypted.", e);
+		}
+	}
+	
+	/** Closes the connection after the UDP socket failed.
+	 * @param e Why it failed.
+	 */
+	public void udpFailed(IOException e) {
+		protocol.getConnectionManager().close(this); //The read thread reports the disconnect
+		e.printStackTrace();
+	}
+	
 	/** Sends an object over the TCP socket.
 	 * @param object The object to send.
 	 */	
 	public void sendTcp(Object object) {
+		sendTcp(object, null);
+	}
+	
+	/** Sends a broadcast object over the TCP socket, using the packet already encoded for the same framing and codec.
+	 * @param broadcast The broadcast.
+	 */
+	public void sendTcp(BroadcastPacket broadcast) {
+		sendTcp(broadcast.getObject(), broadcast);
+	}
+	
+	/** Sends an object over the TCP socket.
+	 * @param object The object to send.
+	 * @param broadcast The broadcast the object is part of, or null.
+	 */
+	private void sendTcp(Object object, BroadcastPacket broadcast) {
+		OutboundPacket packet = new OutboundPacket(object, broadcast, null, null);
+		try {
+			packet.encode(compactTcpOut);
+		} catch (IOException e) {
+			tcpFailed(e);
+			return;
+		}
+		if (queueTcp(packet))
+			startFlush(true, false);
+	}
+	
+	/** Sends an object over the TCP socket without waiting for it to be written. The object is encoded right away and 
+	 * written by another thread, so a slow connection never holds up the caller.
+	 * @param object The object to send.
+	 * @return A future completed once the object was written to the socket, or handed to the event loop when the 
+	 * selector engine is used. Completed exceptionally if the object couldn't be encoded, was dropped by the slow 
+	 * consumer policy or the connection failed.
+	 */
+	public CompletableFuture<Void> sendTcpAsync(Object object) {
+		return sendTcpAsync(object, null);
+	}
+	
+	/** Sends a broadcast object over the TCP socket without waiting for it to be written.
+	 * @param broadcast The broadcast.
+	 * @return A future completed once the object was written.
+	 */
+	public CompletableFuture<Void> sendTcpAsync(BroadcastPacket broadcast) {
+		return sendTcpAsync(broadcast.getObject(), broadcast);
+	}
+	
+	/** Sends an object over the TCP socket without waiting for it to be written.
+	 * @param object The object to send.
+	 * @param broadcast The broadcast the object is part of, or null.
+	 * @return A future completed once the object was written.
+	 */
+	private CompletableFuture<Void> sendTcpAsync(Object object, BroadcastPacket broadcast) {
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		OutboundPacket packet = new OutboundPacket(object, broadcast, null, future);
+		try {
+			packet.encode(compactTcpOut);
+		} catch (IOException | RuntimeException e) {
+			future.completeExceptionally(e);
+			return future;
+		}
+		if (queueTcp(packet))
+			startFlush(true, true);
+		return future;
+	}
+	
+	/** Queues a piece of a complex object to be written over TCP with the next flush.
+	 * @param piece The piece.
+	 */
+	public void queueTcp(ComplexPiece piece) {
+		OutboundPacket packet = new OutboundPacket(null, null, piece, null);
+		try {
+			packet.encode(compactTcpOut);
+		} catch (IOException e) {
+			tcpFailed(e);
+			return;
+		}
+		if (queueTcp(packet))
+			startFlush(false, false);
+	}
+	
+	/** Queues a TCP packet, using the slow consumer policy if too much data is waiting to be written already.
+	 * @param packet The packet.
+	 * @return Whether the packet was queued.
+	 */
+	private boolean queueTcp(OutboundPacket packet) {
+		if (socket == null) {
+			packet.drop("The connection was closed.");
+			return false;
+		}
+		Config config = protocol.getConfig();
+		if (packet.piece == null && packet.control == null && getTcpQueueSize() + packet.length > config.TCP_HIGH_WATER_MARK) {
+			switch (config.SLOW_CONSUMER_POLICY) {
+			case DROP_NEWEST:
+				packet.drop("Too much data is waiting to be written.");
+				setWritable(false);
+				return false;
+			case DROP_OLDEST:
+				dropOldest(config.TCP_HIGH_WATER_MARK - packet.length);
+				if (getTcpQueueSize() + packet.length > config.TCP_HIGH_WATER_MARK) {
+					packet.drop("Too much data is waiting to be written.");
+					setWritable(false);
+					return false;
+				}
+				break;
+			case DISCONNECT:
+				packet.drop("The connection was closed for reading too slowly.");
+				protocol.getConnectionManager().close(this); //The read thread reports the disconnect
+				return false;
+			default:
+				break;
+			}
+		}
+		tcpQueue.add(packet);
+		tcpQueueSize.addAndGet(packet.length);
+		lastWrite = System.nanoTime();
+		updateWritable();
+		return true;
+	}
+	
+	/** Drops queued packets that weren't written yet, oldest first, until few enough bytes are waiting.
+	 * @param size The amount of bytes that may be waiting.
+	 */
+	private void dropOldest(int size) {
+		for (OutboundPacket packet : tcpQueue) {
+			if (getTcpQueueSize() <= size)
+				return;
+			if (packet.piece == null && packet.control == null && tcpQueue.remove(packet)) { //Not taken by the writer in the meantime
+				tcpQueueSize.addAndGet(-packet.length);
+				packet.drop("Too much data is waiting to be written.");
+			}
+		}
+	}
+	
+	/** Starts writing the queue once a packet was queued. The queue is written right away once it holds enough bytes,
+	 * otherwise after the flush delay if one is set.
+	 * @param flush Whether the packet should be sent without waiting for more packets to be queued.
+	 * @param async Whether the calling thread must not wait for the socket.
+	 */
+	private void startFlush(boolean flush, boolean async) {
+		Config config = protocol.getConfig();
+		if (tcpQueueSize.get() >= config.TCP_FLUSH_SIZE || (flush && config.TCP_FLUSH_DELAY <= 0)) {
+			if (!async || !blockingOut)
+				flushTcp();
+			else if (flushScheduled.compareAndSet(false, true))
+				protocol.executeThread(flushTask);
+		} else if (flush && flushScheduled.compareAndSet(false, true)) {
+			ThreadUtils.schedule(protocol, flushTask, config.TCP_FLUSH_DELAY);
+		}
+	}
+	
+	/** Writes all of the queued TCP packets and flushes the stream. If another thread is writing it writes the packets
+	 * instead once it's done, so this doesn't wait for it. */
+	public void flushTcp() {
+		flushScheduled.set(false);
+		while (!tcpQueue.isEmpty()) {
+			if (!tcpLock.tryLock())
+				return; //Checks the queue again after unlocking
+			List<CompletableFuture<Void>> written = new ArrayList<CompletableFuture<Void>>();
+			try {
+				writeQueue(written);
+				tcpOut.flush();
+			} catch (IOException e) {
+				fail(written, e);
+				releaseQueue(e);
+				tcpFailed(e);
+				return;
+			} finally {
+				tcpLock.unlock();
+			}
+			complete(written);
+			updateWritable();
+		}
+	}
+	
+	/** Writes the queued TCP packets to the stream without flushing it. The TCP lock must be held.
+	 * @param written The list the futures of the written packets are added to.
+	 * @throws IOException Thrown when the stream is closed.
+	 */
+	private void writeQueue(List<CompletableFuture<Void>> written) throws IOException {
+		OutboundPacket packet;
+		while ((packet = tcpQueue.poll()) != null) {
+			tcpQueueSize.addAndGet(-packet.length);
+			try {
+				if (packet.compact != compactTcpOut) //Framing changed while the packet was queued
+					packet.encode(compactTcpOut);
+				if (packet.streamed)
+					packet.compressStream();
+				if (packet.compact && tcpCipher != null)
+					writeEncrypted(packet.buffer);
+				else
+					tcpOut.write(packet.buffer.getData(), 0, packet.buffer.getLength());
+			} catch (IOException e) {
+				if (packet.future != null)
+					packet.future.completeExceptionally(e);
+				throw e;
+			} finally {
+				packet.release();
+			}
+			if (packet.future != null)
+				written.add(packet.future);
+		}
+	}
+	
+	/** Encrypts a compact packet with the TCP session cipher and writes it. The TCP lock must be held, so packets are
+	 * encrypted in the order they're read.
+	 * @param packet The packet. It's left as it is.
+	 * @throws IOException Thrown when the stream is closed or the packet can't be encrypted.
+	 */
+	private void writeEncrypted(PacketBuffer packet) throws IOException {
+		PacketBuffer sealed = encrypt(tcpCipher, packet);
+		try {
+			tcpOut.write(sealed.getData(), 0, sealed.getLength());
+		} finally {
+			sealed.release();
+		}
+	}
+	
+	/** Completes the futures of packets that were written and flushed.
+	 * @param written The futures.
+	 */
+	private void complete(List<CompletableFuture<Void>> written) {
+		for (CompletableFuture<Void> future : written)
+			future.complete(null);
+	}
+	
+	/** Completes the futures of packets that were written but couldn't be flushed.
+	 * @param written The futures.
+	 * @param cause The exception thrown while flushing.
+	 */
+	private void fail(List<CompletableFuture<Void>> written, IOException cause) {
+		for (CompletableFuture<Void> future : written)
+			future.completeExceptionally(cause);
+	}
+	
+	/** Drops the queued TCP packets.
+	 * @param cause Why they are dropped.
+	 */
+	private void releaseQueue(IOException cause) {
+		OutboundPacket packet;
+		while ((packet = tcpQueue.poll()) != null) {
+			tcpQueueSize.addAndGet(-packet.length);
+			packet.release();
+			if (packet.future != null)
+				packet.future.completeExceptionally(cause);
+		}
+	}
+	
+	/** Adds to the amount of bytes written to the TCP stream that the socket hasn't taken yet. Used by streams that 
+	 * never block, which hold the data until the socket takes it.
+	 * @param bytes The amount of bytes added, or a negative amount once they were sent.
+	 */
+	public void addUnsentBytes(int bytes) {
+		unsentBytes.addAndGet(bytes);
+		updateWritable();
+	}
+	
+	/** Checks whether the connection went past one of the water marks. */
+	private void updateWritable() {
+		if (protocol == null)
+			return;
+		Config config = protocol.getConfig();
+		int size = getTcpQueueSize();
+		if (size > config.TCP_HIGH_WATER_MARK)
+			setWritable(false);
+		else if (size <= config.TCP_LOW_WATER_MARK)
+			setWritable(true);
+	}
+	
+	/** Changes whether the connection is writable and tells the listener if it did.
+	 * @param writable Whether the connection is writable.
+	 */
+	private void setWritable(boolean writable) {
+		if (this.writable.compareAndSet(!writable, writable))
+			protocol.executeThread(new WritabilityChangedThread(protocol.getListener(), this, writable));
+	}
+	
+	/** Closes the connection after writing to the TCP stream failed.
+	 * @param e The exception thrown.
+	 */
+	private void tcpFailed(IOException e) {
+		if (socket == null) //Closed already, the read thread reports the disconnect
+			return;
+		e.printStackTrace();
+		protocol.getConnectionManager().close(this); //The read thread reports the disconnect
+	}
+	
+	/** Sends a handshake over TCP. Handshakes are always sent in the original framing so older versions can read them.
+	 * @param message The string older versions see.
+	 * @param kind The kind of handshake.
+	 * @param compactAfter Whether to send all following TCP packets in the compact framing.
+	 */
+	public void sendHandshake(String message, byte kind, boolean compactAfter) {
 		try {
-			ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
-			ObjectOutputStream objOut = new ObjectOutputStream(byteOutStream);
-			objOut.writeObject(object);
-			byte[] data = PacketUtils.getByteArray(protocol, byteOutStream);
-			objOut.close();
-			byteOutStream.close();
-			synchronized(tcpOut) {
+			Codec offered = kind != FrameUtils.HANDSHAKE_ACK && protocol.getCodec().getId() != SerializationCodec.ID ? protocol.getCodec() : null;
+			if (kind == FrameUtils.HANDSHAKE_OFFER && FrameUtils.isSessionEnabled(protocol))
+				keyExchange = createKeyExchange();
+			KeyExchange keys = kind != FrameUtils.HANDSHAKE_ACK ? keyExchange : null;
+			byte[] data = PacketUtils.getByteArray(protocol, FrameUtils.addHandshake(serialize(message), kind, FrameUtils.HANDSHAKE_SUPPORTED, offered, protocol.getConfig().COMPRESSION_DICTIONARY, keys));
+			List<CompletableFuture<Void>> written = new ArrayList<CompletableFuture<Void>>();
+			tcpLock.lock();
+			try {
+				writeQueue(written); //Packets queued before the handshake go first
 				tcpOut.write(data);
 				tcpOut.flush();
+				if (compactAfter)
+					compactTcpOut = true;
+			} catch (IOException e) {
+				fail(written, e);
+				throw e;
+			} finally {
+				tcpLock.unlock();
 			}
+			complete(written);
+			flushTcp();
 		} catch (IOException e) {
 			e.printStackTrace();
-			if (protocol.getListener() != null && protocol.getListener() instanceof SocketListener)
-				((SocketListener)protocol.getListener()).disconnected(this);
-			ConnectionManager.getInstance().close(this);
+			protocol.getConnectionManager().close(this); //The read thread reports the disconnect
 		}
 	}
 	
-	/** Sends an object over TCP. Will automatically calculate the amount of splits needed.
-	 * @param object The object to send.
+	/** Creates the key pair the server offers for session keys.
+	 * @return The key pair, or null if the JDK doesn't have the curve.
 	 */
-	public void sendComplexObjectTcp(Object object) {
+	private KeyExchange createKeyExchange() {
+		try {
+			return new KeyExchange(protocol.getConfig().SESSION_CIPHER.orAvailable());
+		} catch (GeneralSecurityException e) {
+			System.out.println("Session keys can't be created: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	/** Sends a file as a stream, read in chunks so it's never loaded into memory. The other side's stream listener 
+	 * receives it. When nothing is encrypted and TCP packets have no checksum, the chunks are written in batches by 
+	 * transferStreamData instead of being built into packets one at a time. The file's bytes are still copied once.
+	 * @param file The file.
+	 * @param metadata The object the listener gets when the stream opens, such as the file's name, or null.
+	 * @return A future completed once the other side received the whole file. Completed exceptionally if the other 
+	 * side doesn't support streams or refused the file, or the file or the connection failed. Cancelling it stops the
+	 * stream.
+	 */
+	public CompletableFuture<Void> sendStream(Path file, Object metadata) {
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			return sendStream(new OutgoingStream(channel, metadata));
+		} catch (IOException e) {
+			try {
+				if (channel != null)
+					channel.close();
+			} catch (IOException e1) {
+				//already closed
+			}
+			CompletableFuture<Void> future = new CompletableFuture<Void>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
+	
+	/** Sends everything until an input stream ends as a stream. The input stream is closed once it's sent.
+	 * @param in The input stream.
+	 * @param metadata The object the listener gets when the stream opens, or null.
+	 * @return A future completed once the other side received the whole stream.
+	 */
+	public CompletableFuture<Void> sendStream(InputStream in, Object metadata) {
+		return sendStream(in, -1, metadata);
+	}
+	
+	/** Sends an amount of bytes of an input stream as a stream. The input stream is closed once it's sent.
+	 * @param in The input stream.
+	 * @param length The amount of bytes, or -1 to send everything until the input stream ends.
+	 * @param metadata The object the listener gets when the stream opens, or null.
+	 * @return A future completed once the other side received the whole stream.
+	 */
+	public CompletableFuture<Void> sendStream(InputStream in, long length, Object metadata) {
+		return sendStream(new OutgoingStream(in, length, metadata));
+	}
+	
+	/** Starts sending a stream on another thread.
+	 * @param stream The stream.
+	 * @return A future completed once the other side received the whole stream.
+	 */
+	private CompletableFuture<Void> sendStream(OutgoingStream stream) {
+		if (!compactTcpOut || !streams) {
+			stream.close();
+			stream.getFuture().completeExceptionally(new IOException("The other side doesn't support streams."));
+			return stream.getFuture();
+		}
+		protocol.getStreamManager().add(this, stream);
+		protocol.executeThread(new StreamSendThread(this, stream));
+		return stream.getFuture();
+	}
+	
+	/** Queues a stream packet that doesn't hold bytes of the stream, such as opening or acknowledging it. It skips the 
+	 * slow consumer policy since streams stop on their own when the other side falls behind.
+	 * @param payload The packet.
+	 * @param flags The flags of the packet, saying which codec its object was encoded with.
+	 * @throws IOException Thrown when the packet doesn't fit in a packet or the connection was closed.
+	 */
+	public void queueStreamPacket(byte[] payload, byte flags) throws IOException {
+		queuePacket(FrameUtils.TYPE_STREAM, payload, flags);
+	}
+	
+	/** Sends a request and returns right away, so any amount of requests can wait for their responses at the same time.
+	 * Waits for the response for the configured request timeout.
+	 * @param request The request. It has to fit in a single packet, like its response.
+	 * @return A future completed with the response.
+	 */
+	public CompletableFuture<Object> request(Object request) {
+		return request(request, protocol.getConfig().REQUEST_TIMEOUT);
+	}
+	
+	/** Sends a request and returns right away, so any amount of requests can wait for their responses at the same time.
+	 * The other side answers it with the responder registered for its class. Only works once connected to a side that
+	 * answers requests.
+	 * @param request The request. It has to fit in a single packet, like its response.
+	 * @param timeout The milliseconds to wait for the response, or 0 to wait until the connection is closed.
+	 * @return A future completed with the response on the thread reading the connection, so its callbacks shouldn't
+	 * block. It fails with an NNRequestFailed when the request couldn't be answered or the connection closed first, and
+	 * with a TimeoutException once the timeout passed.
+	 */
+	public CompletableFuture<Object> request(Object request, long timeout) {
+		if (!compactTcpOut || !requests) {
+			CompletableFuture<Object> future = new CompletableFuture<Object>();
+			future.completeExceptionally(new NNRequestFailed("The other side doesn't answer requests."));
+			return future;
+		}
+		return protocol.getRequestManager().request(this, request, timeout);
+	}
+	
+	/** Queues a request packet, holding a request or its response. It skips the slow consumer policy like stream packets
+	 * since the request would otherwise fail without the other side knowing.
+	 * @param payload The packet.
+	 * @param flags The flags of the packet, saying which codec its object was encoded with.
+	 * @throws IOException Thrown when the packet doesn't fit in a packet or the connection was closed.
+	 */
+	public void queueRequestPacket(byte[] payload, byte flags) throws IOException {
+		queuePacket(FrameUtils.TYPE_REQUEST, payload, flags);
+	}
+	
+	/** Queues a packet of the library, skipping the slow consumer policy.
+	 * @param type The type of the packet.
+	 * @param payload The packet.
+	 * @param flags The flags of the packet.
+	 * @throws IOException Thrown when the packet doesn't fit in a packet or the connection was closed.
+	 */
+	private void queuePacket(byte type, byte[] payload, byte flags) throws IOException {
+		OutboundPacket packet = new OutboundPacket(type, payload, flags);
+		try {
+			packet.encode(compactTcpOut);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("The " + (type == FrameUtils.TYPE_STREAM ? "stream" : "request") + " packet doesn't fit in a packet.", e);
+		}
+		if (!queueTcp(packet))
+			throw new NNPacketDropped("The connection was closed.");
+		startFlush(true, true);
+	}
+	
+	/** Sends a control packet over TCP, such as a ping. Only used once the other side reads control packets. Skips the
+	 * slow consumer policy like stream packets.
+	 * @param payload The opcode followed by its data.
+	 */
+	public void sendControlTcp(byte[] payload) {
+		OutboundPacket packet = new OutboundPacket(FrameUtils.TYPE_CONTROL, payload, (byte) 0);
 		try {
-			ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
-			ObjectOutputStream objOut = new ObjectOutputStream(byteOutStream);
-			objOut.writeObject(object);
-			byte[] checksum = PacketUtils.getChecksumOfObject(byteOutStream.toByteArray()).getBytes();
-			byte[] data =  PacketUtils.getCompressedByteArray(protocol, byteOutStream);
-			objOut.flush();
-			objOut.close();
-			byteOutStream.close();
-			new ComplexObject(data, checksum, protocol, PacketUtils.calculateSplitAmount(data.length, checksum.length + 12, protocol.getConfig().PACKET_BUFFER_SIZE)).sendTcp(tcpOut);
+			packet.encode(compactTcpOut);
 		} catch (IOException e) {
 			e.printStackTrace();
-			if (protocol.getListener() != null)
-				protocol.getListener().disconnected(this);
-			ConnectionManager.getInstance().close(this);
+			return;
+		}
+		if (queueTcp(packet))
+			startFlush(true, true);
+	}
+	
+	/** Pings the other side over TCP without waiting for the ping to be written, so it knows the connection is still
+	 * there. Sides that read control packets get a single byte, older ones a string. */
+	public void sendHeartbeat() {
+		if (control)
+			sendControlTcp(ControlUtils.getPacket(ControlUtils.PING));
+		else
+			sendTcpAsync("TestAlivePing");
+	}
+	
+	/** Sends a control packet over UDP, such as the session token binding the UDP endpoint. Sent before other UDP packets.
+	 * @param payload The opcode followed by its data.
+	 */
+	public void sendControlUdp(byte[] payload) {
+		ICipher cipher = udpCipher;
+		if (cipher != null) { //Only authenticated, the server needs the token to know which connection's cipher to use
+			try {
+				sendDatagram(FrameUtils.getAuthenticatedFrame(protocol, cipher, FrameUtils.TYPE_CONTROL, payload), true);
+			} catch (GeneralSecurityException e) {
+				udpFailed(new IOException("A control packet couldn't be authenticated.", e));
+			}
+			return;
+		}
+		byte flags = FrameUtils.getChecksumFlags(protocol, this, false);
+		sendDatagram(FrameUtils.getFrame(protocol, FrameUtils.TYPE_CONTROL, payload, payload.length, flags, FrameUtils.getChecksum(payload, 0, payload.length, flags)), true);
+	}
+	
+	/** Writes bytes of a stream in as many packets as needed and flushes them once. Queued packets are written first.
+	 * @param id The id of the stream.
+	 * @param position The position of the bytes in the stream.
+	 * @param data The array holding the bytes.
+	 * @param length The amount of bytes.
+	 * @throws IOException Thrown when the connection failed, which closes it.
+	 */
+	public void writeStreamData(int id, long position, byte[] data, int length) throws IOException {
+		int chunk = getStreamChunkSize();
+		byte flags = FrameUtils.getChecksumFlags(protocol, this, true);
+		List<CompletableFuture<Void>> written = new ArrayList<CompletableFuture<Void>>();
+		tcpLock.lock();
+		try {
+			writeQueue(written);
+			for (int offset = 0; offset < length; offset += chunk) {
+				int size = Math.min(chunk, length - offset);
+				PacketBuffer frame = getStreamFrame(id, position + offset, data, offset, size, flags);
+				try {
+					if (tcpCipher != null)
+						writeEncrypted(frame);
+					else
+						tcpOut.write(frame.getData(), 0, frame.getLength());
+				} finally {
+					frame.release();
+				}
+			}
+			tcpOut.flush();
+		} catch (IOException e) {
+			fail(written, e);
+			releaseQueue(e);
+			tcpFailed(e);
+			throw e;
+		} finally {
+			tcpLock.unlock();
+		}
+		complete(written);
+		flushTcp(); //Packets queued while the lock was held
+	}
+	
+	/** Creates a stream packet holding bytes of a stream.
+	 * @param id The id of the stream.
+	 * @param position The position of the bytes in the stream.
+	 * @param data The array holding the bytes.
+	 * @param offset The index of the bytes in the array.
+	 * @param length The amount of bytes.
+	 * @param flags The checksum flags of the packet.
+	 * @return The packet. Has to be released once it's written.
+	 */
+	private PacketBuffer getStreamFrame(int id, long position, byte[] data, int offset, int length, byte flags) {
+		int size = StreamManager.DATA_HEADER_SIZE + length;
+		if (protocol.getEncryptionMethod() != null) {
+			byte[] payload = new byte[size];
+			StreamManager.writeHeader(payload, 0, StreamManager.DATA, id, position);
+			System.arraycopy(data, offset, payload, StreamManager.DATA_HEADER_SIZE, length);
+			return FrameUtils.getFrame(protocol, FrameUtils.TYPE_STREAM, payload, size, flags, FrameUtils.getChecksum(payload, 0, size, flags));
 		}
+		PacketBuffer frame = FrameUtils.createFrame(protocol, FrameUtils.TYPE_STREAM, size, flags, 0);
+		byte[] buffer = frame.getData();
+		StreamManager.writeHeader(buffer, FrameUtils.HEADER_SIZE, StreamManager.DATA, id, position);
+		System.arraycopy(data, offset, buffer, FrameUtils.HEADER_SIZE + StreamManager.DATA_HEADER_SIZE, length);
+		FrameUtils.writeInt(buffer, 6, FrameUtils.getChecksum(buffer, FrameUtils.HEADER_SIZE, size, flags));
+		return frame;
+	}
+	
+	/** Writes bytes of a file as a stream. Every chunk is written as its own block of data beneath the TCP Object Output
+	 * Stream, the block and packet headers followed by the file's bytes. The bytes are read from the file at once and 
+	 * written together with every chunk's headers: in a single gathering write when the socket has a blocking channel,
+	 * otherwise through the stream the connection writes to. Only used when isStreamTransferSupported. Zero-copy with
+	 * FileChannel.transferTo was dropped: every chunk has to fit in the other side's PACKET_BUFFER_SIZE and carry its own
+	 * headers, so it would cost two system calls for every packet, which is slower than copying the batch once.
+	 * @param id The id of the stream.
+	 * @param position The position of the bytes in the file.
+	 * @param file The file.
+	 * @param length The amount of bytes, which the file must have.
+	 * @throws IOException Thrown when the connection or the file failed, which closes the connection.
+	 */
+	public void transferStreamData(int id, long position, FileChannel file, int length) throws IOException {
+		int chunk = getStreamChunkSize();
+		int headerSize = 5 + FrameUtils.HEADER_SIZE + StreamManager.DATA_HEADER_SIZE;
+		byte flags = FrameUtils.getChecksumFlags(protocol, this, true);
+		List<CompletableFuture<Void>> written = new ArrayList<CompletableFuture<Void>>();
+		tcpLock.lock();
+		try {
+			writeQueue(written);
+			tcpOut.flush(); //Ends the current block so the file's blocks can follow
+			SocketChannel channel = socket != null ? socket.getChannel() : null;
+			boolean direct = channel != null && channel.isBlocking();
+			BufferPool pool = protocol.getBufferPool();
+			ByteBuffer data = direct ? pool.acquireDirect(length) : ByteBuffer.wrap(pool.acquire(length));
+			try {
+				boolean complete = read(file, position, data, length);
+				int count = (length + chunk - 1) / chunk;
+				byte[] headers = new byte[count * headerSize];
+				for (int i = 0; i < count; i++) {
+					int index = i * headerSize, size = Math.min(chunk, length - i * chunk);
+					headers[index] = ObjectStreamConstants.TC_BLOCKDATALONG;
+					FrameUtils.writeInt(headers, index + 1, FrameUtils.HEADER_SIZE + StreamManager.DATA_HEADER_SIZE + size);
+					FrameUtils.writeInt(headers, index + 5, StreamManager.DATA_HEADER_SIZE + size);
+					headers[index + 9] = FrameUtils.TYPE_STREAM;
+					headers[index + 10] = flags;
+					StreamManager.writeHeader(headers, index + 5 + FrameUtils.HEADER_SIZE, StreamManager.DATA, id, position + i * chunk);
+				}
+				if (direct) {
+					ByteBuffer[] buffers = new ByteBuffer[count * 2];
+					for (int i = 0; i < count; i++) {
+						buffers[i * 2] = ByteBuffer.wrap(headers, i * headerSize, headerSize);
+						ByteBuffer piece = data.duplicate();
+						piece.limit(Math.min(length, (i + 1) * chunk));
+						piece.position(i * chunk);
+						buffers[i * 2 + 1] = piece;
+					}
+					while (buffers[buffers.length - 1].hasRemaining())
+						channel.write(buffers);
+				} else {
+					for (int i = 0; i < count; i++) {
+						rawOut.write(headers, i * headerSize, headerSize);
+						rawOut.write(data.array(), i * chunk, Math.min(chunk, length - i * chunk));
+					}
+				}
+				if (!complete)
+					throw new IOException("The file got shorter while it was sent.");
+			} finally {
+				if (direct)
+					pool.releaseDirect(data);
+				else
+					pool.release(data.array());
+			}
+			tcpOut.flush();
+		} catch (IOException e) {
+			fail(written, e);
+			releaseQueue(e);
+			tcpFailed(e);
+			throw e;
+		} finally {
+			tcpLock.unlock();
+		}
+		complete(written);
+		flushTcp(); //Packets queued while the lock was held
+	}
+	
+	/** Reads bytes of a file into the start of a buffer. If the file got shorter the rest is filled with zeroes so the
+	 * blocks still have their size, and the connection is closed since the other side would receive them.
+	 * @param file The file.
+	 * @param position The position of the bytes in the file.
+	 * @param data The buffer.
+	 * @param length The amount of bytes.
+	 * @return Whether all of the bytes were read.
+	 * @throws IOException Thrown when the file can't be read.
+	 */
+	private static boolean read(FileChannel file, long position, ByteBuffer data, int length) throws IOException {
+		data.clear();
+		data.limit(length);
+		while (data.hasRemaining()) {
+			if (file.read(data, position + data.position()) < 0) {
+				while (data.hasRemaining())
+					data.put((byte) 0);
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/** @return The most bytes of a stream in one packet, so every packet fits in the other side's packet buffer. */
+	private int getStreamChunkSize() {
+		return protocol.getConfig().PACKET_BUFFER_SIZE - FrameUtils.HEADER_SIZE - StreamManager.DATA_HEADER_SIZE;
+	}
+	
+	/** @return Whether files sent as streams can be written from the file with transferStreamData, which needs their
+	 * bytes to be sent as they are: nothing is encrypted and TCP packets have no checksum. */
+	public boolean isStreamTransferSupported() {
+		return protocol.getEncryptionMethod() == null && tcpCipher == null && (FrameUtils.getChecksumFlags(protocol, this, true) & FrameUtils.FLAG_NO_CHECKSUM) != 0;
+	}
+	
+	/** Sends an object over TCP. Will automatically calculate the amount of splits needed.
+	 * @param object The object to send.
+	 */
+	public void sendComplexObjectTcp(Object object) {
+		sendComplexObjectTcp(object, 0);
 	}
 	
 	/** Sends an object over TCP by splitting it into separate packets.
@@ -178,20 +1138,13 @@ public class Connection {
 	 */
 	public void sendComplexObjectTcp(Object object, int splitAmount) {
 		try {
-			ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
-			ObjectOutputStream objOut = new ObjectOutputStream(byteOutStream);
-			objOut.writeObject(object);
-			byte[] checksum = PacketUtils.getChecksumOfObject(byteOutStream.toByteArray()).getBytes();
-			byte[] data =  PacketUtils.getCompressedByteArray(protocol, byteOutStream);
-			objOut.flush();
-			objOut.close();
-			byteOutStream.close();
-			new ComplexObject(data, checksum, protocol, splitAmount).sendTcp(tcpOut);
+			boolean compact = compactTcpOut;
+			Codec codec = getCodec(compact);
+			PooledOutputStream stream = codec.encode(protocol, object);
+			createComplexObject(stream.getBuffer(), stream.size(), splitAmount, (byte) (FrameUtils.getFlags(codec) | getCompressionFlags(compact)), 0, isNumbered(compact)).sendTcp(this);
 		} catch (IOException e) {
 			e.printStackTrace();
-			if (protocol.getListener() != null)
-				protocol.getListener().disconnected(this);
-			ConnectionManager.getInstance().close(this);
+			protocol.getConnectionManager().close(this); //The read thread reports the disconnect
 		}
 	}
 	
@@ -200,46 +1153,26 @@ public class Connection {
 	 * @param splitAmount The amount of splits to make
 	 */
 	public void sendComplexObjectTcp(byte[] objectData, int splitAmount) {
-		byte[] checksum = PacketUtils.getChecksumOfObject(objectData).getBytes();
-		byte[] data =  PacketUtils.getCompressedByteArray(protocol, objectData);
-		new ComplexObject(data, checksum, protocol, splitAmount).sendTcp(tcpOut);
-		if (protocol.getListener() != null)
-			protocol.getListener().disconnected(this);
-		ConnectionManager.getInstance().close(this);
+		try {
+			createComplexObject(objectData, splitAmount, compactTcpOut, false).sendTcp(this);
+		} catch (IOException e) {
+			e.printStackTrace();
+			protocol.getConnectionManager().close(this); //The read thread reports the disconnect
+		}
 	}
 	
 	/** Sends an object over TCP by splitting it into separate packets. Will automatically calculate the amount of splits needed.
 	 * @param objectData The object's byte data to send.
 	 */
 	public void sendComplexObjectTcp(byte[] objectData) {
-		byte[] checksum = PacketUtils.getChecksumOfObject(objectData).getBytes();
-		byte[] data =  PacketUtils.getCompressedByteArray(protocol, objectData);
-		new ComplexObject(data, checksum, protocol, PacketUtils.calculateSplitAmount(data.length, checksum.length + 12, protocol.getConfig().PACKET_BUFFER_SIZE)).sendTcp(tcpOut);
-		if (protocol.getListener() != null)
-			protocol.getListener().disconnected(this);
-		ConnectionManager.getInstance().close(this);
+		sendComplexObjectTcp(objectData, 0);
 	}
 	
 	/** Sends an object over UDP. Will automatically calculate the amount of splits needed.
 	 * @param object The object to send.
 	 */
 	public void sendComplexObjectUdp(Object object) {
-		try {
-			ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
-			ObjectOutputStream objOut = new ObjectOutputStream(byteOutStream);
-			objOut.writeObject(object);
-			byte[] checksum = PacketUtils.getChecksumOfObject(byteOutStream.toByteArray()).getBytes();
-			byte[] data = PacketUtils.getCompressedByteArray(protocol, byteOutStream);
-			objOut.flush();
-			objOut.close();
-			byteOutStream.close();
-			new ComplexObject(data, checksum, protocol, PacketUtils.calculateSplitAmount(data.length, checksum.length + 12, protocol.getConfig().PACKET_BUFFER_SIZE)).sendUdp(udpSocket, address, port);
-		} catch (IOException e) {
-			e.printStackTrace();
-			if (protocol.getListener() != null)
-				protocol.getListener().disconnected(this);
-			ConnectionManager.getInstance().close(this);
-		}
+		sendComplexObjectUdp(object, 0);
 	}
 	
 	/** Sends an object over UDP by splitting it into separate packets.
@@ -248,20 +1181,13 @@ public class Connection {
 	 */
 	public void sendComplexObjectUdp(Object object, int splitAmount) {
 		try {
-			ByteArrayOutputStream byteOutStream = new ByteArrayOutputStream();
-			ObjectOutputStream objOut = new ObjectOutputStream(byteOutStream);
-			objOut.writeObject(object);
-			byte[] checksum = PacketUtils.getChecksumOfObject(byteOutStream.toByteArray()).getBytes();
-			byte[] data = PacketUtils.getCompressedByteArray(protocol, byteOutStream);
-			objOut.flush();
-			objOut.close();
-			byteOutStream.close();
-			new ComplexObject(data, checksum, protocol, splitAmount).sendUdp(udpSocket, address, port);
+			boolean compact = compactUdp;
+			Codec codec = getCodec(compact);
+			PooledOutputStream stream = codec.encode(protocol, object);
+			createComplexObject(stream.getBuffer(), stream.size(), splitAmount, (byte) (FrameUtils.getFlags(codec) | getCompressionFlags(compact)), getParityRatio(compact), isNumbered(compact)).sendUdp(this, compact);
 		} catch (IOException e) {
 			e.printStackTrace();
-			if (protocol.getListener() != null)
-				protocol.getListener().disconnected(this);
-			ConnectionManager.getInstance().close(this);
+			protocol.getConnectionManager().close(this); //The read thread reports the disconnect
 		}
 	}
 	
@@ -270,25 +1196,135 @@ public class Connection {
 	 * @param splitAmount The amount of splits to make
 	 */
 	public void sendComplexObjectUdp(byte[] objectData, int splitAmount) {
-		byte[] checksum = PacketUtils.getChecksumOfObject(objectData).getBytes();
-		byte[] data = PacketUtils.getCompressedByteArray(protocol, objectData);
-		new ComplexObject(data, checksum, protocol, splitAmount).sendUdp(udpSocket, address, port);
-		if (protocol.getListener() != null)
-			protocol.getListener().disconnected(this);
-		ConnectionManager.getInstance().close(this);
+		boolean compact = compactUdp;
+		createComplexObject(objectData, splitAmount, compact, true).sendUdp(this, compact);
 	}
 	
 	/** Sends an object over UDP by splitting it into separate packets. Will automatically calculate the amount of splits needed.
 	 * @param objectData The object's byte data to send.
-	 * @param splitAmount The amount of splits to make
 	 */
 	public void sendComplexObjectUdp(byte[] objectData) {
-		byte[] checksum = PacketUtils.getChecksumOfObject(objectData).getBytes();
-		byte[] data = PacketUtils.getCompressedByteArray(protocol, objectData);
-		new ComplexObject(data, checksum, protocol, PacketUtils.calculateSplitAmount(data.length, checksum.length + 12, protocol.getConfig().PACKET_BUFFER_SIZE)).sendUdp(udpSocket, address, port);
-		if (protocol.getListener() != null)
-			protocol.getListener().disconnected(this);
-		ConnectionManager.getInstance().close(this);
+		sendComplexObjectUdp(objectData, 0);
+	}
+	
+	/** Splits an object's byte data into a complex object.
+	 * @param objectData The object's byte data.
+	 * @param splitAmount The amount of splits to make, or 0 to calculate it.
+	 * @param compact Whether the compact framing is used.
+	 * @param udp Whether it's sent over UDP, with parity pieces if both sides use them.
+	 * @return The complex object.
+	 */
+	private ComplexObject createComplexObject(byte[] objectData, int splitAmount, boolean compact, boolean udp) {
+		return createComplexObject(objectData, objectData.length, splitAmount, getCompressionFlags(compact), udp ? getParityRatio(compact) : 0, isNumbered(compact));
+	}
+	
+	/** Splits an object's byte data into a complex object. The data is compressed first if the flags allow it.
+	 * @param objectData The array holding the object's byte data.
+	 * @param length The amount of bytes of the object.
+	 * @param splitAmount The amount of splits to make, or 0 to calculate it.
+	 * @param flags The flags of the compact packets, saying which codec the object was encoded with and whether it 
+	 * may be compressed.
+	 * @param parityRatio The amount of parity pieces for every piece, or 0 for none.
+	 * @param numbered Whether the pieces are sent with the object's id.
+	 * @return The complex object.
+	 */
+	private ComplexObject createComplexObject(byte[] objectData, int length, int splitAmount, byte flags, double parityRatio, boolean numbered) {
+		if ((flags & FrameUtils.FLAG_COMPRESSED) != 0) {
+			byte[] compressed = new byte[length];
+			int size = FrameUtils.compress(protocol, objectData, length, flags, compressed);
+			if (size > 0) {
+				objectData = compressed;
+				length = size;
+			} else {
+				flags &= ~(FrameUtils.FLAG_COMPRESSED | FrameUtils.FLAG_DICTIONARY);
+			}
+		}
+		/** Pieces with the object's id are checked with CRC32C, older versions check the CRC32 string. */
+		long checksum = numbered ? Crc32c.getValue(objectData, 0, length) & 0xFFFFFFFFL : PacketUtils.getChecksumValue(objectData, 0, length);
+		byte[] data = PacketUtils.getCompressedByteArray(protocol, objectData, length, checksum);
+		if (splitAmount <= 0) //Parity pieces are a bit larger than the others
+			splitAmount = PacketUtils.calculateSplitAmount(data.length, 10 + 13 + (numbered ? ComplexPiece.MESSAGE_ID_SIZE : 0) 
+					+ (parityRatio > 0 ? ComplexPiece.PARITY_HEADER_SIZE : 0), protocol.getConfig().PACKET_BUFFER_SIZE);
+		return new ComplexObject(data, checksum, protocol, splitAmount, flags, parityRatio, numbered);
+	}
+	
+	/** Gets the amount of parity pieces to send with a complex object over UDP for every piece.
+	 * @param compact Whether the compact framing is used.
+	 * @return The ratio, or 0 if the other side doesn't read parity pieces.
+	 */
+	private double getParityRatio(boolean compact) {
+		return compact && parity ? protocol.getConfig().COMPLEX_FEC_RATIO : 0;
+	}
+	
+	/** Checks whether complex pieces are sent with the id of their object.
+	 * @param compact Whether the compact framing is used.
+	 * @return Whether the other side reads the id, which is only sent in the compact framing.
+	 */
+	private boolean isNumbered(boolean compact) {
+		return compact && complexIds;
+	}
+	
+	/** Encodes an object and creates its packet in either framing, or takes the packet from the broadcast.
+	 * @param compact Whether to use the compact framing.
+	 * @param tcp Whether the packet is sent over TCP.
+	 * @param object The object.
+	 * @param broadcast The broadcast the object is part of, or null.
+	 * @return The packet. Has to be released once it's written.
+	 * @throws IOException Thrown when the object can't be encoded.
+	 */
+	private PacketBuffer getPacket(boolean compact, boolean tcp, Object object, BroadcastPacket broadcast) throws IOException {
+		byte frameFlags = compact ? (byte) (FrameUtils.getChecksumFlags(protocol, this, tcp) | FrameUtils.getCompressionFlags(protocol, this)) : 0;
+		if (broadcast != null)
+			return broadcast.getPacket(protocol, compact, getCodec(compact), frameFlags);
+		return createPacket(protocol, compact, getCodec(compact), frameFlags, object);
+	}
+	
+	/** Encodes an object and creates its packet in either framing.
+	 * @param protocol The protocol.
+	 * @param compact Whether to use the compact framing.
+	 * @param codec The codec to encode the object with.
+	 * @param frameFlags The checksum and compression flags of a compact packet.
+	 * @param object The object.
+	 * @return The packet. Has to be released once it's written.
+	 * @throws IOException Thrown when the object can't be encoded.
+	 */
+	static PacketBuffer createPacket(IProtocol protocol, boolean compact, Codec codec, byte frameFlags, Object object) throws IOException {
+		PooledOutputStream stream = codec.encode(protocol, object);
+		if (compact)
+			return FrameUtils.getFrame(protocol, stream.getBuffer(), stream.size(), (byte) (FrameUtils.getFlags(codec) | frameFlags));
+		return PacketUtils.getPacket(protocol, stream.getBuffer(), stream.size());
+	}
+	
+	/** Gets the flags allowing an object to be compressed. Packets in the original framing are never compressed.
+	 * @param compact Whether the compact framing is used.
+	 * @return The flags.
+	 */
+	private byte getCompressionFlags(boolean compact) {
+		return compact ? FrameUtils.getCompressionFlags(protocol, this) : 0;
+	}
+	
+	/** @return Whether objects sent over TCP are compressed with the connection's Deflate stream. */
+	private boolean isStreamCompressed() {
+		Config config = protocol.getConfig();
+		return config.COMPRESSION_STREAMING && config.COMPRESSOR instanceof DeflateCompressor && compression;
+	}
+	
+	/** Gets the codec to encode an object with. Packets in the original framing always use Java serialization.
+	 * @param compact Whether the compact framing is used.
+	 * @return The codec.
+	 */
+	private Codec getCodec(boolean compact) {
+		return compact ? codec : SerializationCodec.INSTANCE;
+	}
+	
+	/** Serializes an object.
+	 * @param object The object.
+	 * @return The object's bytes.
+	 * @throws IOException Thrown when the object can't be serialized.
+	 */
+	private byte[] serialize(Object object) throws IOException {
+		PooledOutputStream stream = protocol.getBufferPool().getSerializer().serialize(object);
+		return Arrays.copyOf(stream.getBuffer(), stream.size());
 	}
 
 	/** Adds one to the amount of UDP packets lost. */
@@ -307,9 +1343,305 @@ public class Connection {
 		return tcpOut;
 	}
 	
-	/** Sets the instance of the protocol being used. */
+	/** @return The amount of bytes waiting to be written over TCP. */
+	public int getTcpQueueSize() {
+		return tcpQueueSize.get() + unsentBytes.get();
+	}
+	
+	/** @return Whether less TCP data than the high water mark is waiting to be written. */
+	public boolean isWritable() {
+		return writable.get();
+	}
+	
+	/** @return The lock that has to be held while writing to the TCP stream. */
+	public Lock getTcpLock() {
+		return tcpLock;
+	}
+	
+	/** @return Whether TCP packets are written in the compact framing. */
+	public boolean isCompactTcpOut() {
+		return compactTcpOut;
+	}
+	
+	/** @return Whether TCP packets are read in the compact framing. */
+	public boolean isCompactTcpIn() {
+		return compactTcpIn;
+	}
+	
+	/** Sets whether TCP packets are read in the compact framing.
+	 * @param compactTcpIn Whether to use the compact framing.
+	 */
+	public void setCompactTcpIn(boolean compactTcpIn) {
+		this.compactTcpIn = compactTcpIn;
+	}
+	
+	/** Sets whether UDP packets are written in the compact framing.
+	 * @param compactUdp Whether to use the compact framing.
+	 */
+	public void setCompactUdp(boolean compactUdp) {
+		this.compactUdp = compactUdp;
+	}
+	
+	/** @return The codec agreed on while connecting, used for compact packets. */
+	public Codec getCodec() {
+		return codec;
+	}
+	
+	/** Sets the codec agreed on while connecting.
+	 * @param codec The codec.
+	 */
+	public void setCodec(Codec codec) {
+		this.codec = codec;
+	}
+	
+	/** @return Whether the other side reads the checksum flags of compact packets. */
+	public boolean isChecksumFlagsSupported() {
+		return checksumFlags;
+	}
+	
+	/** Sets whether the other side reads the checksum flags of compact packets.
+	 * @param checksumFlags Whether it does.
+	 */
+	public void setChecksumFlagsSupported(boolean checksumFlags) {
+		this.checksumFlags = checksumFlags;
+	}
+	
+	/** @return Whether the other side reads compressed packets. */
+	public boolean isCompressionSupported() {
+		return compression;
+	}
+	
+	/** @return Whether the other side has the same compression dictionary. */
+	public boolean isDictionaryShared() {
+		return dictionaryShared;
+	}
+	
+	/** Sets whether the other side reads compressed packets.
+	 * @param compression Whether it does.
+	 * @param dictionaryShared Whether it has the same compression dictionary.
+	 */
+	public void setCompressionSupported(boolean compression, boolean dictionaryShared) {
+		this.compression = compression;
+		this.dictionaryShared = dictionaryShared;
+	}
+	
+	/** @return Whether the other side reads stream packets. */
+	public boolean isStreamSupported() {
+		return streams;
+	}
+	
+	/** Sets whether the other side reads stream packets.
+	 * @param streams Whether it does.
+	 */
+	public void setStreamSupported(boolean streams) {
+		this.streams = streams;
+	}
+	
+	/** @return Whether the other side reads reliable UDP packets. */
+	public boolean isReliableUdpSupported() {
+		return reliableUdp;
+	}
+	
+	/** Sets whether the other side reads reliable UDP packets.
+	 * @param reliableUdp Whether it does.
+	 */
+	public void setReliableUdpSupported(boolean reliableUdp) {
+		this.reliableUdp = reliableUdp;
+	}
+	
+	/** @return The reliable UDP channel of the connection. */
+	public synchronized ReliableChannel getReliableChannel() {
+		if (reliableChannel == null)
+			reliableChannel = new ReliableChannel(this);
+		return reliableChannel;
+	}
+	
+	/** @return Whether the other side reads sequenced UDP packets. */
+	public boolean isSequencedUdpSupported() {
+		return sequencedUdp;
+	}
+	
+	/** Sets whether the other side reads sequenced UDP packets.
+	 * @param sequencedUdp Whether it does.
+	 */
+	public void setSequencedUdpSupported(boolean sequencedUdp) {
+		this.sequencedUdp = sequencedUdp;
+	}
+	
+	/** @return The pacer of the UDP packets sent to the connection. */
+	public synchronized UdpPacer getUdpPacer() {
+		if (pacer == null)
+			pacer = new UdpPacer(this);
+		return pacer;
+	}
+	
+	/** @return Whether the other side reads the parity pieces of complex objects. */
+	public boolean isParitySupported() {
+		return parity;
+	}
+	
+	/** Sets whether the other side reads the parity pieces of complex objects.
+	 * @param parity Whether it does.
+	 */
+	public void setParitySupported(boolean parity) {
+		this.parity = parity;
+	}
+	
+	/** @return Whether the other side reads control packets. */
+	public boolean isControlSupported() {
+		return control;
+	}
+	
+	/** Sets whether the other side reads control packets.
+	 * @param control Whether it does.
+	 */
+	public void setControlSupported(boolean control) {
+		this.control = control;
+	}
+	
+	/** @return The session token binding the connection's UDP endpoint to it, or 0 if it has none. */
+	public long getUdpToken() {
+		return udpToken;
+	}
+	
+	/** Sets the session token binding the connection's UDP endpoint to it. Set by the server's connection manager, and
+	 * on the client once the server sent it.
+	 * @param udpToken The token.
+	 */
+	public void setUdpToken(long udpToken) {
+		this.udpToken = udpToken;
+	}
+	
+	/** @return Whether the UDP endpoint was bound with the session token. */
+	public boolean isUdpBound() {
+		return udpBound;
+	}
+	
+	/** Sets whether the UDP endpoint was bound with the session token.
+	 * @param udpBound Whether it was.
+	 */
+	public void setUdpBound(boolean udpBound) {
+		this.udpBound = udpBound;
+	}
+	
+	/** @return Whether the other side pings the connection when it has nothing else to send. */
+	public boolean isHeartbeatSupported() {
+		return heartbeats;
+	}
+	
+	/** Sets whether the other side pings the connection when it has nothing else to send.
+	 * @param heartbeats Whether it does.
+	 */
+	public void setHeartbeatSupported(boolean heartbeats) {
+		this.heartbeats = heartbeats;
+	}
+	
+	/** @return Whether the other side answers requests. */
+	public boolean isRequestSupported() {
+		return requests;
+	}
+	
+	/** Sets whether the other side answers requests.
+	 * @param requests Whether it does.
+	 */
+	public void setRequestSupported(boolean requests) {
+		this.requests = requests;
+	}
+	
+	/** @return Whether the other side reads complex pieces holding the id of their object. */
+	public boolean isComplexIdSupported() {
+		return complexIds;
+	}
+	
+	/** Sets whether the other side reads complex pieces holding the id of their object.
+	 * @param complexIds Whether it does.
+	 */
+	public void setComplexIdSupported(boolean complexIds) {
+		this.complexIds = complexIds;
+	}
+	
+	/** @return The session cipher of TCP packets, or null if they aren't encrypted. */
+	public ICipher getTcpCipher() {
+		return tcpCipher;
+	}
+	
+	/** @return The session cipher of UDP packets, or null if they aren't encrypted. */
+	public ICipher getUdpCipher() {
+		return udpCipher;
+	}
+	
+	/** Sets the session ciphers once both sides agreed on session keys. Compact packets are encrypted with them from
+	 * then on.
+	 * @param tcpCipher The cipher of TCP packets.
+	 * @param udpCipher The cipher of UDP packets.
+	 */
+	public void setCiphers(ICipher tcpCipher, ICipher udpCipher) {
+		this.tcpCipher = tcpCipher;
+		this.udpCipher = udpCipher;
+	}
+	
+	/** @return The key pair sent in the handshake, or null if there is none. */
+	public KeyExchange getKeyExchange() {
+		return keyExchange;
+	}
+	
+	/** Sets the key pair sent in the handshake.
+	 * @param keyExchange The key pair, or null once the session keys were derived.
+	 */
+	public void setKeyExchange(KeyExchange keyExchange) {
+		this.keyExchange = keyExchange;
+	}
+	
+	/** Notes that something was received from the other side. Called by the threads reading the sockets. */
+	public void markRead() {
+		lastRead = System.nanoTime();
+	}
+	
+	/** @return The time in nanoseconds something was last received from the other side. */
+	public long getLastRead() {
+		return lastRead;
+	}
+	
+	/** @return The time in nanoseconds a TCP packet was last queued. */
+	public long getLastWrite() {
+		return lastWrite;
+	}
+	
+	/** @return The sequenced UDP channels of the connection. */
+	public synchronized SequencedChannels getSequencedChannels() {
+		if (sequencedChannels == null)
+			sequencedChannels = new SequencedChannels(this);
+		return sequencedChannels;
+	}
+	
+	/** @return The listener calls of the connection waiting to be run one at a time. */
+	public synchronized Mailbox getMailbox() {
+		if (mailbox == null)
+			mailbox = new Mailbox();
+		return mailbox;
+	}
+	
+	/** @return The Deflate stream of the connection, starting with the compression dictionary if both sides have it. */
+	public synchronized DeflateStream getDeflateStream() {
+		if (deflateStream == null) {
+			Config config = protocol.getConfig();
+			int level = config.COMPRESSOR instanceof DeflateCompressor ? ((DeflateCompressor) config.COMPRESSOR).getLevel() : DeflateCompressor.INSTANCE.getLevel();
+			CompressionDictionary dictionary = dictionaryShared ? config.COMPRESSION_DICTIONARY : null;
+			deflateStream = new DeflateStream(level, dictionary != null ? dictionary.getData() : null);
+		}
+		return deflateStream;
+	}
+	
+	/** @return The instance of the protocol being used. */
+	public IProtocol getProtocol() {
+		return protocol;
+	}
+	
+	/** Sets the instance of the protocol being used, and gives the connection an id if it has none yet. */
 	public void setProtocol(IProtocol protocol) {
 		this.protocol = protocol;
+		if (id == 0)
+			id = protocol.getConnectionManager().nextId();
 	}
 	
 	/** Closes the connection. */
@@ -321,5 +1653,174 @@ public class Connection {
 			//socket already closed
 		}
 		socket = null;
+		if (!blockingOut) {
+			try {
+				rawOut.close(); //Asks the event loop to remove the channel
+			} catch (IOException e) {
+				//stream already closed
+			}
+		}
+		releaseQueue(new NNPacketDropped("The connection was closed."));
+		if (protocol != null) {
+			protocol.getComplexManager().remove(this);
+			protocol.getStreamManager().remove(this);
+			protocol.getRequestManager().remove(this);
+		}
+		synchronized (this) {
+			if (reliableChannel != null)
+				reliableChannel.close();
+			if (pacer != null)
+				pacer.close();
+		}
 	}
+	
+	/** A TCP packet waiting in the queue. Keeps what the packet was created from so it can be created again if the 
+	 * framing changes before it's written. */
+	private class OutboundPacket {
+		
+		/** The object sent, or null if it's a complex piece. */
+		private final Object object;
+		
+		/** The broadcast the object is part of, or null. */
+		private final BroadcastPacket broadcast;
+		
+		/** The complex piece sent, or null if it's an object. */
+		private final ComplexPiece piece;
+		
+		/** The stream or control packet sent, or null if it's neither. */
+		private final byte[] control;
+		
+		/** The type of the stream or control packet. */
+		private final byte controlType;
+		
+		/** The flags of the stream or control packet. */
+		private final byte controlFlags;
+		
+		/** Completed once the packet is written, or null if nobody waits for it. */
+		private final CompletableFuture<Void> future;
+		
+		/** Whether the packet is in the compact framing. */
+		private boolean compact;
+		
+		/** The packet. */
+		private PacketBuffer buffer;
+		
+		/** The length of the packet when it was queued. */
+		private int length;
+		
+		/** Whether the buffer holds the object's bytes that still have to be compressed with the connection's Deflate 
+		 * stream. That's only done right before writing since the other side has to read them in the same order. */
+		private boolean streamed;
+		
+		/** The flags of the packet once it's compressed with the stream. */
+		private byte flags;
+		
+		private OutboundPacket(Object object, BroadcastPacket broadcast, ComplexPiece piece, CompletableFuture<Void> future) {
+			this.object = object;
+			this.broadcast = broadcast;
+			this.piece = piece;
+			this.future = future;
+			control = null;
+			controlType = 0;
+			controlFlags = 0;
+		}
+		
+		private OutboundPacket(byte controlType, byte[] control, byte controlFlags) {
+			this.object = null;
+			this.broadcast = null;
+			this.piece = null;
+			this.future = null;
+			this.control = control;
+			this.controlType = controlType;
+			this.controlFlags = controlFlags;
+		}
+		
+		/** Creates the packet in a framing.
+		 * @param compact Whether to use the compact framing.
+		 * @throws IOException Thrown when the object can't be encoded.
+		 */
+		private void encode(boolean compact) throws IOException {
+			release();
+			this.compact = compact;
+			streamed = false;
+			if (control != null)
+				buffer = encodeControl(compact);
+			else if (piece != null)
+				buffer = piece.getPacket(compact);
+			else if (compact && broadcast == null && isStreamCompressed())
+				buffer = encodeStreamed();
+			else
+				buffer = getPacket(compact, true, object, broadcast);
+			length = buffer.getLength();
+		}
+		
+		/** Creates the packet of a stream or control packet, which only exist in the compact framing.
+		 * @param compact Whether the compact framing is used.
+		 * @return The packet.
+		 * @throws IOException Thrown when the original framing is used.
+		 */
+		private PacketBuffer encodeControl(boolean compact) throws IOException {
+			if (!compact)
+				throw new IOException(controlType == FrameUtils.TYPE_STREAM ? "Streams need the compact framing." 
+						: controlType == FrameUtils.TYPE_REQUEST ? "Requests need the compact framing." : "Control packets need the compact framing.");
+			byte flags = (byte) (controlFlags | FrameUtils.getChecksumFlags(protocol, Connection.this, true));
+			return FrameUtils.getFrame(protocol, controlType, control, control.length, flags, FrameUtils.getChecksum(control, 0, control.length, flags));
+		}
+		
+		/** Encodes the object to be compressed with the connection's Deflate stream. Objects below the compression 
+		 * threshold, or that might not fit in a packet once compressed, get their packet right away instead.
+		 * @return The object's bytes, or the packet.
+		 * @throws IOException Thrown when the object can't be encoded.
+		 */
+		private PacketBuffer encodeStreamed() throws IOException {
+			Config config = protocol.getConfig();
+			Codec codec = getCodec(true);
+			PooledOutputStream stream = codec.encode(protocol, object);
+			int size = stream.size();
+			flags = (byte) (FrameUtils.getFlags(codec) | FrameUtils.getChecksumFlags(protocol, Connection.this, true));
+			if (size < config.COMPRESSION_THRESHOLD || FrameUtils.HEADER_SIZE + FrameUtils.COMPRESSION_HEADER_SIZE 
+					+ DeflateStream.getMaxCompressedLength(size) > config.PACKET_BUFFER_SIZE)
+				return FrameUtils.getFrame(protocol, stream.getBuffer(), size, (byte) (flags | FrameUtils.getCompressionFlags(protocol, Connection.this)));
+			streamed = true;
+			BufferPool pool = protocol.getBufferPool();
+			PacketBuffer payload = new PacketBuffer(pool.acquire(size), size, pool);
+			System.arraycopy(stream.getBuffer(), 0, payload.getData(), 0, size);
+			return payload;
+		}
+		
+		/** Compresses the object's bytes with the connection's Deflate stream and creates the packet. The TCP lock must
+		 * be held and the packet has to be written right after.
+		 * @throws IOException Thrown when the packet can't be created, which leaves the stream unusable.
+		 */
+		private void compressStream() throws IOException {
+			PacketBuffer payload = buffer;
+			buffer = null;
+			streamed = false;
+			try {
+				buffer = FrameUtils.getStreamFrame(protocol, getDeflateStream(), payload.getData(), payload.getLength(), flags);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("The compressed object doesn't fit in a packet.", e);
+			} finally {
+				payload.release();
+			}
+		}
+		
+		/** Releases the packet. */
+		private void release() {
+			if (buffer != null)
+				buffer.release();
+			buffer = null;
+		}
+		
+		/** Releases the packet without writing it.
+		 * @param reason Why it's dropped.
+		 */
+		private void drop(String reason) {
+			release();
+			if (future != null)
+				future.completeExceptionally(new NNPacketDropped(reason));
+		}
+		
+	}
+	
 }
@@ -2,16 +2,25 @@ package com.jmr.wrapper.common;
 
 import java.net.DatagramSocket;
 
+import com.jmr.wrapper.common.buffer.BufferPool;
+import com.jmr.wrapper.common.codec.Codec;
+import com.jmr.wrapper.common.complex.ComplexManager;
 import com.jmr.wrapper.common.config.Config;
+import com.jmr.wrapper.common.dispatch.Dispatcher;
 import com.jmr.wrapper.common.listener.SocketListener;
+import com.jmr.wrapper.common.listener.StreamListener;
+import com.jmr.wrapper.common.request.RequestManager;
+import com.jmr.wrapper.common.stream.StreamManager;
+import com.jmr.wrapper.common.utils.TimerWheel;
 import com.jmr.wrapper.encryption.IEncryptor;
+import com.jmr.wrapper.server.ConnectionManager;
 
 /**
  * Networking Library
  * IProtocol.java
  * Purpose: Interface that is implemented by the TCP and UDP server and client, and also by the HttpServer. Provides methods that both
  * need to have so that threads can have access to their information regardless of whether it is
- * the server or client side.
+ * the server or client side. Every server and client has its own managers, so several of them can run in one process.
  * 
  * @author Jon R (Baseball435)
  * @version 1.0 7/19/2014
@@ -27,6 +36,9 @@ public interface IProtocol {
 	/** @return The listener object. */
 	SocketListener getListener();
 	
+	/** @return The listener receiving streams, or null if streams are refused. */
+	StreamListener getStreamListener();
+	
 	/** @return The UDP port. */
 	int getUdpPort();
 	
@@ -45,6 +57,33 @@ public interface IProtocol {
 	/** @return The encryption method. */
 	IEncryptor getEncryptionMethod();
 	
+	/** Sets the codec offered to new connections. Connections that are already connected keep their codec. */
+	void setCodec(Codec codec);
+	
+	/** @return The codec offered to connections. */
+	Codec getCodec();
+	
+	/** @return The pool of buffers used to send and receive packets. */
+	BufferPool getBufferPool();
+	
+	/** @return The connections of this server or client. */
+	ConnectionManager getConnectionManager();
+	
+	/** @return The complex objects being formed for the connections. */
+	ComplexManager getComplexManager();
+	
+	/** @return The streams of the connections. */
+	StreamManager getStreamManager();
+	
+	/** @return The responders answering requests and the requests waiting for their responses. */
+	RequestManager getRequestManager();
+	
+	/** @return The dispatcher passing received objects to the listener. */
+	Dispatcher getDispatcher();
+	
+	/** @return The timer wheel running the timeouts of the connections. */
+	TimerWheel getTimerWheel();
+	
 	/** Closes the socket. */
 	void close();
 	
@@ -0,0 +1,222 @@
+package com.jmr.wrapper.common.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jmr.wrapper.common.utils.ThreadUtils;
+
+/**
+ * Networking Library
+ * BufferPool.java
+ * Purpose: Hands out reusable byte arrays and direct byte buffers so that the send and receive paths don't allocate new
+ * buffers for every packet. Buffers are grouped in size classes that are powers of two. Every thread keeps a few buffers 
+ * of each class for itself and the rest are shared between threads. Virtual threads only use the shared buffers since 
+ * they don't live long enough to reuse their own. Buffers larger than the biggest class aren't pooled.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class BufferPool {
+
+	/** The size of the smallest class. */
+	private static final int MIN_SHIFT = 6;
+	
+	/** The size of the largest class. */
+	private static final int MAX_SHIFT = 16;
+	
+	/** The amount of buffers of each class a thread keeps for itself. */
+	private static final int THREAD_CACHE_SIZE = 8;
+	
+	/** The amount of buffers of each class that are shared between threads. */
+	private static final int SHARED_SIZE = 256;
+	
+	/** The size of the first array of a serializer. */
+	private static final int SERIALIZER_SIZE = 1 << 10;
+	
+	/** Allocates the arrays of the serializers made for virtual threads. They are never given back, so they aren't 
+	 * taken from a pool that reuses them. */
+	private static final BufferPool UNPOOLED = new BufferPool(false);
+	
+	/** The pool for byte arrays. */
+	private final Arena<byte[]> heap = new Arena<byte[]>() {
+		@Override
+		byte[] allocate(int size) {
+			return new byte[size];
+		}
+		
+		@Override
+		int capacity(byte[] buffer) {
+			return buffer.length;
+		}
+	};
+	
+	/** The pool for direct byte buffers. */
+	private final Arena<ByteBuffer> direct = new Arena<ByteBuffer>() {
+		@Override
+		ByteBuffer allocate(int size) {
+			return ByteBuffer.allocateDirect(size);
+		}
+		
+		@Override
+		int capacity(ByteBuffer buffer) {
+			return buffer.capacity();
+		}
+	};
+	
+	/** Whether buffers are reused. If not, buffers are just allocated. */
+	private final boolean enabled;
+	
+	/** The serializer of each platform thread. */
+	private final ThreadLocal<ObjectSerializer> serializers = new ThreadLocal<ObjectSerializer>() {
+		@Override
+		protected ObjectSerializer initialValue() {
+			return new ObjectSerializer(BufferPool.this, SERIALIZER_SIZE);
+		}
+	};
+	
+	/** Creates a new pool.
+	 * @param enabled Whether buffers are reused.
+	 */
+	public BufferPool(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/** Gets a byte array with at least the given size. It can be larger.
+	 * @param size The size needed.
+	 * @return The byte array.
+	 */
+	public byte[] acquire(int size) {
+		return heap.acquire(size);
+	}
+	
+	/** Returns a byte array to the pool. It must not be used afterwards.
+	 * @param buffer The byte array.
+	 */
+	public void release(byte[] buffer) {
+		if (buffer != null)
+			heap.release(buffer);
+	}
+	
+	/** Gets a cleared direct byte buffer with at least the given capacity. Its limit is set to the size.
+	 * @param size The size needed.
+	 * @return The buffer.
+	 */
+	public ByteBuffer acquireDirect(int size) {
+		ByteBuffer buffer = direct.acquire(size);
+		buffer.clear();
+		buffer.limit(size);
+		return buffer;
+	}
+	
+	/** Returns a direct byte buffer to the pool. It must not be used afterwards.
+	 * @param buffer The buffer.
+	 */
+	public void releaseDirect(ByteBuffer buffer) {
+		if (buffer != null)
+			direct.release(buffer);
+	}
+	
+	/** @return The serializer of the current thread. Virtual threads get a new one every time instead of keeping their 
+	 * own, like they skip their own buffers. */
+	public ObjectSerializer getSerializer() {
+		if (ThreadUtils.isVirtualThread())
+			return new ObjectSerializer(UNPOOLED, SERIALIZER_SIZE);
+		return serializers.get();
+	}
+	
+	/** Gets the class of a size.
+	 * @param size The size.
+	 * @return The class, or -1 if the size is too large to be pooled.
+	 */
+	private static int getSizeClass(int size) {
+		if (size <= 1 << MIN_SHIFT)
+			return 0;
+		int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+		return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+	}
+	
+	/** Holds the free buffers of one kind. */
+	private abstract class Arena<T> {
+		
+		/** The buffers shared between threads, one queue per class. */
+		private final Queue<T>[] shared;
+		
+		/** The amount of buffers in each shared queue. */
+		private final AtomicInteger[] sharedCounts;
+		
+		/** The buffers kept by each thread, one deque per class. */
+		private final ThreadLocal<ArrayDeque<T>[]> cache = new ThreadLocal<ArrayDeque<T>[]>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			protected ArrayDeque<T>[] initialValue() {
+				ArrayDeque<T>[] ret = (ArrayDeque<T>[]) new ArrayDeque<?>[MAX_SHIFT - MIN_SHIFT + 1];
+				for (int i = 0; i < ret.length; i++)
+					ret[i] = new ArrayDeque<T>(THREAD_CACHE_SIZE);
+				return ret;
+			}
+		};
+		
+		/** Creates the queues for each class. */
+		@SuppressWarnings("unchecked")
+		Arena() {
+			shared = (Queue<T>[]) new Queue<?>[MAX_SHIFT - MIN_SHIFT + 1];
+			sharedCounts = new AtomicInteger[shared.length];
+			for (int i = 0; i < shared.length; i++) {
+				shared[i] = new ConcurrentLinkedQueue<T>();
+				sharedCounts[i] = new AtomicInteger();
+			}
+		}
+		
+		/** Allocates a new buffer.
+		 * @param size The size of the buffer.
+		 * @return The buffer.
+		 */
+		abstract T allocate(int size);
+		
+		/** @return The capacity of a buffer. */
+		abstract int capacity(T buffer);
+		
+		/** Gets a buffer from the thread's cache, then from the shared queue, and allocates one if both are empty.
+		 * @param size The size needed.
+		 * @return The buffer.
+		 */
+		T acquire(int size) {
+			int sizeClass = getSizeClass(size);
+			if (!enabled || sizeClass < 0)
+				return allocate(size);
+			T buffer = ThreadUtils.isVirtualThread() ? null : cache.get()[sizeClass].pollLast();
+			if (buffer == null) {
+				buffer = shared[sizeClass].poll();
+				if (buffer != null)
+					sharedCounts[sizeClass].decrementAndGet();
+				else
+					buffer = allocate(1 << (sizeClass + MIN_SHIFT));
+			}
+			return buffer;
+		}
+		
+		/** Puts a buffer back in the thread's cache, or in the shared queue if the cache is full. Buffers that don't 
+		 * match a class or don't fit anymore are dropped.
+		 * @param buffer The buffer.
+		 */
+		void release(T buffer) {
+			int capacity = capacity(buffer);
+			int sizeClass = getSizeClass(capacity);
+			if (!enabled || sizeClass < 0 || capacity != 1 << (sizeClass + MIN_SHIFT))
+				return;
+			ArrayDeque<T> local = ThreadUtils.isVirtualThread() ? null : cache.get()[sizeClass];
+			if (local != null && local.size() < THREAD_CACHE_SIZE) {
+				local.addLast(buffer);
+			} else if (sharedCounts[sizeClass].incrementAndGet() <= SHARED_SIZE) {
+				shared[sizeClass].add(buffer);
+			} else {
+				sharedCounts[sizeClass].decrementAndGet();
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,56 @@
+package com.jmr.wrapper.common.buffer;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Networking Library
+ * ByteBufferInputStream.java
+ * Purpose: An input stream that reads from a byte buffer, such as a memory-mapped file, without copying the bytes onto 
+ * the heap first.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class ByteBufferInputStream extends InputStream {
+	
+	/** The buffer being read from. */
+	private final ByteBuffer buffer;
+	
+	/** Creates a new stream reading the bytes between the buffer's position and limit.
+	 * @param buffer The buffer. Its position is moved as it's read.
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+	
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0)
+			return 0;
+		if (!buffer.hasRemaining())
+			return -1;
+		len = Math.min(len, buffer.remaining());
+		buffer.get(b, off, len);
+		return len;
+	}
+	
+	@Override
+	public long skip(long n) {
+		int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+	
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+	
+}
@@ -0,0 +1,62 @@
+package com.jmr.wrapper.common.buffer;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+/**
+ * Networking Library
+ * ObjectSerializer.java
+ * Purpose: Serializes objects into a reusable pooled stream. Each platform thread has its own serializer so the object output
+ * stream is only created once instead of for every packet. The stream is reset before each object, which the other side reads 
+ * as part of the object's bytes, so the bytes can still be read with a new object input stream.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class ObjectSerializer {
+
+	/** The header every object stream starts with. */
+	private static final byte[] STREAM_HEADER = { (byte) 0xAC, (byte) 0xED, 0x00, 0x05 };
+	
+	/** The stream the object's bytes are written to. */
+	private final PooledOutputStream out;
+	
+	/** The object stream writing to the pooled stream. Created again after an object failed to serialize. */
+	private ObjectOutputStream objOut;
+	
+	/** Creates a new serializer.
+	 * @param pool The pool the stream's arrays come from.
+	 * @param initialSize The size of the first array.
+	 */
+	public ObjectSerializer(BufferPool pool, int initialSize) {
+		out = new PooledOutputStream(pool, initialSize);
+	}
+	
+	/** Serializes an object. The bytes are held by the serializer until the next object is serialized on this thread.
+	 * @param object The object.
+	 * @return The stream holding the object's bytes.
+	 * @throws IOException Thrown when the object can't be serialized.
+	 */
+	public PooledOutputStream serialize(Object object) throws IOException {
+		out.reset();
+		try {
+			if (objOut == null) {
+				objOut = new ObjectOutputStream(out);
+			} else {
+				out.write(STREAM_HEADER, 0, STREAM_HEADER.length);
+				objOut.reset();
+			}
+			objOut.writeObject(object);
+			objOut.flush();
+		} catch (IOException e) {
+			objOut = null;
+			throw e;
+		} catch (RuntimeException e) {
+			objOut = null;
+			throw e;
+		}
+		return out;
+	}
+	
+}
@@ -0,0 +1,77 @@
+package com.jmr.wrapper.common.buffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Networking Library
+ * PacketBuffer.java
+ * Purpose: A packet that is ready to be written, held in a byte array taken from a buffer pool. The array can be larger
+ * than the packet so the length is kept separately. A packet can be shared, for example when it is broadcast, in which
+ * case every holder retains it and the array goes back to the pool once the last holder released it.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class PacketBuffer {
+
+	/** The array holding the packet. */
+	private byte[] data;
+	
+	/** The length of the packet. */
+	private final int length;
+	
+	/** The pool the array came from, or null if it isn't pooled. */
+	private final BufferPool pool;
+	
+	/** The amount of holders of the packet. Starts at one for the creator. */
+	private final AtomicInteger references = new AtomicInteger(1);
+	
+	/** Creates a new packet buffer.
+	 * @param data The array holding the packet.
+	 * @param length The length of the packet.
+	 * @param pool The pool the array came from, or null if it isn't pooled.
+	 */
+	public PacketBuffer(byte[] data, int length, BufferPool pool) {
+		this.data = data;
+		this.length = length;
+		this.pool = pool;
+	}
+	
+	/** @return The array holding the packet. */
+	public byte[] getData() {
+		return data;
+	}
+	
+	/** @return The length of the packet. */
+	public int getLength() {
+		return length;
+	}
+	
+	/** @return A copy of the packet with the exact length. */
+	public byte[] toByteArray() {
+		byte[] ret = new byte[length];
+		System.arraycopy(data, 0, ret, 0, length);
+		return ret;
+	}
+	
+	/** Adds a holder of the packet, who has to release it once done.
+	 * @return The packet.
+	 */
+	public PacketBuffer retain() {
+		if (references.getAndIncrement() <= 0)
+			throw new IllegalStateException("The packet was already released.");
+		return this;
+	}
+	
+	/** Removes a holder of the packet. The array goes back to its pool once the last holder released it and the packet
+	 * must not be used by this holder afterwards. */
+	public void release() {
+		if (references.decrementAndGet() != 0)
+			return;
+		if (pool != null && data != null)
+			pool.release(data);
+		data = null;
+	}
+	
+}
@@ -0,0 +1,88 @@
+package com.jmr.wrapper.common.buffer;
+
+import java.io.OutputStream;
+
+/**
+ * Networking Library
+ * PooledOutputStream.java
+ * Purpose: An output stream that writes into a byte array taken from a buffer pool. When the array is full a larger one
+ * is taken and the old one goes back to the pool. The stream can be reset and used again without allocating.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class PooledOutputStream extends OutputStream {
+
+	/** The pool the arrays come from. */
+	private final BufferPool pool;
+	
+	/** The array being written to. */
+	protected byte[] buf;
+	
+	/** The amount of bytes written. */
+	protected int count = 0;
+	
+	/** The size of the first array. Larger arrays are given back when the stream is reset. */
+	private final int initialSize;
+	
+	/** Creates a new stream.
+	 * @param pool The pool the arrays come from.
+	 * @param initialSize The size of the first array.
+	 */
+	public PooledOutputStream(BufferPool pool, int initialSize) {
+		this.pool = pool;
+		this.initialSize = initialSize;
+		this.buf = pool.acquire(initialSize);
+	}
+	
+	@Override
+	public void write(int b) {
+		ensureCapacity(count + 1);
+		buf[count++] = (byte) b;
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) {
+		ensureCapacity(count + len);
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
+	}
+	
+	/** Makes sure the array can hold the given amount of bytes.
+	 * @param size The amount of bytes.
+	 */
+	protected void ensureCapacity(int size) {
+		if (size > buf.length) {
+			byte[] larger = pool.acquire(Math.max(size, buf.length << 1));
+			System.arraycopy(buf, 0, larger, 0, count);
+			pool.release(buf);
+			buf = larger;
+		}
+	}
+	
+	/** Forgets the written bytes so the stream can be used again. Gives back the array if it grew too large to keep. */
+	public void reset() {
+		count = 0;
+		if (buf.length > initialSize << 6) {
+			pool.release(buf);
+			buf = pool.acquire(initialSize);
+		}
+	}
+	
+	/** @return The array holding the written bytes. Only valid until the next write or reset. */
+	public byte[] getBuffer() {
+		return buf;
+	}
+	
+	/** @return The amount of bytes written. */
+	public int size() {
+		return count;
+	}
+	
+	/** @return The pool the arrays come from. */
+	public BufferPool getPool() {
+		return pool;
+	}
+	
+}
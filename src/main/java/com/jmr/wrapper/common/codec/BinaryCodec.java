@@ -0,0 +1,457 @@
+package com.jmr.wrapper.common.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.buffer.BufferPool;
+import com.jmr.wrapper.common.buffer.PooledOutputStream;
+import com.jmr.wrapper.common.codec.ClassRegistry.Registration;
+
+/**
+ * Networking Library
+ * BinaryCodec.java
+ * Purpose: A codec that writes objects in a compact binary form. Every value starts with a one byte tag. Primitives, 
+ * strings, arrays and the common collections are written directly, registered classes are written as their id followed 
+ * by their fields, and any other serializable object falls back to Java serialization. Objects are written as a tree, so 
+ * an object referenced twice is written twice and objects referencing themselves can't be written. Both sides need to
+ * register the same classes in the same order.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class BinaryCodec implements Codec {
+
+	/** The id of the codec. */
+	public static final byte ID = 1;
+	
+	/** The tags in front of every value. */
+	private static final byte TAG_NULL = 0, TAG_TRUE = 1, TAG_FALSE = 2, TAG_BYTE = 3, TAG_SHORT = 4, TAG_CHAR = 5, 
+			TAG_INT = 6, TAG_LONG = 7, TAG_FLOAT = 8, TAG_DOUBLE = 9, TAG_STRING = 10, TAG_BYTE_ARRAY = 11, 
+			TAG_SHORT_ARRAY = 12, TAG_CHAR_ARRAY = 13, TAG_INT_ARRAY = 14, TAG_LONG_ARRAY = 15, TAG_FLOAT_ARRAY = 16, 
+			TAG_DOUBLE_ARRAY = 17, TAG_BOOLEAN_ARRAY = 18, TAG_OBJECT_ARRAY = 19, TAG_STRING_ARRAY = 20, 
+			TAG_ARRAY_LIST = 21, TAG_LINKED_LIST = 22, TAG_HASH_SET = 23, TAG_LINKED_HASH_SET = 24, TAG_TREE_SET = 25,
+			TAG_HASH_MAP = 26, TAG_LINKED_HASH_MAP = 27, TAG_TREE_MAP = 28, TAG_REGISTERED = 29, 
+			TAG_REGISTERED_ARRAY = 30, TAG_SERIALIZED = 31;
+	
+	/** The tag of each class that is written directly. */
+	private static final Map<Class<?>, Byte> TAGS = new IdentityHashMap<Class<?>, Byte>();
+	
+	static {
+		TAGS.put(Byte.class, TAG_BYTE);
+		TAGS.put(Short.class, TAG_SHORT);
+		TAGS.put(Character.class, TAG_CHAR);
+		TAGS.put(Integer.class, TAG_INT);
+		TAGS.put(Long.class, TAG_LONG);
+		TAGS.put(Float.class, TAG_FLOAT);
+		TAGS.put(Double.class, TAG_DOUBLE);
+		TAGS.put(String.class, TAG_STRING);
+		TAGS.put(byte[].class, TAG_BYTE_ARRAY);
+		TAGS.put(short[].class, TAG_SHORT_ARRAY);
+		TAGS.put(char[].class, TAG_CHAR_ARRAY);
+		TAGS.put(int[].class, TAG_INT_ARRAY);
+		TAGS.put(long[].class, TAG_LONG_ARRAY);
+		TAGS.put(float[].class, TAG_FLOAT_ARRAY);
+		TAGS.put(double[].class, TAG_DOUBLE_ARRAY);
+		TAGS.put(boolean[].class, TAG_BOOLEAN_ARRAY);
+		TAGS.put(Object[].class, TAG_OBJECT_ARRAY);
+		TAGS.put(String[].class, TAG_STRING_ARRAY);
+		TAGS.put(ArrayList.class, TAG_ARRAY_LIST);
+		TAGS.put(LinkedList.class, TAG_LINKED_LIST);
+		TAGS.put(HashSet.class, TAG_HASH_SET);
+		TAGS.put(LinkedHashSet.class, TAG_LINKED_HASH_SET);
+		TAGS.put(TreeSet.class, TAG_TREE_SET);
+		TAGS.put(HashMap.class, TAG_HASH_MAP);
+		TAGS.put(LinkedHashMap.class, TAG_LINKED_HASH_MAP);
+		TAGS.put(TreeMap.class, TAG_TREE_MAP);
+	}
+	
+	/** The classes written as ids. */
+	private final ClassRegistry registry;
+	
+	/** The output of each thread. */
+	private final ThreadLocal<CodecOutput> outputs = new ThreadLocal<CodecOutput>();
+	
+	/** Creates a codec with an empty registry. */
+	public BinaryCodec() {
+		this(new ClassRegistry());
+	}
+	
+	/** Creates a codec.
+	 * @param registry The classes written as ids.
+	 */
+	public BinaryCodec(ClassRegistry registry) {
+		this.registry = registry;
+	}
+	
+	@Override
+	public byte getId() {
+		return ID;
+	}
+	
+	@Override
+	public int getFingerprint() {
+		return registry.getFingerprint();
+	}
+	
+	/** @return The classes written as ids. */
+	public ClassRegistry getRegistry() {
+		return registry;
+	}
+	
+	@Override
+	public PooledOutputStream encode(IProtocol protocol, Object object) throws IOException {
+		BufferPool pool = protocol.getBufferPool();
+		CodecOutput out = outputs.get();
+		if (out == null || out.getPool() != pool) {
+			out = new CodecOutput(this, pool);
+			outputs.set(out);
+		}
+		out.reset();
+		writeValue(out, object);
+		return out;
+	}
+	
+	@Override
+	public Object decode(IProtocol protocol, byte[] data, int offset, int length) throws IOException {
+		try {
+			return readValue(new CodecInput(this, data, offset, length));
+		} catch (RuntimeException e) { //Such as elements of a sorted set that can't be compared
+			throw new StreamCorruptedException("Invalid object: " + e);
+		}
+	}
+	
+	/** Writes a value with its tag.
+	 * @param out The output.
+	 * @param value The value.
+	 * @throws IOException Thrown when the value can't be written.
+	 */
+	@SuppressWarnings("unchecked")
+	void writeValue(CodecOutput out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(TAG_NULL);
+			return;
+		}
+		if (value instanceof Boolean) {
+			out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+			return;
+		}
+		Class<?> type = value instanceof Enum ? ((Enum<?>) value).getDeclaringClass() : value.getClass();
+		Byte tag = TAGS.get(type);
+		if (tag == null) {
+			Registration registration = registry.get(type);
+			if (registration != null) {
+				out.writeByte(TAG_REGISTERED);
+				out.writeVarInt(registration.getId());
+				registration.getSerializer().write(out, value);
+			} else if (type.isArray() && registry.get(type.getComponentType()) != null) {
+				Object[] array = (Object[]) value;
+				out.writeByte(TAG_REGISTERED_ARRAY);
+				out.writeVarInt(registry.get(type.getComponentType()).getId());
+				out.writeVarInt(array.length);
+				for (Object element : array)
+					writeValue(out, element);
+			} else {
+				writeSerialized(out, value);
+			}
+			return;
+		}
+		switch (tag) {
+		case TAG_TREE_SET:
+			if (((TreeSet<?>) value).comparator() != null) {
+				writeSerialized(out, value);
+				return;
+			}
+			break;
+		case TAG_TREE_MAP:
+			if (((TreeMap<?, ?>) value).comparator() != null) {
+				writeSerialized(out, value);
+				return;
+			}
+			break;
+		}
+		out.writeByte(tag);
+		switch (tag) {
+		case TAG_BYTE: out.writeByte((Byte) value); break;
+		case TAG_SHORT: out.writeShort((Short) value); break;
+		case TAG_CHAR: out.writeChar((Character) value); break;
+		case TAG_INT: out.writeInt((Integer) value); break;
+		case TAG_LONG: out.writeLong((Long) value); break;
+		case TAG_FLOAT: out.writeFloat((Float) value); break;
+		case TAG_DOUBLE: out.writeDouble((Double) value); break;
+		case TAG_STRING: out.writeString((String) value); break;
+		case TAG_BYTE_ARRAY: {
+			byte[] array = (byte[]) value;
+			out.writeVarInt(array.length);
+			out.write(array, 0, array.length);
+			break;
+		}
+		case TAG_SHORT_ARRAY: {
+			short[] array = (short[]) value;
+			out.writeVarInt(array.length);
+			for (short v : array)
+				out.writeShort(v);
+			break;
+		}
+		case TAG_CHAR_ARRAY: {
+			char[] array = (char[]) value;
+			out.writeVarInt(array.length);
+			for (char v : array)
+				out.writeChar(v);
+			break;
+		}
+		case TAG_INT_ARRAY: {
+			int[] array = (int[]) value;
+			out.writeVarInt(array.length);
+			for (int v : array)
+				out.writeInt(v);
+			break;
+		}
+		case TAG_LONG_ARRAY: {
+			long[] array = (long[]) value;
+			out.writeVarInt(array.length);
+			for (long v : array)
+				out.writeLong(v);
+			break;
+		}
+		case TAG_FLOAT_ARRAY: {
+			float[] array = (float[]) value;
+			out.writeVarInt(array.length);
+			for (float v : array)
+				out.writeFloat(v);
+			break;
+		}
+		case TAG_DOUBLE_ARRAY: {
+			double[] array = (double[]) value;
+			out.writeVarInt(array.length);
+			for (double v : array)
+				out.writeDouble(v);
+			break;
+		}
+		case TAG_BOOLEAN_ARRAY: {
+			boolean[] array = (boolean[]) value;
+			out.writeVarInt(array.length);
+			for (boolean v : array)
+				out.writeBoolean(v);
+			break;
+		}
+		case TAG_OBJECT_ARRAY: {
+			Object[] array = (Object[]) value;
+			out.writeVarInt(array.length);
+			for (Object v : array)
+				writeValue(out, v);
+			break;
+		}
+		case TAG_STRING_ARRAY: {
+			String[] array = (String[]) value;
+			out.writeVarInt(array.length);
+			for (String v : array)
+				out.writeString(v);
+			break;
+		}
+		case TAG_ARRAY_LIST: case TAG_LINKED_LIST: case TAG_HASH_SET: case TAG_LINKED_HASH_SET: case TAG_TREE_SET: {
+			Collection<Object> collection = (Collection<Object>) value;
+			out.writeVarInt(collection.size());
+			for (Object v : collection)
+				writeValue(out, v);
+			break;
+		}
+		default: { //Maps
+			Map<Object, Object> map = (Map<Object, Object>) value;
+			out.writeVarInt(map.size());
+			for (Map.Entry<Object, Object> entry : map.entrySet()) {
+				writeValue(out, entry.getKey());
+				writeValue(out, entry.getValue());
+			}
+			break;
+		}
+		}
+	}
+	
+	/** Writes a value with Java serialization.
+	 * @param out The output.
+	 * @param value The value.
+	 * @throws IOException Thrown when the value can't be serialized.
+	 */
+	private void writeSerialized(CodecOutput out, Object value) throws IOException {
+		if (!(value instanceof Serializable))
+			throw new NotSerializableException(value.getClass().getName());
+		PooledOutputStream serialized = out.getPool().getSerializer().serialize(value);
+		out.writeByte(TAG_SERIALIZED);
+		out.writeVarInt(serialized.size());
+		out.write(serialized.getBuffer(), 0, serialized.size());
+	}
+	
+	/** Reads a value written by writeValue.
+	 * @param in The input.
+	 * @return The value.
+	 * @throws IOException Thrown when the value can't be read.
+	 */
+	@SuppressWarnings("unchecked")
+	Object readValue(CodecInput in) throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+		case TAG_NULL: return null;
+		case TAG_TRUE: return Boolean.TRUE;
+		case TAG_FALSE: return Boolean.FALSE;
+		case TAG_BYTE: return in.readByte();
+		case TAG_SHORT: return in.readShort();
+		case TAG_CHAR: return in.readChar();
+		case TAG_INT: return in.readInt();
+		case TAG_LONG: return in.readLong();
+		case TAG_FLOAT: return in.readFloat();
+		case TAG_DOUBLE: return in.readDouble();
+		case TAG_STRING: return in.readString();
+		case TAG_BYTE_ARRAY: {
+			byte[] array = new byte[in.readLength(1)];
+			System.arraycopy(in.getBuffer(), in.getPosition(), array, 0, array.length);
+			in.skip(array.length);
+			return array;
+		}
+		case TAG_SHORT_ARRAY: {
+			short[] array = new short[in.readLength(2)];
+			for (int i = 0; i < array.length; i++)
+				array[i] = in.readShort();
+			return array;
+		}
+		case TAG_CHAR_ARRAY: {
+			char[] array = new char[in.readLength(2)];
+			for (int i = 0; i < array.length; i++)
+				array[i] = in.readChar();
+			return array;
+		}
+		case TAG_INT_ARRAY: {
+			int[] array = new int[in.readLength(1)];
+			for (int i = 0; i < array.length; i++)
+				array[i] = in.readInt();
+			return array;
+		}
+		case TAG_LONG_ARRAY: {
+			long[] array = new long[in.readLength(1)];
+			for (int i = 0; i < array.length; i++)
+				array[i] = in.readLong();
+			return array;
+		}
+		case TAG_FLOAT_ARRAY: {
+			float[] array = new float[in.readLength(4)];
+			for (int i = 0; i < array.length; i++)
+				array[i] = in.readFloat();
+			return array;
+		}
+		case TAG_DOUBLE_ARRAY: {
+			double[] array = new double[in.readLength(8)];
+			for (int i = 0; i < array.length; i++)
+				array[i] = in.readDouble();
+			return array;
+		}
+		case TAG_BOOLEAN_ARRAY: {
+			boolean[] array = new boolean[in.readLength(1)];
+			for (int i = 0; i < array.length; i++)
+				array[i] = in.readBoolean();
+			return array;
+		}
+		case TAG_OBJECT_ARRAY: {
+			Object[] array = new Object[in.readLength(1)];
+			for (int i = 0; i < array.length; i++)
+				array[i] = readValue(in);
+			return array;
+		}
+		case TAG_STRING_ARRAY: {
+			String[] array = new String[in.readLength(1)];
+			for (int i = 0; i < array.length; i++)
+				array[i] = in.readString();
+			return array;
+		}
+		case TAG_ARRAY_LIST: return readCollection(in, new ArrayList<Object>());
+		case TAG_LINKED_LIST: return readCollection(in, new LinkedList<Object>());
+		case TAG_HASH_SET: return readCollection(in, new HashSet<Object>());
+		case TAG_LINKED_HASH_SET: return readCollection(in, new LinkedHashSet<Object>());
+		case TAG_TREE_SET: return readCollection(in, new TreeSet<Object>());
+		case TAG_HASH_MAP: return readMap(in, new HashMap<Object, Object>());
+		case TAG_LINKED_HASH_MAP: return readMap(in, new LinkedHashMap<Object, Object>());
+		case TAG_TREE_MAP: return readMap(in, new TreeMap<Object, Object>());
+		case TAG_REGISTERED: return getRegistration(in.readVarInt()).getSerializer().read(in);
+		case TAG_REGISTERED_ARRAY: {
+			Class<?> type = getRegistration(in.readVarInt()).getType();
+			Object[] array = (Object[]) Array.newInstance(type, in.readLength(1));
+			try {
+				for (int i = 0; i < array.length; i++)
+					array[i] = readValue(in);
+			} catch (ArrayStoreException e) {
+				throw new StreamCorruptedException("Invalid array element.");
+			}
+			return array;
+		}
+		case TAG_SERIALIZED: {
+			int length = in.readLength(1);
+			ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(in.getBuffer(), in.getPosition(), length));
+			try {
+				return is.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			} finally {
+				is.close();
+				in.skip(length);
+			}
+		}
+		default:
+			throw new StreamCorruptedException("Invalid tag: " + tag);
+		}
+	}
+	
+	/** Reads the elements of a collection.
+	 * @param in The input.
+	 * @param collection The empty collection to add to.
+	 * @return The collection.
+	 * @throws IOException Thrown when an element can't be read.
+	 */
+	private Collection<Object> readCollection(CodecInput in, Collection<Object> collection) throws IOException {
+		int size = in.readLength(1);
+		for (int i = 0; i < size; i++)
+			collection.add(readValue(in));
+		return collection;
+	}
+	
+	/** Reads the entries of a map.
+	 * @param in The input.
+	 * @param map The empty map to add to.
+	 * @return The map.
+	 * @throws IOException Thrown when an entry can't be read.
+	 */
+	private Map<Object, Object> readMap(CodecInput in, Map<Object, Object> map) throws IOException {
+		int size = in.readLength(2);
+		for (int i = 0; i < size; i++)
+			map.put(readValue(in), readValue(in));
+		return map;
+	}
+	
+	/** Gets the registration of an id that was read.
+	 * @param id The id.
+	 * @return The registration.
+	 * @throws StreamCorruptedException Thrown when no class has the id.
+	 */
+	private Registration getRegistration(int id) throws StreamCorruptedException {
+		Registration registration = registry.get(id);
+		if (registration == null)
+			throw new StreamCorruptedException("Unknown class id: " + id);
+		return registration;
+	}
+	
+}
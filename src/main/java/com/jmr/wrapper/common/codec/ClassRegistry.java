@@ -0,0 +1,166 @@
+package com.jmr.wrapper.common.codec;
+
+import java.io.InvalidClassException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Networking Library
+ * ClassRegistry.java
+ * Purpose: The classes the binary codec writes as a short id instead of their name. Ids are given in the order classes 
+ * are registered, so the server and client have to register the same classes in the same order. The fingerprint of the
+ * registry is compared while connecting and the binary codec is only used if it matches. Classes should be registered 
+ * before the server is started or the client connects.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class ClassRegistry {
+
+	/** The registered classes by class. */
+	private final Map<Class<?>, Registration> byClass = new ConcurrentHashMap<Class<?>, Registration>();
+	
+	/** The registered classes by id. Replaced when a class is registered. */
+	private volatile Registration[] byId = new Registration[0];
+	
+	/** The fingerprint of the registered classes. */
+	private volatile int fingerprint = 0;
+	
+	/** Registers a class. Enums only write their constant's position. Classes marked with NitroPacket use the serializer 
+	 * generated for them and other classes use a ReflectionSerializer.
+	 * @param type The class.
+	 * @return The id of the class.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public synchronized <T> int register(Class<T> type) {
+		Registration registration = byClass.get(type);
+		if (registration != null)
+			return registration.id;
+		if (type.isEnum())
+			return register(type, new EnumSerializer(type));
+		GeneratedSerializer<T> generated = getGeneratedSerializer(type);
+		if (generated != null)
+			return add(type, generated, generated.getLayout());
+		try {
+			ReflectionSerializer<T> serializer = new ReflectionSerializer<T>(type);
+			return add(type, serializer, serializer.getLayout());
+		} catch (InvalidClassException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+	}
+	
+	/** Registers a class with its own serializer.
+	 * @param type The class.
+	 * @param serializer The serializer.
+	 * @return The id of the class.
+	 */
+	public synchronized <T> int register(Class<T> type, Serializer<T> serializer) {
+		Registration registration = byClass.get(type);
+		if (registration != null)
+			return registration.id;
+		return add(type, serializer, serializer.getClass().getName());
+	}
+	
+	/** Finds the serializer the NitroNet processor generated for a class.
+	 * @param type The class.
+	 * @return The serializer, or null if none was generated.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> GeneratedSerializer<T> getGeneratedSerializer(Class<T> type) {
+		try {
+			Class<?> serializer = Class.forName(type.getName() + GeneratedSerializer.SUFFIX, true, type.getClassLoader());
+			return (GeneratedSerializer<T>) serializer.getDeclaredConstructor().newInstance();
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new IllegalArgumentException("Can't create the generated serializer of " + type.getName(), e);
+		}
+	}
+	
+	/** Adds a class with the next id and updates the fingerprint.
+	 * @param type The class.
+	 * @param serializer The serializer.
+	 * @param layout Describes how the class is written.
+	 * @return The id of the class.
+	 */
+	@SuppressWarnings("unchecked")
+	private int add(Class<?> type, Serializer<?> serializer, String layout) {
+		Registration registration = new Registration(byId.length, type, (Serializer<Object>) serializer);
+		Registration[] ids = Arrays.copyOf(byId, byId.length + 1);
+		ids[registration.id] = registration;
+		byClass.put(type, registration);
+		byId = ids;
+		
+		CRC32 crc = new CRC32();
+		byte[] description = (type.getName() + '=' + layout).getBytes();
+		crc.update(description, 0, description.length);
+		fingerprint = 31 * fingerprint + (int) crc.getValue();
+		return registration.id;
+	}
+	
+	/** Gets the registration of a class.
+	 * @param type The class.
+	 * @return The registration, or null if it isn't registered.
+	 */
+	public Registration get(Class<?> type) {
+		return byClass.get(type);
+	}
+	
+	/** Gets the registration of an id.
+	 * @param id The id.
+	 * @return The registration, or null if no class has the id.
+	 */
+	public Registration get(int id) {
+		Registration[] ids = byId;
+		return id >= 0 && id < ids.length ? ids[id] : null;
+	}
+	
+	/** @return The fingerprint of the registered classes. */
+	public int getFingerprint() {
+		return fingerprint;
+	}
+	
+	/** A registered class. */
+	public static class Registration {
+		
+		/** The id of the class. */
+		private final int id;
+		
+		/** The class. */
+		private final Class<?> type;
+		
+		/** The serializer of the class. */
+		private final Serializer<Object> serializer;
+		
+		/** Creates a new registration.
+		 * @param id The id of the class.
+		 * @param type The class.
+		 * @param serializer The serializer of the class.
+		 */
+		Registration(int id, Class<?> type, Serializer<Object> serializer) {
+			this.id = id;
+			this.type = type;
+			this.serializer = serializer;
+		}
+		
+		/** @return The id of the class. */
+		public int getId() {
+			return id;
+		}
+		
+		/** @return The class. */
+		public Class<?> getType() {
+			return type;
+		}
+		
+		/** @return The serializer of the class. */
+		public Serializer<Object> getSerializer() {
+			return serializer;
+		}
+		
+	}
+	
+}
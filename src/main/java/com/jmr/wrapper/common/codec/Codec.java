@@ -0,0 +1,47 @@
+package com.jmr.wrapper.common.codec;
+
+import java.io.IOException;
+
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.buffer.PooledOutputStream;
+
+/**
+ * Networking Library
+ * Codec.java
+ * Purpose: Turns objects into bytes and back. The codec set on the server and client is offered while connecting and only
+ * used for a connection if both sides have the same codec with the same fingerprint. Otherwise, and for packets in the 
+ * original framing, Java serialization is used.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public interface Codec {
+
+	/** @return The id of the codec sent while connecting. Java serialization is 0. */
+	byte getId();
+	
+	/** @return A value that is the same on both sides only if they encode objects the same way, such as a hash of the 
+	 * registered classes. Sent while connecting. */
+	int getFingerprint();
+	
+	/** Encodes an object.
+	 * @param protocol Instance of the protocol.
+	 * @param object The object.
+	 * @return The stream holding the object's bytes. Only valid until the next object is encoded on the same thread.
+	 * @throws IOException Thrown when the object can't be encoded.
+	 */
+	PooledOutputStream encode(IProtocol protocol, Object object) throws IOException;
+	
+	/** Decodes an object.
+	 * @param protocol Instance of the protocol.
+	 * @param data The array holding the object's bytes. It isn't kept once this returns.
+	 * @param offset The index of the object's bytes in the array.
+	 * @param length The amount of bytes of the object.
+	 * @return The object.
+	 * @throws IOException Thrown when the object can't be decoded.
+	 * @throws ClassNotFoundException Thrown when the object's class isn't found.
+	 */
+	Object decode(IProtocol protocol, byte[] data, int offset, int length) throws IOException, ClassNotFoundException;
+	
+}
@@ -0,0 +1,210 @@
+package com.jmr.wrapper.common.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * Networking Library
+ * CodecInput.java
+ * Purpose: Reads the data written by CodecOutput from part of an array. Reading past the end throws an exception instead 
+ * of reading the rest of the array.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class CodecInput {
+
+	/** The codec reading the data. */
+	private final BinaryCodec codec;
+	
+	/** The array holding the data. */
+	private final byte[] buf;
+	
+	/** The index of the next byte and the index after the last byte. */
+	private int pos, limit;
+	
+	/** Creates a new input.
+	 * @param codec The codec reading the data.
+	 * @param buf The array holding the data.
+	 * @param offset The index of the data in the array.
+	 * @param length The amount of bytes of the data.
+	 */
+	public CodecInput(BinaryCodec codec, byte[] buf, int offset, int length) {
+		this.codec = codec;
+		this.buf = buf;
+		this.pos = offset;
+		this.limit = offset + length;
+	}
+	
+	/** Reads any object written with CodecOutput.writeObject.
+	 * @return The object, can be null.
+	 * @throws IOException Thrown when the object can't be read.
+	 */
+	public Object readObject() throws IOException {
+		return codec.readValue(this);
+	}
+	
+	/** @return The boolean. */
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+	
+	/** @return The byte. */
+	public byte readByte() throws IOException {
+		require(1);
+		return buf[pos++];
+	}
+	
+	/** @return The short. */
+	public short readShort() throws IOException {
+		require(2);
+		return (short) ((buf[pos++] << 8) | (buf[pos++] & 0xFF));
+	}
+	
+	/** @return The char. */
+	public char readChar() throws IOException {
+		return (char) readShort();
+	}
+	
+	/** @return The int written by CodecOutput.writeInt. */
+	public int readInt() throws IOException {
+		int value = readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/** @return The long written by CodecOutput.writeLong. */
+	public long readLong() throws IOException {
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/** @return The float. */
+	public float readFloat() throws IOException {
+		return Float.intBitsToFloat(readFixedInt());
+	}
+	
+	/** @return The double. */
+	public double readDouble() throws IOException {
+		return Double.longBitsToDouble(readFixedLong());
+	}
+	
+	/** @return The int written by CodecOutput.writeVarInt. */
+	public int readVarInt() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = readByte();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new StreamCorruptedException("Invalid variable length number.");
+	}
+	
+	/** @return The long written by CodecOutput.writeVarLong. */
+	public long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			byte b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new StreamCorruptedException("Invalid variable length number.");
+	}
+	
+	/** @return The int written by CodecOutput.writeFixedInt. */
+	public int readFixedInt() throws IOException {
+		require(4);
+		return buf[pos++] << 24 | (buf[pos++] & 0xFF) << 16 | (buf[pos++] & 0xFF) << 8 | (buf[pos++] & 0xFF);
+	}
+	
+	/** @return The long written by CodecOutput.writeFixedLong. */
+	public long readFixedLong() throws IOException {
+		return ((long) readFixedInt() << 32) | (readFixedInt() & 0xFFFFFFFFL);
+	}
+	
+	/** @return The string written by CodecOutput.writeString, can be null. */
+	public String readString() throws IOException {
+		int utfLength = readVarInt() - 1;
+		if (utfLength < 0)
+			return null;
+		require(utfLength);
+		char[] chars = new char[utfLength];
+		int end = pos + utfLength;
+		int length = 0;
+		while (pos < end) {
+			int c = buf[pos++] & 0xFF;
+			if (c < 0x80) {
+				chars[length++] = (char) c;
+			} else if ((c & 0xE0) == 0xC0 && pos < end) {
+				chars[length++] = (char) (((c & 0x1F) << 6) | (buf[pos++] & 0x3F));
+			} else if ((c & 0xF0) == 0xE0 && pos + 1 < end) {
+				chars[length++] = (char) (((c & 0x0F) << 12) | ((buf[pos++] & 0x3F) << 6) | (buf[pos++] & 0x3F));
+			} else {
+				throw new StreamCorruptedException("Invalid string.");
+			}
+		}
+		return new String(chars, 0, length);
+	}
+	
+	/** @return The byte array written by CodecOutput.writeBytes, can be null. */
+	public byte[] readBytes() throws IOException {
+		int length = readVarInt() - 1;
+		if (length < 0)
+			return null;
+		require(length);
+		byte[] ret = new byte[length];
+		System.arraycopy(buf, pos, ret, 0, length);
+		pos += length;
+		return ret;
+	}
+	
+	/** Reads the length of an array or collection and makes sure the data can hold that many elements. Stops a corrupt 
+	 * length from creating a huge array.
+	 * @param elementSize The least amount of bytes each element takes.
+	 * @return The length.
+	 * @throws IOException Thrown when the length can't be right.
+	 */
+	public int readLength(int elementSize) throws IOException {
+		int length = readVarInt();
+		if (length < 0 || (long) length * elementSize > limit - pos)
+			throw new StreamCorruptedException("Invalid length: " + length);
+		return length;
+	}
+	
+	/** @return The amount of bytes that weren't read. */
+	public int remaining() {
+		return limit - pos;
+	}
+	
+	/** @return The array holding the data. */
+	byte[] getBuffer() {
+		return buf;
+	}
+	
+	/** @return The index of the next byte. */
+	int getPosition() {
+		return pos;
+	}
+	
+	/** Skips bytes that were read directly from the array.
+	 * @param amount The amount of bytes.
+	 * @throws IOException Thrown when there aren't that many bytes left.
+	 */
+	void skip(int amount) throws IOException {
+		require(amount);
+		pos += amount;
+	}
+	
+	/** Makes sure enough bytes are left.
+	 * @param amount The amount of bytes needed.
+	 * @throws EOFException Thrown when there aren't enough bytes.
+	 */
+	private void require(int amount) throws EOFException {
+		if (amount < 0 || limit - pos < amount)
+			throw new EOFException("Read past the end of the object.");
+	}
+	
+}
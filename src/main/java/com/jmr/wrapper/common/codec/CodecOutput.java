@@ -0,0 +1,178 @@
+package com.jmr.wrapper.common.codec;
+
+import java.io.IOException;
+
+import com.jmr.wrapper.common.buffer.BufferPool;
+import com.jmr.wrapper.common.buffer.PooledOutputStream;
+
+/**
+ * Networking Library
+ * CodecOutput.java
+ * Purpose: The pooled stream the binary codec writes an object to. Integers are written as variable length numbers so 
+ * small values take one byte, and strings are written as UTF-8 without creating a byte array.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class CodecOutput extends PooledOutputStream {
+
+	/** The codec writing to the stream. */
+	private final BinaryCodec codec;
+	
+	/** Creates a new output.
+	 * @param codec The codec writing to the stream.
+	 * @param pool The pool the arrays come from.
+	 */
+	public CodecOutput(BinaryCodec codec, BufferPool pool) {
+		super(pool, 1 << 10);
+		this.codec = codec;
+	}
+	
+	/** Writes any object with its type so it can be read with CodecInput.readObject.
+	 * @param object The object, can be null.
+	 * @throws IOException Thrown when the object can't be written.
+	 */
+	public void writeObject(Object object) throws IOException {
+		codec.writeValue(this, object);
+	}
+	
+	/** @param value The boolean. */
+	public void writeBoolean(boolean value) {
+		write(value ? 1 : 0);
+	}
+	
+	/** @param value The byte. */
+	public void writeByte(int value) {
+		write(value);
+	}
+	
+	/** @param value The short. */
+	public void writeShort(int value) {
+		ensureCapacity(count + 2);
+		buf[count++] = (byte) (value >>> 8);
+		buf[count++] = (byte) value;
+	}
+	
+	/** @param value The char. */
+	public void writeChar(int value) {
+		writeShort(value);
+	}
+	
+	/** Writes an int as a variable length number. Small negative numbers are small too.
+	 * @param value The int.
+	 */
+	public void writeInt(int value) {
+		writeVarInt((value << 1) ^ (value >> 31));
+	}
+	
+	/** Writes a long as a variable length number. Small negative numbers are small too.
+	 * @param value The long.
+	 */
+	public void writeLong(long value) {
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+	
+	/** @param value The float. */
+	public void writeFloat(float value) {
+		writeFixedInt(Float.floatToIntBits(value));
+	}
+	
+	/** @param value The double. */
+	public void writeDouble(double value) {
+		writeFixedLong(Double.doubleToLongBits(value));
+	}
+	
+	/** Writes an int that isn't negative as a variable length number, 7 bits per byte.
+	 * @param value The int.
+	 */
+	public void writeVarInt(int value) {
+		ensureCapacity(count + 5);
+		while ((value & ~0x7F) != 0) {
+			buf[count++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[count++] = (byte) value;
+	}
+	
+	/** Writes a long that isn't negative as a variable length number, 7 bits per byte.
+	 * @param value The long.
+	 */
+	public void writeVarLong(long value) {
+		ensureCapacity(count + 10);
+		while ((value & ~0x7FL) != 0) {
+			buf[count++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[count++] = (byte) value;
+	}
+	
+	/** Writes an int in four bytes.
+	 * @param value The int.
+	 */
+	public void writeFixedInt(int value) {
+		ensureCapacity(count + 4);
+		buf[count++] = (byte) (value >>> 24);
+		buf[count++] = (byte) (value >>> 16);
+		buf[count++] = (byte) (value >>> 8);
+		buf[count++] = (byte) value;
+	}
+	
+	/** Writes a long in eight bytes.
+	 * @param value The long.
+	 */
+	public void writeFixedLong(long value) {
+		writeFixedInt((int) (value >>> 32));
+		writeFixedInt((int) value);
+	}
+	
+	/** Writes a string, which can be null. The length in bytes is written first, plus one so that 0 means null.
+	 * @param value The string.
+	 */
+	public void writeString(String value) {
+		if (value == null) {
+			writeVarInt(0);
+			return;
+		}
+		int length = value.length();
+		int utfLength = length;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80)
+				utfLength += c >= 0x800 ? 2 : 1;
+		}
+		writeVarInt(utfLength + 1);
+		ensureCapacity(count + utfLength);
+		if (utfLength == length) { //Only ASCII
+			for (int i = 0; i < length; i++)
+				buf[count++] = (byte) value.charAt(i);
+			return;
+		}
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				buf[count++] = (byte) c;
+			} else if (c < 0x800) {
+				buf[count++] = (byte) (0xC0 | (c >> 6));
+				buf[count++] = (byte) (0x80 | (c & 0x3F));
+			} else { //Surrogates are written on their own, like DataOutput does
+				buf[count++] = (byte) (0xE0 | (c >> 12));
+				buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buf[count++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+	
+	/** Writes a byte array, which can be null. The length is written first, plus one so that 0 means null.
+	 * @param value The array.
+	 */
+	public void writeBytes(byte[] value) {
+		if (value == null) {
+			writeVarInt(0);
+			return;
+		}
+		writeVarInt(value.length + 1);
+		write(value, 0, value.length);
+	}
+	
+}
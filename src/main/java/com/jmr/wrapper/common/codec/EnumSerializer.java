@@ -0,0 +1,40 @@
+package com.jmr.wrapper.common.codec;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * Networking Library
+ * EnumSerializer.java
+ * Purpose: The serializer used for registered enums. Only the constant's position is written.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class EnumSerializer<E extends Enum<E>> implements Serializer<E> {
+
+	/** The constants of the enum. */
+	private final E[] constants;
+	
+	/** Creates the serializer for an enum.
+	 * @param type The enum.
+	 */
+	public EnumSerializer(Class<E> type) {
+		constants = type.getEnumConstants();
+	}
+	
+	@Override
+	public void write(CodecOutput out, E object) {
+		out.writeVarInt(object.ordinal());
+	}
+	
+	@Override
+	public E read(CodecInput in) throws IOException {
+		int ordinal = in.readVarInt();
+		if (ordinal < 0 || ordinal >= constants.length)
+			throw new StreamCorruptedException("Invalid enum constant: " + ordinal);
+		return constants[ordinal];
+	}
+	
+}
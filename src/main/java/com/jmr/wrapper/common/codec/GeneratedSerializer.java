@@ -0,0 +1,22 @@
+package com.jmr.wrapper.common.codec;
+
+/**
+ * Networking Library
+ * GeneratedSerializer.java
+ * Purpose: The superclass of the serializers the NitroNet processor generates for classes marked with NitroPacket. A 
+ * generated serializer is named after its class followed by "$$NitroSerializer" and is found by the ClassRegistry when 
+ * the class is registered.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public abstract class GeneratedSerializer<T> implements Serializer<T> {
+
+	/** The ending of the name of a generated serializer. */
+	public static final String SUFFIX = "$$NitroSerializer";
+	
+	/** @return The names and types of the fields that are written, in the same form as ReflectionSerializer. */
+	public abstract String getLayout();
+	
+}
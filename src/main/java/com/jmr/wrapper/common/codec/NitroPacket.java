@@ -0,0 +1,26 @@
+package com.jmr.wrapper.common.codec;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Networking Library
+ * NitroPacket.java
+ * Purpose: Marks a packet class for the NitroNet processor, which generates a serializer for it while compiling. The 
+ * serializer reads and writes the fields directly instead of using reflection and is used by the ClassRegistry once the
+ * class is registered. The class's fields can't be private, and it needs either a constructor without arguments or a 
+ * constructor taking every field in the order they are declared.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface NitroPacket {
+
+}
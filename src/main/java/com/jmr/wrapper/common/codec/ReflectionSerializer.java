@@ -0,0 +1,177 @@
+package com.jmr.wrapper.common.codec;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Networking Library
+ * ReflectionSerializer.java
+ * Purpose: The serializer used for registered classes that don't have their own. Writes every field that isn't static or
+ * transient, the superclass's fields first and each class's fields sorted by name, so both sides agree on the order.
+ * Objects are created with the class's constructor without arguments, or the way Java serialization creates them if it 
+ * doesn't have one.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class ReflectionSerializer<T> implements Serializer<T> {
+
+	/** The kinds of fields. */
+	private static final int BOOLEAN = 0, BYTE = 1, SHORT = 2, CHAR = 3, INT = 4, LONG = 5, FLOAT = 6, DOUBLE = 7, 
+			STRING = 8, OBJECT = 9;
+	
+	/** The constructor used to create objects. */
+	private final Constructor<T> constructor;
+	
+	/** The fields that are written. */
+	private final Field[] fields;
+	
+	/** The kind of each field. */
+	private final int[] kinds;
+	
+	/** Describes the fields so that both sides can check they are the same. */
+	private final String layout;
+	
+	/** Finds the fields and constructor of a class.
+	 * @param type The class.
+	 * @throws InvalidClassException Thrown when the class can't be created.
+	 */
+	public ReflectionSerializer(Class<T> type) throws InvalidClassException {
+		constructor = getConstructor(type);
+		
+		List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass())
+			hierarchy.add(0, c);
+		
+		List<Field> found = new ArrayList<Field>();
+		StringBuilder builder = new StringBuilder();
+		for (Class<?> c : hierarchy) {
+			Field[] declared = c.getDeclaredFields();
+			Arrays.sort(declared, new Comparator<Field>() {
+				@Override
+				public int compare(Field f1, Field f2) {
+					return f1.getName().compareTo(f2.getName());
+				}
+			});
+			for (Field field : declared) {
+				if ((field.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) != 0)
+					continue;
+				field.setAccessible(true);
+				found.add(field);
+				builder.append(field.getName()).append(':').append(field.getType().getName()).append(';');
+			}
+		}
+		fields = found.toArray(new Field[found.size()]);
+		kinds = new int[fields.length];
+		for (int i = 0; i < fields.length; i++)
+			kinds[i] = getKind(fields[i].getType());
+		layout = builder.toString();
+	}
+	
+	@Override
+	public void write(CodecOutput out, T object) throws IOException {
+		try {
+			for (int i = 0; i < fields.length; i++) {
+				Field field = fields[i];
+				switch (kinds[i]) {
+				case BOOLEAN: out.writeBoolean(field.getBoolean(object)); break;
+				case BYTE: out.writeByte(field.getByte(object)); break;
+				case SHORT: out.writeShort(field.getShort(object)); break;
+				case CHAR: out.writeChar(field.getChar(object)); break;
+				case INT: out.writeInt(field.getInt(object)); break;
+				case LONG: out.writeLong(field.getLong(object)); break;
+				case FLOAT: out.writeFloat(field.getFloat(object)); break;
+				case DOUBLE: out.writeDouble(field.getDouble(object)); break;
+				case STRING: out.writeString((String) field.get(object)); break;
+				default: out.writeObject(field.get(object)); break;
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	@Override
+	public T read(CodecInput in) throws IOException {
+		try {
+			T object = constructor.newInstance();
+			for (int i = 0; i < fields.length; i++) {
+				Field field = fields[i];
+				switch (kinds[i]) {
+				case BOOLEAN: field.setBoolean(object, in.readBoolean()); break;
+				case BYTE: field.setByte(object, in.readByte()); break;
+				case SHORT: field.setShort(object, in.readShort()); break;
+				case CHAR: field.setChar(object, in.readChar()); break;
+				case INT: field.setInt(object, in.readInt()); break;
+				case LONG: field.setLong(object, in.readLong()); break;
+				case FLOAT: field.setFloat(object, in.readFloat()); break;
+				case DOUBLE: field.setDouble(object, in.readDouble()); break;
+				case STRING: field.set(object, in.readString()); break;
+				default: field.set(object, in.readObject()); break;
+				}
+			}
+			return object;
+		} catch (ReflectiveOperationException | IllegalArgumentException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	/** @return The names and types of the fields that are written. */
+	public String getLayout() {
+		return layout;
+	}
+	
+	/** Gets the kind of a field's type.
+	 * @param type The type.
+	 * @return The kind.
+	 */
+	private static int getKind(Class<?> type) {
+		if (type == boolean.class) return BOOLEAN;
+		if (type == byte.class) return BYTE;
+		if (type == short.class) return SHORT;
+		if (type == char.class) return CHAR;
+		if (type == int.class) return INT;
+		if (type == long.class) return LONG;
+		if (type == float.class) return FLOAT;
+		if (type == double.class) return DOUBLE;
+		if (type == String.class) return STRING;
+		return OBJECT;
+	}
+	
+	/** Gets the constructor without arguments. If there isn't one, asks the JVM for the constructor Java serialization 
+	 * uses, which skips the class's own constructors.
+	 * @param type The class.
+	 * @return The constructor.
+	 * @throws InvalidClassException Thrown when neither can be found.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Constructor<T> getConstructor(Class<T> type) throws InvalidClassException {
+		try {
+			Constructor<T> constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			return constructor;
+		} catch (NoSuchMethodException e) {
+			//Use the serialization constructor
+		}
+		try {
+			Class<?> factoryClass = Class.forName("sun.reflect.ReflectionFactory");
+			Object factory = factoryClass.getMethod("getReflectionFactory").invoke(null);
+			Method method = factoryClass.getMethod("newConstructorForSerialization", Class.class, Constructor.class);
+			Constructor<T> constructor = (Constructor<T>) method.invoke(factory, type, Object.class.getDeclaredConstructor());
+			constructor.setAccessible(true);
+			return constructor;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			throw new InvalidClassException(type.getName(), "No constructor without arguments.");
+		}
+	}
+	
+}
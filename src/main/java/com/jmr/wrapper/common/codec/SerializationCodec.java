@@ -0,0 +1,53 @@
+package com.jmr.wrapper.common.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.buffer.PooledOutputStream;
+
+/**
+ * Networking Library
+ * SerializationCodec.java
+ * Purpose: The codec using Java serialization. It's the default and is always used when the other side doesn't have the 
+ * same codec or for packets in the original framing.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class SerializationCodec implements Codec {
+
+	/** The id of the codec. */
+	public static final byte ID = 0;
+	
+	/** The instance of the codec. It has no state so it's shared. */
+	public static final SerializationCodec INSTANCE = new SerializationCodec();
+	
+	@Override
+	public byte getId() {
+		return ID;
+	}
+	
+	@Override
+	public int getFingerprint() {
+		return 0;
+	}
+	
+	@Override
+	public PooledOutputStream encode(IProtocol protocol, Object object) throws IOException {
+		return protocol.getBufferPool().getSerializer().serialize(object);
+	}
+	
+	@Override
+	public Object decode(IProtocol protocol, byte[] data, int offset, int length) throws IOException, ClassNotFoundException {
+		ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(data, offset, length));
+		try {
+			return is.readObject();
+		} finally {
+			is.close();
+		}
+	}
+	
+}
@@ -0,0 +1,31 @@
+package com.jmr.wrapper.common.codec;
+
+import java.io.IOException;
+
+/**
+ * Networking Library
+ * Serializer.java
+ * Purpose: Writes and reads the fields of one class for the binary codec. Classes registered in a ClassRegistry without 
+ * a serializer get one that uses reflection.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public interface Serializer<T> {
+
+	/** Writes the fields of an object.
+	 * @param out The output to write to.
+	 * @param object The object.
+	 * @throws IOException Thrown when a field can't be written.
+	 */
+	void write(CodecOutput out, T object) throws IOException;
+	
+	/** Reads the fields written by write and creates the object.
+	 * @param in The input to read from.
+	 * @return The object.
+	 * @throws IOException Thrown when a field can't be read.
+	 */
+	T read(CodecInput in) throws IOException;
+	
+}
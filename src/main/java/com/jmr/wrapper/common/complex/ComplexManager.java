@@ -1,86 +1,244 @@
 package com.jmr.wrapper.common.complex;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.jmr.wrapper.common.Connection;
 import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.config.Config;
 import com.jmr.wrapper.server.threads.ReceivedThread;
 
 /**
  * Networking Library
  * ComplexManager.java
- * Purpose: Singleton class that manages all complex objects. When a new complex object is received from a stream it is passed to here
+ * Purpose: Manages all complex objects of a server or client. When a new complex object is received from a stream it is passed to here
  * and a new ReceivedComplexObject is created. As more pieces come in they are added to the correct objects and once all of the pieces
- * arrive the object is formed and passed to the event listener.
+ * arrive the object is formed and passed to the event listener. Objects are found by their connection and the id the 
+ * sending side gave them, or their checksum for older versions that don't send it, and pieces of different objects are 
+ * added at the same time. Objects that stop receiving pieces are dropped after a timeout, and objects are 
+ * dropped when they would take more memory than allowed for their connection or for all connections.
  * 
  * @author Jon R (Baseball435)
  * @version 1.0 7/25/2014
  */
 
 public class ComplexManager {
-
-	/** Singleton instance of the class. */
-	private static final ComplexManager instance = new ComplexManager();
 	
-	/** Array to hold all complex objects that are being formed. */
-	private final ArrayList<ReceivedComplexObject> complexObjects = new ArrayList<ReceivedComplexObject>();
+	/** The complex objects being formed for each connection. */
+	private final ConcurrentHashMap<Connection, Reassembly> connections = new ConcurrentHashMap<Connection, Reassembly>();
 	
-	/** Instance of the protocol being used. */
-	private IProtocol protocol;
+	/** The amount of bytes taken by the pieces of all complex objects being formed. */
+	private final AtomicLong totalBytes = new AtomicLong();
 	
-	/** Default private constructor. */
-	private ComplexManager() {
-		
-	}
+	/** Counter used to set the id of complex objects sent. */
+	private final AtomicInteger counter = new AtomicInteger();
 	
-	/** Sets the instance of the protocol being used.
-	 * @param protocol The instance.
+	/** Instance of the protocol being used. */
+	private final IProtocol protocol;
+	
+	/** Creates the complex manager of a server or client.
+	 * @param protocol Instance of the protocol.
 	 */
-	public void setProtocol(IProtocol protocol) {
+	public ComplexManager(IProtocol protocol) {
 		this.protocol = protocol;
 	}
 	
+	/** @return A new id for a complex object that's sent, never negative. */
+	public int nextId() {
+		return counter.getAndIncrement() & Integer.MAX_VALUE;
+	}
+	
 	/** Handles incoming complex pieces and adds them to their correct complex object.
 	 * @param piece The new piece.
 	 * @param con The connection it came from.
 	 */
 	public void handlePiece(ReceivedComplexPiece piece, Connection con) {
-		synchronized(complexObjects) { //Synchronized because when it's UDP the ComplexObjects HashMap is edited at the same time.
-			ReceivedComplexObject obj = getComplexObject(piece, con);
+		IProtocol protocol = con.getProtocol() != null ? con.getProtocol() : this.protocol;
+		Config config = protocol.getConfig();
+		if (piece.getPieceSize() <= 0 || piece.getPieceSize() > config.COMPLEX_MAX_PIECES || piece.getId() < 0 || piece.getId() >= piece.getPieceSize()) {
+			System.out.println("Received an invalid complex piece.");
+			return;
+		}
+		
+		Reassembly reassembly = getReassembly(con);
+		ReceivedComplexObject obj = reassembly.get(piece);
+		if (obj == null) {
+			ReceivedComplexObject created = new ReceivedComplexObject(piece.getChecksum(), piece.getChecksumValue(), piece.getMessageId(), con, piece.getPieceSize(), protocol);
+			obj = reassembly.putIfAbsent(created);
 			if (obj == null) {
-				obj = new ReceivedComplexObject(piece.getChecksum(), con, piece.getPieceSize(), protocol);
-				complexObjects.add(obj);
+				obj = created;
+				scheduleTimeout(con, reassembly, obj, config.COMPLEX_TIMEOUT, config.COMPLEX_TIMEOUT);
 			}
-			obj.addPiece(piece);
-			if (obj.isFormed()) {
-				Object formed = obj.formObject();
-				if (formed != null) {
-					protocol.executeThread(new ReceivedThread(protocol.getListener(), con, formed));
-				} else {
-					System.out.println("Lost complex object.");
-				}
-				complexObjects.remove(obj);
+		}
+		
+		synchronized (obj) {
+			long size = obj.getBytesNeeded(piece);
+			if (size < 0)
+				return;
+			long conBytes = reassembly.bytes.addAndGet(size);
+			long allBytes = totalBytes.addAndGet(size);
+			if (conBytes > config.COMPLEX_CONNECTION_BUDGET || allBytes > config.COMPLEX_TOTAL_BUDGET) {
+				release(reassembly, size + obj.close(true)); //Kept until the timeout so the rest of its pieces are ignored. Sent again, it gets a new id
+				System.out.println("Dropped a complex object because the complex objects take too much memory.");
+				return;
 			}
+			try {
+				obj.addPiece(piece);
+			} catch (IOException e) {
+				release(reassembly, obj.close(true));
+				System.out.println("Lost complex object. " + e.getMessage());
+				return;
+			}
+			if (!obj.isFormed())
+				return;
+			release(reassembly, obj.close(false));
+		}
+		reassembly.remove(obj);
+		
+		Object formed = obj.formObject();
+		if (formed != null) {
+			protocol.getDispatcher().dispatch(con, new ReceivedThread(protocol.getListener(), con, formed));
+		} else {
+			System.out.println("Lost complex object.");
 		}
 	}
 	
-	/** Goes through the array of objects and finds the one that matches the piece's checksum and connection.
-	 * @param piece The piece.
-	 * @param con The connection it came from.
-	 * @return The correct complex object.
+	/** Drops the complex objects being formed for a connection, once it's closed.
+	 * @param con The connection.
+	 */
+	public void remove(Connection con) {
+		Reassembly reassembly = connections.remove(con);
+		if (reassembly == null)
+			return;
+		for (ReceivedComplexObject obj : reassembly.getObjects()) {
+			synchronized (obj) {
+				release(reassembly, obj.close(true));
+			}
+		}
+		reassembly.clear();
+	}
+	
+	/** Gets the complex objects being formed for a connection, adding them if there are none yet.
+	 * @param con The connection.
+	 * @return The connection's complex objects.
 	 */
-	private ReceivedComplexObject getComplexObject(ReceivedComplexPiece piece, Connection con) {
-		for (int i = 0; i < complexObjects.size(); i++) {
-			ReceivedComplexObject o = complexObjects.get(i);
-			if (o.getConnection().equals(con) && o.getChecksum().equalsIgnoreCase(piece.getChecksum()))
-				return o;
+	private Reassembly getReassembly(Connection con) {
+		Reassembly reassembly = connections.get(con);
+		if (reassembly == null) {
+			Reassembly created = new Reassembly();
+			reassembly = connections.putIfAbsent(con, created);
+			if (reassembly == null)
+				reassembly = created;
 		}
-		return null;
+		return reassembly;
 	}
 	
-	/** @return Singleton instance of the class. */
-	public static ComplexManager getInstance() {
-		return instance;
+	/** Drops a complex object if it doesn't receive a piece before the timeout, and removes it once it's closed.
+	 * @param con The connection it came from.
+	 * @param reassembly The connection's complex objects.
+	 * @param obj The complex object.
+	 * @param delay The milliseconds until the object is checked.
+	 * @param timeout The milliseconds the object may go without receiving a piece.
+	 */
+	private void scheduleTimeout(final Connection con, final Reassembly reassembly, final ReceivedComplexObject obj, long delay, final int timeout) {
+		protocol.getTimerWheel().schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (obj) {
+					if (!obj.isClosed()) {
+						long idle = System.currentTimeMillis() - obj.getLastActivity();
+						if (idle < timeout) {
+							scheduleTimeout(con, reassembly, obj, timeout - idle, timeout);
+							return;
+						}
+						release(reassembly, obj.close(true));
+						System.out.println("Lost complex object.");
+					}
+				}
+				reassembly.remove(obj);
+				if (reassembly.isEmpty())
+					connections.remove(con, reassembly);
+			}
+		}, delay);
+	}
+	
+	/** Gives back the bytes taken by pieces.
+	 * @param reassembly The connection's complex objects.
+	 * @param bytes The amount of bytes.
+	 */
+	private void release(Reassembly reassembly, long bytes) {
+		reassembly.bytes.addAndGet(-bytes);
+		totalBytes.addAndGet(-bytes);
+	}
+	
+	/** @return The amount of bytes taken by the pieces of all complex objects being formed. */
+	public long getTotalBytes() {
+		return totalBytes.get();
+	}
+	
+	/** The complex objects being formed for one connection. */
+	private static class Reassembly {
+		
+		/** The complex objects, by the id the sending side gave them. */
+		private final ConcurrentHashMap<Integer, ReceivedComplexObject> objects = new ConcurrentHashMap<Integer, ReceivedComplexObject>();
+		
+		/** The complex objects from older versions that don't send the id, by their checksum. */
+		private final ConcurrentHashMap<String, ReceivedComplexObject> unnumbered = new ConcurrentHashMap<String, ReceivedComplexObject>();
+		
+		/** The amount of bytes taken by the pieces of the complex objects. */
+		private final AtomicLong bytes = new AtomicLong();
+		
+		/** Gets the complex object a piece belongs to.
+		 * @param piece The piece.
+		 * @return The object, or null if it isn't being formed.
+		 */
+		private ReceivedComplexObject get(ReceivedComplexPiece piece) {
+			if (piece.getMessageId() == ReceivedComplexPiece.NO_MESSAGE_ID)
+				return unnumbered.get(piece.getChecksum());
+			return objects.get(piece.getMessageId());
+		}
+		
+		/** Adds a complex object unless one with the same id or checksum is already being formed.
+		 * @param obj The object.
+		 * @return The object already being formed, or null if it was added.
+		 */
+		private ReceivedComplexObject putIfAbsent(ReceivedComplexObject obj) {
+			if (obj.getMessageId() == ReceivedComplexPiece.NO_MESSAGE_ID)
+				return unnumbered.putIfAbsent(obj.getChecksum(), obj);
+			return objects.putIfAbsent(obj.getMessageId(), obj);
+		}
+		
+		/** Removes a complex object if it's still the one with its id or checksum.
+		 * @param obj The object.
+		 */
+		private void remove(ReceivedComplexObject obj) {
+			if (obj.getMessageId() == ReceivedComplexPiece.NO_MESSAGE_ID)
+				unnumbered.remove(obj.getChecksum(), obj);
+			else
+				objects.remove(obj.getMessageId(), obj);
+		}
+		
+		/** @return A copy of the complex objects being formed. */
+		private ArrayList<ReceivedComplexObject> getObjects() {
+			ArrayList<ReceivedComplexObject> copy = new ArrayList<ReceivedComplexObject>(objects.values());
+			copy.addAll(unnumbered.values());
+			return copy;
+		}
+		
+		/** Removes every complex object. */
+		private void clear() {
+			objects.clear();
+			unnumbered.clear();
+		}
+		
+		/** @return Whether no complex objects are being formed. */
+		private boolean isEmpty() {
+			return objects.isEmpty() && unnumbered.isEmpty();
+		}
+	
 	}
 	
 }
@@ -1,22 +1,22 @@
 package com.jmr.wrapper.common.complex;
 
-import java.io.BufferedOutputStream;
-import java.io.ObjectOutputStream;
+import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.util.ArrayList;
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
 
+import com.jmr.wrapper.common.Connection;
 import com.jmr.wrapper.common.IProtocol;
 import com.jmr.wrapper.common.threads.ComplexUdpSendThread;
+import com.jmr.wrapper.common.utils.FecUtils;
 
 /**
  * Networking Library
  * ComplexObject.java
  * Purpose: An object that takes another object's byte array and splits it into pieces. It then sends these pieces to the server
- * and the server receives them and recreates the object. This class adds the checksum to the beginning of each piece as the
- * identifier for which object it corresponds to.
+ * and the server receives them and recreates the object. Each piece carries the object's checksum, and in the compact 
+ * framing the object's id if the other side reads it, as the identifier for which object it corresponds to. Over UDP the object can be sent with parity pieces, made for groups of its
+ * pieces, so the other side can rebuild the pieces that are lost instead of waiting for them to be sent again.
  * 
  * @author Jon R (Baseball435)
  * @version 1.0 7/25/2014
@@ -24,30 +24,39 @@ import com.jmr.wrapper.common.threads.ComplexUdpSendThread;
 
 public class ComplexObject {
 
-	/** Increments the complex object's id's. */
-	private static int ID_INCREMENT = 0;
-	
 	/** The amount of splits to make. */
 	private int splitAmount;
 	
 	/** The object's id. */
 	private final int id;
 	
-	/** The data and checksum byte arrays. */
-	private final byte[] data, checksum;
+	/** The data byte array. */
+	private final byte[] data;
+	
+	/** The checksum value of the object. */
+	private final long checksum;
 	
 	/** Instance of the protocol being used. */
 	private final IProtocol protocol;
 	
+	/** The flags of the compact packets. */
+	private final byte flags;
+	
+	/** Whether the pieces are sent with the object's id. */
+	private final boolean numbered;
+	
 	/** Array to hold all of the pieces. */
 	private final ArrayList<ComplexPiece> pieces = new ArrayList<ComplexPiece>();
 	
+	/** The parity pieces, only sent over UDP. */
+	private final ArrayList<ComplexPiece> parityPieces = new ArrayList<ComplexPiece>();
+	
 	/** Creates a new complex object and loads the pieces by splitting the data. 
 	 * @param data The object's byte array. 
 	 * @param checksum The object's checksum value.
 	 * @param protocol Instance of the protocol.
 	 */
-	public ComplexObject(byte[] data, byte[] checksum, IProtocol protocol) {
+	public ComplexObject(byte[] data, long checksum, IProtocol protocol) {
 		this(data, checksum, protocol, 3);
 	}
 	
@@ -57,70 +66,139 @@ public class ComplexObject {
 	 * @param protocol Instance of the protocol.
 	 * @param splitAmount The amount of splits to make.
 	 */
-	public ComplexObject(byte[] data, byte[] checksum, IProtocol protocol, int splitAmount) {
-		this.id = ID_INCREMENT++;
+	public ComplexObject(byte[] data, long checksum, IProtocol protocol, int splitAmount) {
+		this(data, checksum, protocol, splitAmount, (byte) 0);
+	}
+	
+	/** Creates a new complex object and loads the pieces by splitting the data. 
+	 * @param data The object's byte array. 
+	 * @param checksum The object's checksum value.
+	 * @param protocol Instance of the protocol.
+	 * @param splitAmount The amount of splits to make.
+	 * @param flags The flags of the compact packets, saying which codec the object was encoded with and whether it
+	 * was compressed.
+	 */
+	public ComplexObject(byte[] data, long checksum, IProtocol protocol, int splitAmount, byte flags) {
+		this(data, checksum, protocol, splitAmount, flags, 0);
+	}
+	
+	/** Creates a new complex object and loads the pieces by splitting the data, and the parity pieces of the groups.
+	 * @param data The object's byte array. 
+	 * @param checksum The object's checksum value.
+	 * @param protocol Instance of the protocol.
+	 * @param splitAmount The amount of splits to make.
+	 * @param flags The flags of the compact packets.
+	 * @param parityRatio The amount of parity pieces for every piece, or 0 for none.
+	 */
+	public ComplexObject(byte[] data, long checksum, IProtocol protocol, int splitAmount, byte flags, double parityRatio) {
+		this(data, checksum, protocol, splitAmount, flags, parityRatio, false);
+	}
+	
+	/** Creates a new complex object and loads the pieces by splitting the data, and the parity pieces of the groups.
+	 * @param data The object's byte array. 
+	 * @param checksum The object's checksum value.
+	 * @param protocol Instance of the protocol.
+	 * @param splitAmount The amount of splits to make.
+	 * @param flags The flags of the compact packets.
+	 * @param parityRatio The amount of parity pieces for every piece, or 0 for none.
+	 * @param numbered Whether the pieces are sent with the object's id, which needs the compact framing.
+	 */
+	public ComplexObject(byte[] data, long checksum, IProtocol protocol, int splitAmount, byte flags, double parityRatio, boolean numbered) {
+		this.id = protocol.getComplexManager().nextId();
+		this.flags = flags;
+		this.numbered = numbered;
 		this.data = data;	
 		this.protocol = protocol;
 		this.splitAmount = splitAmount;
 		this.checksum = checksum;
-		loadPieces();
-		
+		int bytesPerSend = loadPieces();
+		if (parityRatio > 0)
+			loadParityPieces(bytesPerSend, parityRatio);
 	}
 	
-	/** Splits the object's byte array into pieces and gets them ready to be sent to over the stream. */
-	private void loadPieces() {
-		int bytesPerSend = data.length / splitAmount;
-		if (bytesPerSend <= 10) { //Bytes per send needs to be > 10 so that the checksum can be extracted correctly. If not, change the split amount.
-			splitAmount = data.length / 11;
+	/** Splits the object's byte array into pieces and gets them ready to be sent to over the stream. Every piece but the last
+	 * has the same size, so the receiver can write each piece straight to its place in the object.
+	 * @return The size of every piece but the last.
+	 */
+	private int loadPieces() {
+		int bytesPerSend = (data.length + splitAmount - 1) / splitAmount;
+		if (bytesPerSend <= 10) //Bytes per send needs to be > 10 so that the checksum can be extracted correctly.
 			bytesPerSend = 11;
-		}
-		int extra = 0;
-		int pieceAmount = splitAmount;
+		splitAmount = (data.length + bytesPerSend - 1) / bytesPerSend;
 		
-		if (bytesPerSend * splitAmount < data.length) {
-			extra = data.length - (bytesPerSend * splitAmount);
-			pieceAmount++;
-		}
-		for (int i = 0; i < splitAmount; i++) {
-			byte[] splitData = copyArray(data, bytesPerSend, bytesPerSend * i);
-			pieces.add(new ComplexPiece(i, pieceAmount, splitData, protocol, checksum));
-		}
-		if (extra > 0) {
-			byte[] splitData = copyArray(data, extra, bytesPerSend * (splitAmount));
-			pieces.add(new ComplexPiece(splitAmount, pieceAmount, splitData, protocol, checksum));
+		for (int i = 0; i < splitAmount; i++)
+			pieces.add(new ComplexPiece(i, splitAmount, data, bytesPerSend * i, Math.min(bytesPerSend, data.length - bytesPerSend * i), protocol, checksum, flags, getMessageId()));
+		return bytesPerSend;
+	}
+	
+	/** Creates the parity pieces of every group of pieces. A piece shorter than the others counts as if it were padded 
+	 * with zeroes, and so does the checksum in front of the first piece since the receiver doesn't keep it.
+	 * @param bytesPerSend The size of every piece but the last.
+	 * @param parityRatio The amount of parity pieces for every piece.
+	 */
+	private void loadParityPieces(int bytesPerSend, double parityRatio) {
+		int groupSize = Math.max(1, Math.min(protocol.getConfig().COMPLEX_FEC_GROUP_SIZE, FecUtils.MAX_GROUP_SIZE - 1));
+		int lastLength = data.length - bytesPerSend * (splitAmount - 1);
+		for (int first = 0; first < splitAmount; first += groupSize) {
+			int count = Math.min(groupSize, splitAmount - first);
+			int parityCount = FecUtils.getParityCount(count, parityRatio);
+			for (int i = 0; i < parityCount; i++) {
+				byte[] parity = new byte[bytesPerSend];
+				for (int j = 0; j < count; j++) {
+					int offset = bytesPerSend * (first + j);
+					int length = Math.min(bytesPerSend, data.length - offset);
+					int skip = first + j == 0 ? Math.min(10, length) : 0;
+					FecUtils.multiplyAdd(FecUtils.getCoefficient(count, parityCount, i, j), data, offset + skip, length - skip, parity, skip);
+				}
+				parityPieces.add(new ComplexPiece(first / groupSize, splitAmount, parity, groupSize, i, parityCount, lastLength, protocol, checksum, flags, getMessageId()));
+			}
 		}
 	}
 	
+	/** @return The id sent with the pieces, or -1 if they're sent without it. */
+	private int getMessageId() {
+		return numbered ? id : -1;
+	}
+	
 	/** Sends the object over TCP.
-	 * @param tcpOut The TCP output stream.
+	 * @param con The connection to send it to.
+	 * @throws IOException Thrown when the TCP stream is closed.
 	 */
-	public void sendTcp(ObjectOutputStream tcpOut) {
+	public void sendTcp(Connection con) throws IOException {
 		for (ComplexPiece piece : pieces)
-			piece.sendTcp(tcpOut);
+			con.queueTcp(piece);
+		con.flushTcp();
+	}
+	
+	/** Sends the object over UDP through the connection's pacer, or a thread for every piece if pacing is turned off.
+	 * @param con The connection to send it to.
+	 * @param compact Whether to use the compact framing.
+	 */
+	public void sendUdp(Connection con, boolean compact) {
+		if (!protocol.getConfig().UDP_PACING) {
+			for (ComplexPiece piece : pieces)
+				protocol.executeThread(new ComplexUdpSendThread(piece, con, compact));
+			for (ComplexPiece piece : parityPieces)
+				protocol.executeThread(new ComplexUdpSendThread(piece, con, compact));
+			return;
+		}
+		for (ComplexPiece piece : pieces)
+			con.sendDatagram(piece.getPacket(compact), false);
+		for (ComplexPiece piece : parityPieces)
+			con.sendDatagram(piece.getPacket(compact), false);
 	}
 	
 	/** Sends the object over UDP.
 	 * @param udpOut The UDP output stream.
 	 * @param InetAddress The address to send it to.
 	 * @param port The port to send it over.
+	 * @param compact Whether to use the compact framing.
 	 */
-	public void sendUdp(DatagramSocket udpOut, InetAddress address, int port) {
+	public void sendUdp(DatagramSocket udpOut, InetAddress address, int port, boolean compact) {
 		for (ComplexPiece piece : pieces)
-			protocol.executeThread(new ComplexUdpSendThread(piece, udpOut, address, port));
-	}
-	
-	/** Copies part of one array to another.
-	 * @param src The array to copy.
-	 * @param sizeToCopy The amount of bytes being copied.
-	 * @param startIndex The starting position in the source.
-	 * @return The new byte array.
-	 */
-	private byte[] copyArray(byte[] src, int sizeToCopy, int startIndex) {
-		byte[] ret = new byte[sizeToCopy];
-		for (int i = 0; i < sizeToCopy; i++) {
-			ret[i] = src[i + startIndex];
-		}
-		return ret;
+			protocol.executeThread(new ComplexUdpSendThread(piece, udpOut, address, port, compact));
+		for (ComplexPiece piece : parityPieces)
+			protocol.executeThread(new ComplexUdpSendThread(piece, udpOut, address, port, compact));
 	}
 	
 }
@@ -1,19 +1,26 @@
 package com.jmr.wrapper.common.complex;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.util.Arrays;
 
+import com.jmr.wrapper.common.Connection;
 import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.buffer.BufferPool;
+import com.jmr.wrapper.common.buffer.PacketBuffer;
+import com.jmr.wrapper.common.utils.FrameUtils;
 import com.jmr.wrapper.common.utils.PacketUtils;
 
 /**
  * Networking Library
  * ComplexPiece.java
  * Purpose: A piece of a object's byte array that corresponds to a complex object. This piece's data is sent over a socket
- * and recreated into an object later on.
+ * and recreated into an object later on. Parity pieces hold the parity of a group of pieces instead, so lost pieces of
+ * the group can be rebuilt. Their ID is the index of the group and their data is followed by what's needed to rebuild.
+ * Compact pieces for versions that read it start with the id of their complex object, so the other side can tell apart
+ * objects that have the same bytes.
  * 
  * @author Jon R (Baseball435)
  * @version 1.0 7/25/2014
@@ -21,117 +28,206 @@ import com.jmr.wrapper.common.utils.PacketUtils;
 
 public class ComplexPiece {
 
+	/** The key in front of pieces without the id of their complex object. */
+	public static final byte KEY = 99;
+	
+	/** The key in front of compact pieces that have the id of their complex object after it. */
+	public static final byte NUMBERED_KEY = 100;
+	
+	/** The size of the id of the complex object. */
+	public static final int MESSAGE_ID_SIZE = 4;
+	
+	/** The size of the data put in front of the piece: the complex key, the ID, the amount of pieces and the size. */
+	private static final int PIECE_HEADER_SIZE = 1 + 4 + 4 + 4;
+	
+	/** The size of the data put after the header of a parity piece: the size of the groups, the index of the parity
+	 * piece, the amount of parity pieces of its group and the size of the object's last piece. */
+	public static final int PARITY_HEADER_SIZE = 1 + 1 + 1 + 4;
+	
 	/** The ID. */
 	private final int id;
 	
+	/** The id of the complex object, or -1 to not send it. */
+	private final int messageId;
+	
 	/** The amount of pieces in the complex object. */
 	private final int pieceAmount;
 	
-	/** The byte array of the data and checksum. */
-	private final byte[] data, checksum;
+	/** The complex object's byte array. The piece isn't copied out of it. */
+	private final byte[] data;
+	
+	/** The index of the piece in the complex object's byte array. */
+	private final int offset;
+	
+	/** The size of the piece. */
+	private final int length;
+	
+	/** The object's checksum value. */
+	private final long checksum;
 	
 	/** Instance of the protocol. */
 	private final IProtocol protocol;
+	
+	/** The flags of the compact packet. */
+	private final byte flags;
+	
+	/** The most pieces in a group, or 0 if it isn't a parity piece. */
+	private final int groupSize;
+	
+	/** The index of the parity piece in its group. */
+	private final int parityIndex;
+	
+	/** The amount of parity pieces of the group. */
+	private final int parityCount;
+	
+	/** The size of the object's last piece. */
+	private final int lastLength;
 
-	/** Creates a byte array holding the data, id, and checksum of the complex object.
+	/** Creates a piece of a complex object's byte array.
 	 * @param id The ID.
 	 * @param pieceAmount The amount of pieces in the complex object.
-	 * @param data The piece of the object's byte array.
+	 * @param data The complex object's byte array.
+	 * @param offset The index of the piece in the array.
+	 * @param length The size of the piece.
 	 * @param protocol Instance of the protocol. 
-	 * @param checksum Object's checksum byte array.
+	 * @param checksum Object's checksum value.
+	 * @param flags The flags of the compact packet.
+	 * @param messageId The id of the complex object, or -1 to not send it.
+	 */
+	public ComplexPiece(int id, int pieceAmount, byte[] data, int offset, int length, IProtocol protocol, long checksum, byte flags, int messageId) {
+		this(id, pieceAmount, data, offset, length, protocol, checksum, flags, messageId, 0, 0, 0, 0);
+	}
+	
+	/** Creates a parity piece of a group of a complex object's pieces.
+	 * @param group The index of the group.
+	 * @param pieceAmount The amount of pieces in the complex object.
+	 * @param parity The parity of the group's pieces.
+	 * @param groupSize The most pieces in a group.
+	 * @param parityIndex The index of the parity piece in its group.
+	 * @param parityCount The amount of parity pieces of the group.
+	 * @param lastLength The size of the object's last piece.
+	 * @param protocol Instance of the protocol.
+	 * @param checksum Object's checksum value.
+	 * @param flags The flags of the compact packet, without the parity flag.
+	 * @param messageId The id of the complex object, or -1 to not send it.
 	 */
-	public ComplexPiece(int id, int pieceAmount, byte[] data, IProtocol protocol, byte[] checksum) {
+	public ComplexPiece(int group, int pieceAmount, byte[] parity, int groupSize, int parityIndex, int parityCount, int lastLength, IProtocol protocol, long checksum, byte flags, int messageId) {
+		this(group, pieceAmount, parity, 0, parity.length, protocol, checksum, (byte) (flags | FrameUtils.FLAG_PARITY), messageId, groupSize, parityIndex, parityCount, lastLength);
+	}
+	
+	private ComplexPiece(int id, int pieceAmount, byte[] data, int offset, int length, IProtocol protocol, long checksum, byte flags, int messageId, int groupSize, int parityIndex, int parityCount, int lastLength) {
+		this.groupSize = groupSize;
+		this.parityIndex = parityIndex;
+		this.parityCount = parityCount;
+		this.lastLength = lastLength;
+		this.flags = flags;
 		this.id = id;
+		this.messageId = messageId;
 		this.pieceAmount = pieceAmount;
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
 		this.protocol = protocol;
 		this.checksum = checksum;
-		this.data = getByteArray(data);
 	}
 	
-	/** Sends the piece over TCP.
-	 * @param tcpOut The TCP output stream.
+	/** Creates the packet to send in a pooled buffer.
+	 * @param compact Whether to use the compact framing.
+	 * @return The packet. Has to be released once it's written.
 	 */
-	public void sendTcp(ObjectOutputStream tcpOut) {
-		try {
-			synchronized(tcpOut) {
-				tcpOut.write(data);
-				tcpOut.flush();
+	public PacketBuffer getPacket(boolean compact) {
+		if (compact) {
+			if (protocol.getEncryptionMethod() != null) {
+				byte[] payload = new byte[getHeaderSize() + length];
+				writePiece(payload, 0);
+				return FrameUtils.getFrame(protocol, FrameUtils.TYPE_COMPLEX, payload, payload.length, flags, (int) checksum);
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
+			PacketBuffer frame = FrameUtils.createFrame(protocol, FrameUtils.TYPE_COMPLEX, getHeaderSize() + length, flags, (int) checksum);
+			writePiece(frame.getData(), FrameUtils.HEADER_SIZE);
+			return frame;
+		}
+		if (groupSize > 0 || messageId >= 0)
+			throw new IllegalArgumentException("Parity pieces and pieces with the id of their object are only sent in the compact framing.");
+		
+		int size = protocol.getConfig().PACKET_BUFFER_SIZE;
+		if (10 + PIECE_HEADER_SIZE + length > size)
+			throw new IllegalArgumentException("The piece is larger than the packet buffer size. Use more splits.");
+		if (protocol.getEncryptionMethod() != null) {
+			byte[] concat = new byte[size];
+			PacketUtils.writeChecksum(concat, 0, checksum);
+			writePiece(concat, 10);
+			concat = protocol.getEncryptionMethod().encrypt(concat);
+			return new PacketBuffer(concat, concat.length, null);
 		}
+		BufferPool pool = protocol.getBufferPool();
+		byte[] concat = pool.acquire(size);
+		PacketUtils.writeChecksum(concat, 0, checksum);
+		writePiece(concat, 10);
+		Arrays.fill(concat, 10 + PIECE_HEADER_SIZE + length, size, (byte) 0);
+		return new PacketBuffer(concat, size, pool);
+	}
+	
+	/** Sends the piece over TCP.
+	 * @param con The connection to send it to.
+	 * @throws IOException Thrown when the TCP stream is closed.
+	 */
+	public void sendTcp(Connection con) throws IOException {
+		con.queueTcp(this);
+		con.flushTcp();
 	}
 	
 	/** Sends the piece over UDP.
 	 * @param udpOut The UDP output stream.
 	 * @param address The address to send it to.
 	 * @param port The port to send it over.
+	 * @param compact Whether to use the compact framing.
 	 */
-	public void sendUdp(DatagramSocket udpOut, InetAddress address, int port) {
+	public void sendUdp(DatagramSocket udpOut, InetAddress address, int port, boolean compact) {
+		PacketBuffer packet = null;
 		try {
-			DatagramPacket sendPacket = new DatagramPacket(data, data.length, address, port);
+			packet = getPacket(compact);
+			DatagramPacket sendPacket = new DatagramPacket(packet.getData(), packet.getLength(), address, port);
 			udpOut.send(sendPacket);
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			if (packet != null)
+				packet.release();
 		}
 	}
 	
-	/** Takes the id, converts it to four bytes and adds it in front of the bytes of data. It also makes the first index in the array
-	 * equal to 99 because that is the key that will be used on the client/server side to determine whether or not it is part of a
-	 * complex object.
-	 * @param data The object's byte array.
-	 * @return The combined array.
+	/** Writes the piece into an array. The first byte is 99 because that is the key that will be used on the client/server 
+	 * side to determine whether or not it is part of a complex object. It is followed by the ID, the amount of pieces and 
+	 * the size of the piece, each in four bytes, and then the piece's bytes. Parity pieces have the parity header between
+	 * the two. Pieces sent with the id of their complex object have it right after the key, which is 100 instead.
+	 * @param dest The array to write to.
+	 * @param index The index to start at.
 	 */
-	private byte[] getByteArray(byte[] data) {
-		byte[] indexArray = new byte[4]; //holds the ID amount
-		copyArrayToArray(PacketUtils.intToByteArray(id), indexArray, 0); //Puts the ID into the array of 4 bytes
-		
-		byte[] pieceAmountArray = new byte[4];
-		copyArrayToArray(PacketUtils.intToByteArray(pieceAmount), pieceAmountArray, 0); //Puts the amount of pieces into the array of 4 bytes
-		
-		byte[] dataSizeArray = new byte[4];
-		copyArrayToArray(PacketUtils.intToByteArray(data.length), dataSizeArray, 0); //Puts the size of the data into the array of 4 bytes
-		
-		byte[] ret = new byte[data.length + 1 + indexArray.length + pieceAmountArray.length + dataSizeArray.length]; //Added 1 to set the complex object ID in the front
-		
-		ret[0] = 99; //1st Byte, Used to determine on the server/client side if the packet sent is part of a complex objects
-		copyArrayToArray(indexArray, ret, 1); //2nd byte
-		copyArrayToArray(pieceAmountArray, ret, 1 + indexArray.length);
-		copyArrayToArray(dataSizeArray, ret, 1 + indexArray.length + pieceAmountArray.length);
-		copyArrayToArray(data, ret, 1 + indexArray.length + pieceAmountArray.length + dataSizeArray.length);
-		ret = addArrays(ret, checksum);
-		return ret;
-	}
-	
-	/** Takes the byte array of the object and id and puts the 10 bytes of the checksum in front of it.
-	 * @param array The array to put the checksum in front of.
-	 * @param checksumBytes The checksum value in bytes.
-	 * @return The combined array.
-	 */
-	private byte[] addArrays(byte[] array, byte[] checksumBytes) {
-		byte[] concat = new byte[protocol.getConfig().PACKET_BUFFER_SIZE];
-		System.arraycopy(checksumBytes, 0, concat, 0, checksumBytes.length);
-		System.arraycopy(array, 0, concat, checksumBytes.length, array.length);
-		
-		if (protocol.getEncryptionMethod() != null) {
-			concat = protocol.getEncryptionMethod().encrypt(concat);
+	private void writePiece(byte[] dest, int index) {
+		int start = index;
+		if (messageId >= 0) {
+			dest[index] = NUMBERED_KEY;
+			FrameUtils.writeInt(dest, index + 1, messageId);
+			index += MESSAGE_ID_SIZE;
+		} else {
+			dest[index] = KEY;
 		}
-		
-		return concat;
+		FrameUtils.writeInt(dest, index + 1, id);
+		FrameUtils.writeInt(dest, index + 5, pieceAmount);
+		FrameUtils.writeInt(dest, index + 9, length);
+		if (groupSize > 0) {
+			dest[index + PIECE_HEADER_SIZE] = (byte) groupSize;
+			dest[index + PIECE_HEADER_SIZE + 1] = (byte) parityIndex;
+			dest[index + PIECE_HEADER_SIZE + 2] = (byte) parityCount;
+			FrameUtils.writeInt(dest, index + PIECE_HEADER_SIZE + 3, lastLength);
+		}
+		System.arraycopy(data, offset, dest, start + getHeaderSize(), length);
 	}
 	
-	/** Takes an array and copies it to the destination array.
-	 * @param src The array to copy from.
-	 * @param dest The array to copy to.
-	 * @param startIndex The index in the array of "dest" to start at.
-	 */
-	private void copyArrayToArray(byte[] src, byte[] dest, int startIndex) {
-		for (int i = 0; i < dest.length; i++) {
-			if (i < src.length)
-				dest[i + startIndex] = src[i];
-			else
-				break;
-		}
+	/** @return The size of the data put in front of the piece's bytes. */
+	private int getHeaderSize() {
+		int size = messageId >= 0 ? PIECE_HEADER_SIZE + MESSAGE_ID_SIZE : PIECE_HEADER_SIZE;
+		return groupSize > 0 ? size + PARITY_HEADER_SIZE : size;
 	}
 	
 }
@@ -1,140 +1,520 @@
 package com.jmr.wrapper.common.complex;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.BitSet;
 
 import com.jmr.wrapper.common.Connection;
 import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.buffer.ByteBufferInputStream;
+import com.jmr.wrapper.common.codec.Codec;
+import com.jmr.wrapper.common.codec.SerializationCodec;
+import com.jmr.wrapper.common.config.Config;
+import com.jmr.wrapper.common.utils.Crc32c;
+import com.jmr.wrapper.common.utils.FecUtils;
+import com.jmr.wrapper.common.utils.FrameUtils;
 import com.jmr.wrapper.common.utils.PacketUtils;
 
 /**
  * Networking Library
  * ReceivedComplexObject.java
  * Purpose: A complex object that was received over a stream. This contains the pieces of the object and methods to form the object
- * back together.
- * 
+ * back together. Every piece but the last has the same size, so once one of them arrives the object's buffer is created
+ * and each piece is written straight to its place in it. Large objects are written to a memory-mapped temporary file
+ * instead of the heap. The object is read straight from the buffer once all pieces arrived. The ComplexManager locks the
+ * object while adding pieces. Once a group of pieces has as many pieces and parity pieces as it has pieces, the lost
+ * pieces of the group are rebuilt from the parity pieces and written to the buffer like the others.
+ *
  * @author Jon R (Baseball435)
  * @version 1.0 7/25/2014
  */
 
 public class ReceivedComplexObject {
-
+	
 	/** The connection it was sent from. */
 	private final Connection con;
 	
-	/** An array of all of the received pieces. */
-	private final ReceivedComplexPiece[] pieces;
+	/** The ID's of the received pieces. */
+	private final BitSet received = new BitSet();
 	
-	/** The checksum value of the object. */
+	/** The checksum of the object, or null if it has an id. */
 	private final String checksum;
 	
+	/** The CRC32C checksum value of the object if it has an id. */
+	private final int checksumValue;
+	
+	/** The id of the object given by the side that sent it, or ReceivedComplexPiece.NO_MESSAGE_ID. */
+	private final int messageId;
+	
 	/** Instance of the protocol. */
 	private final IProtocol protocol;
-
+	
 	/** The amount of pieces in the object. */
 	private final int pieceSize;
 	
-	/** The current amount of pieces received. */
-	private int index = 0;
+	/** The size of every piece but the last, or -1 until one of them arrives. Includes the checksum in the first piece. */
+	private int pieceLength = -1;
+	
+	/** The buffer the object is written to, on the heap or memory-mapped. Null until the size of the pieces is known. */
+	private ByteBuffer buffer;
+	
+	/** The last piece if it arrived before the size of the pieces was known. */
+	private ReceivedComplexPiece lastPiece;
+	
+	/** The size of the object, or -1 until the last piece is written. */
+	private int length = -1;
+	
+	/** The flags of the compact packets. */
+	private byte flags;
+	
+	/** The amount of heap bytes taken by the buffer and the last piece. */
+	private long bytes = 0;
+	
+	/** The time in milliseconds the last piece arrived at. */
+	private volatile long lastActivity = System.currentTimeMillis();
+	
+	/** The most pieces in a group sharing parity pieces, or 0 until a parity piece arrives. */
+	private int groupSize = 0;
+	
+	/** The parity pieces of every group, dropped once the group's pieces arrived or were rebuilt. */
+	private byte[][][] parity;
+	
+	/** The size of the last piece, including the checksum if it's also the first, or -1 until a parity piece arrives. */
+	private int lastLength = -1;
+	
+	/** Whether the object was formed or dropped, after which pieces are ignored. */
+	private boolean closed = false;
 	
 	/** Creates a new complex object that was received over a stream.
 	 * @param checksum The checksum of the object.
 	 * @param con The connection the piece's came from.
 	 * @param pieceSize The amount of pieces in the object.
-	 * @param protocol Instance of the protocol. 
+	 * @param protocol Instance of the protocol.
 	 */
 	public ReceivedComplexObject(String checksum, Connection con, int pieceSize, IProtocol protocol) {
+		this(checksum, 0, ReceivedComplexPiece.NO_MESSAGE_ID, con, pieceSize, protocol);
+	}
+	
+	/** Creates a new complex object that was received over a stream.
+	 * @param checksum The checksum of the object, or null if it has an id.
+	 * @param checksumValue The CRC32C checksum value of the object if it has an id.
+	 * @param messageId The id of the object, or ReceivedComplexPiece.NO_MESSAGE_ID.
+	 * @param con The connection the piece's came from.
+	 * @param pieceSize The amount of pieces in the object.
+	 * @param protocol Instance of the protocol.
+	 */
+	public ReceivedComplexObject(String checksum, int checksumValue, int messageId, Connection con, int pieceSize, IProtocol protocol) {
 		this.checksum = checksum;
+		this.checksumValue = checksumValue;
+		this.messageId = messageId;
 		this.con = con;
 		this.pieceSize = pieceSize;
 		this.protocol = protocol;
-		pieces = new ReceivedComplexPiece[pieceSize];
 	}
 	
-	/** Adds a piece to the array.
+	/** Gets the amount of heap bytes adding a piece takes, so it can be checked against the budgets first.
 	 * @param piece The piece.
+	 * @return The amount of bytes, or -1 if the piece was received already or doesn't belong to the object.
 	 */
-	public void addPiece(ReceivedComplexPiece piece) {
-		pieces[index] = piece;
-		index++;
+	public long getBytesNeeded(ReceivedComplexPiece piece) {
+		if (closed || piece.getPieceSize() != pieceSize || piece.getId() < 0 || piece.getId() >= pieceSize)
+			return -1;
+		if (piece.isParity())
+			return getParityBytesNeeded(piece);
+		if (received.get(piece.getId()))
+			return -1;
+		if (buffer != null)
+			return 0;
+		if (piece.getId() == pieceSize - 1 && pieceSize > 1)
+			return piece.getData().length; //Kept until the size of the pieces is known
+		long capacity = getCapacity(piece);
+		return capacity > protocol.getConfig().COMPLEX_MAP_THRESHOLD ? 0 : capacity;
 	}
 	
-	
-	/** Forms the object once all of the pieces have been received.
-	 * @return The formed object.
+	/** Adds a piece, writing it into the object's buffer. Pieces that were received already or that don't belong to the
+	 * object are ignored.
+	 * @param piece The piece.
+	 * @throws IOException Thrown when the piece doesn't fit the others or the buffer can't be created.
 	 */
-	public Object formObject() {
-		Arrays.sort(pieces, pieceComparator);
-		int dataSize = 0;
-		for (ReceivedComplexPiece p : pieces) {
-			dataSize += p.getDataSize();
+	public void addPiece(ReceivedComplexPiece piece) throws IOException {
+		long needed = getBytesNeeded(piece);
+		if (needed < 0)
+			return;
+		bytes += needed;
+		lastActivity = System.currentTimeMillis();
+		if (piece.isParity()) {
+			addParity(piece);
+			recover(piece.getId());
+			return;
 		}
-		byte[] data = new byte[dataSize];
+		received.set(piece.getId());
+		if (piece.getId() == 0)
+			flags = piece.getFlags();
 		
-		System.arraycopy(pieces[0].getData(), 14, data, 0, pieces[0].getDataSize()); //first 10 is the checksum, the next 4 is the size
+		if (buffer == null) {
+			if (piece.getId() == pieceSize - 1 && pieceSize > 1) {
+				lastPiece = piece;
+				return;
+			}
+			pieceLength = piece.getId() == 0 ? piece.getDataSize() + 10 : piece.getDataSize();
+			buffer = createBuffer(getCapacity(piece));
+			if (lastPiece != null) {
+				writePiece(lastPiece);
+				lastPiece = null;
+			}
+		}
+		writePiece(piece);
+		if (groupSize > 0)
+			recover(piece.getId() / groupSize);
+	}
+	
+	/** Gets the amount of heap bytes adding a parity piece takes: the parity, and the object's buffer if it's the first
+	 * piece telling the size of the pieces.
+	 * @param piece The parity piece.
+	 * @return The amount of bytes, or -1 if the parity piece was received already, doesn't fit the others or its group
+	 * doesn't need it.
+	 */
+	private long getParityBytesNeeded(ReceivedComplexPiece piece) {
+		int group = piece.getId();
+		if ((groupSize != 0 && piece.getGroupSize() != groupSize) || (long) group * piece.getGroupSize() >= pieceSize 
+				|| piece.getParityIndex() >= piece.getParityCount())
+			return -1;
+		if (parity != null && parity[group] != null && (parity[group].length != piece.getParityCount() || parity[group][piece.getParityIndex()] != null))
+			return -1;
+		int first = group * piece.getGroupSize();
+		int count = Math.min(piece.getGroupSize(), pieceSize - first);
+		if (received.get(first, first + count).cardinality() == count)
+			return -1;
+		long needed = piece.getDataSize();
+		if (buffer == null) {
+			long capacity = (pieceSize - 1L) * piece.getDataSize() + piece.getLastLength() - 10;
+			if (capacity <= protocol.getConfig().COMPLEX_MAP_THRESHOLD)
+				needed += Math.max(0, capacity);
+		}
+		return needed;
+	}
+	
+	/** Keeps a parity piece until its group can be rebuilt. Creates the object's buffer if it's the first piece telling
+	 * the size of the pieces.
+	 * @param piece The parity piece.
+	 * @throws IOException Thrown when the parity piece doesn't fit the pieces.
+	 */
+	private void addParity(ReceivedComplexPiece piece) throws IOException {
+		if (groupSize == 0) {
+			groupSize = piece.getGroupSize();
+			parity = new byte[(pieceSize + groupSize - 1) / groupSize][][];
+		}
+		if (lastLength < 0) {
+			lastLength = piece.getLastLength();
+			if (lastLength <= 0 || lastLength > piece.getDataSize() || (pieceSize == 1 && lastLength < 10))
+				throw new StreamCorruptedException("Invalid complex piece size.");
+		} else if (lastLength != piece.getLastLength()) {
+			throw new StreamCorruptedException("The parity pieces have different sizes.");
+		}
+		flags = (byte) (piece.getFlags() & ~FrameUtils.FLAG_PARITY);
 		
-		int inc = pieces[0].getDataSize();
-		for (int i = 1; i < pieces.length; i++) {
-			for (int j = 4; j < pieces[i].getData().length; j++) {
-				data[inc + j - 4] = pieces[i].getData()[j];
+		if (buffer == null) {
+			pieceLength = piece.getDataSize();
+			buffer = createBuffer((pieceSize - 1L) * pieceLength + lastLength - 10);
+			if (lastPiece != null) {
+				writePiece(lastPiece);
+				lastPiece = null;
 			}
-			inc += pieces[i].getDataSize();
+		} else if (pieceLength != piece.getDataSize()) {
+			throw new StreamCorruptedException("The parity pieces have a different size than the pieces.");
+		}
+		int group = piece.getId();
+		if (parity[group] == null)
+			parity[group] = new byte[piece.getParityCount()][];
+		parity[group][piece.getParityIndex()] = piece.getData();
+	}
+	
+	/** Rebuilds the lost pieces of a group once it has enough parity pieces, and drops the parity pieces once none of 
+	 * the group's pieces are missing.
+	 * @param group The index of the group.
+	 * @throws IOException Thrown when the parity pieces don't fit the pieces.
+	 */
+	private void recover(int group) throws IOException {
+		if (parity == null || parity[group] == null || buffer == null)
+			return;
+		int first = group * groupSize;
+		int count = Math.min(groupSize, pieceSize - first);
+		byte[][] rows = parity[group];
+		int[] lost = new int[count - received.get(first, first + count).cardinality()];
+		if (lost.length == 0) {
+			parity[group] = null;
+			return;
+		}
+		int[] used = new int[lost.length];
+		int available = 0;
+		for (int i = 0; i < rows.length && available < used.length; i++) {
+			if (rows[i] != null)
+				used[available++] = i;
+		}
+		if (available < lost.length)
+			return;
+		for (int i = 0, n = 0; i < count; i++) {
+			if (!received.get(first + i))
+				lost[n++] = i;
+		}
+		
+		int[][] matrix = new int[lost.length][lost.length];
+		for (int r = 0; r < used.length; r++) {
+			for (int c = 0; c < lost.length; c++)
+				matrix[r][c] = FecUtils.getCoefficient(count, rows.length, used[r], lost[c]);
+		}
+		int[][] inverse = FecUtils.invert(matrix);
+		
+		/** Take the pieces that arrived out of the parity pieces, leaving the parity of the lost ones. */
+		byte[][] remaining = new byte[used.length][];
+		for (int r = 0; r < used.length; r++)
+			remaining[r] = rows[used[r]].clone();
+		byte[] shard = new byte[pieceLength];
+		for (int i = 0; i < count; i++) {
+			if (!received.get(first + i))
+				continue;
+			readShard(first + i, shard);
+			for (int r = 0; r < used.length; r++)
+				FecUtils.multiplyAdd(FecUtils.getCoefficient(count, rows.length, used[r], i), shard, 0, pieceLength, remaining[r], 0);
+		}
+		for (int c = 0; c < lost.length; c++) {
+			Arrays.fill(shard, (byte) 0);
+			for (int r = 0; r < used.length; r++)
+				FecUtils.multiplyAdd(inverse[c][r], remaining[r], 0, pieceLength, shard, 0);
+			writeShard(first + lost[c], shard);
+			received.set(first + lost[c]);
+		}
+		parity[group] = null;
+	}
+	
+	/** Reads a piece back out of the buffer, with zeroes in place of the checksum and past the end of the last piece.
+	 * @param id The ID of the piece.
+	 * @param shard The array to read into, the size of the pieces.
+	 */
+	private void readShard(int id, byte[] shard) {
+		Arrays.fill(shard, (byte) 0);
+		int skip = id == 0 ? 10 : 0;
+		ByteBuffer src = buffer.duplicate();
+		src.position(id == 0 ? 0 : id * pieceLength - 10);
+		src.get(shard, skip, getShardLength(id) - skip);
+	}
+	
+	/** Writes a rebuilt piece to its place in the buffer.
+	 * @param id The ID of the piece.
+	 * @param shard The piece, with the checksum in front if it's the first.
+	 * @throws IOException Thrown when the piece doesn't fit in the buffer.
+	 */
+	private void writeShard(int id, byte[] shard) throws IOException {
+		int skip = id == 0 ? 10 : 0;
+		int offset = id == 0 ? 0 : id * pieceLength - 10;
+		int size = getShardLength(id) - skip;
+		if (size < 0 || offset + (long) size > buffer.capacity())
+			throw new StreamCorruptedException("Invalid complex piece size.");
+		ByteBuffer dest = buffer.duplicate();
+		dest.position(offset);
+		dest.put(shard, skip, size);
+		if (id == pieceSize - 1)
+			length = offset + size;
+	}
+	
+	/** Gets the size of a piece the parity was made of, including the checksum in front of the first piece.
+	 * @param id The ID of the piece.
+	 * @return The size.
+	 */
+	private int getShardLength(int id) {
+		return id == pieceSize - 1 ? lastLength : pieceLength;
+	}
+	
+	/** Gets the most bytes the object can have once a piece that isn't the last tells the size of the pieces. The last
+	 * piece holds what's left, which is less than the amount of pieces when it isn't the same size as the others.
+	 * @param piece The piece.
+	 * @return The amount of bytes.
+	 */
+	private long getCapacity(ReceivedComplexPiece piece) {
+		if (pieceSize == 1)
+			return Math.max(0, piece.getDataSize());
+		long length = piece.getId() == 0 ? piece.getDataSize() + 10L : piece.getDataSize();
+		long last = lastPiece != null ? lastPiece.getDataSize() : Math.max(length, pieceSize);
+		return Math.max(0, (pieceSize - 1) * length - 10 + last);
+	}
+	
+	/** Creates the buffer the object is written to. Objects above the map threshold are written to a memory-mapped
+	 * temporary file, which is deleted right away and freed once the buffer is no longer used.
+	 * @param capacity The most bytes the object can have.
+	 * @return The buffer.
+	 * @throws IOException Thrown when the object is too large or the file can't be created.
+	 */
+	private ByteBuffer createBuffer(long capacity) throws IOException {
+		Config config = protocol.getConfig();
+		if (pieceLength <= 10 || capacity > config.COMPLEX_MAX_SIZE || capacity > Integer.MAX_VALUE - 8)
+			throw new StreamCorruptedException("Invalid complex object size.");
+		if (capacity <= config.COMPLEX_MAP_THRESHOLD)
+			return ByteBuffer.wrap(new byte[(int) capacity]);
+		
+		File file = File.createTempFile("NitroNet", ".complex");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(capacity);
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		} finally {
+			raf.close();
+			if (!file.delete())
+				file.deleteOnExit();
 		}
+	}
+	
+	/** Writes a piece to its place in the buffer. The first piece starts with the checksum, which isn't written.
+	 * @param piece The piece.
+	 * @throws IOException Thrown when the piece doesn't fit the others.
+	 */
+	private void writePiece(ReceivedComplexPiece piece) throws IOException {
+		int id = piece.getId();
+		boolean last = id == pieceSize - 1;
+		int offset = id == 0 ? 0 : id * pieceLength - 10;
+		int dataSize = piece.getDataSize();
+		if (!last && dataSize != (id == 0 ? pieceLength - 10 : pieceLength))
+			throw new StreamCorruptedException("The complex pieces have different sizes.");
+		if (dataSize < 0 || offset + (long) dataSize > buffer.capacity())
+			throw new StreamCorruptedException("Invalid complex piece size.");
+		
+		byte[] data = piece.getData();
+		int start = id == 0 ? 14 : 4; //first 10 is the checksum, the next 4 is the size
+		ByteBuffer dest = buffer.duplicate();
+		dest.position(offset);
+		dest.put(data, start, Math.max(0, Math.min(data.length - start, dataSize))); //The rest are zeroes that were cut off
+		if (last)
+			length = offset + dataSize;
+	}
+	
+	/** Stops adding pieces to the object, once it's formed or dropped. Pieces arriving afterwards are ignored.
+	 * @param drop Whether to drop the received pieces.
+	 * @return The amount of heap bytes the pieces took.
+	 */
+	public long close(boolean drop) {
+		closed = true;
+		parity = null;
+		if (drop) {
+			buffer = null;
+			lastPiece = null;
+		}
+		long ret = bytes;
+		bytes = 0;
+		return ret;
+	}
+	
+	/** Forms the object once all of the pieces have been received. The buffer is dropped afterwards.
+	 * @return The formed object, or null if it can't be formed.
+	 */
+	public Object formObject() {
 		try {
-			if (protocol.getEncryptionMethod() != null)
-				data = protocol.getEncryptionMethod().decrypt(data);
-
-			/** Get the checksum value of the object array. */
-			String checksumVal = PacketUtils.getChecksumOfObject(data);
-			
-			System.out.println("Final Data Size: " + data.length);
-			
-			/** Get the object from the bytes. */
-			ByteArrayInputStream in = new ByteArrayInputStream(data);
-			ObjectInputStream is = new ObjectInputStream(in);
-			Object object = is.readObject();
-			is.close();
-			in.close();
-			
-			if (checksumVal.equalsIgnoreCase(checksum)) {
-				return object;
-			}
+			return formObject(buffer);
 		} catch (ClassNotFoundException | IOException e) {
 			e.printStackTrace();
+		} finally {
+			buffer = null;
 		}
-		
 		return null;
 	}
 	
+	/** Forms the object from its buffer. Only the bytes that have to change are copied: when the object is encrypted,
+	 * compressed, or mapped and read by a codec that needs an array.
+	 * @param buffer The buffer holding the object.
+	 * @return The formed object, or null if the checksum doesn't match.
+	 * @throws IOException Thrown when the object can't be read.
+	 * @throws ClassNotFoundException Thrown when the object's class isn't found.
+	 */
+	private Object formObject(ByteBuffer buffer) throws IOException, ClassNotFoundException {
+		if (buffer == null || length < 0)
+			return null;
+		buffer.position(0);
+		buffer.limit(length);
+		if (protocol.getEncryptionMethod() != null)
+			buffer = ByteBuffer.wrap(protocol.getEncryptionMethod().decrypt(toArray(buffer)));
+		
+		System.out.println("Final Data Size: " + buffer.remaining());
+		
+		/** Check the checksum of the object's bytes. Objects with an id are checked with CRC32C, older versions send the CRC32 string. */
+		if (messageId != ReceivedComplexPiece.NO_MESSAGE_ID) {
+			if (Crc32c.getValue(buffer) != checksumValue)
+				return null;
+		} else if (!PacketUtils.formatChecksum(PacketUtils.getChecksumValue(buffer.duplicate())).equalsIgnoreCase(checksum)) {
+			return null;
+		}
+		
+		if ((flags & FrameUtils.FLAG_COMPRESSED) != 0) {
+			byte[] compressed = toArray(buffer);
+			byte[] data = new byte[FrameUtils.getDecompressedSize(protocol, compressed, 0, compressed.length)];
+			FrameUtils.decompress(protocol, con, compressed, 0, compressed.length, flags, data);
+			buffer = ByteBuffer.wrap(data);
+		}
+		
+		/** Get the object from the bytes with the codec it was encoded with. */
+		Codec codec = FrameUtils.getCodec(con, flags);
+		if (buffer.hasArray())
+			return codec.decode(protocol, buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		if (codec == SerializationCodec.INSTANCE) {
+			ObjectInputStream is = new ObjectInputStream(new ByteBufferInputStream(buffer));
+			try {
+				return is.readObject();
+			} finally {
+				is.close();
+			}
+		}
+		byte[] data = toArray(buffer);
+		return codec.decode(protocol, data, 0, data.length);
+	}
+	
+	/** Copies the bytes left in a buffer to an array, or returns the buffer's array if it's exactly those bytes.
+	 * @param buffer The buffer.
+	 * @return The array.
+	 */
+	private static byte[] toArray(ByteBuffer buffer) {
+		if (buffer.hasArray() && buffer.arrayOffset() + buffer.position() == 0 && buffer.remaining() == buffer.array().length)
+			return buffer.array();
+		byte[] data = new byte[buffer.remaining()];
+		buffer.duplicate().get(data);
+		return data;
+	}
+	
 	/** @return The connection the object came from. */
 	public Connection getConnection() {
 		return con;
 	}
 	
-	/** @return The checksum of the object. */
+	/** @return The checksum of the object, or null if it has an id. */
 	public String getChecksum() {
 		return checksum;
 	}
 	
+	/** @return The CRC32C checksum value of the object if it has an id. */
+	public int getChecksumValue() {
+		return checksumValue;
+	}
+	
+	/** @return The id of the object, or ReceivedComplexPiece.NO_MESSAGE_ID if the side that sent it doesn't send it. */
+	public int getMessageId() {
+		return messageId;
+	}
+	
 	/** @return Whether the object is ready to be formed. */
 	public boolean isFormed() {
-		return pieceSize == index;
+		return received.cardinality() == pieceSize;
 	}
 	
+	/** @return Whether the object was formed or dropped. */
+	public boolean isClosed() {
+		return closed;
+	}
 	
-	private static final Comparator<ReceivedComplexPiece> pieceComparator = new Comparator<ReceivedComplexPiece>() {
-
-		@Override
-		public int compare(ReceivedComplexPiece p1, ReceivedComplexPiece p2) {
-			if (p1.getId() < p2.getId())
-				return -1;
-			else
-				return 1;
-		}
-		
-	};
+	/** @return The time in milliseconds the last piece arrived at. */
+	public long getLastActivity() {
+		return lastActivity;
+	}
 	
 }
@@ -4,7 +4,8 @@ package com.jmr.wrapper.common.complex;
  * Networking Library
  * ReceivedComplexPiece.java
  * Purpose: A piece of a complex object received from a stream. This piece will later be used to form back together the complex
- * object and pass it to the event listener. 
+ * object and pass it to the event listener. Parity pieces hold the parity of a group of pieces, used to rebuild the ones
+ * that are lost.
  * 
  * @author Jon R (Baseball435)
  * @version 1.0 7/25/2014
@@ -12,9 +13,18 @@ package com.jmr.wrapper.common.complex;
 
 public class ReceivedComplexPiece implements Comparable<ReceivedComplexPiece>{
 
-	/** The checksum of the complex object. */
+	/** The message id of pieces from older versions, which don't send the id of their complex object. */
+	public static final int NO_MESSAGE_ID = -1;
+	
+	/** The checksum of the complex object, or null if it has an id. */
 	private final String checksum;
 	
+	/** The CRC32C checksum value of the complex object if it has an id. */
+	private final int checksumValue;
+	
+	/** The id of the complex object given by the side that sent it, or NO_MESSAGE_ID. */
+	private final int messageId;
+	
 	/** The ID. */
 	private final int id;
 	
@@ -27,6 +37,21 @@ public class ReceivedComplexPiece implements Comparable<ReceivedComplexPiece>{
 	/** The piece of data from the complex object. */
 	private final byte[] data;
 	
+	/** The flags of the compact packet. */
+	private final byte flags;
+	
+	/** The most pieces in a group, or 0 if it isn't a parity piece. */
+	private final int groupSize;
+	
+	/** The index of the parity piece in its group. */
+	private final int parityIndex;
+	
+	/** The amount of parity pieces of the group. */
+	private final int parityCount;
+	
+	/** The size of the object's last piece. */
+	private final int lastLength;
+	
 	/** Creates a new piece to a complex object with the given data.
 	 * @param checksum The checksum of the object.
 	 * @param id The ID of the piece.
@@ -35,18 +60,82 @@ public class ReceivedComplexPiece implements Comparable<ReceivedComplexPiece>{
 	 * @param dataSize The size of the data.
 	 */
 	public ReceivedComplexPiece(String checksum, int id, int pieceSize, byte[] data, int dataSize) {
+		this(checksum, id, pieceSize, data, dataSize, (byte) 0);
+	}
+	
+	/** Creates a new piece to a complex object with the given data.
+	 * @param checksum The checksum of the object.
+	 * @param id The ID of the piece.
+	 * @param pieceSize The amount of pieces in the object.
+	 * @param data The piece of data.
+	 * @param dataSize The size of the data.
+	 * @param flags The flags of the compact packet, saying which codec the object was encoded with.
+	 */
+	public ReceivedComplexPiece(String checksum, int id, int pieceSize, byte[] data, int dataSize, byte flags) {
+		this(checksum, 0, NO_MESSAGE_ID, id, pieceSize, data, dataSize, flags);
+	}
+	
+	/** Creates a new piece to a complex object with the given data.
+	 * @param checksum The checksum of the object, or null if it has an id.
+	 * @param checksumValue The CRC32C checksum value of the object if it has an id.
+	 * @param messageId The id of the object, or NO_MESSAGE_ID.
+	 * @param id The ID of the piece.
+	 * @param pieceSize The amount of pieces in the object.
+	 * @param data The piece of data.
+	 * @param dataSize The size of the data.
+	 * @param flags The flags of the compact packet, saying which codec the object was encoded with.
+	 */
+	public ReceivedComplexPiece(String checksum, int checksumValue, int messageId, int id, int pieceSize, byte[] data, int dataSize, byte flags) {
+		this(checksum, checksumValue, messageId, id, pieceSize, data, dataSize, flags, 0, 0, 0, 0);
+	}
+	
+	/** Creates a new parity piece of a group of a complex object's pieces.
+	 * @param checksum The checksum of the object, or null if it has an id.
+	 * @param checksumValue The CRC32C checksum value of the object if it has an id.
+	 * @param messageId The id of the object, or NO_MESSAGE_ID.
+	 * @param group The index of the group.
+	 * @param pieceSize The amount of pieces in the object.
+	 * @param parity The parity of the group's pieces.
+	 * @param flags The flags of the compact packet.
+	 * @param groupSize The most pieces in a group.
+	 * @param parityIndex The index of the parity piece in its group.
+	 * @param parityCount The amount of parity pieces of the group.
+	 * @param lastLength The size of the object's last piece.
+	 */
+	public ReceivedComplexPiece(String checksum, int checksumValue, int messageId, int group, int pieceSize, byte[] parity, byte flags, int groupSize, int parityIndex, int parityCount, int lastLength) {
+		this(checksum, checksumValue, messageId, group, pieceSize, parity, parity.length, flags, groupSize, parityIndex, parityCount, lastLength);
+	}
+	
+	private ReceivedComplexPiece(String checksum, int checksumValue, int messageId, int id, int pieceSize, byte[] data, int dataSize, byte flags, int groupSize, int parityIndex, int parityCount, int lastLength) {
+		this.groupSize = groupSize;
+		this.parityIndex = parityIndex;
+		this.parityCount = parityCount;
+		this.lastLength = lastLength;
+		this.flags = flags;
 		this.checksum = checksum;
+		this.checksumValue = checksumValue;
+		this.messageId = messageId;
 		this.id = id;
 		this.pieceSize = pieceSize;
 		this.data = data;
 		this.dataSize = dataSize;
 	}
 	
-	/** @return The checksum of the complex object. */
+	/** @return The checksum of the complex object, or null if it has an id. */
 	public String getChecksum() {
 		return checksum;
 	}
 	
+	/** @return The CRC32C checksum value of the complex object if it has an id. */
+	public int getChecksumValue() {
+		return checksumValue;
+	}
+	
+	/** @return The id of the complex object, or NO_MESSAGE_ID if the side that sent it doesn't send it. */
+	public int getMessageId() {
+		return messageId;
+	}
+	
 	/** @return The ID. */
 	public int getId() {
 		return id;
@@ -62,10 +151,40 @@ public class ReceivedComplexPiece implements Comparable<ReceivedComplexPiece>{
 		return dataSize;
 	}	
 	
+	/** @return The flags of the compact packet. */
+	public byte getFlags() {
+		return flags;
+	}
+	
 	/** @return The piece of data of the object. */
 	public byte[] getData() {
 		return data;
 	}
+	
+	/** @return Whether it's a parity piece. */
+	public boolean isParity() {
+		return groupSize > 0;
+	}
+	
+	/** @return The most pieces in a group. */
+	public int getGroupSize() {
+		return groupSize;
+	}
+	
+	/** @return The index of the parity piece in its group. */
+	public int getParityIndex() {
+		return parityIndex;
+	}
+	
+	/** @return The amount of parity pieces of the group. */
+	public int getParityCount() {
+		return parityCount;
+	}
+	
+	/** @return The size of the object's last piece. */
+	public int getLastLength() {
+		return lastLength;
+	}
 
 	@Override
 	public int compareTo(ReceivedComplexPiece piece) {
@@ -0,0 +1,179 @@
+package com.jmr.wrapper.common.compression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.jmr.wrapper.common.utils.Crc32c;
+
+/**
+ * Networking Library
+ * CompressionDictionary.java
+ * Purpose: Bytes that often appear in the objects sent, such as class names and field names. Compressors use it as if it
+ * came right before every object, so even small objects compress well. Both sides need the same dictionary, which is
+ * checked with its fingerprint while connecting. A dictionary can be trained from captured objects and saved with
+ * getData() so it can be loaded again with the constructor.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class CompressionDictionary {
+	
+	/** The length of the sequences counted while training. */
+	private static final int TRAIN_SEQUENCE = 8;
+	
+	/** The length of the segments the dictionary is made of while training. */
+	private static final int TRAIN_SEGMENT = 128;
+	
+	/** The amount of bits of the table the sequences are counted in while training. */
+	private static final int TRAIN_HASH_LOG = 20;
+	
+	/** The dictionary's bytes. */
+	private final byte[] data;
+	
+	/** The CRC32C checksum of the bytes, sent while connecting. */
+	private final int fingerprint;
+	
+	/** Creates a dictionary from its bytes.
+	 * @param data The bytes. The most useful bytes should be at the end.
+	 */
+	public CompressionDictionary(byte[] data) {
+		if (data.length == 0)
+			throw new IllegalArgumentException("The dictionary is empty.");
+		this.data = data.clone();
+		this.fingerprint = Crc32c.getValue(data, 0, data.length);
+	}
+	
+	/** Trains a dictionary from the bytes of objects that were sent, such as the bytes from a codec. Counts in how many
+	 * of the samples each sequence of bytes appears, then splits the samples into as many parts as there are segments in
+	 * the dictionary and picks the segment with the most common sequences from each part. Segments with more common
+	 * sequences are put at the end, where compressors find them quicker.
+	 * @param samples The objects' bytes. The more the better, usually a few hundred.
+	 * @param size The size of the dictionary. Usually between a few and 64 kilobytes.
+	 * @return The dictionary.
+	 */
+	public static CompressionDictionary train(List<byte[]> samples, int size) {
+		int total = 0;
+		for (byte[] sample : samples)
+			total += sample.length;
+		if (total == 0 || size <= 0)
+			throw new IllegalArgumentException("There are no samples to train the dictionary with.");
+		
+		byte[] all = new byte[total];
+		int[] hashes = new int[total];
+		int[] ends = new int[total];
+		Arrays.fill(hashes, -1);
+		int[] counts = new int[1 << TRAIN_HASH_LOG];
+		int[] lastSample = new int[1 << TRAIN_HASH_LOG];
+		int index = 0;
+		for (int s = 0; s < samples.size(); s++) {
+			byte[] sample = samples.get(s);
+			System.arraycopy(sample, 0, all, index, sample.length);
+			Arrays.fill(ends, index, index + sample.length, index + sample.length);
+			for (int i = 0; i + TRAIN_SEQUENCE <= sample.length; i++) {
+				int h = hash(sample, i);
+				hashes[index + i] = h;
+				if (lastSample[h] != s + 1) { //Counted once per sample
+					lastSample[h] = s + 1;
+					counts[h]++;
+				}
+			}
+			index += sample.length;
+		}
+		if (size >= total)
+			return new CompressionDictionary(all);
+		
+		int segments = Math.max(1, size / TRAIN_SEGMENT);
+		int partSize = Math.max(TRAIN_SEGMENT, total / segments);
+		List<int[]> chosen = new ArrayList<int[]>(); //Score and index of each chosen segment
+		for (int part = 0; part < total; part += partSize) {
+			int[] best = bestSegment(hashes, ends, counts, part, Math.min(total, part + partSize));
+			if (best == null)
+				continue;
+			chosen.add(best);
+			for (int i = best[1]; i < best[1] + TRAIN_SEGMENT; i++) { //Doesn't pick the same sequences again
+				if (hashes[i] >= 0)
+					counts[hashes[i]] = 0;
+			}
+		}
+		if (chosen.isEmpty())
+			return new CompressionDictionary(Arrays.copyOfRange(all, total - size, total));
+		
+		Collections.sort(chosen, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] s1, int[] s2) {
+				return Integer.compare(s1[0], s2[0]);
+			}
+		});
+		byte[] dictionary = new byte[Math.min(size, chosen.size() * TRAIN_SEGMENT)];
+		int end = dictionary.length;
+		for (int i = chosen.size() - 1; i >= 0 && end > 0; i--) {
+			int length = Math.min(end, TRAIN_SEGMENT);
+			System.arraycopy(all, chosen.get(i)[1] + TRAIN_SEGMENT - length, dictionary, end - length, length);
+			end -= length;
+		}
+		return new CompressionDictionary(dictionary);
+	}
+	
+	/** Finds the segment starting in part of the samples with the highest sum of sequence counts. A segment can't cross
+	 * into the next sample.
+	 * @param hashes The hash of the sequence at each index, or -1 if it would cross into the next sample.
+	 * @param ends The index each sample ends at, for every index of the sample.
+	 * @param counts The amount of samples each sequence appears in.
+	 * @param start The index the part starts at.
+	 * @param end The index the part ends at.
+	 * @return The score and index of the segment, or null if none is worth using.
+	 */
+	private static int[] bestSegment(int[] hashes, int[] ends, int[] counts, int start, int end) {
+		int[] best = null;
+		int score = 0;
+		for (int i = start; i < end && i + TRAIN_SEGMENT <= hashes.length; i++) {
+			if (i == start) {
+				for (int j = i; j < i + TRAIN_SEGMENT; j++)
+					score += score(hashes, counts, j);
+			} else {
+				score += score(hashes, counts, i + TRAIN_SEGMENT - 1) - score(hashes, counts, i - 1);
+			}
+			if (i + TRAIN_SEGMENT <= ends[i] && score > 0 && (best == null || score > best[0]))
+				best = new int[] { score, i };
+		}
+		return best;
+	}
+	
+	/** Gets how much the sequence at an index is worth. Sequences in only one sample aren't worth anything.
+	 * @param hashes The hash of the sequence at each index.
+	 * @param counts The amount of samples each sequence appears in.
+	 * @param index The index.
+	 * @return The score.
+	 */
+	private static int score(int[] hashes, int[] counts, int index) {
+		int h = hashes[index];
+		return h >= 0 && counts[h] > 1 ? counts[h] - 1 : 0;
+	}
+	
+	/** Hashes the sequence at an index.
+	 * @param data The array.
+	 * @param index The index.
+	 * @return The hash.
+	 */
+	private static int hash(byte[] data, int index) {
+		long value = 0;
+		for (int i = 0; i < TRAIN_SEQUENCE; i++)
+			value = value << 8 | (data[index + i] & 0xFF);
+		return (int) ((value * 0x9E3779B97F4A7C15L) >>> (64 - TRAIN_HASH_LOG));
+	}
+	
+	/** @return The dictionary's bytes. Must not be changed. */
+	public byte[] getData() {
+		return data;
+	}
+	
+	/** @return The CRC32C checksum of the dictionary's bytes. */
+	public int getFingerprint() {
+		return fingerprint;
+	}
+	
+}
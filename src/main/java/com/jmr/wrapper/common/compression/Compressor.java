@@ -0,0 +1,45 @@
+package com.jmr.wrapper.common.compression;
+
+import java.io.IOException;
+
+/**
+ * Networking Library
+ * Compressor.java
+ * Purpose: Compresses the bytes of objects before they are sent and decompresses them once they are received. Only used 
+ * for compact packets, and only once both sides agreed to it while connecting. The id of the compressor is sent in front 
+ * of the compressed bytes, so the other side can read packets of any compressor it knows.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public interface Compressor {
+	
+	/** @return The id of the compressor sent in front of the compressed bytes. Ids up to 63 are reserved. */
+	byte getId();
+	
+	/** Compresses bytes.
+	 * @param src The array holding the bytes.
+	 * @param srcOffset The index of the bytes in the array.
+	 * @param srcLength The amount of bytes.
+	 * @param dest The array to write the compressed bytes to.
+	 * @param destOffset The index to start writing at.
+	 * @param destLength The most bytes that may be written.
+	 * @param dictionary The dictionary shared with the other side, or null.
+	 * @return The amount of bytes written, or -1 if the compressed bytes didn't fit.
+	 */
+	int compress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength, byte[] dictionary);
+	
+	/** Decompresses bytes.
+	 * @param src The array holding the compressed bytes.
+	 * @param srcOffset The index of the compressed bytes in the array.
+	 * @param srcLength The amount of compressed bytes.
+	 * @param dest The array to write the bytes to.
+	 * @param destOffset The index to start writing at.
+	 * @param destLength The amount of bytes before they were compressed.
+	 * @param dictionary The dictionary they were compressed with, or null.
+	 * @throws IOException Thrown when the compressed bytes are invalid.
+	 */
+	void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength, byte[] dictionary) throws IOException;
+	
+}
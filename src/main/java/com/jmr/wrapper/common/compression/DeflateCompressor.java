@@ -0,0 +1,121 @@
+package com.jmr.wrapper.common.compression;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Networking Library
+ * DeflateCompressor.java
+ * Purpose: Compresses with the JVM's Deflate implementation. Compresses better than LZ4 but takes longer, so it suits 
+ * large objects sent to many connections. Uses raw Deflate without the zlib header since the packet already has a 
+ * checksum. Each thread reuses its own Deflater and Inflater.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class DeflateCompressor implements Compressor {
+	
+	/** The id of the compressor. */
+	public static final byte ID = 1;
+	
+	/** The instance using the default compression level. */
+	public static final DeflateCompressor INSTANCE = new DeflateCompressor(Deflater.DEFAULT_COMPRESSION);
+	
+	/** The compression level, from 1 (fastest) to 9 (smallest). */
+	private final int level;
+	
+	/** The deflater of each thread. */
+	private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(level, true);
+		}
+	};
+	
+	/** The inflater of each thread. */
+	private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+	
+	/** Creates a new Deflate compressor.
+	 * @param level The compression level, from 1 (fastest) to 9 (smallest).
+	 */
+	public DeflateCompressor(int level) {
+		this.level = level;
+	}
+	
+	@Override
+	public byte getId() {
+		return ID;
+	}
+	
+	/** @return The compression level. */
+	public int getLevel() {
+		return level;
+	}
+	
+	@Override
+	public int compress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength, byte[] dictionary) {
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		try {
+			if (dictionary != null)
+				deflater.setDictionary(dictionary);
+			deflater.setInput(src, srcOffset, srcLength);
+			deflater.finish();
+			int written = 0;
+			while (!deflater.finished() && written < destLength)
+				written += deflater.deflate(dest, destOffset + written, destLength - written);
+			return deflater.finished() ? written : -1;
+		} finally {
+			deflater.setInput(src, 0, 0); //Doesn't keep the array
+		}
+	}
+	
+	@Override
+	public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength, byte[] dictionary) throws IOException {
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		try {
+			if (dictionary != null)
+				inflater.setDictionary(dictionary);
+			inflater.setInput(src, srcOffset, srcLength);
+			inflate(inflater, dest, destOffset, destLength);
+			if (!inflater.finished() && (inflater.inflate(new byte[1]) > 0 || !inflater.finished())) //Reads the end of the data
+				throw new StreamCorruptedException("The compressed data is longer than its size.");
+		} catch (DataFormatException e) {
+			throw new StreamCorruptedException("Invalid compressed data: " + e.getMessage());
+		} finally {
+			inflater.setInput(src, 0, 0);
+		}
+	}
+	
+	/** Inflates exactly the given amount of bytes from the inflater's input.
+	 * @param inflater The inflater.
+	 * @param dest The array to write the bytes to.
+	 * @param destOffset The index to start writing at.
+	 * @param destLength The amount of bytes.
+	 * @throws IOException Thrown when the compressed bytes are invalid.
+	 */
+	static void inflate(Inflater inflater, byte[] dest, int destOffset, int destLength) throws IOException {
+		int read = 0;
+		try {
+			while (read < destLength) {
+				int n = inflater.inflate(dest, destOffset + read, destLength - read);
+				if (n == 0 && (inflater.finished() || inflater.needsInput()))
+					throw new StreamCorruptedException("The compressed data is shorter than its size.");
+				read += n;
+			}
+		} catch (DataFormatException e) {
+			throw new StreamCorruptedException("Invalid compressed data: " + e.getMessage());
+		}
+	}
+	
+}
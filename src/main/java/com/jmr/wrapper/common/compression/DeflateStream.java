@@ -0,0 +1,114 @@
+package com.jmr.wrapper.common.compression;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Networking Library
+ * DeflateStream.java
+ * Purpose: A Deflate context kept for the whole life of a TCP connection. Every object is compressed with everything 
+ * sent before it as the dictionary, so objects that look like earlier ones shrink to a few bytes. Only works because TCP
+ * packets are read in the order they are written, which is why objects are only compressed right before they are written.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class DeflateStream {
+
+	/** The compression level. */
+	private final int level;
+	
+	/** The dictionary the stream starts with, or null. */
+	private final byte[] dictionary;
+	
+	/** The deflater for the written objects. Only used while holding the connection's TCP lock. */
+	private Deflater deflater;
+	
+	/** The inflater for the read objects. Only used by the thread reading the connection. */
+	private Inflater inflater;
+	
+	/** Space for the inflater to write to while reading what's left after an object. */
+	private final byte[] rest = new byte[1];
+	
+	/** Creates a new stream.
+	 * @param level The compression level, from 1 (fastest) to 9 (smallest).
+	 * @param dictionary The dictionary shared with the other side, or null.
+	 */
+	public DeflateStream(int level, byte[] dictionary) {
+		this.level = level;
+		this.dictionary = dictionary;
+	}
+	
+	/** Gets the most bytes compressing can write.
+	 * @param length The amount of bytes compressed.
+	 * @return The size.
+	 */
+	public static int getMaxCompressedLength(int length) {
+		return length + (length >>> 4) + 64;
+	}
+	
+	/** Compresses bytes and flushes them so the other side can decompress them right away. Once called, the bytes have 
+	 * to be sent since the other side's stream needs them.
+	 * @param src The array holding the bytes.
+	 * @param srcOffset The index of the bytes in the array.
+	 * @param srcLength The amount of bytes.
+	 * @param dest The array to write the compressed bytes to. Needs space for getMaxCompressedLength bytes.
+	 * @param destOffset The index to start writing at.
+	 * @return The amount of bytes written.
+	 */
+	public int compress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset) {
+		if (deflater == null) {
+			deflater = new Deflater(level, true);
+			if (dictionary != null)
+				deflater.setDictionary(dictionary);
+		}
+		deflater.setInput(src, srcOffset, srcLength);
+		int space = getMaxCompressedLength(srcLength);
+		int written = 0;
+		int n;
+		do {
+			n = deflater.deflate(dest, destOffset + written, space - written, Deflater.SYNC_FLUSH);
+			written += n;
+		} while (n > 0 && written < space);
+		if (!deflater.needsInput())
+			throw new IllegalStateException("The compressed data didn't fit.");
+		deflater.setInput(src, 0, 0);
+		return written;
+	}
+	
+	/** Decompresses bytes that were compressed by the other side's stream.
+	 * @param src The array holding the compressed bytes.
+	 * @param srcOffset The index of the compressed bytes in the array.
+	 * @param srcLength The amount of compressed bytes.
+	 * @param dest The array to write the bytes to.
+	 * @param destOffset The index to start writing at.
+	 * @param destLength The amount of bytes before they were compressed.
+	 * @throws IOException Thrown when the compressed bytes are invalid.
+	 */
+	public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength) throws IOException {
+		if (inflater == null) {
+			inflater = new Inflater(true);
+			if (dictionary != null)
+				inflater.setDictionary(dictionary);
+		}
+		inflater.setInput(src, srcOffset, srcLength);
+		DeflateCompressor.inflate(inflater, dest, destOffset, destLength);
+		try {
+			while (inflater.getRemaining() > 0) { //Reads the empty block the flush ended with
+				int remaining = inflater.getRemaining();
+				if (inflater.inflate(rest) > 0)
+					throw new StreamCorruptedException("The compressed data is longer than its size.");
+				if (inflater.getRemaining() == remaining)
+					throw new StreamCorruptedException("Invalid compressed data.");
+			}
+		} catch (DataFormatException e) {
+			throw new StreamCorruptedException("Invalid compressed data: " + e.getMessage());
+		}
+		inflater.setInput(src, 0, 0);
+	}
+	
+}
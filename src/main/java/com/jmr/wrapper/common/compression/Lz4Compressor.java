@@ -0,0 +1,240 @@
+package com.jmr.wrapper.common.compression;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+/**
+ * Networking Library
+ * Lz4Compressor.java
+ * Purpose: Compresses in the LZ4 block format. Finds repeated sequences of at least four bytes with a hash table and
+ * writes them as references to where they were seen before. It doesn't compress as well as Deflate but takes a fraction
+ * of the time, so it suits objects sent often. A dictionary is used as if it came right before the bytes.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class Lz4Compressor implements Compressor {
+	
+	/** The id of the compressor. */
+	public static final byte ID = 2;
+	
+	/** The instance of the compressor. It has no state so it's shared. */
+	public static final Lz4Compressor INSTANCE = new Lz4Compressor();
+	
+	/** The shortest sequence written as a reference. */
+	private static final int MIN_MATCH = 4;
+	
+	/** The amount of bytes at the end that are always written as they are. */
+	private static final int LAST_LITERALS = 5;
+	
+	/** The amount of bytes at the end in which no reference may start. */
+	private static final int MF_LIMIT = 12;
+	
+	/** The farthest back a reference can point. */
+	private static final int MAX_OFFSET = 65535;
+	
+	/** The amount of bits of the hash table's index. */
+	private static final int HASH_LOG = 12;
+	
+	/** The hash table of each thread, holding the last position plus one of every hashed sequence. */
+	private static final ThreadLocal<int[]> TABLES = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1 << HASH_LOG];
+		}
+	};
+	
+	@Override
+	public byte getId() {
+		return ID;
+	}
+	
+	@Override
+	public int compress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength, byte[] dictionary) {
+		byte[] in = src;
+		int start = srcOffset;
+		if (dictionary != null && dictionary.length > 0) { //Puts the end of the dictionary right before the bytes
+			int dictLength = Math.min(dictionary.length, MAX_OFFSET);
+			in = new byte[dictLength + srcLength];
+			System.arraycopy(dictionary, dictionary.length - dictLength, in, 0, dictLength);
+			System.arraycopy(src, srcOffset, in, dictLength, srcLength);
+			start = dictLength;
+		}
+		
+		int[] table = TABLES.get();
+		Arrays.fill(table, 0);
+		int low = in == src ? srcOffset : 0;
+		for (int i = low; i + MIN_MATCH <= start; i++)
+			table[hash(readInt(in, i))] = i + 1;
+		
+		int end = start + srcLength;
+		int matchLimit = end - LAST_LITERALS;
+		int mfLimit = end - MF_LIMIT;
+		int destEnd = destOffset + destLength;
+		int anchor = start;
+		int ip = start;
+		int op = destOffset;
+		while (ip < mfLimit) {
+			int sequence = readInt(in, ip);
+			int h = hash(sequence);
+			int ref = table[h] - 1;
+			table[h] = ip + 1;
+			if (ref < low || ip - ref > MAX_OFFSET || readInt(in, ref) != sequence) {
+				ip += 1 + ((ip - anchor) >>> 6); //Skips faster through data that doesn't compress
+				continue;
+			}
+			while (ip > anchor && ref > low && in[ip - 1] == in[ref - 1]) {
+				ip--;
+				ref--;
+			}
+			int matchLength = MIN_MATCH;
+			while (ip + matchLength < matchLimit && in[ref + matchLength] == in[ip + matchLength])
+				matchLength++;
+			
+			int literals = ip - anchor;
+			if (op + 1 + literals + literals / 255 + 2 + 1 + (matchLength - MIN_MATCH) / 255 + LAST_LITERALS > destEnd)
+				return -1;
+			int token = op++;
+			op = writeLiterals(in, anchor, literals, dest, token, op);
+			dest[op++] = (byte) (ip - ref);
+			dest[op++] = (byte) ((ip - ref) >>> 8);
+			int extra = matchLength - MIN_MATCH;
+			if (extra >= 15) {
+				dest[token] |= 15;
+				op = writeLength(dest, op, extra - 15);
+			} else {
+				dest[token] |= extra;
+			}
+			ip += matchLength;
+			anchor = ip;
+			if (ip < mfLimit)
+				table[hash(readInt(in, ip - 2))] = ip - 2 + 1;
+		}
+		
+		int literals = end - anchor;
+		if (op + 1 + literals + literals / 255 + 1 > destEnd)
+			return -1;
+		op = writeLiterals(in, anchor, literals, dest, op, op + 1);
+		return op - destOffset;
+	}
+	
+	@Override
+	public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destLength, byte[] dictionary) throws IOException {
+		int ip = srcOffset;
+		int srcEnd = srcOffset + srcLength;
+		int op = destOffset;
+		int destEnd = destOffset + destLength;
+		while (true) {
+			if (ip >= srcEnd)
+				throw new StreamCorruptedException("The compressed data is shorter than its size.");
+			int token = src[ip++] & 0xFF;
+			int literals = token >>> 4;
+			if (literals == 15) {
+				int b;
+				do {
+					if (ip >= srcEnd)
+						throw new StreamCorruptedException("Invalid compressed data.");
+					b = src[ip++] & 0xFF;
+					literals += b;
+				} while (b == 255);
+			}
+			if (literals > srcEnd - ip || literals > destEnd - op)
+				throw new StreamCorruptedException("Invalid compressed data.");
+			System.arraycopy(src, ip, dest, op, literals);
+			ip += literals;
+			op += literals;
+			if (ip == srcEnd)
+				break; //The last sequence only has literals
+			
+			if (srcEnd - ip < 2)
+				throw new StreamCorruptedException("Invalid compressed data.");
+			int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+			ip += 2;
+			int matchLength = token & 15;
+			if (matchLength == 15) {
+				int b;
+				do {
+					if (ip >= srcEnd)
+						throw new StreamCorruptedException("Invalid compressed data.");
+					b = src[ip++] & 0xFF;
+					matchLength += b;
+				} while (b == 255);
+			}
+			matchLength += MIN_MATCH;
+			if (offset == 0 || matchLength > destEnd - op)
+				throw new StreamCorruptedException("Invalid compressed data.");
+			
+			int ref = op - offset;
+			if (ref < destOffset) { //Points into the dictionary
+				int back = destOffset - ref;
+				if (dictionary == null || back > dictionary.length)
+					throw new StreamCorruptedException("Invalid compressed data.");
+				int fromDictionary = Math.min(back, matchLength);
+				System.arraycopy(dictionary, dictionary.length - back, dest, op, fromDictionary);
+				op += fromDictionary;
+				matchLength -= fromDictionary;
+				ref = destOffset;
+			}
+			for (int i = 0; i < matchLength; i++) //Byte by byte since the reference can overlap what's being written
+				dest[op + i] = dest[ref + i];
+			op += matchLength;
+		}
+		if (op != destEnd)
+			throw new StreamCorruptedException("The compressed data is shorter than its size.");
+	}
+	
+	/** Writes the literal length into a token, followed by the extra length bytes and the literals.
+	 * @param src The array holding the literals.
+	 * @param offset The index of the literals.
+	 * @param length The amount of literals.
+	 * @param dest The array to write to.
+	 * @param token The index of the token.
+	 * @param op The index to write the rest at.
+	 * @return The index after the literals.
+	 */
+	private static int writeLiterals(byte[] src, int offset, int length, byte[] dest, int token, int op) {
+		if (length >= 15) {
+			dest[token] = (byte) (15 << 4);
+			op = writeLength(dest, op, length - 15);
+		} else {
+			dest[token] = (byte) (length << 4);
+		}
+		System.arraycopy(src, offset, dest, op, length);
+		return op + length;
+	}
+	
+	/** Writes the rest of a length that didn't fit in the token.
+	 * @param dest The array to write to.
+	 * @param op The index to write at.
+	 * @param length The rest of the length.
+	 * @return The index after the length.
+	 */
+	private static int writeLength(byte[] dest, int op, int length) {
+		while (length >= 255) {
+			dest[op++] = (byte) 255;
+			length -= 255;
+		}
+		dest[op++] = (byte) length;
+		return op;
+	}
+	
+	/** Reads four bytes in little endian order.
+	 * @param src The array.
+	 * @param index The index to read from.
+	 * @return The integer.
+	 */
+	private static int readInt(byte[] src, int index) {
+		return (src[index] & 0xFF) | (src[index + 1] & 0xFF) << 8 | (src[index + 2] & 0xFF) << 16 | src[index + 3] << 24;
+	}
+	
+	/** Hashes a sequence of four bytes into an index of the hash table.
+	 * @param sequence The four bytes.
+	 * @return The index.
+	 */
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+	
+}
@@ -1,5 +1,9 @@
 package com.jmr.wrapper.common.config;
 
+import com.jmr.wrapper.common.compression.CompressionDictionary;
+import com.jmr.wrapper.common.compression.Compressor;
+import com.jmr.wrapper.encryption.CipherSuite;
+
 /**
  * Networking Library
  * Config.java
@@ -14,4 +18,172 @@ public class Config {
 	/** The size of the buffer to use when sending and receiving objects over different protocols. */
 	public int PACKET_BUFFER_SIZE = 2048;
 	
+	/** Whether to send packets sized to the object instead of padded to the buffer size. Only used when the other side
+	 * supports it as well, which is agreed on while connecting. The buffer size is still the largest packet allowed. */
+	public boolean COMPACT_FRAMING = true;
+	
+	/** Whether to run the read threads and listener calls on virtual threads. Needs Java 21 or newer, older JVMs keep
+	 * using a cached thread pool. Must be set before the server is started or the client connects. */
+	public boolean VIRTUAL_THREADS = false;
+	
+	/** Whether the buffers used to send and receive packets are reused instead of allocated for every packet. Must be 
+	 * set before the server is started or the client connects. */
+	public boolean BUFFER_POOLING = true;
+	
+	/** Whether to turn off Nagle's algorithm on TCP sockets. Packets are already combined before they are written, so 
+	 * waiting for more data in the socket only adds latency. Set before the connection is made. */
+	public boolean TCP_NO_DELAY = true;
+	
+	/** Whether compact TCP packets carry a checksum. TCP already makes sure the data arrives intact, so it can be turned 
+	 * off to save calculating it. Only left out when the other side supports it. UDP packets always have one. Turned 
+	 * off, files sent as streams are also written in batches, see Connection.transferStreamData. */
+	public boolean TCP_CHECKSUM = true;
+	
+	/** The time in milliseconds TCP packets are held back to be written together with the packets following them. At 0
+	 * packets are written right away, only combined with packets queued while another thread was writing. The delay is
+	 * timed by the timer wheel, so it's rounded up to the wheel's tick. */
+	public int TCP_FLUSH_DELAY = 0;
+	
+	/** The amount of queued TCP bytes that are written right away even if the flush delay hasn't passed. Also the size
+	 * of the buffer a blocking socket's data is collected in. Set before the connection is made. */
+	public int TCP_FLUSH_SIZE = 16384;
+	
+	/** The amount of TCP bytes waiting to be written after which a connection isn't writable anymore and the slow 
+	 * consumer policy is used for new packets. */
+	public int TCP_HIGH_WATER_MARK = 1024 * 1024;
+	
+	/** The amount of TCP bytes waiting to be written below which a connection that wasn't writable is again. */
+	public int TCP_LOW_WATER_MARK = 512 * 1024;
+	
+	/** What to do with packets sent to a connection above the high water mark. */
+	public SlowConsumerPolicy SLOW_CONSUMER_POLICY = SlowConsumerPolicy.NOTIFY;
+	
+	/** The compressor for the objects in compact packets, such as DeflateCompressor.INSTANCE or Lz4Compressor.INSTANCE, 
+	 * or null to not compress. Only used when the other side supports it. Compressed packets from the other side are 
+	 * read either way. */
+	public Compressor COMPRESSOR = null;
+	
+	/** The amount of bytes below which objects aren't compressed. Small objects barely get smaller. */
+	public int COMPRESSION_THRESHOLD = 256;
+	
+	/** The dictionary the objects are compressed with, or null. Only used when the other side has the same one. */
+	public CompressionDictionary COMPRESSION_DICTIONARY = null;
+	
+	/** Whether objects sent over TCP are compressed with a Deflate stream kept for the whole connection instead of one
+	 * at a time, so objects that look like earlier ones get much smaller. Only used when the compressor is a 
+	 * DeflateCompressor. Broadcasts and complex objects are still compressed one at a time. */
+	public boolean COMPRESSION_STREAMING = false;
+	
+	/** The largest size a received compressed object may have once it's decompressed. */
+	public int MAX_DECOMPRESSED_SIZE = 16 * 1024 * 1024;
+	
+	/** The milliseconds a complex object may go without receiving a piece before it's dropped. */
+	public int COMPLEX_TIMEOUT = 10000;
+	
+	/** The most pieces a received complex object may have. */
+	public int COMPLEX_MAX_PIECES = 65536;
+	
+	/** The most heap bytes the complex objects being received from one connection may take. */
+	public long COMPLEX_CONNECTION_BUDGET = 16 * 1024 * 1024;
+	
+	/** The most heap bytes all complex objects being received may take. */
+	public long COMPLEX_TOTAL_BUDGET = 256 * 1024 * 1024;
+	
+	/** The size above which a received complex object is written to a memory-mapped temporary file instead of the heap. */
+	public int COMPLEX_MAP_THRESHOLD = 8 * 1024 * 1024;
+	
+	/** The largest size a received complex object may have. */
+	public int COMPLEX_MAX_SIZE = 1024 * 1024 * 1024;
+	
+	/** The amount of parity pieces sent with a complex object over UDP for every piece of it, so it can be formed even
+	 * if some of its pieces are lost. 0 sends none. A group getting a single parity piece uses XOR parity, more use 
+	 * Reed-Solomon. */
+	public double COMPLEX_FEC_RATIO = 0;
+	
+	/** The most pieces of a complex object in a group sharing parity pieces. Up to 255 pieces and parity pieces. */
+	public int COMPLEX_FEC_GROUP_SIZE = 16;
+	
+	/** The most bytes of a stream the other side may send before the stream listener took them. */
+	public int STREAM_WINDOW = 1024 * 1024;
+	
+	/** The milliseconds a stream being sent waits for the other side to take more bytes before it's cancelled. */
+	public int STREAM_TIMEOUT = 30000;
+	
+	/** The most packets of the reliable UDP channel that may be waiting for an acknowledgement. The other side also 
+	 * keeps this many packets that arrived early. */
+	public int RELIABLE_WINDOW = 256;
+	
+	/** The fewest milliseconds a reliable UDP packet waits for an acknowledgement before it's sent again. */
+	public int RELIABLE_MIN_RTO = 20;
+	
+	/** The most milliseconds a reliable UDP packet waits for an acknowledgement before it's sent again. */
+	public int RELIABLE_MAX_RTO = 2000;
+	
+	/** The amount of times a reliable UDP packet is sent again before the connection is closed. */
+	public int RELIABLE_MAX_RETRIES = 10;
+	
+	/** Whether UDP packets are queued and paced for every connection instead of being sent right away. */
+	public boolean UDP_PACING = true;
+	
+	/** The bytes per second UDP packets are paced at until the round trip times of the reliable channel change it. */
+	public int UDP_RATE = 8 * 1024 * 1024;
+	
+	/** The lowest bytes per second UDP packets are paced at. */
+	public int UDP_MIN_RATE = 64 * 1024;
+	
+	/** The highest bytes per second UDP packets are paced at. */
+	public int UDP_MAX_RATE = 256 * 1024 * 1024;
+	
+	/** The most bytes of UDP packets sent at once after the connection was idle. Raised to the bytes a tick of the timer
+	 * wheel takes at the current rate, since the wheel sends the packets left in the queue once a tick. */
+	public int UDP_BURST = 64 * 1024;
+	
+	/** The milliseconds UDP packets may wait in queues along the way before the pacing rate is lowered. */
+	public int UDP_TARGET_DELAY = 25;
+	
+	/** The most bytes of UDP packets waiting to be sent to a connection. Packets that don't fit are dropped. */
+	public int UDP_QUEUE_SIZE = 4 * 1024 * 1024;
+	
+	/** The milliseconds between the session tokens a client sends over UDP once its endpoint is bound, which keeps its 
+	 * NAT open and lets the server follow it to a new address or port. 0 to stop once it's bound. */
+	public int UDP_BIND_INTERVAL = 10000;
+	
+	/** The milliseconds a connection may go without receiving anything before it's closed. Only used once the other side
+	 * is known to ping the connection when it has nothing else to send. 0 to keep idle connections open. */
+	public int READ_IDLE_TIMEOUT = 20000;
+	
+	/** The milliseconds a request waits for its response by default before it fails. */
+	public int REQUEST_TIMEOUT = 10000;
+	
+	/** Whether the compact packets of a connection are encrypted with session keys agreed on while connecting, instead 
+	 * of the encryption method. Used once both sides enabled it. Not used while an encryption method is set. */
+	public boolean SESSION_ENCRYPTION = false;
+	
+	/** The cipher the server asks to use with the session keys. AES-GCM is used when either side's JDK doesn't have it. */
+	public CipherSuite SESSION_CIPHER = CipherSuite.AES_GCM;
+	
+	/** A secret both sides have beforehand that is mixed into the session keys, or null. Without it the keys are safe 
+	 * from anyone listening but not from someone in the middle of the connection, and with a different one the
+	 * connection fails. */
+	public byte[] SESSION_SECRET = null;
+	
+	/** How received objects are passed to the listener. */
+	public DispatchPolicy DISPATCH_POLICY = DispatchPolicy.PARALLEL;
+	
+	/** The amount of threads passing objects to the listener when the dispatch policy is SERIAL. Must be set before the
+	 * first object is received. */
+	public int DISPATCH_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	
+	/** The most connections waiting for a thread when the dispatch policy is SERIAL. Once there are more, the thread that
+	 * read an object runs its connection's calls itself, so it stops reading until they're done. Must be set before the
+	 * first object is received. */
+	public int DISPATCH_QUEUE_SIZE = 1024;
+	
+	/** The amount of threads reading received UDP packets. Must be set before the first packet is received. */
+	public int UDP_READ_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	
+	/** The most received UDP packets waiting for a thread to read them. Packets received while it's full are dropped. Must
+	 * be set before the first packet is received. */
+	public int UDP_READ_QUEUE_SIZE = 4096;
+	
 }
@@ -0,0 +1,27 @@
+package com.jmr.wrapper.common.config;
+
+/**
+ * Networking Library
+ * DispatchPolicy.java
+ * Purpose: How the objects received from a connection, and its connected and disconnected events, are passed to the
+ * listener.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public enum DispatchPolicy {
+
+	/** Calls the listener on the thread that read the packet. Only for listeners that never block, since nothing else is
+	 * read from the connection meanwhile. */
+	INLINE,
+	
+	/** Calls the listener for one connection at a time, in the order the objects arrived, on a pool with a set amount of
+	 * threads. Different connections are still handled at the same time. */
+	SERIAL,
+	
+	/** Calls the listener on a thread of its own for every object, so objects of one connection can be handled at the 
+	 * same time and out of order. */
+	PARALLEL
+	
+}
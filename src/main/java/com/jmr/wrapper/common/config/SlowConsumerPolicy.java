@@ -0,0 +1,28 @@
+package com.jmr.wrapper.common.config;
+
+/**
+ * Networking Library
+ * SlowConsumerPolicy.java
+ * Purpose: What a connection does when a packet is sent while more TCP data than the high water mark is waiting to be
+ * written, which happens when the other side reads slower than it's sent to. Pieces of complex objects are never 
+ * dropped since the object couldn't be put back together without them.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public enum SlowConsumerPolicy {
+
+	/** Queues the packet anyway. The listener is still told that the connection isn't writable. */
+	NOTIFY,
+	
+	/** Drops queued packets that weren't written yet, oldest first, to make room for the packet. */
+	DROP_OLDEST,
+	
+	/** Drops the packet being sent. */
+	DROP_NEWEST,
+	
+	/** Closes the connection. */
+	DISCONNECT
+	
+}
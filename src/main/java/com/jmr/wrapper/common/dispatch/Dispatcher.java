@@ -0,0 +1,145 @@
+package com.jmr.wrapper.common.dispatch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.config.DispatchPolicy;
+import com.jmr.wrapper.server.threads.UdpHandleThread;
+
+/**
+ * Networking Library
+ * Dispatcher.java
+ * Purpose: Passes received objects and connection events to the listener following the dispatch policy of the 
+ * configuration. Calls can be run on the thread that read them, on the connection's mailbox so one connection is 
+ * handled at a time and in order on a pool with a set amount of threads, or each on a thread of its own. Received
+ * datagrams are read on a pool of their own. Both pools have a bounded queue so a flood of packets can't make it grow
+ * without end.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class Dispatcher {
+	
+	/** Instance of the protocol. */
+	private final IProtocol protocol;
+	
+	/** The threads running the mailboxes, created once they're needed. Threads stop after a minute without calls. */
+	private volatile ThreadPoolExecutor pool;
+	
+	/** The threads reading received datagrams, created once they're needed. Threads stop after a minute without any. */
+	private volatile ThreadPoolExecutor udpPool;
+	
+	/** Creates the dispatcher of a server or client.
+	 * @param protocol Instance of the protocol.
+	 */
+	public Dispatcher(IProtocol protocol) {
+		this.protocol = protocol;
+	}
+	
+	/** Passes a call to the listener following the dispatch policy.
+	 * @param con The connection the call is for.
+	 * @param call The call.
+	 */
+	public void dispatch(Connection con, Runnable call) {
+		dispatch(con, call, false);
+	}
+	
+	/** Passes a call to the listener following the dispatch policy.
+	 * @param con The connection the call is for.
+	 * @param call The call.
+	 * @param ordered Whether the call must not overtake the ones before it, like the objects of the reliable channel. 
+	 * Such calls are run on the current thread instead of a thread of their own.
+	 */
+	public void dispatch(Connection con, Runnable call, boolean ordered) {
+		DispatchPolicy policy = protocol.getConfig().DISPATCH_POLICY;
+		if (policy == DispatchPolicy.SERIAL && con != null) {
+			con.getMailbox().execute(call, getPool());
+		} else if (policy == DispatchPolicy.PARALLEL && !ordered) {
+			protocol.executeThread(call);
+		} else {
+			try {
+				call.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/** Hands a received datagram to the threads reading datagrams. Once the queue of datagrams waiting for them is full,
+	 * the datagram is dropped like the socket drops datagrams once its buffer is full.
+	 * @param handler The thread reading the datagram.
+	 */
+	public void handleDatagram(UdpHandleThread handler) {
+		try {
+			getUdpPool().execute(handler);
+		} catch (RejectedExecutionException e) {
+			handler.drop();
+		}
+	}
+	
+	/** @return The threads running the mailboxes. Only locks the first time, once the pool has to be created. Once its
+	 * queue is full, a mailbox is run by the thread that read the call, which stops reading the connection meanwhile. */
+	private ExecutorService getPool() {
+		ThreadPoolExecutor current = pool;
+		if (current != null)
+			return current;
+		synchronized (this) {
+			if (pool == null)
+				pool = createPool("NitroNet Dispatch ", protocol.getConfig().DISPATCH_THREADS, protocol.getConfig().DISPATCH_QUEUE_SIZE);
+			return pool;
+		}
+	}
+	
+	/** @return The threads reading received datagrams. Only locks the first time, once the pool has to be created. */
+	private ExecutorService getUdpPool() {
+		ThreadPoolExecutor current = udpPool;
+		if (current != null)
+			return current;
+		synchronized (this) {
+			if (udpPool == null)
+				udpPool = createPool("NitroNet UDP ", protocol.getConfig().UDP_READ_THREADS, protocol.getConfig().UDP_READ_QUEUE_SIZE);
+			return udpPool;
+		}
+	}
+	
+	/** Creates a pool with a set amount of threads, which stop after a minute without tasks, and a bounded queue. Tasks
+	 * are rejected once the queue is full.
+	 * @param name The name of the threads, followed by their number.
+	 * @param threads The amount of threads.
+	 * @param queueSize The most tasks waiting for a thread.
+	 * @return The pool.
+	 */
+	private static ThreadPoolExecutor createPool(final String name, int threads, int queueSize) {
+		final AtomicInteger count = new AtomicInteger();
+		threads = Math.max(1, threads);
+		ThreadPoolExecutor created = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable run) {
+				Thread thread = new Thread(run, name + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		created.allowCoreThreadTimeOut(true);
+		return created;
+	}
+	
+	/** Stops the threads once the calls and datagrams waiting for them were run. Calls dispatched later start new threads. */
+	public synchronized void close() {
+		if (pool != null)
+			pool.shutdown();
+		pool = null;
+		if (udpPool != null)
+			udpPool.shutdown();
+		udpPool = null;
+	}
+	
+}
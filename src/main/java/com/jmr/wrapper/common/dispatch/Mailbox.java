@@ -0,0 +1,73 @@
+package com.jmr.wrapper.common.dispatch;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Networking Library
+ * Mailbox.java
+ * Purpose: Holds the listener calls of one connection and runs them one at a time in the order they were added. The
+ * mailbox is only handed to the executor while it has calls waiting, and runs a limited amount before handing itself 
+ * back so one busy connection doesn't keep a thread from the others.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class Mailbox implements Runnable {
+	
+	/** The most calls run before the mailbox is handed back to the executor. */
+	private static final int BATCH_SIZE = 64;
+	
+	/** The calls waiting to be run. */
+	private final Queue<Runnable> calls = new ConcurrentLinkedQueue<Runnable>();
+	
+	/** Whether the mailbox was handed to the executor or is running. */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	
+	/** The executor running the mailbox. */
+	private volatile Executor executor;
+	
+	/** Adds a call and hands the mailbox to the executor unless it already was.
+	 * @param call The call.
+	 * @param executor The executor.
+	 */
+	public void execute(Runnable call, Executor executor) {
+		this.executor = executor;
+		calls.add(call);
+		schedule();
+	}
+	
+	/** Hands the mailbox to the executor if it has calls waiting and wasn't handed over yet. Runs it on the current thread
+	 * if the executor was shut down or its queue is full. */
+	private void schedule() {
+		if (calls.isEmpty() || !scheduled.compareAndSet(false, true))
+			return;
+		try {
+			executor.execute(this);
+		} catch (RejectedExecutionException e) {
+			run();
+		}
+	}
+	
+	@Override
+	public void run() {
+		try {
+			Runnable call;
+			for (int i = 0; i < BATCH_SIZE && (call = calls.poll()) != null; i++) {
+				try {
+					call.run();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			scheduled.set(false);
+		}
+		schedule(); //Calls added while running, or left after the batch
+	}
+	
+}
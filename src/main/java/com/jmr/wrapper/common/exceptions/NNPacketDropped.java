@@ -0,0 +1,23 @@
+package com.jmr.wrapper.common.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Networking Library
+ * NNPacketDropped.java
+ * Purpose: Given to the future of a packet that was never written, either because the connection had too much data 
+ * waiting to be written or because the connection closed first.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class NNPacketDropped extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public NNPacketDropped(String reason) {
+		super("The packet was dropped. " + reason);
+	}
+	
+}
@@ -0,0 +1,23 @@
+package com.jmr.wrapper.common.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Networking Library
+ * NNRequestFailed.java
+ * Purpose: Given to the future of a request that wasn't answered, either because the other side has no responder for
+ * it or its responder failed, because it doesn't answer requests at all or because the connection closed first.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class NNRequestFailed extends IOException {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public NNRequestFailed(String reason) {
+		super("The request failed. " + reason);
+	}
+	
+}
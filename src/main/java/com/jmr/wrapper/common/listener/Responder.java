@@ -0,0 +1,26 @@
+package com.jmr.wrapper.common.listener;
+
+import com.jmr.wrapper.common.Connection;
+
+/**
+ * Networking Library
+ * Responder.java
+ * Purpose: Interface for objects that answer requests sent with Connection.request. Responders are registered with the
+ * RequestManager of a server or client for the class of request they answer, and are called following the dispatch
+ * policy, so requests of one connection may be answered at the same time and out of order.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public interface Responder<T> {
+	
+	/** Called when a connection sends a request.
+	 * @param con The connection the request came from.
+	 * @param request The request.
+	 * @return The response, which may be null, or a CompletionStage completed with it later.
+	 * @throws Exception Thrown when the request can't be answered. The requester's future fails with its message.
+	 */
+	Object respond(Connection con, T request) throws Exception;
+	
+}
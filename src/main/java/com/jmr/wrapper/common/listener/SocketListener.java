@@ -30,4 +30,13 @@ public interface SocketListener {
 	 */
 	void disconnected(Connection con);
 	
+	/** Called when more TCP data than the high water mark is waiting to be sent to a connection, and again once it went
+	 * below the low water mark. Calls can arrive out of order, so check Connection.isWritable() for the current state.
+	 * @param con The connection.
+	 * @param writable Whether the connection can take more data.
+	 */
+	default void writabilityChanged(Connection con, boolean writable) {
+		
+	}
+	
 }
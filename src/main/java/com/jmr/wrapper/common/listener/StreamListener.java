@@ -0,0 +1,45 @@
+package com.jmr.wrapper.common.listener;
+
+import com.jmr.wrapper.common.Connection;
+
+/**
+ * Networking Library
+ * StreamListener.java
+ * Purpose: Interface for listeners that receive streams sent with Connection.sendStream. The bytes arrive in chunks, 
+ * and the sender only sends as many bytes as the listener has taken plus the stream window, so a slow listener slows
+ * the sender down instead of filling the heap. All methods are called on the thread reading the connection.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public interface StreamListener {
+
+	/** Called when the other side starts sending a stream.
+	 * @param con The connection the stream comes from.
+	 * @param streamId The id of the stream, unique for the connection while it's open.
+	 * @param metadata The object sent with the stream, or null.
+	 * @param length The amount of bytes in the stream, or -1 if the sender doesn't know.
+	 * @return The amount of bytes already received in an earlier attempt, which the sender skips, 0 to receive the 
+	 * whole stream, or -1 to refuse it.
+	 */
+	long opened(Connection con, int streamId, Object metadata, long length);
+	
+	/** Called when a chunk of a stream arrives. Chunks arrive in order.
+	 * @param con The connection the stream comes from.
+	 * @param streamId The id of the stream.
+	 * @param data The array holding the chunk. It's reused once this returns, so the chunk has to be copied to be kept.
+	 * @param offset The index of the chunk in the array.
+	 * @param length The size of the chunk.
+	 */
+	void received(Connection con, int streamId, byte[] data, int offset, int length);
+	
+	/** Called when a stream ends.
+	 * @param con The connection the stream came from.
+	 * @param streamId The id of the stream.
+	 * @param complete Whether every byte arrived, otherwise it was cancelled or the connection was closed. Can be 
+	 * resumed by returning the amount of bytes received from opened the next time it's sent.
+	 */
+	void closed(Connection con, int streamId, boolean complete);
+	
+}
@@ -0,0 +1,363 @@
+package com.jmr.wrapper.common.request;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.buffer.PooledOutputStream;
+import com.jmr.wrapper.common.codec.Codec;
+import com.jmr.wrapper.common.exceptions.NNPacketDropped;
+import com.jmr.wrapper.common.exceptions.NNRequestFailed;
+import com.jmr.wrapper.common.listener.Responder;
+import com.jmr.wrapper.common.threads.RequestThread;
+import com.jmr.wrapper.common.utils.FrameUtils;
+import com.jmr.wrapper.common.utils.IntMap;
+import com.jmr.wrapper.common.utils.TimerWheel;
+
+/**
+ * Networking Library
+ * RequestManager.java
+ * Purpose: Manages the requests of a server or client. Every request gets an id, unique for its connection, that its 
+ * response carries back, so any amount of requests can wait for their responses on one connection at the same time 
+ * and be answered in any order. Requests are answered by the responder registered for their class, or for one of its 
+ * superclasses or interfaces. A request that isn't answered before its timeout fails, and its response is dropped if 
+ * it arrives later.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class RequestManager {
+	
+	/** Sent with a request. Followed by the id and the request. */
+	public static final byte REQUEST = 1;
+	
+	/** Sent with the response to a request. Followed by the id and the response. */
+	public static final byte RESPONSE = 2;
+	
+	/** Sent when a request can't be answered. Followed by the id and the reason in UTF-8. */
+	public static final byte ERROR = 3;
+	
+	/** The size of the kind of packet and the id. */
+	public static final int HEADER_SIZE = 1 + 4;
+	
+	/** The responders by the class of request they answer. */
+	private final ConcurrentHashMap<Class<?>, Responder<?>> responders = new ConcurrentHashMap<Class<?>, Responder<?>>();
+	
+	/** The requests of each connection. */
+	private final ConcurrentHashMap<Connection, Requests> connections = new ConcurrentHashMap<Connection, Requests>();
+	
+	/** Creates the request manager of a server or client. */
+	public RequestManager() {
+	
+	}
+	
+	/** Sets the responder answering a class of requests. Also answers the subclasses that have no responder of their own.
+	 * @param type The class of the requests.
+	 * @param responder The responder.
+	 */
+	public <T> void register(Class<T> type, Responder<? super T> responder) {
+		responders.put(type, responder);
+	}
+	
+	/** Removes the responder of a class of requests.
+	 * @param type The class of the requests.
+	 */
+	public void unregister(Class<?> type) {
+		responders.remove(type);
+	}
+	
+	/** Sends a request to a connection that answers requests.
+	 * @param con The connection.
+	 * @param request The request.
+	 * @param timeout The milliseconds to wait for the response, or 0 to wait until the connection is closed.
+	 * @return A future completed with the response.
+	 */
+	public CompletableFuture<Object> request(final Connection con, Object request, final long timeout) {
+		final CompletableFuture<Object> future = new CompletableFuture<Object>();
+		if (con.getSocket() == null) {
+			future.completeExceptionally(new NNRequestFailed("The connection was closed."));
+			return future;
+		}
+		final Requests requests = getRequests(con);
+		final Pending pending = new Pending(future);
+		final int id = requests.add(pending);
+		try {
+			Codec codec = con.getCodec();
+			PooledOutputStream stream = codec.encode(con.getProtocol(), request);
+			byte[] packet = new byte[HEADER_SIZE + stream.size()];
+			writeHeader(packet, REQUEST, id);
+			System.arraycopy(stream.getBuffer(), 0, packet, HEADER_SIZE, stream.size());
+			if (timeout > 0) {
+				pending.timeout = con.getProtocol().getTimerWheel().schedule(new Runnable() {
+					@Override
+					public void run() {
+						if (requests.pending.remove(id, pending))
+							complete(con.getProtocol(), future, null, new TimeoutException("The request wasn't answered within " + timeout + " milliseconds."));
+					}
+				}, timeout);
+			}
+			con.queueRequestPacket(packet, FrameUtils.getFlags(codec));
+		} catch (IOException | RuntimeException e) {
+			if (requests.pending.remove(id, pending)) {
+				pending.cancelTimeout();
+				future.completeExceptionally(e);
+			}
+			if (con.getSocket() == null) //Closed after the requests were taken, so they wouldn't be removed
+				connections.remove(con, requests);
+		}
+		return future;
+	}
+	
+	/** Handles a request packet. Requests are passed to their responder following the dispatch policy, and responses 
+	 * complete the future of their request on a thread of its own.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection it came from.
+	 * @param flags The flags of the packet, saying which codec its object was encoded with.
+	 * @param payload The array holding the packet. It isn't kept once this returns so it can be reused.
+	 * @param offset The index of the packet in the array.
+	 * @param length The size of the packet.
+	 * @throws StreamCorruptedException Thrown when the packet isn't valid.
+	 */
+	public void handlePacket(IProtocol protocol, Connection con, byte flags, byte[] payload, int offset, int length) throws StreamCorruptedException {
+		if (length < HEADER_SIZE)
+			throw new StreamCorruptedException("Invalid request packet.");
+		byte kind = payload[offset];
+		int id = FrameUtils.readInt(payload, offset + 1);
+		
+		if (kind == REQUEST) {
+			Object request;
+			try {
+				request = FrameUtils.decode(protocol, con, flags, payload, offset + HEADER_SIZE, length - HEADER_SIZE);
+			} catch (IOException | ClassNotFoundException | RuntimeException e) {
+				fail(con, id, "The request couldn't be read: " + e);
+				return;
+			}
+			Responder<Object> responder = getResponder(request != null ? request.getClass() : Object.class);
+			if (responder == null) {
+				fail(con, id, "Nothing answers requests of " + (request != null ? request.getClass().getName() : "null") + ".");
+				return;
+			}
+			protocol.getDispatcher().dispatch(con, new RequestThread(this, responder, con, id, request));
+		} else if (kind == RESPONSE || kind == ERROR) {
+			Requests requests = connections.get(con);
+			Pending pending = requests != null ? requests.pending.get(id) : null;
+			if (pending == null || !requests.pending.remove(id, pending))
+				return; //Timed out
+			pending.cancelTimeout();
+			if (kind == ERROR) {
+				complete(protocol, pending.future, null, new NNRequestFailed(new String(payload, offset + HEADER_SIZE, length - HEADER_SIZE, StandardCharsets.UTF_8)));
+				return;
+			}
+			try {
+				complete(protocol, pending.future, FrameUtils.decode(protocol, con, flags, payload, offset + HEADER_SIZE, length - HEADER_SIZE), null);
+			} catch (IOException | ClassNotFoundException | RuntimeException e) {
+				complete(protocol, pending.future, null, e);
+			}
+		} else {
+			throw new StreamCorruptedException("Unknown request packet: " + kind);
+		}
+	}
+	
+	/** Sends the response to a request.
+	 * @param con The connection the request came from.
+	 * @param id The id of the request.
+	 * @param response The response.
+	 */
+	public void respond(Connection con, int id, Object response) {
+		byte[] packet;
+		byte flags;
+		try {
+			Codec codec = con.getCodec();
+			PooledOutputStream stream = codec.encode(con.getProtocol(), response);
+			packet = new byte[HEADER_SIZE + stream.size()];
+			writeHeader(packet, RESPONSE, id);
+			System.arraycopy(stream.getBuffer(), 0, packet, HEADER_SIZE, stream.size());
+			flags = FrameUtils.getFlags(codec);
+		} catch (IOException | RuntimeException e) {
+			fail(con, id, "The response couldn't be encoded: " + e);
+			return;
+		}
+		try {
+			con.queueRequestPacket(packet, flags);
+		} catch (NNPacketDropped e) {
+			//connection closed, the request fails on the other side
+		} catch (IOException e) {
+			fail(con, id, e.getMessage());
+		}
+	}
+	
+	/** Tells the other side a request can't be answered.
+	 * @param con The connection the request came from.
+	 * @param id The id of the request.
+	 * @param reason Why it can't be answered.
+	 */
+	public void fail(Connection con, int id, String reason) {
+		byte[] message = String.valueOf(reason).getBytes(StandardCharsets.UTF_8);
+		byte[] packet = new byte[HEADER_SIZE + message.length];
+		writeHeader(packet, ERROR, id);
+		System.arraycopy(message, 0, packet, HEADER_SIZE, message.length);
+		try {
+			con.queueRequestPacket(packet, (byte) 0);
+		} catch (IOException e) {
+			//connection closed, the request fails on the other side
+		}
+	}
+	
+	/** Fails the requests waiting for a connection's responses, once it's closed.
+	 * @param con The connection.
+	 */
+	public void remove(Connection con) {
+		Requests requests = connections.remove(con);
+		if (requests == null)
+			return;
+		List<Pending> waiting = requests.pending.copyValues(new ArrayList<Pending>());
+		requests.pending.clear();
+		for (Pending pending : waiting) {
+			pending.cancelTimeout();
+			pending.future.completeExceptionally(new NNRequestFailed("The connection was closed."));
+		}
+	}
+	
+	/** Gets the responder of a class of requests, looking at its superclasses and then its interfaces if it has none.
+	 * @param type The class of the request.
+	 * @return The responder, or null if there's none.
+	 */
+	private Responder<Object> getResponder(Class<?> type) {
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			Responder<Object> responder = cast(responders.get(c));
+			if (responder != null)
+				return responder;
+		}
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			Responder<Object> responder = getResponder(c.getInterfaces());
+			if (responder != null)
+				return responder;
+		}
+		return null;
+	}
+	
+	/** Gets the responder of one of a class's interfaces or the interfaces they extend.
+	 * @param interfaces The interfaces.
+	 * @return The responder, or null if there's none.
+	 */
+	private Responder<Object> getResponder(Class<?>[] interfaces) {
+		for (Class<?> i : interfaces) {
+			Responder<Object> responder = cast(responders.get(i));
+			if (responder == null)
+				responder = getResponder(i.getInterfaces());
+			if (responder != null)
+				return responder;
+		}
+		return null;
+	}
+	
+	/** Casts a responder so it can be given any request. It's only given requests of the class it was registered for.
+	 * @param responder The responder.
+	 * @return The responder.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Responder<Object> cast(Responder<?> responder) {
+		return (Responder<Object>) responder;
+	}
+	
+	/** Completes the future of a request on a thread of its own, so its callbacks don't block the thread reading the
+	 * connection. The response is read before, since the packet's array is reused.
+	 * @param protocol Instance of the protocol.
+	 * @param future The future.
+	 * @param response The response, if it didn't fail.
+	 * @param error Why it failed, or null.
+	 */
+	private static void complete(IProtocol protocol, final CompletableFuture<Object> future, final Object response, final Throwable error) {
+		protocol.executeThread(new Runnable() {
+			@Override
+			public void run() {
+				if (error != null)
+					future.completeExceptionally(error);
+				else
+					future.complete(response);
+			}
+		});
+	}
+	
+	/** Writes the kind of packet and the id of a request into an array.
+	 * @param dest The array.
+	 * @param kind The kind of packet.
+	 * @param id The id of the request.
+	 */
+	private static void writeHeader(byte[] dest, byte kind, int id) {
+		dest[0] = kind;
+		FrameUtils.writeInt(dest, 1, id);
+	}
+	
+	/** Gets the requests of a connection, adding them if there are none yet.
+	 * @param con The connection.
+	 * @return The connection's requests.
+	 */
+	private Requests getRequests(Connection con) {
+		Requests requests = connections.get(con);
+		if (requests == null) {
+			Requests created = new Requests();
+			requests = connections.putIfAbsent(con, created);
+			if (requests == null)
+				requests = created;
+		}
+		return requests;
+	}
+	
+	/** The requests of a connection. */
+	private static class Requests {
+		
+		/** The requests waiting for their response, by their id. */
+		private final IntMap<Pending> pending = new IntMap<Pending>();
+		
+		/** The id of the last request sent. */
+		private final AtomicInteger lastId = new AtomicInteger();
+		
+		/** Gives a request an id and adds it to the waiting requests. Ids skip 0 and any id still waiting once they 
+		 * wrap around.
+		 * @param request The request.
+		 * @return The id.
+		 */
+		private int add(Pending request) {
+			int id;
+			do {
+				id = lastId.incrementAndGet();
+			} while (id == 0 || pending.get(id) != null);
+			pending.put(id, request);
+			return id;
+		}
+	
+	}
+	
+	/** A request waiting for its response. */
+	private static class Pending {
+		
+		/** Completed with the response. */
+		private final CompletableFuture<Object> future;
+		
+		/** The timeout of the request in the timer wheel, or null if it has none. */
+		private volatile TimerWheel.Timeout timeout;
+		
+		private Pending(CompletableFuture<Object> future) {
+			this.future = future;
+		}
+		
+		/** Cancels the timeout once the request was answered or failed. */
+		private void cancelTimeout() {
+			TimerWheel.Timeout timeout = this.timeout;
+			if (timeout != null)
+				timeout.cancel();
+		}
+	
+	}
+	
+}
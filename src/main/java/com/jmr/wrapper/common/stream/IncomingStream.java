@@ -0,0 +1,73 @@
+package com.jmr.wrapper.common.stream;
+
+/**
+ * Networking Library
+ * IncomingStream.java
+ * Purpose: A stream being received from a connection. Keeps track of how many bytes the listener took and how many of
+ * them were acknowledged, so the sender knows when it may send more. Only used by the thread reading the connection.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class IncomingStream {
+	
+	/** The id of the stream. */
+	private final int id;
+	
+	/** The amount of bytes in the stream, or -1 if the sender doesn't know. */
+	private final long length;
+	
+	/** The amount of bytes the listener took, including the ones received in an earlier attempt. */
+	private long position;
+	
+	/** The amount of bytes acknowledged to the sender. */
+	private long acked;
+	
+	/** Creates a new stream being received.
+	 * @param id The id of the stream.
+	 * @param length The amount of bytes in the stream, or -1 if the sender doesn't know.
+	 * @param position The amount of bytes received in an earlier attempt.
+	 */
+	public IncomingStream(int id, long length, long position) {
+		this.id = id;
+		this.length = length;
+		this.position = position;
+		this.acked = position;
+	}
+	
+	/** @return The id of the stream. */
+	public int getId() {
+		return id;
+	}
+	
+	/** @return The amount of bytes in the stream, or -1 if the sender doesn't know. */
+	public long getLength() {
+		return length;
+	}
+	
+	/** @return The amount of bytes the listener took. */
+	public long getPosition() {
+		return position;
+	}
+	
+	/** Adds to the amount of bytes the listener took.
+	 * @param bytes The amount of bytes.
+	 */
+	public void addPosition(int bytes) {
+		position += bytes;
+	}
+	
+	/** @return The amount of bytes acknowledged to the sender. */
+	public long getAcked() {
+		return acked;
+	}
+	
+	/** Sets the amount of bytes acknowledged to the sender.
+	 * @param acked The amount of bytes.
+	 */
+	public void setAcked(long acked) {
+		this.acked = acked;
+	}
+	
+}
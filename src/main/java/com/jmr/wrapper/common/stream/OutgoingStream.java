@@ -0,0 +1,348 @@
+package com.jmr.wrapper.common.stream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Networking Library
+ * OutgoingStream.java
+ * Purpose: A stream being sent over a connection. Reads the bytes from a file or an input stream and keeps track of how
+ * many of them the other side took, which the sending thread waits on before sending more. Waits on a lock instead of a
+ * monitor so that virtual threads aren't pinned.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class OutgoingStream {
+	
+	/** What the sending thread waits for. */
+	private static final int WAIT_ACCEPT = 0, WAIT_CREDIT = 1, WAIT_DONE = 2;
+	
+	/** The file being sent, or null if it's an input stream. */
+	private final FileChannel file;
+	
+	/** The input stream being sent, or null if it's a file. */
+	private final InputStream in;
+	
+	/** The amount of bytes in the stream, or -1 if it isn't known. */
+	private final long length;
+	
+	/** The object sent with the stream. */
+	private final Object metadata;
+	
+	/** Completed once the other side received the whole stream. */
+	private final CompletableFuture<Void> future = new CompletableFuture<Void>();
+	
+	/** Held while changing what the other side acknowledged. */
+	private final ReentrantLock lock = new ReentrantLock();
+	
+	/** Signalled whenever the other side acknowledges bytes or the stream stops. */
+	private final Condition changed = lock.newCondition();
+	
+	/** The id of the stream, set once it's added to the StreamManager. */
+	private int id;
+	
+	/** The amount of bytes the input stream was read up to. */
+	private long read = 0;
+	
+	/** Whether the other side accepted the stream. */
+	private boolean accepted = false;
+	
+	/** The amount of bytes the other side took. */
+	private long acked = 0;
+	
+	/** The most bytes the other side takes before it acknowledges them. */
+	private int window = 1;
+	
+	/** Whether the other side received the whole stream. */
+	private boolean done = false;
+	
+	/** Whether the other side refused or stopped the stream. */
+	private boolean refused = false;
+	
+	/** Why the stream stopped, or null if it didn't. */
+	private IOException error;
+	
+	/** Creates a new stream sending a file.
+	 * @param file The file.
+	 * @param metadata The object sent with the stream, or null.
+	 * @throws IOException Thrown when the size of the file can't be read.
+	 */
+	public OutgoingStream(FileChannel file, Object metadata) throws IOException {
+		this(file, null, file.size(), metadata);
+	}
+	
+	/** Creates a new stream sending an input stream.
+	 * @param in The input stream.
+	 * @param length The amount of bytes to send, or -1 to send everything until the input stream ends.
+	 * @param metadata The object sent with the stream, or null.
+	 */
+	public OutgoingStream(InputStream in, long length, Object metadata) {
+		this(null, in, length, metadata);
+	}
+	
+	private OutgoingStream(FileChannel file, InputStream in, long length, Object metadata) {
+		this.file = file;
+		this.in = in;
+		this.length = length;
+		this.metadata = metadata;
+		future.whenComplete(new BiConsumer<Void, Throwable>() {
+			@Override
+			public void accept(Void result, Throwable cause) {
+				signal(); //Wakes up the sending thread if the stream was cancelled
+			}
+		});
+	}
+	
+	/** Reads bytes of the stream. Files are read from any position, input streams only from where they were read up to.
+	 * @param position The position in the stream to read from.
+	 * @param dest The array to read into.
+	 * @param offset The index to read into.
+	 * @param size The most bytes to read.
+	 * @return The amount of bytes read, or -1 if the stream ended.
+	 * @throws IOException Thrown when the bytes can't be read.
+	 */
+	public int read(long position, byte[] dest, int offset, int size) throws IOException {
+		if (file != null)
+			return file.read(ByteBuffer.wrap(dest, offset, size), position);
+		if (position != read)
+			throw new IOException("The input stream can only be read in order.");
+		int n = in.read(dest, offset, size);
+		if (n > 0)
+			read += n;
+		return n;
+	}
+	
+	/** @return Whether more bytes can be read without waiting, which files always can.
+	 * @throws IOException Thrown when the input stream is closed.
+	 */
+	public boolean isReady() throws IOException {
+		return file != null || in.available() > 0;
+	}
+	
+	/** Skips the bytes the other side already has when the stream is resumed. Files are read from any position, so only
+	 * input streams have to skip them.
+	 * @param position The position to continue from.
+	 * @throws IOException Thrown when the input stream ends first.
+	 */
+	public void skip(long position) throws IOException {
+		if (file != null)
+			return;
+		byte[] discard = null;
+		while (read < position) {
+			long skipped = in.skip(position - read);
+			if (skipped <= 0) { //Some streams only skip by reading
+				if (discard == null)
+					discard = new byte[8192];
+				skipped = in.read(discard, 0, (int) Math.min(discard.length, position - read));
+				if (skipped < 0)
+					throw new EOFException("The input stream ended before the position it's resumed from.");
+			}
+			read += skipped;
+		}
+	}
+	
+	/** Sets the position the other side accepted the stream at, or adds to the amount of bytes it took.
+	 * @param position The amount of bytes the other side has.
+	 * @param window The most bytes the other side takes before it acknowledges them.
+	 */
+	public void acknowledge(long position, int window) {
+		lock.lock();
+		try {
+			if (!accepted) {
+				accepted = true;
+				acked = position;
+			} else if (position > acked) {
+				acked = position;
+			}
+			this.window = Math.max(1, window);
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Marks the stream as received in full by the other side. */
+	public void finish() {
+		lock.lock();
+		try {
+			done = true;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Stops the stream because the other side refused it. */
+	public void refuse() {
+		lock.lock();
+		try {
+			refused = true;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Stops the stream because the connection failed.
+	 * @param cause Why it stopped.
+	 */
+	public void fail(IOException cause) {
+		lock.lock();
+		try {
+			if (error == null)
+				error = cause;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Wakes up the sending thread. */
+	private void signal() {
+		lock.lock();
+		try {
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Waits until the other side accepted the stream.
+	 * @param timeout The milliseconds to wait for.
+	 * @return The position the other side wants the stream from.
+	 * @throws IOException Thrown when the stream was refused, cancelled, or the other side didn't answer in time.
+	 */
+	public long awaitAccept(long timeout) throws IOException {
+		return await(WAIT_ACCEPT, 0, timeout);
+	}
+	
+	/** Waits until the other side took enough bytes for more to be sent.
+	 * @param position The amount of bytes sent.
+	 * @param timeout The milliseconds the other side may go without taking bytes.
+	 * @return The amount of bytes that may be sent now.
+	 * @throws IOException Thrown when the stream was stopped or the other side took too long.
+	 */
+	public long awaitCredit(long position, long timeout) throws IOException {
+		return await(WAIT_CREDIT, position, timeout);
+	}
+	
+	/** Waits until the other side received the whole stream.
+	 * @param timeout The milliseconds the other side may go without taking bytes.
+	 * @throws IOException Thrown when the stream was stopped or the other side took too long.
+	 */
+	public void awaitDone(long timeout) throws IOException {
+		await(WAIT_DONE, 0, timeout);
+	}
+	
+	/** Waits until the other side accepted the stream, took enough bytes or received all of them. The timeout starts
+	 * over whenever it takes more bytes.
+	 * @param until What to wait for.
+	 * @param position The amount of bytes sent.
+	 * @param timeout The milliseconds the other side may go without taking bytes.
+	 * @return The position the stream was accepted at, the amount of bytes that may be sent now, or 0 once it's done.
+	 * @throws IOException Thrown when the stream was stopped or the other side took too long.
+	 */
+	private long await(int until, long position, long timeout) throws IOException {
+		lock.lock();
+		try {
+			long last = acked;
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			while (true) {
+				if (error != null)
+					throw error;
+				if (refused)
+					throw new IOException("The other side refused the stream.");
+				if (future.isDone())
+					throw new IOException("The stream was cancelled.");
+				if (accepted) {
+					if (until == WAIT_ACCEPT)
+						return acked;
+					if (until == WAIT_DONE && done)
+						return 0;
+					if (until == WAIT_CREDIT && acked + window > position)
+						return acked + window - position;
+				}
+				if (acked != last) {
+					last = acked;
+					deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+				}
+				long wait = deadline - System.nanoTime();
+				if (wait <= 0)
+					throw new IOException("The other side stopped taking the stream.");
+				try {
+					changed.awaitNanos(wait);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException("Interrupted while sending the stream.");
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Closes the file or input stream. */
+	public void close() {
+		try {
+			if (file != null)
+				file.close();
+			else
+				in.close();
+		} catch (IOException e) {
+			//already closed
+		}
+	}
+	
+	/** @return The id of the stream. */
+	public int getId() {
+		return id;
+	}
+	
+	/** Sets the id of the stream.
+	 * @param id The id.
+	 */
+	void setId(int id) {
+		this.id = id;
+	}
+	
+	/** @return The file being sent, or null if it's an input stream. */
+	public FileChannel getFile() {
+		return file;
+	}
+	
+	/** @return The amount of bytes in the stream, or -1 if it isn't known. */
+	public long getLength() {
+		return length;
+	}
+	
+	/** @return The object sent with the stream. */
+	public Object getMetadata() {
+		return metadata;
+	}
+	
+	/** @return Whether the other side refused or stopped the stream. */
+	public boolean isRefused() {
+		lock.lock();
+		try {
+			return refused;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** @return Completed once the other side received the whole stream. */
+	public CompletableFuture<Void> getFuture() {
+		return future;
+	}
+	
+}
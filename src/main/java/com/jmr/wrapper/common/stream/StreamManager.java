@@ -0,0 +1,312 @@
+package com.jmr.wrapper.common.stream;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.exceptions.NNPacketDropped;
+import com.jmr.wrapper.common.listener.StreamListener;
+import com.jmr.wrapper.common.utils.FrameUtils;
+
+/**
+ * Networking Library
+ * StreamManager.java
+ * Purpose: Manages all streams of a server or client. Keeps the streams being sent and received for every connection and
+ * handles their packets. The sender opens a stream with its length and metadata, and the receiver answers with the
+ * position to start from and its window, which is the most bytes it takes before acknowledging them. The sender never has
+ * more bytes than the window waiting, and the receiver acknowledges them once the listener took them, so a slow listener
+ * slows the sender down. Once the sender ends the stream the receiver says whether every byte arrived.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class StreamManager {
+	
+	/** Sent by the sender to open a stream. Followed by the id, the length and the metadata. */
+	public static final byte OPEN = 1;
+	
+	/** Sent by the sender with bytes of a stream. Followed by the id, the position and the bytes. */
+	public static final byte DATA = 2;
+	
+	/** Sent by the sender after the last bytes of a stream. Followed by the id and the length. */
+	public static final byte END = 3;
+	
+	/** Sent by the sender to stop a stream. Followed by the id. */
+	public static final byte CANCEL = 4;
+	
+	/** Sent by the receiver to acknowledge bytes. Followed by the id, the amount of bytes and the window. */
+	public static final byte ACK = 5;
+	
+	/** Sent by the receiver once every byte of a stream arrived. Followed by the id. */
+	public static final byte DONE = 6;
+	
+	/** Sent by the receiver to refuse or stop a stream. Followed by the id. */
+	public static final byte REFUSE = 7;
+	
+	/** The size of the kind of packet and the id. */
+	public static final int HEADER_SIZE = 1 + 4;
+	
+	/** The size of the header in front of the bytes of a stream, the kind of packet, the id and the position. */
+	public static final int DATA_HEADER_SIZE = HEADER_SIZE + 8;
+	
+	/** The streams of each connection. */
+	private final ConcurrentHashMap<Connection, Streams> connections = new ConcurrentHashMap<Connection, Streams>();
+	
+	/** Creates the stream manager of a server or client. */
+	public StreamManager() {
+	
+	}
+	
+	/** Adds a stream being sent and gives it an id.
+	 * @param con The connection it's sent over.
+	 * @param stream The stream.
+	 */
+	public void add(Connection con, OutgoingStream stream) {
+		Streams streams = getStreams(con);
+		stream.setId(streams.nextId.incrementAndGet());
+		streams.outgoing.put(stream.getId(), stream);
+	}
+	
+	/** Removes a stream that was sent or stopped.
+	 * @param con The connection it was sent over.
+	 * @param stream The stream.
+	 */
+	public void remove(Connection con, OutgoingStream stream) {
+		Streams streams = connections.get(con);
+		if (streams != null)
+			streams.outgoing.remove(stream.getId(), stream);
+	}
+	
+	/** Handles a stream packet.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection it came from.
+	 * @param flags The flags of the packet.
+	 * @param payload The array holding the packet. It isn't kept once this returns so it can be reused.
+	 * @param offset The index of the packet in the array.
+	 * @param length The size of the packet.
+	 * @throws StreamCorruptedException Thrown when the packet isn't valid.
+	 */
+	public void handlePacket(IProtocol protocol, Connection con, byte flags, byte[] payload, int offset, int length) throws StreamCorruptedException {
+		if (length < HEADER_SIZE)
+			throw new StreamCorruptedException("Invalid stream packet.");
+		byte kind = payload[offset];
+		int id = FrameUtils.readInt(payload, offset + 1);
+		if (((kind == OPEN || kind == DATA || kind == END) && length < DATA_HEADER_SIZE) || (kind == ACK && length < DATA_HEADER_SIZE + 4))
+			throw new StreamCorruptedException("Invalid stream packet.");
+		Streams streams = getStreams(con);
+		StreamListener listener = protocol.getStreamListener();
+		
+		if (kind == OPEN) {
+			open(protocol, con, streams, listener, id, flags, payload, offset, length);
+		} else if (kind == DATA) {
+			IncomingStream stream = streams.incoming.get(id);
+			if (stream == null)
+				return; //Stopped while the bytes were on their way
+			if (listener == null || FrameUtils.readLong(payload, offset + HEADER_SIZE) != stream.getPosition()
+					|| (stream.getLength() >= 0 && stream.getPosition() + length - DATA_HEADER_SIZE > stream.getLength())) {
+				stop(con, streams, listener, stream);
+				return;
+			}
+			try {
+				listener.received(con, id, payload, offset + DATA_HEADER_SIZE, length - DATA_HEADER_SIZE);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				stop(con, streams, listener, stream);
+				return;
+			}
+			stream.addPosition(length - DATA_HEADER_SIZE);
+			if (stream.getPosition() - stream.getAcked() >= Math.max(1, protocol.getConfig().STREAM_WINDOW / 4))
+				acknowledge(protocol, con, stream);
+		} else if (kind == END) {
+			IncomingStream stream = streams.incoming.remove(id);
+			if (stream == null)
+				return;
+			long end = FrameUtils.readLong(payload, offset + HEADER_SIZE);
+			boolean complete = end == stream.getPosition() && (stream.getLength() < 0 || end == stream.getLength());
+			closed(listener, con, id, complete);
+			send(con, complete ? DONE : REFUSE, id);
+		} else if (kind == CANCEL) {
+			IncomingStream stream = streams.incoming.remove(id);
+			if (stream != null)
+				closed(listener, con, id, false);
+		} else if (kind == ACK || kind == DONE || kind == REFUSE) {
+			OutgoingStream stream = streams.outgoing.get(id);
+			if (stream == null)
+				return;
+			if (kind == ACK)
+				stream.acknowledge(FrameUtils.readLong(payload, offset + HEADER_SIZE), FrameUtils.readInt(payload, offset + DATA_HEADER_SIZE));
+			else if (kind == DONE)
+				stream.finish();
+			else
+				stream.refuse();
+		} else {
+			throw new StreamCorruptedException("Unknown stream packet: " + kind);
+		}
+	}
+	
+	/** Opens a stream the other side started sending, if the listener accepts it.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection it came from.
+	 * @param streams The connection's streams.
+	 * @param listener The stream listener, or null if there is none.
+	 * @param id The id of the stream.
+	 * @param flags The flags of the packet, saying which codec the metadata was encoded with.
+	 * @param payload The array holding the packet.
+	 * @param offset The index of the packet in the array.
+	 * @param length The size of the packet.
+	 */
+	private void open(IProtocol protocol, Connection con, Streams streams, StreamListener listener, int id, byte flags, byte[] payload, int offset, int length) {
+		long streamLength = FrameUtils.readLong(payload, offset + HEADER_SIZE);
+		if (listener == null || streams.incoming.containsKey(id)) {
+			send(con, REFUSE, id);
+			return;
+		}
+		long start;
+		try {
+			Object metadata = null;
+			if (length > DATA_HEADER_SIZE)
+				metadata = FrameUtils.getCodec(con, flags).decode(protocol, payload, offset + DATA_HEADER_SIZE, length - DATA_HEADER_SIZE);
+			start = listener.opened(con, id, metadata, streamLength);
+		} catch (IOException | ClassNotFoundException | RuntimeException e) {
+			e.printStackTrace();
+			start = -1;
+		}
+		if (start < 0 || (streamLength >= 0 && start > streamLength)) {
+			if (start >= 0)
+				closed(listener, con, id, false);
+			send(con, REFUSE, id);
+			return;
+		}
+		IncomingStream stream = new IncomingStream(id, streamLength, start);
+		streams.incoming.put(id, stream);
+		acknowledge(protocol, con, stream);
+	}
+	
+	/** Stops a stream being received after it went wrong.
+	 * @param con The connection it came from.
+	 * @param streams The connection's streams.
+	 * @param listener The stream listener.
+	 * @param stream The stream.
+	 */
+	private void stop(Connection con, Streams streams, StreamListener listener, IncomingStream stream) {
+		streams.incoming.remove(stream.getId(), stream);
+		closed(listener, con, stream.getId(), false);
+		send(con, REFUSE, stream.getId());
+	}
+	
+	/** Tells the listener a stream ended.
+	 * @param listener The stream listener.
+	 * @param con The connection it came from.
+	 * @param id The id of the stream.
+	 * @param complete Whether every byte arrived.
+	 */
+	private void closed(StreamListener listener, Connection con, int id, boolean complete) {
+		if (listener == null)
+			return;
+		try {
+			listener.closed(con, id, complete);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Acknowledges the bytes the listener took and tells the sender the window.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection the stream comes from.
+	 * @param stream The stream.
+	 */
+	private void acknowledge(IProtocol protocol, Connection con, IncomingStream stream) {
+		byte[] packet = new byte[DATA_HEADER_SIZE + 4];
+		writeHeader(packet, 0, ACK, stream.getId(), stream.getPosition());
+		FrameUtils.writeInt(packet, DATA_HEADER_SIZE, protocol.getConfig().STREAM_WINDOW);
+		stream.setAcked(stream.getPosition());
+		send(con, packet);
+	}
+	
+	/** Sends a packet holding only the kind of packet and the id.
+	 * @param con The connection.
+	 * @param kind The kind of packet.
+	 * @param id The id of the stream.
+	 */
+	private void send(Connection con, byte kind, int id) {
+		byte[] packet = new byte[HEADER_SIZE];
+		packet[0] = kind;
+		FrameUtils.writeInt(packet, 1, id);
+		send(con, packet);
+	}
+	
+	/** Sends a packet to the other side without waiting for it to be written.
+	 * @param con The connection.
+	 * @param packet The packet.
+	 */
+	private void send(Connection con, byte[] packet) {
+		try {
+			con.queueStreamPacket(packet, (byte) 0);
+		} catch (IOException e) {
+			//connection closed, its streams are stopped
+		}
+	}
+	
+	/** Writes the kind of packet, the id and the position of a stream packet into an array.
+	 * @param dest The array.
+	 * @param index The index to write to.
+	 * @param kind The kind of packet.
+	 * @param id The id of the stream.
+	 * @param position The position, length or amount of bytes, depending on the kind of packet.
+	 */
+	public static void writeHeader(byte[] dest, int index, byte kind, int id, long position) {
+		dest[index] = kind;
+		FrameUtils.writeInt(dest, index + 1, id);
+		FrameUtils.writeLong(dest, index + HEADER_SIZE, position);
+	}
+	
+	/** Stops the streams of a connection, once it's closed.
+	 * @param con The connection.
+	 */
+	public void remove(Connection con) {
+		Streams streams = connections.remove(con);
+		if (streams == null)
+			return;
+		for (OutgoingStream stream : streams.outgoing.values())
+			stream.fail(new NNPacketDropped("The connection was closed."));
+		IProtocol protocol = con.getProtocol();
+		StreamListener listener = protocol != null ? protocol.getStreamListener() : null;
+		for (IncomingStream stream : streams.incoming.values())
+			closed(listener, con, stream.getId(), false);
+		streams.incoming.clear();
+	}
+	
+	/** Gets the streams of a connection, adding them if there are none yet.
+	 * @param con The connection.
+	 * @return The connection's streams.
+	 */
+	private Streams getStreams(Connection con) {
+		Streams streams = connections.get(con);
+		if (streams == null) {
+			Streams created = new Streams();
+			streams = connections.putIfAbsent(con, created);
+			if (streams == null)
+				streams = created;
+		}
+		return streams;
+	}
+	
+	/** The streams of one connection. */
+	private static class Streams {
+		
+		/** The streams being sent, by their id. */
+		private final ConcurrentHashMap<Integer, OutgoingStream> outgoing = new ConcurrentHashMap<Integer, OutgoingStream>();
+		
+		/** The streams being received, by their id. Only used by the thread reading the connection. */
+		private final ConcurrentHashMap<Integer, IncomingStream> incoming = new ConcurrentHashMap<Integer, IncomingStream>();
+		
+		/** The id of the last stream sent. */
+		private final AtomicInteger nextId = new AtomicInteger();
+	
+	}
+	
+}
@@ -3,6 +3,7 @@ package com.jmr.wrapper.common.threads;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 
+import com.jmr.wrapper.common.Connection;
 import com.jmr.wrapper.common.complex.ComplexPiece;
 
 /**
@@ -19,6 +20,9 @@ public class ComplexUdpSendThread implements Runnable {
 	/** The piece to send. */
 	private final ComplexPiece piece;
 	
+	/** The connection to send to, or null if it's sent straight to the socket. */
+	private final Connection con;
+	
 	/** The output stream of the UDP socket. */
 	private final DatagramSocket udpOut;
 	
@@ -28,22 +32,45 @@ public class ComplexUdpSendThread implements Runnable {
 	/** The port to send over. */
 	private final int port;
 	
+	/** Whether to use the compact framing. */
+	private final boolean compact;
+	
 	/** Creates a new thread to send a piece over TCP.
 	 * @param piece The piece to send.
 	 * @param udpOut The output stream of the UDP socket. 
 	 * @param address The address to send to.
 	 * @param port The port to send over.
+	 * @param compact Whether to use the compact framing.
 	 */
-	public ComplexUdpSendThread(ComplexPiece piece, DatagramSocket udpOut, InetAddress address, int port) {
+	public ComplexUdpSendThread(ComplexPiece piece, DatagramSocket udpOut, InetAddress address, int port, boolean compact) {
+		this.con = null;
 		this.piece = piece;
 		this.udpOut = udpOut;
 		this.address = address;
 		this.port = port;
+		this.compact = compact;
+	}
+	
+	/** Creates a new thread to send a piece to a connection over UDP.
+	 * @param piece The piece to send.
+	 * @param con The connection to send to.
+	 * @param compact Whether to use the compact framing.
+	 */
+	public ComplexUdpSendThread(ComplexPiece piece, Connection con, boolean compact) {
+		this.con = con;
+		this.piece = piece;
+		this.udpOut = null;
+		this.address = null;
+		this.port = -1;
+		this.compact = compact;
 	}
 	
 	@Override
 	public void run() {
-		piece.sendUdp(udpOut, address, port);
+		if (con != null)
+			con.sendDatagram(piece.getPacket(compact), false);
+		else
+			piece.sendUdp(udpOut, address, port, compact);
 	}
 
 }
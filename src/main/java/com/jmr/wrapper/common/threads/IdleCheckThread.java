@@ -0,0 +1,85 @@
+package com.jmr.wrapper.common.threads;
+
+import java.util.concurrent.TimeUnit;
+
+import com.jmr.wrapper.client.ClientConfig;
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.config.Config;
+import com.jmr.wrapper.server.ServerConfig;
+
+/**
+ * Networking Library
+ * IdleCheckThread.java
+ * Purpose: Checks on a connection from the timer wheel of its server or client. Pings the other side once nothing was
+ * sent to it for the ping time, so connections that are busy are never pinged, and closes the connection once nothing
+ * was received for the read idle timeout. The timeout is only used once the other side is known to ping the connection
+ * itself, since older versions stay quiet while they have nothing to send. Reschedules itself for the next time 
+ * either can happen, so one thread checks on every connection instead of each having its own ping thread.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class IdleCheckThread implements Runnable {
+	
+	/** The milliseconds until the connection is checked again when neither is used, in case the settings change. */
+	private static final long RECHECK_TIME = 1000;
+	
+	/** The connection to check. */
+	private final Connection con;
+	
+	/** Creates a new thread to check on a connection. Run it once to start checking.
+	 * @param con The connection.
+	 */
+	public IdleCheckThread(Connection con) {
+		this.con = con;
+	}
+	
+	@Override
+	public void run() {
+		final IProtocol protocol = con.getProtocol();
+		if (con.getSocket() == null)
+			return; //Closed
+		Config config = protocol.getConfig();
+		long now = System.nanoTime();
+		long next = Long.MAX_VALUE;
+		if (con.isHeartbeatSupported() && config.READ_IDLE_TIMEOUT > 0) {
+			long idle = TimeUnit.NANOSECONDS.toMillis(now - con.getLastRead());
+			if (idle >= config.READ_IDLE_TIMEOUT) {
+				System.out.println("Closing a connection that didn't send anything for " + idle + " milliseconds.");
+				protocol.executeThread(new Runnable() {
+					@Override
+					public void run() {
+						protocol.getConnectionManager().close(con); //The thread reading the connection calls the listener
+					}
+				});
+				return;
+			}
+			next = Math.min(next, config.READ_IDLE_TIMEOUT - idle);
+		}
+		long pingTime = getPingTime(config);
+		if (pingTime > 0) {
+			long idle = TimeUnit.NANOSECONDS.toMillis(now - con.getLastWrite());
+			if (idle >= pingTime) {
+				con.sendHeartbeat();
+				idle = 0;
+			}
+			next = Math.min(next, pingTime - idle);
+		}
+		protocol.getTimerWheel().schedule(this, next == Long.MAX_VALUE ? RECHECK_TIME : next);
+	}
+	
+	/** Gets the milliseconds the connection may go without sending anything before it's pinged.
+	 * @param config The configuration settings of the server or client.
+	 * @return The milliseconds, or 0 if it isn't pinged.
+	 */
+	private static long getPingTime(Config config) {
+		if (config instanceof ServerConfig)
+			return ((ServerConfig) config).PING_CLIENTS ? ((ServerConfig) config).PING_SLEEP_TIME : 0;
+		if (config instanceof ClientConfig)
+			return ((ClientConfig) config).PING_SERVER ? ((ClientConfig) config).PING_SLEEP_TIME : 0;
+		return 0;
+	}
+	
+}
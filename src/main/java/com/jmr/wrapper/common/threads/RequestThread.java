@@ -0,0 +1,87 @@
+package com.jmr.wrapper.common.threads;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.listener.Responder;
+import com.jmr.wrapper.common.request.RequestManager;
+
+/**
+ * Networking Library
+ * RequestThread.java
+ * Purpose: Answers a request with its responder and sends the response back. A responder returning a CompletionStage
+ * is answered once the stage completes, so it doesn't have to hold the thread while waiting on something else.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class RequestThread implements Runnable {
+	
+	/** The request manager sending the response. */
+	private final RequestManager manager;
+	
+	/** The responder answering the request. */
+	private final Responder<Object> responder;
+	
+	/** The connection the request came from. */
+	private final Connection con;
+	
+	/** The id of the request. */
+	private final int id;
+	
+	/** The request. */
+	private final Object request;
+	
+	/** Creates a new thread to answer a request.
+	 * @param manager The request manager sending the response.
+	 * @param responder The responder answering the request.
+	 * @param con The connection the request came from.
+	 * @param id The id of the request.
+	 * @param request The request.
+	 */
+	public RequestThread(RequestManager manager, Responder<Object> responder, Connection con, int id, Object request) {
+		this.manager = manager;
+		this.responder = responder;
+		this.con = con;
+		this.id = id;
+		this.request = request;
+	}
+	
+	@Override
+	public void run() {
+		Object response;
+		try {
+			response = responder.respond(con, request);
+		} catch (Exception e) {
+			manager.fail(con, id, getReason(e));
+			return;
+		}
+		if (response instanceof CompletionStage) {
+			@SuppressWarnings("unchecked")
+			CompletionStage<Object> stage = (CompletionStage<Object>) response;
+			stage.whenComplete(new BiConsumer<Object, Throwable>() {
+				@Override
+				public void accept(Object response, Throwable error) {
+					if (error != null)
+						manager.fail(con, id, getReason(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error));
+					else
+						manager.respond(con, id, response);
+				}
+			});
+		} else {
+			manager.respond(con, id, response);
+		}
+	}
+	
+	/** Gets why a request couldn't be answered, sent to the side that sent it.
+	 * @param error The error thrown by the responder.
+	 * @return Its message, or its class if it has none.
+	 */
+	private static String getReason(Throwable error) {
+		return error.getMessage() != null ? error.getMessage() : error.getClass().getName();
+	}
+	
+}
@@ -0,0 +1,144 @@
+package com.jmr.wrapper.common.threads;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.buffer.PooledOutputStream;
+import com.jmr.wrapper.common.codec.Codec;
+import com.jmr.wrapper.common.config.Config;
+import com.jmr.wrapper.common.stream.OutgoingStream;
+import com.jmr.wrapper.common.stream.StreamManager;
+import com.jmr.wrapper.common.utils.FrameUtils;
+
+/**
+ * Networking Library
+ * StreamSendThread.java
+ * Purpose: Sends a stream over a connection. Opens the stream, skips the bytes the other side already has and sends the
+ * rest whenever the other side's window allows it. Files are handed straight to the socket when the connection allows
+ * it, everything else is read in batches that are written with a single flush.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class StreamSendThread implements Runnable {
+	
+	/** The most bytes written with a single flush. */
+	private static final int BATCH_SIZE = 64 * 1024;
+	
+	/** The connection to send over. */
+	private final Connection con;
+	
+	/** The stream to send. */
+	private final OutgoingStream stream;
+	
+	/** Creates a new thread to send a stream.
+	 * @param con The connection to send over.
+	 * @param stream The stream to send.
+	 */
+	public StreamSendThread(Connection con, OutgoingStream stream) {
+		this.con = con;
+		this.stream = stream;
+	}
+	
+	@Override
+	public void run() {
+		Config config = con.getProtocol().getConfig();
+		try {
+			open();
+			long position = stream.awaitAccept(config.STREAM_TIMEOUT);
+			stream.skip(position);
+			long length = stream.getLength();
+			boolean transfer = stream.getFile() != null && con.isStreamTransferSupported();
+			byte[] batch = transfer ? null : new byte[(int) Math.min(BATCH_SIZE, length >= 0 ? Math.max(1, length - position) : BATCH_SIZE)];
+			while (length < 0 || position < length) {
+				long size = Math.min(stream.awaitCredit(position, config.STREAM_TIMEOUT), BATCH_SIZE);
+				if (length >= 0)
+					size = Math.min(size, length - position);
+				int n;
+				if (transfer) {
+					if (stream.getFile().size() < position + size)
+						throw new EOFException("The file got shorter while it was sent.");
+					n = (int) size;
+					con.transferStreamData(stream.getId(), position, stream.getFile(), n);
+				} else {
+					n = read(position, batch, (int) Math.min(size, batch.length));
+					if (n > 0)
+						con.writeStreamData(stream.getId(), position, batch, n);
+				}
+				if (n < 0) {
+					if (length >= 0)
+						throw new EOFException("The stream ended before its length.");
+					break;
+				}
+				position += n;
+			}
+			
+			byte[] end = new byte[StreamManager.DATA_HEADER_SIZE];
+			StreamManager.writeHeader(end, 0, StreamManager.END, stream.getId(), position);
+			con.queueStreamPacket(end, (byte) 0);
+			stream.awaitDone(config.STREAM_TIMEOUT);
+			stream.getFuture().complete(null);
+		} catch (IOException e) {
+			if (!stream.isRefused())
+				cancel();
+			stream.getFuture().completeExceptionally(e);
+		} finally {
+			stream.close();
+			con.getProtocol().getStreamManager().remove(con, stream);
+		}
+	}
+	
+	/** Sends the packet opening the stream, holding its length and metadata.
+	 * @throws IOException Thrown when the metadata can't be encoded or doesn't fit in a packet.
+	 */
+	private void open() throws IOException {
+		byte flags = 0;
+		byte[] packet;
+		if (stream.getMetadata() != null) {
+			Codec codec = con.getCodec();
+			PooledOutputStream metadata = codec.encode(con.getProtocol(), stream.getMetadata());
+			packet = new byte[StreamManager.DATA_HEADER_SIZE + metadata.size()];
+			System.arraycopy(metadata.getBuffer(), 0, packet, StreamManager.DATA_HEADER_SIZE, metadata.size());
+			flags = FrameUtils.getFlags(codec);
+		} else {
+			packet = new byte[StreamManager.DATA_HEADER_SIZE];
+		}
+		StreamManager.writeHeader(packet, 0, StreamManager.OPEN, stream.getId(), stream.getLength());
+		con.queueStreamPacket(packet, flags);
+	}
+	
+	/** Reads as many bytes as fit in the batch, unless the stream has to wait for more.
+	 * @param position The position to read from.
+	 * @param batch The array to read into.
+	 * @param size The most bytes to read.
+	 * @return The amount of bytes read, or -1 if the stream ended.
+	 * @throws IOException Thrown when the bytes can't be read.
+	 */
+	private int read(long position, byte[] batch, int size) throws IOException {
+		int n = stream.read(position, batch, 0, size);
+		if (n <= 0)
+			return n;
+		while (n < size && stream.isReady()) {
+			int more = stream.read(position + n, batch, n, size - n);
+			if (more <= 0)
+				break;
+			n += more;
+		}
+		return n;
+	}
+	
+	/** Tells the other side the stream stopped. */
+	private void cancel() {
+		byte[] packet = new byte[StreamManager.HEADER_SIZE];
+		packet[0] = StreamManager.CANCEL;
+		FrameUtils.writeInt(packet, 1, stream.getId());
+		try {
+			con.queueStreamPacket(packet, (byte) 0);
+		} catch (IOException e) {
+			//connection closed
+		}
+	}
+	
+}
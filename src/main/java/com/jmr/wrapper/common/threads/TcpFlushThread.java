@@ -0,0 +1,31 @@
+package com.jmr.wrapper.common.threads;
+
+import com.jmr.wrapper.common.Connection;
+
+/**
+ * Networking Library
+ * TcpFlushThread.java
+ * Purpose: Writes the queued TCP packets of a connection once the flush delay has passed.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class TcpFlushThread implements Runnable {
+
+	/** The connection to flush. */
+	private final Connection con;
+	
+	/** Creates a new thread to flush a connection.
+	 * @param con The connection to flush.
+	 */
+	public TcpFlushThread(Connection con) {
+		this.con = con;
+	}
+	
+	@Override
+	public void run() {
+		con.flushTcp();
+	}
+	
+}
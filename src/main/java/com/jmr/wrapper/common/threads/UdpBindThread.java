@@ -0,0 +1,59 @@
+package com.jmr.wrapper.common.threads;
+
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.utils.ControlUtils;
+import com.jmr.wrapper.common.utils.ThreadUtils;
+
+/**
+ * Networking Library
+ * UdpBindThread.java
+ * Purpose: Sends the session token of a connection to the server over UDP. It's sent again after 100 milliseconds,
+ * twice as long every time after that, until the server says it bound the endpoint, and then every once in a while.
+ * Stops once the connection is closed or the server sent a new token.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class UdpBindThread implements Runnable {
+	
+	/** The milliseconds before the token is sent again the first time. */
+	private static final long FIRST_RETRY = 100;
+	
+	/** The connection to the server. */
+	private final Connection con;
+	
+	/** The token sent. */
+	private final long token;
+	
+	/** The amount of times the token was sent. */
+	private int attempts = 0;
+	
+	/** Creates a new thread to send the connection's current session token.
+	 * @param con The connection to the server.
+	 */
+	public UdpBindThread(Connection con) {
+		this.con = con;
+		this.token = con.getUdpToken();
+	}
+	
+	@Override
+	public void run() {
+		if (!con.isConnected() || con.getUdpToken() != token)
+			return;
+		con.sendControlUdp(ControlUtils.getPacket(ControlUtils.BIND, token));
+		long interval = con.getProtocol().getConfig().UDP_BIND_INTERVAL;
+		long delay;
+		if (con.isUdpBound()) {
+			if (interval <= 0)
+				return;
+			delay = interval;
+		} else {
+			delay = FIRST_RETRY << Math.min(attempts++, 16);
+			if (interval > 0)
+				delay = Math.min(delay, interval);
+		}
+		ThreadUtils.schedule(con.getProtocol(), this, delay);
+	}
+	
+}
@@ -0,0 +1,44 @@
+package com.jmr.wrapper.common.threads;
+
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.listener.SocketListener;
+
+/**
+ * Networking Library
+ * WritabilityChangedThread.java
+ * Purpose: Calls the 'writabilityChanged' method of the listener when a connection's TCP data passes one of the water
+ * marks.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class WritabilityChangedThread implements Runnable {
+
+	/** Instance of the listener object. */
+	private final SocketListener listener;
+	
+	/** Instance of the connection. */
+	private final Connection con;
+	
+	/** Whether the connection became writable. */
+	private final boolean writable;
+	
+	/** Creates a new thread to call the writability event.
+	 * @param listener Instance of the listener object.
+	 * @param con Instance of the connection.
+	 * @param writable Whether the connection became writable.
+	 */
+	public WritabilityChangedThread(SocketListener listener, Connection con, boolean writable) {
+		this.listener = listener;
+		this.con = con;
+		this.writable = writable;
+	}
+	
+	@Override
+	public void run() {
+		if (listener != null)
+			listener.writabilityChanged(con, writable);
+	}
+	
+}
@@ -0,0 +1,502 @@
+package com.jmr.wrapper.common.udp;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.buffer.PacketBuffer;
+import com.jmr.wrapper.common.config.Config;
+import com.jmr.wrapper.common.exceptions.NNPacketDropped;
+import com.jmr.wrapper.common.utils.FrameUtils;
+import com.jmr.wrapper.common.utils.TimerWheel;
+import com.jmr.wrapper.server.threads.ReceivedThread;
+
+/**
+ * Networking Library
+ * ReliableChannel.java
+ * Purpose: Sends objects over UDP so that every one of them arrives, in the order they were sent. Every packet has a
+ * sequence number and the other side answers every packet with the next sequence number it expects and which of the 64
+ * packets after it arrived early. Packets are sent again once they weren't acknowledged within the retransmit timeout,
+ * which follows the measured round trip time, or right away once three later packets were acknowledged. Packets that
+ * arrive early are kept until the ones before them arrive, so a lost packet only holds up this channel and never the
+ * connection's other UDP or TCP packets. The round trip times and lost packets also set the rate of the connection's
+ * UDP pacer.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class ReliableChannel {
+	
+	/** The amount of later packets that have to be acknowledged before a missing packet is sent again right away. */
+	private static final int FAST_RETRANSMIT = 3;
+	
+	/** The milliseconds a packet waits for an acknowledgement before the round trip time is known. */
+	private static final int INITIAL_RTO = 200;
+	
+	/** The size of an acknowledgement, the next sequence number expected and which of the 64 packets after it arrived. */
+	private static final int ACK_SIZE = 4 + 8;
+	
+	/** Stands in for a packet whose object couldn't be read, so the packets after it are still delivered. */
+	private static final Object NONE = new Object();
+	
+	/** The connection of the channel. */
+	private final Connection con;
+	
+	/** Held while changing the state of the channel. */
+	private final ReentrantLock lock = new ReentrantLock();
+	
+	/** Sends the packets whose retransmit timeout passed. */
+	private final Runnable retransmitTask = new Runnable() {
+		@Override
+		public void run() {
+			retransmit();
+		}
+	};
+	
+	/** Hands the retransmit task to the executor once the timer wheel reaches it, since it may call the listener. */
+	private final Runnable retransmitTimeout = new Runnable() {
+		@Override
+		public void run() {
+			con.getProtocol().executeThread(retransmitTask);
+		}
+	};
+	
+	/** The packets sent but not acknowledged yet, by their sequence number. Created with the first packet. */
+	private Outgoing[] sent;
+	
+	/** The sequence number of the oldest packet that wasn't acknowledged. */
+	private int base = 0;
+	
+	/** The sequence number of the next packet. */
+	private int nextSequence = 0;
+	
+	/** The packets waiting for the window to have room. */
+	private final ArrayDeque<Outgoing> waiting = new ArrayDeque<Outgoing>();
+	
+	/** The smoothed round trip time in nanoseconds, or -1 until it's measured. */
+	private long srtt = -1;
+	
+	/** The variation of the round trip time in nanoseconds. */
+	private long rttvar = 0;
+	
+	/** The retransmit timeout in nanoseconds. */
+	private long rto = -1;
+	
+	/** The time in nanoseconds the retransmit task is scheduled for, or 0 if it isn't. */
+	private long timerDeadline = 0;
+	
+	/** The retransmit task's timeout in the timer wheel, or null if it isn't scheduled. */
+	private TimerWheel.Timeout timer;
+	
+	/** Whether the connection was closed. */
+	private boolean closed = false;
+	
+	/** The sequence number of the next packet to deliver. */
+	private int expected = 0;
+	
+	/** The objects of packets that arrived early, by their sequence number. Created with the first packet. */
+	private Object[] early;
+	
+	/** The objects ready to be delivered, in order. */
+	private final Queue<Object> ready = new ConcurrentLinkedQueue<Object>();
+	
+	/** Whether a thread is delivering the ready objects. */
+	private final AtomicBoolean delivering = new AtomicBoolean();
+	
+	/** Creates the reliable channel of a connection.
+	 * @param con The connection.
+	 */
+	public ReliableChannel(Connection con) {
+		this.con = con;
+	}
+	
+	/** Sends an object's bytes on the channel, or waits for the window to have room first.
+	 * @param payload The array holding the object's bytes.
+	 * @param length The amount of bytes of the object.
+	 * @param flags The flags of the packet, saying which codec it was encoded with and whether it may be compressed.
+	 * @param future Completed once the other side acknowledged the packet.
+	 */
+	public void send(byte[] payload, int length, byte flags, CompletableFuture<Void> future) {
+		IProtocol protocol = con.getProtocol();
+		Config config = protocol.getConfig();
+		flags |= FrameUtils.getChecksumFlags(protocol, con, false);
+		lock.lock();
+		try {
+			if (closed) {
+				future.completeExceptionally(new NNPacketDropped("The connection was closed."));
+				return;
+			}
+			if (sent == null)
+				sent = new Outgoing[Math.max(1, config.RELIABLE_WINDOW)];
+			Outgoing packet = new Outgoing(nextSequence, FrameUtils.getSequencedFrame(protocol, FrameUtils.TYPE_RELIABLE, nextSequence, payload, length, flags), future);
+			nextSequence++;
+			if (packet.sequence - base < sent.length)
+				transmit(packet, System.nanoTime());
+			else
+				waiting.add(packet);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Handles a reliable packet or an acknowledgement.
+	 * @param protocol Instance of the protocol.
+	 * @param type The type of the packet.
+	 * @param flags The flags of the packet.
+	 * @param payload The array holding the packet. It isn't kept once this returns so it can be reused.
+	 * @param offset The index of the packet in the array.
+	 * @param length The size of the packet.
+	 * @throws StreamCorruptedException Thrown when the packet is too short.
+	 */
+	public void handlePacket(IProtocol protocol, byte type, byte flags, byte[] payload, int offset, int length) throws StreamCorruptedException {
+		if (type == FrameUtils.TYPE_ACK) {
+			if (length < ACK_SIZE)
+				throw new StreamCorruptedException("Invalid acknowledgement.");
+			acknowledge(FrameUtils.readInt(payload, offset), FrameUtils.readLong(payload, offset + 4));
+			return;
+		}
+		if (length < FrameUtils.SEQUENCE_SIZE)
+			throw new StreamCorruptedException("Invalid reliable packet.");
+		int sequence = FrameUtils.readInt(payload, offset);
+		
+		Object object = null;
+		if (isWanted(protocol, sequence)) {
+			try {
+				object = FrameUtils.decode(protocol, con, flags, payload, offset + FrameUtils.SEQUENCE_SIZE, length - FrameUtils.SEQUENCE_SIZE);
+			} catch (IOException | ClassNotFoundException e) {
+				e.printStackTrace();
+			}
+			if (object == null)
+				object = NONE;
+		}
+		
+		byte[] ack = new byte[ACK_SIZE];
+		lock.lock();
+		try {
+			if (object != null && isWanted(protocol, sequence)) { //Not added by another thread in the meantime
+				early[index(sequence, early)] = object;
+				while (early[index(expected, early)] != null) {
+					ready.add(early[index(expected, early)]);
+					early[index(expected, early)] = null;
+					expected++;
+				}
+			}
+			FrameUtils.writeInt(ack, 0, expected);
+			long received = 0;
+			for (int i = 0; i < 64 && i + 1 < early.length; i++) {
+				if (early[index(expected + 1 + i, early)] != null)
+					received |= 1L << i;
+			}
+			FrameUtils.writeLong(ack, 4, received);
+		} finally {
+			lock.unlock();
+		}
+		
+		byte ackFlags = FrameUtils.getChecksumFlags(protocol, con, false);
+		PacketBuffer frame = FrameUtils.getFrame(protocol, FrameUtils.TYPE_ACK, ack, ack.length, ackFlags, FrameUtils.getChecksum(ack, 0, ack.length, ackFlags));
+		con.sendDatagram(frame, true);
+		deliver(protocol);
+	}
+	
+	/** Checks whether a packet arrived for the first time and fits in the packets kept early.
+	 * @param protocol Instance of the protocol.
+	 * @param sequence The sequence number of the packet.
+	 * @return Whether it's kept.
+	 */
+	private boolean isWanted(IProtocol protocol, int sequence) {
+		lock.lock();
+		try {
+			if (early == null)
+				early = new Object[Math.max(1, protocol.getConfig().RELIABLE_WINDOW)];
+			return sequence - expected >= 0 && sequence - expected < early.length && early[index(sequence, early)] == null;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Passes the objects that are ready to the dispatcher in order. If another thread is delivering it delivers them
+	 * instead, so the listener is never called by two threads at once. With the serial dispatch policy they are run on
+	 * the connection's mailbox instead, which keeps the order as well.
+	 * @param protocol Instance of the protocol.
+	 */
+	private void deliver(IProtocol protocol) {
+		while (!ready.isEmpty() && delivering.compareAndSet(false, true)) {
+			try {
+				Object object;
+				while ((object = ready.poll()) != null) {
+					if (object == NONE)
+						continue;
+					protocol.getDispatcher().dispatch(con, new ReceivedThread(protocol.getListener(), con, object), true);
+				}
+			} finally {
+				delivering.set(false);
+			}
+		}
+	}
+	
+	/** Marks the packets the other side acknowledged, sends the ones that are missing while later ones arrived, and
+	 * sends the waiting packets that now fit in the window.
+	 * @param next The next sequence number the other side expects.
+	 * @param received Which of the 64 packets after it arrived.
+	 */
+	private void acknowledge(int next, long received) {
+		List<CompletableFuture<Void>> acked = new ArrayList<CompletableFuture<Void>>();
+		lock.lock();
+		try {
+			if (closed || sent == null || next - base < 0 || next - nextSequence > 0 || next - base > sent.length)
+				return; //Old or invalid
+			long now = System.nanoTime();
+			while (base != next) {
+				Outgoing packet = sent[index(base, sent)];
+				sent[index(base, sent)] = null;
+				if (!packet.acked)
+					acknowledge(packet, now, acked);
+				base++;
+			}
+			
+			int highest = -1;
+			for (int i = 0; i < 64; i++) {
+				int sequence = next + 1 + i;
+				if (sequence - nextSequence >= 0 || sequence - base >= sent.length)
+					break;
+				Outgoing packet = sent[index(sequence, sent)];
+				if ((received & (1L << i)) != 0 && packet != null) {
+					if (!packet.acked)
+						acknowledge(packet, now, acked);
+					highest = sequence;
+				}
+			}
+			if (highest != -1) {
+				int later = 0;
+				for (int sequence = highest; sequence - base >= 0; sequence--) {
+					Outgoing packet = sent[index(sequence, sent)];
+					if (packet == null)
+						continue;
+					if (packet.acked) {
+						later++;
+					} else if (later >= FAST_RETRANSMIT && !packet.fastRetransmitted) {
+						packet.fastRetransmitted = true;
+						transmit(packet, now);
+						if (con.getProtocol().getConfig().UDP_PACING)
+							con.getUdpPacer().onLoss(srtt);
+					}
+				}
+			}
+			
+			while (!waiting.isEmpty() && waiting.peek().sequence - base < sent.length)
+				transmit(waiting.poll(), now);
+		} finally {
+			lock.unlock();
+		}
+		for (CompletableFuture<Void> future : acked)
+			future.complete(null);
+	}
+	
+	/** Marks a packet as acknowledged and measures the round trip time if it was only sent once. The lock must be held.
+	 * @param packet The packet.
+	 * @param now The time in nanoseconds.
+	 * @param acked The list the future of the packet is added to, completed once the lock is released.
+	 */
+	private void acknowledge(Outgoing packet, long now, List<CompletableFuture<Void>> acked) {
+		packet.acked = true;
+		if (packet.transmissions == 1)
+			measure(now - packet.sentAt);
+		if (packet.future != null)
+			acked.add(packet.future);
+	}
+	
+	/** Updates the round trip time and the retransmit timeout with a measurement. The lock must be held.
+	 * @param rtt The round trip time in nanoseconds.
+	 */
+	private void measure(long rtt) {
+		if (srtt < 0) {
+			srtt = rtt;
+			rttvar = rtt / 2;
+		} else {
+			rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+			srtt = (7 * srtt + rtt) / 8;
+		}
+		rto = clamp(srtt + Math.max(4 * rttvar, TimeUnit.MILLISECONDS.toNanos(1)));
+		if (con.getProtocol().getConfig().UDP_PACING)
+			con.getUdpPacer().onRoundTrip(rtt);
+	}
+	
+	/** Keeps a retransmit timeout between the configured bounds.
+	 * @param timeout The timeout in nanoseconds.
+	 * @return The bounded timeout.
+	 */
+	private long clamp(long timeout) {
+		Config config = con.getProtocol().getConfig();
+		return Math.min(Math.max(timeout, TimeUnit.MILLISECONDS.toNanos(config.RELIABLE_MIN_RTO)), TimeUnit.MILLISECONDS.toNanos(config.RELIABLE_MAX_RTO));
+	}
+	
+	/** Gets how long a packet waits for an acknowledgement. The timeout doubles every time it's sent again.
+	 * @param packet The packet.
+	 * @return The time in nanoseconds.
+	 */
+	private long getTimeout(Outgoing packet) {
+		if (rto < 0)
+			rto = clamp(TimeUnit.MILLISECONDS.toNanos(INITIAL_RTO));
+		return clamp(rto << Math.min(packet.transmissions - 1, 16));
+	}
+	
+	/** Sends a packet and makes sure the retransmit task runs once its timeout passes. The lock must be held.
+	 * @param packet The packet.
+	 * @param now The time in nanoseconds.
+	 */
+	private void transmit(Outgoing packet, long now) {
+		packet.transmissions++;
+		packet.sentAt = now;
+		sent[index(packet.sequence, sent)] = packet;
+		con.sendDatagram(new PacketBuffer(packet.frame, packet.frame.length, null), false);
+		schedule(now + getTimeout(packet), now);
+	}
+	
+	/** Schedules the retransmit task on the timer wheel unless it already runs before the deadline, cancelling the later
+	 * one it replaces. The lock must be held.
+	 * @param deadline The time in nanoseconds.
+	 * @param now The current time in nanoseconds.
+	 */
+	private void schedule(long deadline, long now) {
+		if (timerDeadline != 0 && timerDeadline - now > 0 && timerDeadline - deadline <= 0)
+			return;
+		timerDeadline = deadline;
+		if (timer != null)
+			timer.cancel();
+		timer = con.getProtocol().getTimerWheel().schedule(retransmitTimeout, Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - now + 999999)));
+	}
+	
+	/** Sends the packets whose timeout passed again and schedules the task for the next one. Closes the connection if a
+	 * packet was sent too many times. */
+	private void retransmit() {
+		boolean failed = false;
+		boolean lost = false;
+		lock.lock();
+		try {
+			if (closed || sent == null)
+				return;
+			timerDeadline = 0;
+			timer = null;
+			long now = System.nanoTime();
+			long next = Long.MAX_VALUE;
+			int maxRetries = con.getProtocol().getConfig().RELIABLE_MAX_RETRIES;
+			for (int sequence = base; sequence - nextSequence < 0 && sequence - base < sent.length; sequence++) {
+				Outgoing packet = sent[index(sequence, sent)];
+				if (packet == null || packet.acked)
+					continue;
+				long deadline = packet.sentAt + getTimeout(packet);
+				if (deadline - now <= 0) {
+					if (packet.transmissions > maxRetries) {
+						failed = true;
+						break;
+					}
+					packet.transmissions++;
+					packet.sentAt = now;
+					con.sendDatagram(new PacketBuffer(packet.frame, packet.frame.length, null), false);
+					lost = true;
+					deadline = now + getTimeout(packet);
+				}
+				next = Math.min(next, deadline - now);
+			}
+			if (!failed && next != Long.MAX_VALUE)
+				schedule(now + next, now);
+			if (lost && con.getProtocol().getConfig().UDP_PACING)
+				con.getUdpPacer().onLoss(srtt);
+		} finally {
+			lock.unlock();
+		}
+		if (failed) {
+			System.out.println("Closing a connection that stopped acknowledging reliable UDP packets.");
+			con.getProtocol().getConnectionManager().close(con); //The read thread reports the disconnect
+		}
+	}
+	
+	/** Drops the packets that weren't acknowledged, once the connection is closed. */
+	public void close() {
+		List<CompletableFuture<Void>> dropped = new ArrayList<CompletableFuture<Void>>();
+		lock.lock();
+		try {
+			closed = true;
+			if (timer != null)
+				timer.cancel();
+			if (sent != null) {
+				for (Outgoing packet : sent) {
+					if (packet != null && !packet.acked && packet.future != null)
+						dropped.add(packet.future);
+				}
+			}
+			for (Outgoing packet : waiting) {
+				if (packet.future != null)
+					dropped.add(packet.future);
+			}
+			waiting.clear();
+		} finally {
+			lock.unlock();
+		}
+		for (CompletableFuture<Void> future : dropped)
+			future.completeExceptionally(new NNPacketDropped("The connection was closed."));
+	}
+	
+	/** @return The smoothed round trip time in milliseconds, or -1 until it's measured. */
+	public double getRoundTripTime() {
+		lock.lock();
+		try {
+			return srtt < 0 ? -1 : srtt / 1000000.0;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Gets the index of a sequence number in a ring of packets.
+	 * @param sequence The sequence number.
+	 * @param ring The ring.
+	 * @return The index.
+	 */
+	private static int index(int sequence, Object[] ring) {
+		return Math.floorMod(sequence, ring.length);
+	}
+	
+	/** A packet sent on the channel. */
+	private static class Outgoing {
+		
+		/** The sequence number of the packet. */
+		private final int sequence;
+		
+		/** The packet's bytes. */
+		private final byte[] frame;
+		
+		/** Completed once the packet is acknowledged, or null if nobody waits for it. */
+		private final CompletableFuture<Void> future;
+		
+		/** The time in nanoseconds the packet was last sent. */
+		private long sentAt;
+		
+		/** The amount of times the packet was sent. */
+		private int transmissions = 0;
+		
+		/** Whether the packet was acknowledged. */
+		private boolean acked = false;
+		
+		/** Whether the packet was sent again because later packets arrived. */
+		private boolean fastRetransmitted = false;
+		
+		private Outgoing(int sequence, byte[] frame, CompletableFuture<Void> future) {
+			this.sequence = sequence;
+			this.frame = frame;
+			this.future = future;
+		}
+	
+	}
+	
+}
@@ -0,0 +1,133 @@
+package com.jmr.wrapper.common.udp;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.buffer.PacketBuffer;
+import com.jmr.wrapper.common.utils.FrameUtils;
+import com.jmr.wrapper.server.threads.ReceivedThread;
+
+/**
+ * Networking Library
+ * SequencedChannels.java
+ * Purpose: Sends objects over UDP on numbered channels where only the newest object matters, like the position of a
+ * player. Every packet has a sequence number of its channel and packets older than the newest one passed to the
+ * listener are dropped, so an old state never replaces a newer one. Nothing is sent again or held back, so a lost
+ * packet is simply replaced by the next one.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class SequencedChannels {
+	
+	/** The amount of channels, one for every value of the channel byte. */
+	public static final int CHANNELS = 256;
+	
+	/** The connection of the channels. */
+	private final Connection con;
+	
+	/** The channels, created once they're used. */
+	private final Channel[] channels = new Channel[CHANNELS];
+	
+	/** Creates the sequenced channels of a connection.
+	 * @param con The connection.
+	 */
+	public SequencedChannels(Connection con) {
+		this.con = con;
+	}
+	
+	/** Sends an object's bytes on a channel.
+	 * @param channel The number of the channel.
+	 * @param payload The array holding the object's bytes.
+	 * @param length The amount of bytes of the object.
+	 * @param flags The flags of the packet.
+	 */
+	public void send(int channel, byte[] payload, int length, byte flags) {
+		int sequence = getChannel(channel).nextSequence.getAndIncrement();
+		byte[] frame = FrameUtils.getSequencedFrame(con.getProtocol(), channel, sequence, payload, length, flags);
+		con.sendDatagram(new PacketBuffer(frame, frame.length, null), true);
+	}
+	
+	/** Handles a sequenced packet. Passes its object to the listener unless a newer packet of its channel was passed
+	 * already. The object is dispatched while holding the channel's lock, either on the thread that read the packet or
+	 * on the connection's mailbox with the serial dispatch policy, so objects of one channel never overtake each other.
+	 * @param protocol Instance of the protocol.
+	 * @param flags The flags of the packet.
+	 * @param payload The array holding the packet.
+	 * @param offset The index of the packet in the array.
+	 * @param length The size of the packet.
+	 * @throws IOException Thrown when the object can't be read.
+	 * @throws ClassNotFoundException Thrown when the object's class isn't found.
+	 */
+	public void handlePacket(IProtocol protocol, byte flags, byte[] payload, int offset, int length) throws IOException, ClassNotFoundException {
+		if (length < FrameUtils.CHANNEL_SIZE + FrameUtils.SEQUENCE_SIZE)
+			throw new StreamCorruptedException("Invalid sequenced packet.");
+		Channel channel = getChannel(payload[offset] & 0xFF);
+		int sequence = FrameUtils.readInt(payload, offset + FrameUtils.CHANNEL_SIZE);
+		if (channel.isStale(sequence))
+			return; //Checked before decoding so stale packets cost nothing
+		int header = FrameUtils.CHANNEL_SIZE + FrameUtils.SEQUENCE_SIZE;
+		Object object = FrameUtils.decode(protocol, con, flags, payload, offset + header, length - header);
+		
+		channel.lock.lock();
+		try {
+			if (channel.isStale(sequence))
+				return;
+			channel.newest = sequence;
+			channel.received = true;
+			protocol.getDispatcher().dispatch(con, new ReceivedThread(protocol.getListener(), con, object), true);
+		} finally {
+			channel.lock.unlock();
+		}
+	}
+	
+	/** Gets a channel, creating it if it's the first time it's used.
+	 * @param number The number of the channel.
+	 * @return The channel.
+	 */
+	private Channel getChannel(int number) {
+		if (number < 0 || number >= CHANNELS)
+			throw new IllegalArgumentException("The channel has to be between 0 and " + (CHANNELS - 1) + ".");
+		Channel channel = channels[number];
+		if (channel == null) {
+			synchronized (channels) {
+				channel = channels[number];
+				if (channel == null)
+					channels[number] = channel = new Channel();
+			}
+		}
+		return channel;
+	}
+	
+	/** A sequenced channel. */
+	private static class Channel {
+		
+		/** The sequence number of the next packet sent. */
+		private final AtomicInteger nextSequence = new AtomicInteger();
+		
+		/** Held while passing an object to the listener. */
+		private final ReentrantLock lock = new ReentrantLock();
+		
+		/** The sequence number of the newest packet passed to the listener. */
+		private volatile int newest;
+		
+		/** Whether a packet was passed to the listener yet. */
+		private volatile boolean received = false;
+		
+		/** Checks whether a packet isn't newer than the newest one passed to the listener. Sequence numbers are compared
+		 * by their difference so they can wrap around.
+		 * @param sequence The sequence number of the packet.
+		 * @return Whether it's stale.
+		 */
+		private boolean isStale(int sequence) {
+			return received && sequence - newest <= 0;
+		}
+	
+	}
+	
+}
@@ -0,0 +1,248 @@
+package com.jmr.wrapper.common.udp;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.buffer.PacketBuffer;
+import com.jmr.wrapper.common.config.Config;
+import com.jmr.wrapper.common.utils.ThreadUtils;
+
+/**
+ * Networking Library
+ * UdpPacer.java
+ * Purpose: Paces the UDP packets sent to a connection so that bursts, like the pieces of a complex object, don't overflow
+ * the other side's socket buffer. Packets are queued and whichever thread gets the lock sends every packet the token
+ * bucket allows at once, the rest are sent by the timer wheel once enough tokens came in. Urgent packets, like
+ * acknowledgements, are sent before the others. The rate starts at the configured rate and follows the round trip
+ * times of the reliable channel: it grows while the round trip time stays close to the lowest one measured, and shrinks
+ * once packets queue up along the way or are lost.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class UdpPacer {
+	
+	/** How much the rate changes at most every round trip, relative to the rate. */
+	private static final double GAIN = 0.1;
+	
+	/** What the rate is multiplied by when a packet is lost. */
+	private static final double LOSS_DECREASE = 0.7;
+	
+	/** The connection the packets are sent to. */
+	private final Connection con;
+	
+	/** Held while sending queued packets and changing the rate. */
+	private final ReentrantLock lock = new ReentrantLock();
+	
+	/** Packets sent before the others. */
+	private final Queue<PacketBuffer> urgent = new ConcurrentLinkedQueue<PacketBuffer>();
+	
+	/** Packets waiting to be sent. */
+	private final Queue<PacketBuffer> queue = new ConcurrentLinkedQueue<PacketBuffer>();
+	
+	/** The amount of bytes in the queue. */
+	private final AtomicInteger queuedBytes = new AtomicInteger();
+	
+	/** The amount of packets dropped because the queue was full. */
+	private final AtomicLong dropped = new AtomicLong();
+	
+	/** Whether the timer already waits to send the queued packets. */
+	private final AtomicBoolean drainScheduled = new AtomicBoolean();
+	
+	/** Sends the queued packets once enough tokens came in. */
+	private final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			drainScheduled.set(false);
+			drain();
+		}
+	};
+	
+	/** The rate in bytes per second. */
+	private double rate;
+	
+	/** The bytes that may be sent right away. Negative after a packet larger than the tokens was sent. */
+	private double tokens;
+	
+	/** The time in nanoseconds tokens were last added. */
+	private long lastRefill;
+	
+	/** The lowest round trip time in nanoseconds, or -1 until one is measured. */
+	private long minRtt = -1;
+	
+	/** The time in nanoseconds the rate was last changed. */
+	private long lastChange;
+	
+	/** Whether the connection was closed. */
+	private volatile boolean closed = false;
+	
+	/** Creates the pacer of a connection.
+	 * @param con The connection.
+	 */
+	public UdpPacer(Connection con) {
+		this.con = con;
+		Config config = con.getProtocol().getConfig();
+		rate = clamp(config.UDP_RATE, config);
+		tokens = Math.max(config.UDP_BURST, 1);
+		lastRefill = lastChange = System.nanoTime();
+	}
+	
+	/** Queues a packet and sends whatever the token bucket allows.
+	 * @param packet The packet. It's released once it's sent or dropped.
+	 * @param first Whether it's sent before the packets that aren't.
+	 */
+	public void send(PacketBuffer packet, boolean first) {
+		if (closed) {
+			packet.release();
+			return;
+		}
+		if (!first && queuedBytes.get() + packet.getLength() > con.getProtocol().getConfig().UDP_QUEUE_SIZE) {
+			dropped.incrementAndGet();
+			packet.release();
+			return;
+		}
+		queuedBytes.addAndGet(packet.getLength());
+		(first ? urgent : queue).add(packet);
+		drain();
+	}
+	
+	/** Sends the queued packets the token bucket allows, unless another thread is sending them. Checks the queues again
+	 * after releasing the lock so packets queued while it was held aren't left behind. */
+	private void drain() {
+		while ((!urgent.isEmpty() || !queue.isEmpty()) && lock.tryLock()) {
+			long wait;
+			try {
+				wait = sendQueued();
+			} finally {
+				lock.unlock();
+			}
+			if (wait > 0) {
+				if (drainScheduled.compareAndSet(false, true))
+					ThreadUtils.schedule(con.getProtocol(), drainTask, Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait + 999999)));
+				return;
+			}
+		}
+	}
+	
+	/** Sends queued packets while there are tokens. The lock must be held.
+	 * @return The nanoseconds until there are tokens again if packets are left, otherwise 0.
+	 */
+	private long sendQueued() {
+		Config config = con.getProtocol().getConfig();
+		long now = System.nanoTime();
+		/** The bucket holds at least a tick of the timer wheel, which sends the queued packets once a tick. */
+		double burst = Math.max(Math.max(config.UDP_BURST, 1), rate * con.getProtocol().getTimerWheel().getTickMillis() / 1000);
+		tokens = Math.min(burst, tokens + rate * (now - lastRefill) / 1e9);
+		lastRefill = now;
+		while (!closed) {
+			PacketBuffer packet = urgent.poll();
+			if (packet == null) {
+				if (tokens <= 0)
+					return queue.isEmpty() ? 0 : (long) (-tokens / rate * 1e9) + 1;
+				packet = queue.poll();
+				if (packet == null)
+					return 0;
+			}
+			queuedBytes.addAndGet(-packet.getLength());
+			tokens -= packet.getLength();
+			try {
+				con.writeDatagram(packet);
+			} catch (IOException e) {
+				close();
+				con.udpFailed(e);
+				return 0;
+			} finally {
+				packet.release();
+			}
+		}
+		return 0;
+	}
+	
+	/** Updates the rate with a round trip time measured by the reliable channel. The time above the lowest one measured
+	 * is how long packets waited in queues along the way. The rate grows while that's below the target delay and shrinks
+	 * above it, in proportion, at most once every round trip. Skipped while packets wait in the queue.
+	 * @param rtt The round trip time in nanoseconds.
+	 */
+	public void onRoundTrip(long rtt) {
+		lock.lock();
+		try {
+			long now = System.nanoTime();
+			if (minRtt < 0 || rtt < minRtt)
+				minRtt = rtt;
+			if (now - lastChange < rtt || queuedBytes.get() > 0)
+				return; //Packets that waited in the queue here would count as waiting along the way
+			Config config = con.getProtocol().getConfig();
+			double target = TimeUnit.MILLISECONDS.toNanos(Math.max(1, config.UDP_TARGET_DELAY));
+			double offTarget = Math.max(-1, (target - (rtt - minRtt)) / target);
+			rate = clamp(rate * (1 + GAIN * offTarget), config);
+			lastChange = now;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Lowers the rate after the reliable channel lost a packet, at most once every round trip.
+	 * @param rtt The smoothed round trip time in nanoseconds, or -1 if it isn't known.
+	 */
+	public void onLoss(long rtt) {
+		lock.lock();
+		try {
+			long now = System.nanoTime();
+			if (rtt > 0 && now - lastChange < rtt)
+				return;
+			rate = clamp(rate * LOSS_DECREASE, con.getProtocol().getConfig());
+			lastChange = now;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Keeps a rate between the configured bounds.
+	 * @param rate The rate in bytes per second.
+	 * @param config The configuration settings.
+	 * @return The bounded rate.
+	 */
+	private static double clamp(double rate, Config config) {
+		return Math.min(Math.max(rate, Math.max(config.UDP_MIN_RATE, 1)), Math.max(config.UDP_MAX_RATE, config.UDP_MIN_RATE));
+	}
+	
+	/** Drops the queued packets, once the connection is closed. */
+	public void close() {
+		closed = true;
+		PacketBuffer packet;
+		while ((packet = urgent.poll()) != null)
+			packet.release();
+		while ((packet = queue.poll()) != null)
+			packet.release();
+		queuedBytes.set(0);
+	}
+	
+	/** @return The rate in bytes per second. */
+	public double getRate() {
+		lock.lock();
+		try {
+			return rate;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** @return The amount of bytes waiting to be sent. */
+	public int getQueuedBytes() {
+		return queuedBytes.get();
+	}
+	
+	/** @return The amount of packets dropped because the queue was full. */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+}
@@ -0,0 +1,151 @@
+package com.jmr.wrapper.common.utils;
+
+import java.io.StreamCorruptedException;
+import java.net.DatagramPacket;
+import java.util.Arrays;
+
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.threads.UdpBindThread;
+
+/**
+ * Networking Library
+ * ControlUtils.java
+ * Purpose: Creates and reads control packets, the library's own messages that used to be serialized strings. A control
+ * packet is an opcode followed by a few bytes and never goes through the codec. Pings are sent over TCP as a single byte.
+ * Once connected the server gives the client a random session token over TCP, and the client sends it over UDP
+ * until the server says it bound the address and port the token came from to the connection. The client keeps sending
+ * it now and then, which keeps its NAT open and moves the connection to a new address or port if the NAT changed it.
+ * Once the connection has session keys the token is sent in the clear, since the server needs it to find the connection,
+ * but authenticated with the connection's UDP cipher so nobody else can move the connection.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class ControlUtils {
+	
+	/** Sent over TCP by a side that had nothing else to send for a while, so the other side knows the connection is still
+	 * there. Has no data and isn't answered. */
+	public static final byte PING = 1;
+	
+	/** Sent by the server over TCP with the session token. */
+	public static final byte TOKEN = 2;
+	
+	/** Sent by the client over UDP with the session token, binding the endpoint it came from. */
+	public static final byte BIND = 3;
+	
+	/** Sent by the server over TCP once it bound a new UDP endpoint to the connection. */
+	public static final byte BOUND = 4;
+	
+	/** The size of the session token. */
+	public static final int TOKEN_SIZE = 8;
+	
+	/** Creates a control packet without data.
+	 * @param opcode The opcode.
+	 * @return The packet.
+	 */
+	public static byte[] getPacket(byte opcode) {
+		return new byte[] { opcode };
+	}
+	
+	/** Creates a control packet holding a session token.
+	 * @param opcode The opcode.
+	 * @param token The token.
+	 * @return The packet.
+	 */
+	public static byte[] getPacket(byte opcode, long token) {
+		byte[] packet = new byte[1 + TOKEN_SIZE];
+		packet[0] = opcode;
+		FrameUtils.writeLong(packet, 1, token);
+		return packet;
+	}
+	
+	/** Gives a connection its session token and sends it to the client. Called by the server once the client is
+	 * known to read control packets.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection.
+	 */
+	public static void sendToken(IProtocol protocol, Connection con) {
+		long token = protocol.getConnectionManager().createToken(con);
+		con.sendControlTcp(getPacket(TOKEN, token));
+	}
+	
+	/** Handles a control packet read from a connection's TCP stream.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection it came from.
+	 * @param payload The array holding the packet.
+	 * @param offset The index of the packet in the array.
+	 * @param length The size of the packet.
+	 * @throws StreamCorruptedException Thrown when the packet is too short for its opcode.
+	 */
+	public static void handleControl(IProtocol protocol, Connection con, byte[] payload, int offset, int length) throws StreamCorruptedException {
+		if (length < 1)
+			throw new StreamCorruptedException("Invalid control packet.");
+		switch (payload[offset]) {
+		case PING:
+			break;
+		case TOKEN:
+			if (length < 1 + TOKEN_SIZE)
+				throw new StreamCorruptedException("Invalid control packet.");
+			con.setUdpToken(FrameUtils.readLong(payload, offset + 1));
+			con.setUdpBound(false);
+			new UdpBindThread(con).run();
+			break;
+		case BOUND:
+			con.setUdpBound(true);
+			break;
+		default:
+			break; //Opcodes added by newer versions
+		}
+	}
+	
+	/** Handles a control packet received over UDP. It's handled whether or not the address and port it came from
+	 * belong to a connection, since it may be what binds them.
+	 * @param protocol Instance of the protocol.
+	 * @param packet The UDP packet, a compact packet of the control type.
+	 */
+	public static void handleDatagram(IProtocol protocol, DatagramPacket packet) {
+		byte[] data = packet.getData();
+		byte flags = data[5];
+		int checksum = FrameUtils.readInt(data, 6);
+		byte[] payload = data;
+		int offset = FrameUtils.HEADER_SIZE;
+		int length = packet.getLength() - FrameUtils.HEADER_SIZE;
+		Connection con = null;
+		if (protocol.getEncryptionMethod() == null && length >= 1 + TOKEN_SIZE && data[offset] == BIND) {
+			con = protocol.getConnectionManager().getConnectionByToken(FrameUtils.readLong(data, offset + 1));
+			if (con != null && con.getUdpCipher() != null) {
+				if (FrameUtils.isAuthenticated(con.getUdpCipher(), data, offset + 1 + TOKEN_SIZE, packet.getLength()))
+					bind(con, packet);
+				return;
+			}
+		}
+		if (protocol.getEncryptionMethod() != null) {
+			payload = protocol.getEncryptionMethod().decrypt(Arrays.copyOfRange(data, offset, offset + length));
+			offset = 0;
+			length = payload.length;
+		}
+		if ((flags & FrameUtils.FLAG_NO_CHECKSUM) == 0 && FrameUtils.getChecksum(payload, offset, length, flags) != checksum)
+			return;
+		if (length < 1 + TOKEN_SIZE || payload[offset] != BIND)
+			return;
+		con = protocol.getConnectionManager().getConnectionByToken(FrameUtils.readLong(payload, offset + 1));
+		if (con == null || con.getUdpCipher() != null)
+			return;
+		bind(con, packet);
+	}
+	
+	/** Binds the address and port a BIND packet came from to its connection, telling the client if they changed.
+	 * @param con The connection.
+	 * @param packet The UDP packet.
+	 */
+	private static void bind(Connection con, DatagramPacket packet) {
+		con.setUdpBound(true);
+		if (!packet.getAddress().equals(con.getUdpAddress()) || packet.getPort() != con.getUdpPort()) {
+			con.setUdpEndpoint(packet.getAddress(), packet.getPort());
+			con.sendControlTcp(getPacket(BOUND));
+		}
+	}
+	
+}
@@ -0,0 +1,118 @@
+package com.jmr.wrapper.common.utils;
+
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * Networking Library
+ * Crc32c.java
+ * Purpose: Calculates CRC32C checksums for the compact packets. Java 9 and newer have java.util.zip.CRC32C, which uses 
+ * the processor's CRC32C instructions and is looked up at runtime so the library still builds for Java 8. Older JVMs 
+ * use this class's table based implementation, which gives the same values.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class Crc32c implements Checksum {
+
+	/** The constructor of the JVM's CRC32C class, or null if it doesn't exist. */
+	private static final Constructor<? extends Checksum> JDK_CRC32C = getJdkConstructor();
+	
+	/** The remainders of every byte for the reversed Castagnoli polynomial. */
+	private static final int[] TABLE = createTable();
+	
+	/** The current checksum, inverted. */
+	private int crc = 0xFFFFFFFF;
+	
+	/** @return A new CRC32C checksum, using the JVM's implementation if it has one. */
+	public static Checksum create() {
+		if (JDK_CRC32C != null) {
+			try {
+				return JDK_CRC32C.newInstance();
+			} catch (ReflectiveOperationException e) {
+				//fall back to the table
+			}
+		}
+		return new Crc32c();
+	}
+	
+	/** Calculates the CRC32C checksum of part of an array.
+	 * @param data The array.
+	 * @param offset The index to start at.
+	 * @param length The amount of bytes.
+	 * @return The checksum.
+	 */
+	public static int getValue(byte[] data, int offset, int length) {
+		Checksum checksum = create();
+		checksum.update(data, offset, length);
+		return (int) checksum.getValue();
+	}
+	
+	/** Calculates the CRC32C checksum of the bytes left in a buffer, such as a memory-mapped file. Buffers without an
+	 * array are read in chunks so the bytes aren't copied all at once.
+	 * @param buffer The buffer. Its position isn't changed.
+	 * @return The checksum.
+	 */
+	public static int getValue(ByteBuffer buffer) {
+		Checksum checksum = create();
+		if (buffer.hasArray()) {
+			checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		} else {
+			ByteBuffer bytes = buffer.duplicate();
+			byte[] chunk = new byte[Math.min(bytes.remaining(), 8192)];
+			while (bytes.hasRemaining()) {
+				int size = Math.min(bytes.remaining(), chunk.length);
+				bytes.get(chunk, 0, size);
+				checksum.update(chunk, 0, size);
+			}
+		}
+		return (int) checksum.getValue();
+	}
+	
+	@Override
+	public void update(int b) {
+		crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+	}
+	
+	@Override
+	public void update(byte[] b, int off, int len) {
+		int c = crc;
+		for (int i = off; i < off + len; i++)
+			c = (c >>> 8) ^ TABLE[(c ^ b[i]) & 0xFF];
+		crc = c;
+	}
+	
+	@Override
+	public long getValue() {
+		return ~crc & 0xFFFFFFFFL;
+	}
+	
+	@Override
+	public void reset() {
+		crc = 0xFFFFFFFF;
+	}
+	
+	/** @return The table of remainders. */
+	private static int[] createTable() {
+		int[] table = new int[256];
+		for (int i = 0; i < 256; i++) {
+			int c = i;
+			for (int j = 0; j < 8; j++)
+				c = (c & 1) != 0 ? (c >>> 1) ^ 0x82F63B78 : c >>> 1;
+			table[i] = c;
+		}
+		return table;
+	}
+	
+	/** @return The constructor of the JVM's CRC32C class, or null if it doesn't exist. */
+	private static Constructor<? extends Checksum> getJdkConstructor() {
+		try {
+			return Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class).getConstructor();
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			return null;
+		}
+	}
+	
+}
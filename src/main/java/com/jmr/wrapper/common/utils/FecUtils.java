@@ -0,0 +1,154 @@
+package com.jmr.wrapper.common.utils;
+
+import java.io.StreamCorruptedException;
+
+/**
+ * Networking Library
+ * FecUtils.java
+ * Purpose: Creates the parity pieces of complex objects and rebuilds lost pieces from them. The pieces of an object are
+ * split into groups and each group gets parity pieces made of the pieces multiplied by numbers in the 256 number field,
+ * so any of its pieces can be rebuilt once as many pieces or parity pieces arrived as the group has pieces. A group with
+ * a single parity piece uses XOR parity, the others use a Cauchy matrix which never has two rows depending on each other.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class FecUtils {
+	
+	/** The polynomial the number field is built on. */
+	private static final int POLYNOMIAL = 0x11D;
+	
+	/** The powers of 2 in the number field, twice so the sum of two logarithms can be looked up directly. */
+	private static final int[] EXP = new int[512];
+	
+	/** The logarithms of the numbers in the number field. */
+	private static final int[] LOG = new int[256];
+	
+	/** The most pieces and parity pieces a group may have. */
+	public static final int MAX_GROUP_SIZE = 255;
+	
+	static {
+		int value = 1;
+		for (int i = 0; i < 255; i++) {
+			EXP[i] = value;
+			LOG[value] = i;
+			value <<= 1;
+			if (value >= 256)
+				value ^= POLYNOMIAL;
+		}
+		for (int i = 255; i < EXP.length; i++)
+			EXP[i] = EXP[i - 255];
+	}
+	
+	/** Multiplies two numbers of the number field.
+	 * @param a The first number.
+	 * @param b The second number.
+	 * @return The product.
+	 */
+	public static int multiply(int a, int b) {
+		if (a == 0 || b == 0)
+			return 0;
+		return EXP[LOG[a] + LOG[b]];
+	}
+	
+	/** Gets the inverse of a number of the number field.
+	 * @param a The number, not 0.
+	 * @return The inverse.
+	 */
+	public static int inverse(int a) {
+		return EXP[255 - LOG[a]];
+	}
+	
+	/** Gets the amount of parity pieces of a group.
+	 * @param pieces The amount of pieces in the group.
+	 * @param ratio The amount of parity pieces for every piece.
+	 * @return The amount of parity pieces.
+	 */
+	public static int getParityCount(int pieces, double ratio) {
+		if (ratio <= 0)
+			return 0;
+		return (int) Math.max(1, Math.min(Math.ceil(pieces * ratio), MAX_GROUP_SIZE - pieces));
+	}
+	
+	/** Gets the number a piece is multiplied by in a parity piece.
+	 * @param pieces The amount of pieces in the group.
+	 * @param parityCount The amount of parity pieces of the group.
+	 * @param parity The index of the parity piece.
+	 * @param piece The index of the piece in the group.
+	 * @return The number.
+	 */
+	public static int getCoefficient(int pieces, int parityCount, int parity, int piece) {
+		if (parityCount == 1)
+			return 1; //XOR parity
+		return inverse((pieces + parity) ^ piece);
+	}
+	
+	/** Multiplies bytes by a number and adds them to other bytes. Bytes past the end of the source count as zeroes.
+	 * @param coefficient The number.
+	 * @param src The array holding the bytes.
+	 * @param srcOffset The index of the bytes.
+	 * @param length The amount of bytes.
+	 * @param dest The array to add them to.
+	 * @param destOffset The index to add them at.
+	 */
+	public static void multiplyAdd(int coefficient, byte[] src, int srcOffset, int length, byte[] dest, int destOffset) {
+		if (coefficient == 0)
+			return;
+		if (coefficient == 1) {
+			for (int i = 0; i < length; i++)
+				dest[destOffset + i] ^= src[srcOffset + i];
+			return;
+		}
+		int log = LOG[coefficient];
+		for (int i = 0; i < length; i++) {
+			int b = src[srcOffset + i] & 0xFF;
+			if (b != 0)
+				dest[destOffset + i] ^= EXP[log + LOG[b]];
+		}
+	}
+	
+	/** Inverts a square matrix of the number field.
+	 * @param matrix The matrix. It's changed.
+	 * @return The inverse.
+	 * @throws StreamCorruptedException Thrown when the matrix can't be inverted, which only happens if the parity
+	 * pieces don't belong together.
+	 */
+	public static int[][] invert(int[][] matrix) throws StreamCorruptedException {
+		int size = matrix.length;
+		int[][] inverse = new int[size][size];
+		for (int i = 0; i < size; i++)
+			inverse[i][i] = 1;
+		
+		for (int column = 0; column < size; column++) {
+			int pivot = column;
+			while (pivot < size && matrix[pivot][column] == 0)
+				pivot++;
+			if (pivot == size)
+				throw new StreamCorruptedException("The parity pieces can't rebuild the complex object.");
+			int[] swap = matrix[pivot];
+			matrix[pivot] = matrix[column];
+			matrix[column] = swap;
+			swap = inverse[pivot];
+			inverse[pivot] = inverse[column];
+			inverse[column] = swap;
+			
+			int scale = inverse(matrix[column][column]);
+			for (int i = 0; i < size; i++) {
+				matrix[column][i] = multiply(matrix[column][i], scale);
+				inverse[column][i] = multiply(inverse[column][i], scale);
+			}
+			for (int row = 0; row < size; row++) {
+				int factor = matrix[row][column];
+				if (row == column || factor == 0)
+					continue;
+				for (int i = 0; i < size; i++) {
+					matrix[row][i] ^= multiply(factor, matrix[column][i]);
+					inverse[row][i] ^= multiply(factor, inverse[column][i]);
+				}
+			}
+		}
+		return inverse;
+	}
+	
+}
@@ -0,0 +1,922 @@
+package com.jmr.wrapper.common.utils;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.buffer.BufferPool;
+import com.jmr.wrapper.common.buffer.PacketBuffer;
+import com.jmr.wrapper.common.codec.Codec;
+import com.jmr.wrapper.common.codec.SerializationCodec;
+import com.jmr.wrapper.common.complex.ComplexPiece;
+import com.jmr.wrapper.common.compression.CompressionDictionary;
+import com.jmr.wrapper.common.compression.Compressor;
+import com.jmr.wrapper.common.compression.DeflateCompressor;
+import com.jmr.wrapper.common.compression.DeflateStream;
+import com.jmr.wrapper.common.compression.Lz4Compressor;
+import com.jmr.wrapper.common.config.Config;
+import com.jmr.wrapper.common.stream.StreamManager;
+import com.jmr.wrapper.encryption.AeadCipher;
+import com.jmr.wrapper.encryption.CipherSuite;
+import com.jmr.wrapper.encryption.ICipher;
+import com.jmr.wrapper.encryption.KeyExchange;
+
+/**
+ * Networking Library
+ * FrameUtils.java
+ * Purpose: Creates and reads packets in the compact framing. Instead of padding every packet to the buffer size, a packet
+ * is a 10 byte header followed by exactly the bytes of the object. The header holds the length of the object's bytes,
+ * the type of the packet, its flags and the checksum as a number. The compact framing is only used once both sides agreed 
+ * to it while connecting, which is done with handshake packets in the original framing so that older versions ignore them.
+ * The handshakes also hold the codec of each side and flags saying which of the features below it reads. If both have the same codec, objects in compact packets are encoded 
+ * with it and the packet's flags say so. Otherwise Java serialization is used. Once both sides know the checksum flags, 
+ * compact packets use CRC32C instead of CRC32 and TCP packets can leave the checksum out. Objects larger than the
+ * compression threshold are compressed, with the compressor's id and the object's size in front of the compressed bytes.
+ * The checksum is of the bytes sent, so it's checked before anything is decompressed. Stream packets carry large
+ * amounts of bytes sent in chunks and are only sent once both sides support them, as are the sequenced UDP packets
+ * of the reliable channel and their acknowledgements, and the packets of sequenced channels that drop stale objects.
+ * Complex objects sent over UDP may come with parity pieces, flagged as such, that rebuild lost pieces. Control packets
+ * carry the library's own messages, like pings and the session token, in a few bytes. Once both sides agreed on
+ * session keys, every compact packet is encrypted with the connection's cipher when it's written and decrypted when
+ * it's read, with its header authenticated, and has no checksum since the cipher already makes sure it's intact.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class FrameUtils {
+
+	/** The size of the header in front of every compact packet. */
+	public static final int HEADER_SIZE = 10;
+	
+	/** The type of a packet holding a whole object. */
+	public static final byte TYPE_OBJECT = 0;
+	
+	/** The type of a packet holding a piece of a complex object. */
+	public static final byte TYPE_COMPLEX = 1;
+	
+	/** The type of a packet that's part of a stream, read by the StreamManager. Only sent over TCP. */
+	public static final byte TYPE_STREAM = 2;
+	
+	/** The type of a UDP packet holding an object sent on the connection's reliable channel, after its sequence number. */
+	public static final byte TYPE_RELIABLE = 3;
+	
+	/** The type of a UDP packet acknowledging packets of the reliable channel. */
+	public static final byte TYPE_ACK = 4;
+	
+	/** The type of a packet holding an object on a sequenced UDP channel, dropped if a newer one arrived first. */
+	public static final byte TYPE_SEQUENCED = 5;
+	
+	/** The type of a packet used by the library itself, like pings and binding the UDP endpoint, read by ControlUtils
+	 * without the codec. Only sent to sides whose handshake has HANDSHAKE_CONTROL. */
+	public static final byte TYPE_CONTROL = 6;
+	
+	/** The type of a packet holding a request, its response or why it can't be answered, read by the RequestManager. 
+	 * Only sent over TCP to sides whose handshake has HANDSHAKE_REQUEST. */
+	public static final byte TYPE_REQUEST = 7;
+	
+	/** The size of the sequence number in front of the object's bytes of sequenced packets. */
+	public static final int SEQUENCE_SIZE = 4;
+	
+	/** The size of the channel number in front of the sequence number of a sequenced UDP packet. */
+	public static final int CHANNEL_SIZE = 1;
+	
+	/** Flag saying the object was encoded with the codec agreed on while connecting instead of Java serialization. */
+	public static final byte FLAG_CODEC = 1;
+	
+	/** Flag saying the checksum is CRC32C instead of CRC32. */
+	public static final byte FLAG_CRC32C = 2;
+	
+	/** Flag saying the packet has no checksum since TCP already makes sure it arrives intact. */
+	public static final byte FLAG_NO_CHECKSUM = 4;
+	
+	/** Flag saying the object's bytes are compressed. */
+	public static final byte FLAG_COMPRESSED = 8;
+	
+	/** Flag saying the object's bytes were compressed with the dictionary both sides have. */
+	public static final byte FLAG_DICTIONARY = 16;
+	
+	/** Flag saying the object's bytes were compressed with the connection's Deflate stream. */
+	public static final byte FLAG_STREAM = 32;
+	
+	/** Flag saying a complex piece is a parity piece. Only sent to sides whose handshake has HANDSHAKE_PARITY. */
+	public static final byte FLAG_PARITY = 64;
+	
+	/** The most bytes the session ciphers add to a packet, so packets may be that much larger than the buffer size. */
+	public static final int CIPHER_OVERHEAD = AeadCipher.SEQUENCE_SIZE + AeadCipher.TAG_SIZE;
+	
+	/** The size of the compressor's id and the object's size in front of compressed bytes. */
+	public static final int COMPRESSION_HEADER_SIZE = 1 + 4;
+	
+	/** The handshake sent by the server to offer the compact framing. */
+	public static final byte HANDSHAKE_OFFER = 1;
+	
+	/** The handshake sent by the client to accept the compact framing. */
+	public static final byte HANDSHAKE_ACCEPT = 2;
+	
+	/** The handshake sent by the server after which it only sends compact packets. */
+	public static final byte HANDSHAKE_ACK = 3;
+	
+	/** The version of the compact framing. Only changed when the layout of the handshake data changes, the features a 
+	 * side supports are told by the flags of its handshake. */
+	public static final byte VERSION = 1;
+	
+	/** Flag in the handshake saying the compact framing is supported. */
+	public static final int HANDSHAKE_COMPACT = 1;
+	
+	/** Flag in the handshake saying the codec's id and fingerprint come before the handshake data. */
+	public static final int HANDSHAKE_CODEC = 2;
+	
+	/** Flag in the handshake saying the checksum flags of compact packets are understood. */
+	public static final int HANDSHAKE_CHECKSUM = 4;
+	
+	/** Flag in the handshake saying compressed packets can be read and the dictionary's fingerprint comes before the 
+	 * codec's. */
+	public static final int HANDSHAKE_COMPRESSION = 8;
+	
+	/** Flag in the handshake saying stream packets can be read. */
+	public static final int HANDSHAKE_STREAM = 16;
+	
+	/** Flag in the handshake saying reliable UDP packets can be read. */
+	public static final int HANDSHAKE_RELIABLE = 32;
+	
+	/** Flag in the handshake saying sequenced UDP packets can be read. */
+	public static final int HANDSHAKE_SEQUENCED = 64;
+	
+	/** Flag in the handshake saying the public key of the session keys and the cipher suite come before the dictionary's
+	 * fingerprint. */
+	public static final int HANDSHAKE_SESSION = 128;
+	
+	/** Flag in the handshake saying control packets can be read, so the UDP endpoint is bound with a session token. */
+	public static final int HANDSHAKE_CONTROL = 256;
+	
+	/** Flag in the handshake saying pings are answered, so the other side can ping when it has nothing else to send. */
+	public static final int HANDSHAKE_HEARTBEAT = 512;
+	
+	/** Flag in the handshake saying requests are answered. */
+	public static final int HANDSHAKE_REQUEST = 1024;
+	
+	/** Flag in the handshake saying complex pieces holding the id of their object can be read. */
+	public static final int HANDSHAKE_COMPLEX_ID = 2048;
+	
+	/** Flag in the handshake saying parity pieces of complex objects are used to rebuild lost pieces. */
+	public static final int HANDSHAKE_PARITY = 4096;
+	
+	/** The flags of the features every side reads, sent in every handshake. The others are added when they're sent. */
+	public static final int HANDSHAKE_SUPPORTED = HANDSHAKE_COMPACT | HANDSHAKE_CHECKSUM | HANDSHAKE_STREAM | HANDSHAKE_RELIABLE 
+			| HANDSHAKE_SEQUENCED | HANDSHAKE_CONTROL | HANDSHAKE_HEARTBEAT | HANDSHAKE_REQUEST | HANDSHAKE_COMPLEX_ID | HANDSHAKE_PARITY;
+	
+	/** The bytes at the end of a handshake packet. */
+	private static final byte[] HANDSHAKE_MAGIC = { 'N', 'N', 'F' };
+	
+	/** The size of the handshake data added after the handshake's object: its kind, the version and two bytes of flags. */
+	private static final int HANDSHAKE_SIZE = 4 + HANDSHAKE_MAGIC.length;
+	
+	/** The size of the codec's id and fingerprint. */
+	private static final int HANDSHAKE_CODEC_SIZE = 1 + 4;
+	
+	/** The size of the dictionary's fingerprint. */
+	private static final int HANDSHAKE_COMPRESSION_SIZE = 4;
+	
+	/** The size of the cipher suite's id and the public key's length, after the public key. */
+	private static final int HANDSHAKE_SESSION_SIZE = 1 + 2;
+	
+	/** Creates a compact packet in a pooled buffer. The object's bytes are encrypted if an encryptor is set.
+	 * @param protocol Instance of the protocol.
+	 * @param type The type of the packet.
+	 * @param payload The array holding the object's bytes.
+	 * @param length The amount of bytes of the object.
+	 * @param flags The flags of the packet.
+	 * @param checksum The checksum of the unencrypted object's bytes.
+	 * @return The packet. Has to be released once it's written.
+	 */
+	public static PacketBuffer getFrame(IProtocol protocol, byte type, byte[] payload, int length, byte flags, int checksum) {
+		if (protocol.getEncryptionMethod() != null) {
+			payload = protocol.getEncryptionMethod().encrypt(Arrays.copyOf(payload, length));
+			length = payload.length;
+		}
+		PacketBuffer frame = createFrame(protocol, type, length, flags, checksum);
+		System.arraycopy(payload, 0, frame.getData(), HEADER_SIZE, length);
+		return frame;
+	}
+	
+	/** Creates a compact packet holding an object in a pooled buffer. The checksum is calculated from the object's bytes
+	 * with the algorithm the flags ask for. If the flags allow compression the object is compressed if it's large enough
+	 * and gets smaller, otherwise the compression flags are taken out.
+	 * @param protocol Instance of the protocol.
+	 * @param payload The array holding the object's bytes.
+	 * @param length The amount of bytes of the object.
+	 * @param flags The flags of the packet.
+	 * @return The packet. Has to be released once it's written.
+	 */
+	public static PacketBuffer getFrame(IProtocol protocol, byte[] payload, int length, byte flags) {
+		if ((flags & FLAG_COMPRESSED) != 0) {
+			BufferPool pool = protocol.getBufferPool();
+			byte[] compressed = pool.acquire(length);
+			try {
+				int size = compress(protocol, payload, length, flags, compressed);
+				if (size > 0)
+					return getFrame(protocol, TYPE_OBJECT, compressed, size, flags, getChecksum(compressed, 0, size, flags));
+			} finally {
+				pool.release(compressed);
+			}
+			flags &= ~(FLAG_COMPRESSED | FLAG_DICTIONARY);
+		}
+		return getFrame(protocol, TYPE_OBJECT, payload, length, flags, getChecksum(payload, 0, length, flags));
+	}
+	
+	/** Creates a compact packet holding an object after a sequence number. The object is compressed the same way as in
+	 * getFrame. The packet is copied out of the pool since it's kept until the other side has it.
+	 * @param protocol Instance of the protocol.
+	 * @param type The type of the packet.
+	 * @param sequence The sequence number.
+	 * @param payload The array holding the object's bytes.
+	 * @param length The amount of bytes of the object.
+	 * @param flags The flags of the packet.
+	 * @return The packet.
+	 */
+	public static byte[] getSequencedFrame(IProtocol protocol, byte type, int sequence, byte[] payload, int length, byte flags) {
+		byte[] prefix = new byte[SEQUENCE_SIZE];
+		writeInt(prefix, 0, sequence);
+		return getFrame(protocol, type, prefix, payload, length, flags);
+	}
+	
+	/** Creates a compact packet holding an object after the number of its sequenced channel and its sequence number.
+	 * @param protocol Instance of the protocol.
+	 * @param channel The number of the channel.
+	 * @param sequence The sequence number.
+	 * @param payload The array holding the object's bytes.
+	 * @param length The amount of bytes of the object.
+	 * @param flags The flags of the packet.
+	 * @return The packet.
+	 */
+	public static byte[] getSequencedFrame(IProtocol protocol, int channel, int sequence, byte[] payload, int length, byte flags) {
+		byte[] prefix = new byte[CHANNEL_SIZE + SEQUENCE_SIZE];
+		prefix[0] = (byte) channel;
+		writeInt(prefix, CHANNEL_SIZE, sequence);
+		return getFrame(protocol, TYPE_SEQUENCED, prefix, payload, length, flags);
+	}
+	
+	/** Creates a compact packet holding an object after a few bytes that are never compressed. The packet is copied out
+	 * of the pool.
+	 * @param protocol Instance of the protocol.
+	 * @param type The type of the packet.
+	 * @param prefix The bytes in front of the object.
+	 * @param payload The array holding the object's bytes.
+	 * @param length The amount of bytes of the object.
+	 * @param flags The flags of the packet.
+	 * @return The packet.
+	 */
+	private static byte[] getFrame(IProtocol protocol, byte type, byte[] prefix, byte[] payload, int length, byte flags) {
+		BufferPool pool = protocol.getBufferPool();
+		byte[] data = pool.acquire(prefix.length + length);
+		try {
+			System.arraycopy(prefix, 0, data, 0, prefix.length);
+			int size = (flags & FLAG_COMPRESSED) != 0 ? compress(protocol, payload, length, flags, data, prefix.length) : -1;
+			if (size < 0) {
+				flags &= ~(FLAG_COMPRESSED | FLAG_DICTIONARY);
+				System.arraycopy(payload, 0, data, prefix.length, length);
+				size = length;
+			}
+			PacketBuffer frame = getFrame(protocol, type, data, prefix.length + size, flags, getChecksum(data, 0, prefix.length + size, flags));
+			try {
+				return Arrays.copyOf(frame.getData(), frame.getLength());
+			} finally {
+				frame.release();
+			}
+		} finally {
+			pool.release(data);
+		}
+	}
+	
+	/** Creates a compact packet holding an object compressed with a connection's Deflate stream. The bytes are added to 
+	 * the stream, so the packet has to be written.
+	 * @param protocol Instance of the protocol.
+	 * @param stream The connection's stream.
+	 * @param payload The array holding the object's bytes.
+	 * @param length The amount of bytes of the object.
+	 * @param flags The flags of the packet, without the compression flags.
+	 * @return The packet. Has to be released once it's written.
+	 */
+	public static PacketBuffer getStreamFrame(IProtocol protocol, DeflateStream stream, byte[] payload, int length, byte flags) {
+		BufferPool pool = protocol.getBufferPool();
+		byte[] compressed = pool.acquire(COMPRESSION_HEADER_SIZE + DeflateStream.getMaxCompressedLength(length));
+		try {
+			compressed[0] = DeflateCompressor.ID;
+			writeInt(compressed, 1, length);
+			int size = COMPRESSION_HEADER_SIZE + stream.compress(payload, 0, length, compressed, COMPRESSION_HEADER_SIZE);
+			flags |= FLAG_COMPRESSED | FLAG_STREAM;
+			return getFrame(protocol, TYPE_OBJECT, compressed, size, flags, getChecksum(compressed, 0, size, flags));
+		} finally {
+			pool.release(compressed);
+		}
+	}
+	
+	/** Compresses an object's bytes with the compressor in the configurations and puts the compressor's id and the 
+	 * object's size in front of them.
+	 * @param protocol Instance of the protocol.
+	 * @param payload The array holding the object's bytes.
+	 * @param length The amount of bytes of the object.
+	 * @param flags The flags of the packet, saying whether to use the dictionary.
+	 * @param dest The array to write to. Only bytes that are fewer than the object's are written.
+	 * @return The amount of bytes written, or -1 if the object is too small or didn't get smaller.
+	 */
+	public static int compress(IProtocol protocol, byte[] payload, int length, byte flags, byte[] dest) {
+		return compress(protocol, payload, length, flags, dest, 0);
+	}
+	
+	/** Compresses an object's bytes into an array from an index on.
+	 * @param protocol Instance of the protocol.
+	 * @param payload The array holding the object's bytes.
+	 * @param length The amount of bytes of the object.
+	 * @param flags The flags of the packet, saying whether to use the dictionary.
+	 * @param dest The array to write to. Only bytes that are fewer than the object's are written.
+	 * @param offset The index to write to.
+	 * @return The amount of bytes written, or -1 if the object is too small or didn't get smaller.
+	 */
+	public static int compress(IProtocol protocol, byte[] payload, int length, byte flags, byte[] dest, int offset) {
+		Config config = protocol.getConfig();
+		Compressor compressor = config.COMPRESSOR;
+		if (compressor == null || length < config.COMPRESSION_THRESHOLD || length <= COMPRESSION_HEADER_SIZE)
+			return -1;
+		byte[] dictionary = (flags & FLAG_DICTIONARY) != 0 ? config.COMPRESSION_DICTIONARY.getData() : null;
+		int size = compressor.compress(payload, 0, length, dest, offset + COMPRESSION_HEADER_SIZE, length - COMPRESSION_HEADER_SIZE - 1, dictionary);
+		if (size < 0)
+			return -1;
+		dest[offset] = compressor.getId();
+		writeInt(dest, offset + 1, length);
+		return COMPRESSION_HEADER_SIZE + size;
+	}
+	
+	/** Gets the size of a compressed object's bytes once they are decompressed and makes sure it's valid.
+	 * @param protocol Instance of the protocol.
+	 * @param src The array holding the compressed bytes.
+	 * @param offset The index of the compressed bytes in the array.
+	 * @param length The amount of compressed bytes.
+	 * @return The size.
+	 * @throws StreamCorruptedException Thrown when the size can't be right.
+	 */
+	public static int getDecompressedSize(IProtocol protocol, byte[] src, int offset, int length) throws StreamCorruptedException {
+		int size = length >= COMPRESSION_HEADER_SIZE ? readInt(src, offset + 1) : -1;
+		if (size < 0 || size > protocol.getConfig().MAX_DECOMPRESSED_SIZE)
+			throw new StreamCorruptedException("Invalid decompressed size: " + size);
+		return size;
+	}
+	
+	/** Decompresses an object's bytes with the compressor whose id is in front of them.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection they came from.
+	 * @param src The array holding the compressed bytes.
+	 * @param offset The index of the compressed bytes in the array.
+	 * @param length The amount of compressed bytes.
+	 * @param flags The flags of the packet.
+	 * @param dest The array to write the object's bytes to. Needs space for getDecompressedSize bytes.
+	 * @throws IOException Thrown when the bytes can't be decompressed.
+	 */
+	public static void decompress(IProtocol protocol, Connection con, byte[] src, int offset, int length, byte flags, byte[] dest) throws IOException {
+		int size = getDecompressedSize(protocol, src, offset, length);
+		if ((flags & FLAG_STREAM) != 0) {
+			con.getDeflateStream().decompress(src, offset + COMPRESSION_HEADER_SIZE, length - COMPRESSION_HEADER_SIZE, dest, 0, size);
+			return;
+		}
+		CompressionDictionary dictionary = protocol.getConfig().COMPRESSION_DICTIONARY;
+		if ((flags & FLAG_DICTIONARY) != 0 && dictionary == null)
+			throw new StreamCorruptedException("The object was compressed with a dictionary that isn't set.");
+		getCompressor(protocol, src[offset]).decompress(src, offset + COMPRESSION_HEADER_SIZE, length - COMPRESSION_HEADER_SIZE, 
+				dest, 0, size, (flags & FLAG_DICTIONARY) != 0 ? dictionary.getData() : null);
+	}
+	
+	/** Gets the compressor with an id. Either the one in the configurations or one of the built in ones.
+	 * @param protocol Instance of the protocol.
+	 * @param id The id.
+	 * @return The compressor.
+	 * @throws StreamCorruptedException Thrown when there's no compressor with the id.
+	 */
+	public static Compressor getCompressor(IProtocol protocol, byte id) throws StreamCorruptedException {
+		Compressor compressor = protocol.getConfig().COMPRESSOR;
+		if (compressor != null && compressor.getId() == id)
+			return compressor;
+		if (id == DeflateCompressor.ID)
+			return DeflateCompressor.INSTANCE;
+		if (id == Lz4Compressor.ID)
+			return Lz4Compressor.INSTANCE;
+		throw new StreamCorruptedException("Unknown compressor: " + id);
+	}
+	
+	/** Calculates the checksum of an object's bytes for a compact packet.
+	 * @param data The array holding the object's bytes.
+	 * @param offset The index of the object's bytes in the array.
+	 * @param length The amount of bytes of the object.
+	 * @param flags The flags of the packet, saying which algorithm is used.
+	 * @return The checksum, or 0 if the packet has none.
+	 */
+	public static int getChecksum(byte[] data, int offset, int length, byte flags) {
+		if ((flags & FLAG_NO_CHECKSUM) != 0)
+			return 0;
+		if ((flags & FLAG_CRC32C) != 0)
+			return Crc32c.getValue(data, offset, length);
+		return (int) PacketUtils.getChecksumValue(data, offset, length);
+	}
+	
+	/** Takes a pooled buffer for a compact packet and writes its header. The object's bytes still have to be written 
+	 * after the header.
+	 * @param protocol Instance of the protocol.
+	 * @param type The type of the packet.
+	 * @param length The amount of bytes of the object, after it was encrypted.
+	 * @param flags The flags of the packet.
+	 * @param checksum The checksum of the unencrypted object's bytes.
+	 * @return The packet. Has to be released once it's written.
+	 */
+	public static PacketBuffer createFrame(IProtocol protocol, byte type, int length, byte flags, int checksum) {
+		if (HEADER_SIZE + length > protocol.getConfig().PACKET_BUFFER_SIZE)
+			throw new IllegalArgumentException("The object is larger than the packet buffer size. Send it as a complex object instead.");
+		
+		BufferPool pool = protocol.getBufferPool();
+		byte[] frame = pool.acquire(HEADER_SIZE + length);
+		writeInt(frame, 0, length);
+		frame[4] = type;
+		frame[5] = flags;
+		writeInt(frame, 6, checksum);
+		return new PacketBuffer(frame, HEADER_SIZE + length, pool);
+	}
+	
+	/** Gets the size of the largest compact packet that can be received, which is larger than the buffer size by what
+	 * the session ciphers add.
+	 * @param protocol Instance of the protocol.
+	 * @return The size.
+	 */
+	public static int getMaxPacketSize(IProtocol protocol) {
+		return protocol.getConfig().PACKET_BUFFER_SIZE + CIPHER_OVERHEAD;
+	}
+	
+	/** Encrypts a compact packet with a session cipher into a new pooled buffer. Only the bytes after the header are 
+	 * encrypted, the header is authenticated with them.
+	 * @param protocol Instance of the protocol.
+	 * @param cipher The cipher.
+	 * @param frame The packet. It's left as it is.
+	 * @return The encrypted packet. Has to be released once it's written.
+	 * @throws GeneralSecurityException Thrown when the packet can't be encrypted.
+	 */
+	public static PacketBuffer encrypt(IProtocol protocol, ICipher cipher, PacketBuffer frame) throws GeneralSecurityException {
+		int length = frame.getLength() - HEADER_SIZE;
+		int size = length + cipher.getOverhead();
+		BufferPool pool = protocol.getBufferPool();
+		byte[] data = pool.acquire(HEADER_SIZE + size);
+		System.arraycopy(frame.getData(), 0, data, 0, HEADER_SIZE);
+		writeInt(data, 0, size);
+		try {
+			cipher.encrypt(ByteBuffer.wrap(data, 0, HEADER_SIZE), ByteBuffer.wrap(frame.getData(), HEADER_SIZE, length), ByteBuffer.wrap(data, HEADER_SIZE, size));
+		} catch (GeneralSecurityException e) {
+			pool.release(data);
+			throw e;
+		}
+		return new PacketBuffer(data, HEADER_SIZE + size, pool);
+	}
+	
+	/** Creates a compact packet whose bytes are sent as they are but authenticated with a session cipher, for control 
+	 * packets that have to be read before it's known which connection they belong to.
+	 * @param protocol Instance of the protocol.
+	 * @param cipher The cipher.
+	 * @param type The type of the packet.
+	 * @param payload The packet's bytes.
+	 * @return The packet. Has to be released once it's written.
+	 * @throws GeneralSecurityException Thrown when the packet can't be authenticated.
+	 */
+	public static PacketBuffer getAuthenticatedFrame(IProtocol protocol, ICipher cipher, byte type, byte[] payload) throws GeneralSecurityException {
+		PacketBuffer frame = createFrame(protocol, type, payload.length + cipher.getOverhead(), FLAG_NO_CHECKSUM, 0);
+		byte[] data = frame.getData();
+		System.arraycopy(payload, 0, data, HEADER_SIZE, payload.length);
+		try {
+			cipher.encrypt(ByteBuffer.wrap(data, 0, HEADER_SIZE + payload.length), ByteBuffer.allocate(0), ByteBuffer.wrap(data, HEADER_SIZE + payload.length, cipher.getOverhead()));
+		} catch (GeneralSecurityException e) {
+			frame.release();
+			throw e;
+		}
+		return frame;
+	}
+	
+	/** Checks a packet created by getAuthenticatedFrame.
+	 * @param cipher The cipher of the connection it claims to come from.
+	 * @param data The packet.
+	 * @param index The index of what the cipher added, after the packet's bytes.
+	 * @param length The size of the packet.
+	 * @return Whether it was authenticated by the other side and wasn't received before.
+	 */
+	public static boolean isAuthenticated(ICipher cipher, byte[] data, int index, int length) {
+		ByteBuffer buffer = ByteBuffer.wrap(data, index, length - index);
+		try {
+			cipher.decrypt(ByteBuffer.wrap(data, 0, index), buffer);
+			return !buffer.hasRemaining();
+		} catch (GeneralSecurityException e) {
+			return false;
+		}
+	}
+	
+	/** Gets the length of the object's bytes from a header and makes sure it's valid.
+	 * @param protocol Instance of the protocol.
+	 * @param header The header.
+	 * @return The length.
+	 * @throws StreamCorruptedException Thrown when the length can't be right.
+	 */
+	public static int getLength(IProtocol protocol, byte[] header) throws StreamCorruptedException {
+		int length = readInt(header, 0);
+		if (length < 0 || HEADER_SIZE + length > getMaxPacketSize(protocol))
+			throw new StreamCorruptedException("Invalid packet length: " + length);
+		return length;
+	}
+	
+	/** Checks whether a UDP packet is a compact packet. Packets in the original framing are always the size of the 
+	 * buffer and start with the checksum, so the length in the header never matches the size of the packet.
+	 * @param data The packet's data.
+	 * @param length The size of the packet.
+	 * @return Whether it is a compact packet.
+	 */
+	public static boolean isFrame(byte[] data, int length) {
+		return length >= HEADER_SIZE && readInt(data, 0) == length - HEADER_SIZE 
+				&& (data[4] == TYPE_OBJECT || data[4] == TYPE_COMPLEX || data[4] == TYPE_RELIABLE || data[4] == TYPE_ACK
+				|| data[4] == TYPE_SEQUENCED || data[4] == TYPE_CONTROL);
+	}
+	
+	/** Handles a compact packet. Decrypts it, checks the checksum and passes the object to the listener. Complex pieces
+	 * are passed on to the ComplexManager, stream packets to the StreamManager, reliable and sequenced packets to the
+	 * connection's UDP channels, control packets to ControlUtils and request packets to the RequestManager.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection it came from.
+	 * @param tcp Whether it was read over TCP, which decides the session cipher that decrypts it.
+	 * @param header The packet's header.
+	 * @param payload The array holding the object's bytes. It's decrypted in place and isn't kept once this returns
+	 * so it can be reused.
+	 * @param offset The index of the object's bytes in the array.
+	 * @param length The amount of bytes of the object.
+	 * @throws IOException Thrown when the object can't be read.
+	 * @throws ClassNotFoundException Thrown when the object's class isn't found.
+	 */
+	public static void handleFrame(IProtocol protocol, Connection con, boolean tcp, byte[] header, byte[] payload, int offset, int length) throws IOException, ClassNotFoundException {
+		ICipher cipher = tcp ? con.getTcpCipher() : con.getUdpCipher();
+		if (cipher != null) {
+			ByteBuffer buffer = ByteBuffer.wrap(payload, offset, length);
+			try {
+				cipher.decrypt(ByteBuffer.wrap(header, 0, HEADER_SIZE), buffer);
+			} catch (GeneralSecurityException e) {
+				if (tcp)
+					throw new IOException("A packet couldn't be decrypted.", e);
+				return; //Forged, changed or received before
+			}
+			offset = buffer.position();
+			length = buffer.remaining();
+		} else if (protocol.getEncryptionMethod() != null) {
+			payload = protocol.getEncryptionMethod().decrypt(Arrays.copyOfRange(payload, offset, offset + length));
+			offset = 0;
+			length = payload.length;
+		}
+		
+		int checksum = readInt(header, 6);
+		if (header[4] == TYPE_COMPLEX) {
+			if (length > ComplexPiece.MESSAGE_ID_SIZE && payload[offset] == ComplexPiece.NUMBERED_KEY) {
+				/** The message id is taken out so the rest reads like the pieces of older versions. Their checksum is CRC32C. */
+				byte[] objectArray = new byte[length - ComplexPiece.MESSAGE_ID_SIZE];
+				objectArray[0] = ComplexPiece.KEY;
+				System.arraycopy(payload, offset + 1 + ComplexPiece.MESSAGE_ID_SIZE, objectArray, 1, objectArray.length - 1);
+				PacketUtils.handleComplexPiece(checksum, readInt(payload, offset + 1), objectArray, con, header[5]);
+			} else {
+				String formatted = PacketUtils.formatChecksum(checksum & 0xFFFFFFFFL);
+				PacketUtils.handleComplexPiece(formatted, Arrays.copyOfRange(payload, offset, offset + length), con, header[5]);
+			}
+		} else if ((header[5] & FLAG_NO_CHECKSUM) == 0 && getChecksum(payload, offset, length, header[5]) != checksum) {
+			con.addPacketLoss();
+		} else if (header[4] == TYPE_STREAM) {
+			protocol.getStreamManager().handlePacket(protocol, con, header[5], payload, offset, length);
+		} else if (header[4] == TYPE_RELIABLE || header[4] == TYPE_ACK) {
+			con.getReliableChannel().handlePacket(protocol, header[4], header[5], payload, offset, length);
+		} else if (header[4] == TYPE_SEQUENCED) {
+			con.getSequencedChannels().handlePacket(protocol, header[5], payload, offset, length);
+		} else if (header[4] == TYPE_CONTROL) {
+			ControlUtils.handleControl(protocol, con, payload, offset, length);
+		} else if (header[4] == TYPE_REQUEST) {
+			protocol.getRequestManager().handlePacket(protocol, con, header[5], payload, offset, length);
+		} else {
+			PacketUtils.dispatch(protocol, con, decode(protocol, con, header[5], payload, offset, length));
+		}
+	}
+	
+	/** Decodes the object of a compact packet, decompressing it first if it's compressed.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection it came from.
+	 * @param flags The flags of the packet.
+	 * @param payload The array holding the object's bytes.
+	 * @param offset The index of the object's bytes in the array.
+	 * @param length The amount of bytes of the object.
+	 * @return The object.
+	 * @throws IOException Thrown when the object can't be read.
+	 * @throws ClassNotFoundException Thrown when the object's class isn't found.
+	 */
+	public static Object decode(IProtocol protocol, Connection con, byte flags, byte[] payload, int offset, int length) throws IOException, ClassNotFoundException {
+		if ((flags & FLAG_COMPRESSED) == 0)
+			return getCodec(con, flags).decode(protocol, payload, offset, length);
+		BufferPool pool = protocol.getBufferPool();
+		int size = getDecompressedSize(protocol, payload, offset, length);
+		byte[] data = pool.acquire(size);
+		try {
+			decompress(protocol, con, payload, offset, length, flags, data);
+			return getCodec(con, flags).decode(protocol, data, 0, size);
+		} finally {
+			pool.release(data);
+		}
+	}
+	
+	/** Gets the codec an object was encoded with.
+	 * @param con The connection it came from.
+	 * @param flags The flags of the packet.
+	 * @return The codec.
+	 */
+	public static Codec getCodec(Connection con, byte flags) {
+		return (flags & FLAG_CODEC) != 0 ? con.getCodec() : SerializationCodec.INSTANCE;
+	}
+	
+	/** Gets the flags of a packet holding an object encoded with a codec.
+	 * @param codec The codec.
+	 * @return The flags.
+	 */
+	public static byte getFlags(Codec codec) {
+		return codec.getId() != SerializationCodec.ID ? FLAG_CODEC : 0;
+	}
+	
+	/** Gets the flags allowing compact packets sent to a connection to be compressed.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection.
+	 * @return The flags.
+	 */
+	public static byte getCompressionFlags(IProtocol protocol, Connection con) {
+		if (protocol.getConfig().COMPRESSOR == null || !con.isCompressionSupported())
+			return 0;
+		return con.isDictionaryShared() ? (byte) (FLAG_COMPRESSED | FLAG_DICTIONARY) : FLAG_COMPRESSED;
+	}
+	
+	/** Gets the checksum flags of compact packets sent to a connection.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection.
+	 * @param tcp Whether the packet is sent over TCP.
+	 * @return The flags.
+	 */
+	public static byte getChecksumFlags(IProtocol protocol, Connection con, boolean tcp) {
+		if (!con.isChecksumFlagsSupported())
+			return 0;
+		if ((tcp ? con.getTcpCipher() : con.getUdpCipher()) != null)
+			return FLAG_NO_CHECKSUM; //The cipher's tag already makes sure it's intact
+		return tcp && !protocol.getConfig().TCP_CHECKSUM ? FLAG_NO_CHECKSUM : FLAG_CRC32C;
+	}
+	
+	/** Adds the handshake data after an object's bytes.
+	 * @param objectArray The object's bytes.
+	 * @param kind The kind of handshake.
+	 * @param flags The supported features.
+	 * @param codec The codec offered, or null to not offer one.
+	 * @param dictionary The compression dictionary, or null if there is none.
+	 * @param keys The key pair whose public key is sent for the session keys, or null to not send one.
+	 * @return The combined array.
+	 */
+	public static byte[] addHandshake(byte[] objectArray, byte kind, int flags, Codec codec, CompressionDictionary dictionary, KeyExchange keys) {
+		int codecSize = codec != null ? HANDSHAKE_CODEC_SIZE : 0;
+		byte[] publicKey = keys != null ? keys.getPublicKey() : null;
+		int sessionSize = publicKey != null ? publicKey.length + HANDSHAKE_SESSION_SIZE : 0;
+		byte[] ret = new byte[objectArray.length + sessionSize + HANDSHAKE_COMPRESSION_SIZE + codecSize + HANDSHAKE_SIZE];
+		System.arraycopy(objectArray, 0, ret, 0, objectArray.length);
+		int index = objectArray.length;
+		if (publicKey != null) { //Furthest from the end so older versions see it as part of the object
+			System.arraycopy(publicKey, 0, ret, index, publicKey.length);
+			index += publicKey.length;
+			ret[index] = keys.getSuite().getId();
+			ret[index + 1] = (byte) (publicKey.length >>> 8);
+			ret[index + 2] = (byte) publicKey.length;
+			flags |= HANDSHAKE_SESSION;
+			index += HANDSHAKE_SESSION_SIZE;
+		}
+		writeInt(ret, index, dictionary != null ? dictionary.getFingerprint() : 0);
+		flags |= HANDSHAKE_COMPRESSION;
+		index += HANDSHAKE_COMPRESSION_SIZE;
+		if (codec != null) {
+			ret[index] = codec.getId();
+			writeInt(ret, index + 1, codec.getFingerprint());
+			flags |= HANDSHAKE_CODEC;
+			index += HANDSHAKE_CODEC_SIZE;
+		}
+		ret[index] = kind;
+		ret[index + 1] = VERSION;
+		ret[index + 2] = (byte) (flags >>> 8);
+		ret[index + 3] = (byte) flags;
+		System.arraycopy(HANDSHAKE_MAGIC, 0, ret, ret.length - HANDSHAKE_MAGIC.length, HANDSHAKE_MAGIC.length);
+		return ret;
+	}
+	
+	/** Checks whether the handshake data was added after an object's bytes.
+	 * @param objectArray The object's bytes.
+	 * @return Whether it is a handshake.
+	 */
+	public static boolean isHandshake(byte[] objectArray) {
+		if (objectArray.length < HANDSHAKE_SIZE)
+			return false;
+		for (int i = 0; i < HANDSHAKE_MAGIC.length; i++) {
+			if (objectArray[objectArray.length - HANDSHAKE_MAGIC.length + i] != HANDSHAKE_MAGIC[i])
+				return false;
+		}
+		return true;
+	}
+	
+	/** Handles a handshake packet. The server offers the compact framing to every new connection, the client accepts it
+	 * if it's enabled in its configurations and the server acknowledges it. Each side switches its outgoing TCP packets 
+	 * right after sending its answer, and its incoming TCP packets right after receiving the other side's answer. The 
+	 * offer and the answer hold each side's codec, which is used once both sides know they have the same one. The 
+	 * checksum flags, compression, streams and reliable UDP are used the same way once both sides support them, and the compression 
+	 * dictionary once both sides have the same one. When both sides enabled session encryption, the offer and the answer
+	 * hold each side's public key and both give the connection the ciphers derived from them before their compact 
+	 * packets start. A side with a session secret closes connections that didn't agree on session keys. Once the server
+	 * acknowledged a client that reads control packets it sends the session token the client binds its UDP endpoint with.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection it came from.
+	 * @param objectArray The object's bytes, including the handshake data.
+	 */
+	public static void handleHandshake(IProtocol protocol, Connection con, byte[] objectArray) {
+		byte kind = objectArray[objectArray.length - HANDSHAKE_SIZE];
+		int flags = (objectArray[objectArray.length - HANDSHAKE_SIZE + 2] & 0xFF) << 8 | (objectArray[objectArray.length - HANDSHAKE_SIZE + 3] & 0xFF);
+		Codec codec = protocol.getCodec();
+		boolean sameCodec = false;
+		int index = objectArray.length - HANDSHAKE_SIZE;
+		if ((flags & HANDSHAKE_CODEC) != 0 && index >= HANDSHAKE_CODEC_SIZE) {
+			index -= HANDSHAKE_CODEC_SIZE;
+			sameCodec = codec.getId() != SerializationCodec.ID && objectArray[index] == codec.getId() 
+					&& readInt(objectArray, index + 1) == codec.getFingerprint();
+		}
+		boolean compression = (flags & HANDSHAKE_COMPRESSION) != 0 && index >= HANDSHAKE_COMPRESSION_SIZE;
+		CompressionDictionary dictionary = protocol.getConfig().COMPRESSION_DICTIONARY;
+		boolean sameDictionary = compression && dictionary != null 
+				&& readInt(objectArray, index - HANDSHAKE_COMPRESSION_SIZE) == dictionary.getFingerprint();
+		if (compression)
+			index -= HANDSHAKE_COMPRESSION_SIZE;
+		byte[] otherKey = null;
+		CipherSuite suite = null;
+		if ((flags & HANDSHAKE_SESSION) != 0 && index >= HANDSHAKE_SESSION_SIZE) {
+			int keyLength = (objectArray[index - 2] & 0xFF) << 8 | (objectArray[index - 1] & 0xFF);
+			if (index - HANDSHAKE_SESSION_SIZE >= keyLength) {
+				suite = CipherSuite.getSuite(objectArray[index - HANDSHAKE_SESSION_SIZE]);
+				otherKey = Arrays.copyOfRange(objectArray, index - HANDSHAKE_SESSION_SIZE - keyLength, index - HANDSHAKE_SESSION_SIZE);
+			}
+		}
+		if (!sameCodec && codec.getId() != SerializationCodec.ID && kind != HANDSHAKE_ACK)
+			System.out.println("The other side doesn't have the same codec. Using Java serialization instead.");
+		boolean checksumFlags = (flags & HANDSHAKE_CHECKSUM) != 0;
+		boolean streams = (flags & HANDSHAKE_STREAM) != 0;
+		boolean reliable = (flags & HANDSHAKE_RELIABLE) != 0;
+		boolean sequenced = (flags & HANDSHAKE_SEQUENCED) != 0;
+		boolean parity = (flags & HANDSHAKE_PARITY) != 0;
+		boolean control = (flags & HANDSHAKE_CONTROL) != 0;
+		boolean heartbeats = (flags & HANDSHAKE_HEARTBEAT) != 0;
+		boolean requests = (flags & HANDSHAKE_REQUEST) != 0;
+		boolean complexIds = (flags & HANDSHAKE_COMPLEX_ID) != 0;
+		if (kind == HANDSHAKE_OFFER) {
+			if (protocol.getConfig().COMPACT_FRAMING && (flags & HANDSHAKE_COMPACT) != 0) {
+				if (sameCodec)
+					con.setCodec(protocol.getCodec());
+				con.setChecksumFlagsSupported(checksumFlags);
+				con.setCompressionSupported(compression, sameDictionary);
+				con.setStreamSupported(streams);
+				con.setReliableUdpSupported(reliable);
+				con.setSequencedUdpSupported(sequenced);
+				con.setParitySupported(parity);
+				con.setControlSupported(control);
+				con.setHeartbeatSupported(heartbeats);
+				con.setRequestSupported(requests);
+				con.setComplexIdSupported(complexIds);
+				if (otherKey != null && suite != null && isSessionEnabled(protocol)) {
+					try {
+						KeyExchange keys = new KeyExchange(suite.orAvailable());
+						keys.apply(con, otherKey, false, protocol.getConfig().SESSION_SECRET);
+						con.setKeyExchange(keys);
+					} catch (GeneralSecurityException e) {
+						closeInsecure(protocol, con, "The session keys couldn't be derived: " + e.getMessage());
+						return;
+					}
+				} else if (!checkUnencrypted(protocol, con)) {
+					return;
+				}
+				con.sendHandshake("ConnectedToServer", HANDSHAKE_ACCEPT, true);
+				con.setKeyExchange(null);
+			} else if (!checkUnencrypted(protocol, con)) {
+				return;
+			}
+		} else if (kind == HANDSHAKE_ACCEPT) {
+			KeyExchange keys = con.getKeyExchange();
+			con.setKeyExchange(null);
+			if (keys != null && otherKey != null && suite == keys.getSuite()) {
+				try {
+					keys.apply(con, otherKey, true, protocol.getConfig().SESSION_SECRET);
+				} catch (GeneralSecurityException e) {
+					closeInsecure(protocol, con, "The session keys couldn't be derived: " + e.getMessage());
+					return;
+				}
+			} else if (!checkUnencrypted(protocol, con)) {
+				return;
+			}
+			if (sameCodec)
+				con.setCodec(protocol.getCodec());
+			con.setChecksumFlagsSupported(checksumFlags);
+			con.setCompressionSupported(compression, sameDictionary);
+			con.setStreamSupported(streams);
+			con.setReliableUdpSupported(reliable);
+			con.setSequencedUdpSupported(sequenced);
+			con.setParitySupported(parity);
+			con.setHeartbeatSupported(heartbeats);
+			con.setRequestSupported(requests);
+			con.setComplexIdSupported(complexIds);
+			con.sendHandshake("TestAlivePing", HANDSHAKE_ACK, true);
+			con.setCompactTcpIn(true);
+			con.setCompactUdp(true);
+			if (control) {
+				con.setControlSupported(true);
+				ControlUtils.sendToken(protocol, con);
+			}
+		} else if (kind == HANDSHAKE_ACK) {
+			con.setCompactTcpIn(true);
+			con.setCompactUdp(true);
+		}
+	}
+	
+	/** Checks whether session encryption can be used by a side, which needs it to be enabled and no encryption method
+	 * to be set since the encryption method is kept for older versions.
+	 * @param protocol Instance of the protocol.
+	 * @return Whether it can be used.
+	 */
+	public static boolean isSessionEnabled(IProtocol protocol) {
+		return protocol.getConfig().SESSION_ENCRYPTION && protocol.getEncryptionMethod() == null;
+	}
+	
+	/** Called when a connection didn't agree on session keys. Closes it if this side has a session secret, since it 
+	 * refuses unencrypted connections, and otherwise lets it go on unencrypted.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection.
+	 * @return Whether the connection goes on.
+	 */
+	private static boolean checkUnencrypted(IProtocol protocol, Connection con) {
+		if (protocol.getConfig().SESSION_SECRET != null) {
+			closeInsecure(protocol, con, "The other side didn't agree on session keys.");
+			return false;
+		}
+		if (isSessionEnabled(protocol))
+			System.out.println("The other side didn't agree on session keys. Packets aren't encrypted.");
+		return true;
+	}
+	
+	/** Closes a connection that can't be encrypted.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection.
+	 * @param message Why it's closed.
+	 */
+	private static void closeInsecure(IProtocol protocol, Connection con, String message) {
+		System.out.println(message + " Closing the connection.");
+		protocol.getConnectionManager().close(con); //The read thread reports the disconnect
+	}
+	
+	/** Writes an integer into an array.
+	 * @param dest The array.
+	 * @param index The index to write to.
+	 * @param value The integer.
+	 */
+	public static void writeInt(byte[] dest, int index, int value) {
+		dest[index] = (byte) (value >>> 24);
+		dest[index + 1] = (byte) (value >>> 16);
+		dest[index + 2] = (byte) (value >>> 8);
+		dest[index + 3] = (byte) value;
+	}
+	
+	/** Reads an integer from an array.
+	 * @param src The array.
+	 * @param index The index to read from.
+	 * @return The integer.
+	 */
+	public static int readInt(byte[] src, int index) {
+		return src[index] << 24 | (src[index + 1] & 0xFF) << 16 | (src[index + 2] & 0xFF) << 8 | (src[index + 3] & 0xFF);
+	}
+	
+	/** Writes a long into an array.
+	 * @param dest The array.
+	 * @param index The index to write to.
+	 * @param value The long.
+	 */
+	public static void writeLong(byte[] dest, int index, long value) {
+		writeInt(dest, index, (int) (value >>> 32));
+		writeInt(dest, index + 4, (int) value);
+	}
+	
+	/** Reads a long from an array.
+	 * @param src The array.
+	 * @param index The index to read from.
+	 * @return The long.
+	 */
+	public static long readLong(byte[] src, int index) {
+		return (long) readInt(src, index) << 32 | (readInt(src, index + 4) & 0xFFFFFFFFL);
+	}
+	
+}
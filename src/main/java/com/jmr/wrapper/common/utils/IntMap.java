@@ -0,0 +1,200 @@
+package com.jmr.wrapper.common.utils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Networking Library
+ * IntMap.java
+ * Purpose: Maps int keys to values without boxing the keys, for lookups that happen on every packet like finding a
+ * connection by its id. Keys are kept in an open addressing table that is read without locking. Changes are made while
+ * holding a lock, and once the table is too full a new one is built and swapped in, so readers always see a whole table.
+ * Removed keys keep their slot, with no value, until the table is rebuilt.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class IntMap<V> {
+	
+	/** The key of free slots. It can't be used as a key. */
+	private static final int FREE = 0;
+	
+	/** Held while changing the map. */
+	private final ReentrantLock lock = new ReentrantLock();
+	
+	/** The current table. */
+	private volatile Table<V> table = new Table<V>(16);
+	
+	/** The amount of keys with a value. */
+	private volatile int size = 0;
+	
+	/** Gets the value of a key.
+	 * @param key The key.
+	 * @return The value, or null if the key has none.
+	 */
+	public V get(int key) {
+		Table<V> table = this.table;
+		int mask = table.keys.length() - 1;
+		for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+			int k = table.keys.get(i);
+			if (k == key)
+				return table.values.get(i);
+			if (k == FREE)
+				return null;
+		}
+	}
+	
+	/** Sets the value of a key.
+	 * @param key The key, not 0.
+	 * @param value The value, not null.
+	 * @return The previous value, or null if the key had none.
+	 */
+	public V put(int key, V value) {
+		if (key == FREE)
+			throw new IllegalArgumentException("The key can't be " + FREE + ".");
+		if (value == null)
+			throw new NullPointerException("The value can't be null.");
+		lock.lock();
+		try {
+			Table<V> table = this.table;
+			int mask = table.keys.length() - 1;
+			int i = hash(key) & mask;
+			while (table.keys.get(i) != key && table.keys.get(i) != FREE)
+				i = (i + 1) & mask;
+			if (table.keys.get(i) == FREE) {
+				if ((table.used + 1) * 4 > table.keys.length() * 3) { //Rebuilt above three quarters full
+					this.table = table = rebuild(table, size + 1);
+					mask = table.keys.length() - 1;
+					i = hash(key) & mask;
+					while (table.keys.get(i) != FREE)
+						i = (i + 1) & mask;
+				}
+				table.used++;
+				table.keys.set(i, key); //Set before the value so a reader finding the value always found its key
+			}
+			V previous = table.values.getAndSet(i, value);
+			if (previous == null)
+				size++;
+			return previous;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Removes the value of a key.
+	 * @param key The key.
+	 * @param value The value, only removed if the key still has it.
+	 * @return Whether it was removed.
+	 */
+	public boolean remove(int key, V value) {
+		lock.lock();
+		try {
+			Table<V> table = this.table;
+			int mask = table.keys.length() - 1;
+			for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+				int k = table.keys.get(i);
+				if (k == FREE)
+					return false;
+				if (k == key) {
+					if (!table.values.compareAndSet(i, value, null))
+						return false;
+					size--;
+					return true;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** Adds every value to a list. Values put or removed while copying may or may not be in it.
+	 * @param list The list.
+	 * @return The list.
+	 */
+	public List<V> copyValues(List<V> list) {
+		Table<V> table = this.table;
+		for (int i = 0; i < table.values.length(); i++) {
+			V value = table.values.get(i);
+			if (value != null)
+				list.add(value);
+		}
+		return list;
+	}
+	
+	/** Removes every value. */
+	public void clear() {
+		lock.lock();
+		try {
+			table = new Table<V>(16);
+			size = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/** @return The amount of keys with a value. */
+	public int size() {
+		return size;
+	}
+	
+	/** Builds a table with the values of another, leaving out removed keys.
+	 * @param old The table.
+	 * @param size The amount of values the new table has to hold.
+	 * @return The new table.
+	 */
+	private static <V> Table<V> rebuild(Table<V> old, int size) {
+		int capacity = 16;
+		while (capacity * 3 < size * 8) //At most three eighths full so it isn't rebuilt again soon
+			capacity <<= 1;
+		Table<V> table = new Table<V>(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < old.keys.length(); j++) {
+			V value = old.values.get(j);
+			if (value == null)
+				continue;
+			int key = old.keys.get(j);
+			int i = hash(key) & mask;
+			while (table.keys.get(i) != FREE)
+				i = (i + 1) & mask;
+			table.keys.set(i, key);
+			table.values.set(i, value);
+			table.used++;
+		}
+		return table;
+	}
+	
+	/** Spreads the bits of a key, since keys like ids that count up would otherwise fill neighbouring slots.
+	 * @param key The key.
+	 * @return The hash.
+	 */
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	/** The slots of the map. */
+	private static class Table<V> {
+		
+		/** The keys of the slots. */
+		private final AtomicIntegerArray keys;
+		
+		/** The values of the slots, null if the key was removed. */
+		private final AtomicReferenceArray<V> values;
+		
+		/** The amount of slots with a key. Only used while holding the lock. */
+		private int used = 0;
+		
+		/** Creates a table.
+		 * @param capacity The amount of slots, a power of 2.
+		 */
+		private Table(int capacity) {
+			keys = new AtomicIntegerArray(capacity);
+			values = new AtomicReferenceArray<V>(capacity);
+		}
+	
+	}
+	
+}
@@ -1,13 +1,22 @@
 package com.jmr.wrapper.common.utils;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 import com.jmr.wrapper.common.Connection;
 import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.buffer.BufferPool;
+import com.jmr.wrapper.common.buffer.PacketBuffer;
 import com.jmr.wrapper.common.complex.ComplexManager;
+import com.jmr.wrapper.common.complex.ComplexPiece;
 import com.jmr.wrapper.common.complex.ReceivedComplexPiece;
+import com.jmr.wrapper.server.threads.ReceivedThread;
 
 public class PacketUtils {
 
@@ -74,7 +83,16 @@ public class PacketUtils {
 	 * @return The shortened byte array.
 	 */
 	public static int findSizeOfObject(byte[] data) {
-		int i = data.length - 1;
+		return findSizeOfObject(data, data.length);
+	}
+	
+	/** Finds the size of the object's bytes at the start of an array by removing any trailing zeroes.
+	 * @param data The array holding the object's bytes.
+	 * @param length The amount of bytes in the array that are used.
+	 * @return The size.
+	 */
+	public static int findSizeOfObject(byte[] data, int length) {
+		int i = length - 1;
 	    while (i >= 0 && data[i] == 0)
 	    {
 	        --i;
@@ -88,10 +106,20 @@ public class PacketUtils {
 	 * @return The object in a byte array.
 	 */
 	public static byte[] getObjectFromPacket(byte[] data) {
+		return getObjectFromPacket(data, data.length);
+	}
+	
+	/** Takes the bytes of an object's byte array, doesn't include the checksum bytes, finds
+	 *  the size of the object, and returns the object in an array of bytes.
+	 * @param data The array holding the packet.
+	 * @param length The size of the packet.
+	 * @return The object in a byte array.
+	 */
+	public static byte[] getObjectFromPacket(byte[] data, int length) {
 		int index = 0;
 		try {
 			/** Find the size of the data. Gets rid of all extra null values. */
-			index = findSizeOfObject(data);		
+			index = findSizeOfObject(data, length);		
 			
 			//if (index > 10) {
 				/** Create the byte array to store the object. Size is the size of the data array minus the size of the checksum. */
@@ -132,15 +160,84 @@ public class PacketUtils {
 	 * @return The checksum.
 	 */
 	public static String getChecksumOfObject(byte[] data) {
+		return formatChecksum(getChecksumValue(data));
+	}
+	
+	/** Takes the byte array of an object and calculates its checksum value.
+	 * @param data The object's byte array.
+	 * @return The checksum value.
+	 */
+	public static long getChecksumValue(byte[] data) {
+		return getChecksumValue(data, 0, data.length);
+	}
+	
+	/** Calculates the checksum value of part of an array.
+	 * @param data The array.
+	 * @param offset The index to start at.
+	 * @param length The amount of bytes.
+	 * @return The checksum value.
+	 */
+	public static long getChecksumValue(byte[] data, int offset, int length) {
 		Checksum checksum = new CRC32();
-		checksum.update(data, 0, data.length);
-		String val = String.valueOf(checksum.getValue());
+		checksum.update(data, offset, length);
+		return checksum.getValue();
+	}
+	
+	/** Calculates the checksum value of the bytes left in a buffer, such as a memory-mapped file, without copying them.
+	 * @param buffer The buffer. Its position is moved to its limit.
+	 * @return The checksum value.
+	 */
+	public static long getChecksumValue(ByteBuffer buffer) {
+		CRC32 checksum = new CRC32();
+		checksum.update(buffer);
+		return checksum.getValue();
+	}
+	
+	/** Checks whether the 10 character checksum in front of a packet is the one of the object's bytes, without creating
+	 * strings.
+	 * @param packet The packet.
+	 * @param objectArray The object's bytes.
+	 * @return Whether they match.
+	 */
+	public static boolean isChecksumValid(byte[] packet, byte[] objectArray) {
+		byte[] expected = new byte[10];
+		writeChecksum(expected, 0, getChecksumValue(objectArray));
+		for (int i = 0; i < expected.length; i++) {
+			if (packet[i] != expected[i])
+				return false;
+		}
+		return true;
+	}
+	
+	/** Converts a checksum value to the 10 character string sent in front of packets.
+	 * @param value The checksum value.
+	 * @return The checksum.
+	 */
+	public static String formatChecksum(long value) {
+		String val = String.valueOf(value);
 		while (val.length() < 10) {
 			val += "0";
 		}
 		return val;
 	}
 	
+	/** Writes the 10 character checksum sent in front of packets into an array without creating a string.
+	 * @param dest The array.
+	 * @param index The index to write to.
+	 * @param value The checksum value.
+	 */
+	public static void writeChecksum(byte[] dest, int index, long value) {
+		int digits = 1;
+		for (long i = value; i >= 10; i /= 10)
+			digits++;
+		for (int i = digits; i < 10; i++)
+			dest[index + i] = '0';
+		for (int i = digits - 1; i >= 0; i--) {
+			dest[index + i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+	
 	/** Gets the byte array of the object, the checksum of the object, and combines them into
 	 * an array of bytes. The first 10 bytes are the checksum and the remaining bytes are the
 	 * object.
@@ -149,28 +246,59 @@ public class PacketUtils {
 	 * @return The byte array with the size of it being Config.PACKET_BUFFER_SIZE
 	 */
 	public static byte[] getByteArray(IProtocol protocol, ByteArrayOutputStream stream) {
-		byte[] array = stream.toByteArray();
-		
-		if (array[array.length - 1] == 0) {
-			byte[] temp = new byte[array.length + 1];
-			for (int i = 0; i < array.length; i++)
-				temp[i] = array[i];
-			temp[temp.length - 1] = (byte)-995;
-			array = temp;
+		return getByteArray(protocol, stream.toByteArray());
+	}
+	
+	/** Gets the checksum of the object's byte array and combines them into an array of bytes. The first 10 bytes are
+	 * the checksum and the remaining bytes are the object.
+	 * @param protocol Instance of the protocol.
+	 * @param array The object's byte array.
+	 * @return The byte array with the size of it being Config.PACKET_BUFFER_SIZE
+	 */
+	public static byte[] getByteArray(IProtocol protocol, byte[] array) {
+		PacketBuffer packet = getPacket(protocol, array, array.length);
+		try {
+			return packet.toByteArray();
+		} finally {
+			packet.release();
 		}
+	}
+	
+	/** Creates a packet in the original framing in a pooled buffer. The first 10 bytes are the checksum, then the object's
+	 * bytes and the rest of the packet is zeroes. Only encrypted packets aren't pooled since the encryptor creates the
+	 * array.
+	 * @param protocol Instance of the protocol.
+	 * @param array The array holding the object's bytes.
+	 * @param length The amount of bytes of the object.
+	 * @return The packet with the size of it being Config.PACKET_BUFFER_SIZE. Has to be released once it's written.
+	 */
+	public static PacketBuffer getPacket(IProtocol protocol, byte[] array, int length) {
+		int size = protocol.getConfig().PACKET_BUFFER_SIZE;
+		boolean marker = array[length - 1] == 0; //A byte is added so the trailing zeroes aren't seen as padding
+		int objectLength = marker ? length + 1 : length;
+		if (10 + objectLength > size)
+			throw new IllegalArgumentException("The object is larger than the packet buffer size. Send it as a complex object instead.");
 		
-		byte[] checksumBytes = getChecksumOfObject(array).getBytes();
-		
-		byte[] concat = new byte[protocol.getConfig().PACKET_BUFFER_SIZE];
+		Checksum checksum = new CRC32();
+		checksum.update(array, 0, length);
+		if (marker)
+			checksum.update((byte) -995);
 		
-		System.arraycopy(checksumBytes, 0, concat, 0, checksumBytes.length);
-		System.arraycopy(array, 0, concat, checksumBytes.length, array.length);
+		BufferPool pool = protocol.getEncryptionMethod() == null ? protocol.getBufferPool() : null;
+		byte[] concat = pool != null ? pool.acquire(size) : new byte[size];
+		writeChecksum(concat, 0, checksum.getValue());
+		System.arraycopy(array, 0, concat, 10, length);
+		if (marker)
+			concat[10 + length] = (byte) -995;
+		if (pool != null)
+			Arrays.fill(concat, 10 + objectLength, size, (byte) 0);
 		
 		if (protocol.getEncryptionMethod() != null) {
 			concat = protocol.getEncryptionMethod().encrypt(concat);
+			return new PacketBuffer(concat, concat.length, null);
 		}
 		
-		return concat;
+		return new PacketBuffer(concat, size, pool);
 	}
 	
 	/** Gets the byte array of the object, the checksum of the object, and combines them into
@@ -185,11 +313,30 @@ public class PacketUtils {
 	}
 	
 	public static byte[] getCompressedByteArray(IProtocol protocol, byte[] array) {
-		byte[] checksumBytes = getChecksumOfObject(array).getBytes();
-		byte[] concat = new byte[checksumBytes.length + array.length];
-		
-		System.arraycopy(checksumBytes, 0, concat, 0, checksumBytes.length);
-		System.arraycopy(array, 0, concat, checksumBytes.length, array.length);
+		return getCompressedByteArray(protocol, array, array.length);
+	}
+	
+	/** Puts the checksum of the object's bytes in front of them.
+	 * @param protocol Instance of the protocol.
+	 * @param array The array holding the object's bytes.
+	 * @param length The amount of bytes of the object.
+	 * @return The byte array with the size of it being the byte length of the object and checksum.
+	 */
+	public static byte[] getCompressedByteArray(IProtocol protocol, byte[] array, int length) {
+		return getCompressedByteArray(protocol, array, length, getChecksumValue(array, 0, length));
+	}
+	
+	/** Puts a checksum that was already calculated in front of the object's bytes.
+	 * @param protocol Instance of the protocol.
+	 * @param array The array holding the object's bytes.
+	 * @param length The amount of bytes of the object.
+	 * @param checksum The checksum value of the object's bytes.
+	 * @return The byte array with the size of it being the byte length of the object and checksum.
+	 */
+	public static byte[] getCompressedByteArray(IProtocol protocol, byte[] array, int length, long checksum) {
+		byte[] concat = new byte[10 + length];
+		writeChecksum(concat, 0, checksum);
+		System.arraycopy(array, 0, concat, 10, length);
 		
 		if (protocol.getEncryptionMethod() != null) {
 			concat = protocol.getEncryptionMethod().encrypt(concat);
@@ -205,14 +352,144 @@ public class PacketUtils {
 	 * @param con The connection it came from
 	 */
 	public static void handleComplexPiece(String checksumSent, byte[] objectArray, Connection con) {
+		handleComplexPiece(checksumSent, objectArray, con, (byte) 0);
+	}
+	
+	/** Handles an incoming complex piece by getting its information and passing it on.
+	 * 
+	 * @param checksumSent The checksum to check against
+	 * @param objectArray The array of data
+	 * @param con The connection it came from
+	 * @param flags The flags of the compact packet, saying which codec the object was encoded with
+	 */
+	public static void handleComplexPiece(String checksumSent, byte[] objectArray, Connection con, byte flags) {
+		handleComplexPiece(checksumSent, 0, ReceivedComplexPiece.NO_MESSAGE_ID, objectArray, con, flags);
+	}
+	
+	/** Handles an incoming complex piece that carries the id of its complex object.
+	 * 
+	 * @param checksum The CRC32C checksum value to check against
+	 * @param messageId The id of the complex object
+	 * @param objectArray The array of data, without the id of the complex object
+	 * @param con The connection it came from
+	 * @param flags The flags of the compact packet, saying which codec the object was encoded with
+	 */
+	public static void handleComplexPiece(int checksum, int messageId, byte[] objectArray, Connection con, byte flags) {
+		handleComplexPiece(null, checksum, messageId, objectArray, con, flags);
+	}
+	
+	/** Handles an incoming complex piece by getting its information and passing it on.
+	 * 
+	 * @param checksumSent The checksum to check against, or null if the piece has an id
+	 * @param checksum The CRC32C checksum value to check against if the piece has an id
+	 * @param messageId The id of the complex object, or ReceivedComplexPiece.NO_MESSAGE_ID if the piece has none
+	 * @param objectArray The array of data, without the id of the complex object
+	 * @param con The connection it came from
+	 * @param flags The flags of the compact packet, saying which codec the object was encoded with
+	 */
+	private static void handleComplexPiece(String checksumSent, int checksum, int messageId, byte[] objectArray, Connection con, byte flags) {
+		if ((flags & FrameUtils.FLAG_PARITY) != 0) {
+			handleParityPiece(checksumSent, checksum, messageId, objectArray, con, flags);
+			return;
+		}
 		int id = getIdFromComplex(objectArray);
 		int dataSize = getSizeFromComplex(objectArray);
 		if (id == 0) 
 			dataSize -= 10; //Removed 10 bytes which are used for the checksum in the front
 		int pieceAmount = getPieceAmountFromComplex(objectArray);
 		objectArray = getObjectFromComplex(objectArray);
-		ReceivedComplexPiece piece = new ReceivedComplexPiece(checksumSent, id, pieceAmount, objectArray, dataSize);
-		ComplexManager.getInstance().handlePiece(piece, con);
+		ReceivedComplexPiece piece = new ReceivedComplexPiece(checksumSent, checksum, messageId, id, pieceAmount, objectArray, dataSize, flags);
+		con.getProtocol().getComplexManager().handlePiece(piece, con);
+	}
+	
+	/** Handles an incoming parity piece, which has the parity header between the piece header and the parity.
+	 * @param checksumSent The checksum of the complex object, or null if the piece has an id.
+	 * @param checksum The CRC32C checksum value of the complex object if the piece has an id.
+	 * @param messageId The id of the complex object, or ReceivedComplexPiece.NO_MESSAGE_ID if the piece has none.
+	 * @param objectArray The array of data.
+	 * @param con The connection it came from.
+	 * @param flags The flags of the compact packet.
+	 */
+	private static void handleParityPiece(String checksumSent, int checksum, int messageId, byte[] objectArray, Connection con, byte flags) {
+		int header = 1 + 4 + 4 + 4 + ComplexPiece.PARITY_HEADER_SIZE;
+		int length = objectArray.length >= header ? FrameUtils.readInt(objectArray, 9) : -1;
+		if (length < 0 || objectArray.length != header + length) {
+			System.out.println("Received an invalid complex piece.");
+			return;
+		}
+		ReceivedComplexPiece piece = new ReceivedComplexPiece(checksumSent, checksum, messageId, FrameUtils.readInt(objectArray, 1), FrameUtils.readInt(objectArray, 5), 
+				Arrays.copyOfRange(objectArray, header, objectArray.length), flags, objectArray[13] & 0xFF, objectArray[14] & 0xFF, 
+				objectArray[15] & 0xFF, FrameUtils.readInt(objectArray, 16));
+		con.getProtocol().getComplexManager().handlePiece(piece, con);
+	}
+	
+	/** Handles a packet in the original framing read from a connection's TCP stream. Decrypts it, checks the checksum
+	 * and passes the object to the listener. Complex pieces are passed on to the ComplexManager and handshakes are 
+	 * answered.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection it came from.
+	 * @param data The packet that was read.
+	 * @throws IOException Thrown when the object can't be read.
+	 * @throws ClassNotFoundException Thrown when the object's class isn't found.
+	 */
+	public static void handleTcpPacket(IProtocol protocol, Connection con, byte[] data) throws IOException, ClassNotFoundException {
+		handleTcpPacket(protocol, con, data, data.length);
+	}
+	
+	/** Handles a packet in the original framing that was read into a reused buffer.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection it came from.
+	 * @param data The buffer holding the packet. It isn't kept once this returns.
+	 * @param length The size of the packet.
+	 * @throws IOException Thrown when the object can't be read.
+	 * @throws ClassNotFoundException Thrown when the object's class isn't found.
+	 */
+	public static void handleTcpPacket(IProtocol protocol, Connection con, byte[] data, int length) throws IOException, ClassNotFoundException {
+		/** Decrypt the data if the encryptor is set. */
+		if (protocol.getEncryptionMethod() != null) {
+			data = protocol.getEncryptionMethod().decrypt(Arrays.copyOf(data, length));
+			length = data.length;
+		}
+		
+		/** Return the object in bytes from the sent packet. */
+		byte[] objectArray = getObjectFromPacket(data, length);
+		if (objectArray != null) {
+			
+			if (objectArray[0] == 99) { //Complex object
+				handleComplexPiece(getChecksumFromPacket(data), objectArray, con);
+			} else {
+				
+				/** Get the object from the bytes. */
+				ByteArrayInputStream objIn = new ByteArrayInputStream(objectArray);
+				ObjectInputStream is = new ObjectInputStream(objIn);
+				Object object = is.readObject();
+				is.close();
+				objIn.close();
+				
+				/** Check if the checksums are equal. If they aren't it means the packet was edited or didn't send completely. */
+				if (isChecksumValid(data, objectArray)) {
+					if (object instanceof String && FrameUtils.isHandshake(objectArray))
+						FrameUtils.handleHandshake(protocol, con, objectArray);
+					else
+						dispatch(protocol, con, object);
+				} else {
+					con.addPacketLoss();
+				}
+			}
+		}
+	}
+	
+	/** Passes a received object to the listener. The strings used to connect and ping are not passed on.
+	 * @param protocol Instance of the protocol.
+	 * @param con The connection it came from.
+	 * @param object The object.
+	 */
+	public static void dispatch(IProtocol protocol, Connection con, Object object) {
+		if (object == null)
+			return;
+		if (object instanceof String && (((String) object).equalsIgnoreCase("ConnectedToServer") || ((String) object).equalsIgnoreCase("TestAlivePing")))
+			return;
+		protocol.getDispatcher().dispatch(con, new ReceivedThread(protocol.getListener(), con, object));
 	}
 	
 	/** Converts and integer to a 4 byte long array.
@@ -228,11 +505,15 @@ public class PacketUtils {
 	            (byte)value};
 	}
 	
+	/** Calculates the amount of pieces needed so every piece fits in a packet.
+	 * @param dataSize The size of the complex object's bytes.
+	 * @param extraDataPerPacketSize The bytes put in front of every piece.
+	 * @param maxPacketSize The size of a packet.
+	 * @return The amount of pieces.
+	 */
 	public static int calculateSplitAmount(int dataSize, int extraDataPerPacketSize, int maxPacketSize) {
-		int initialCount = (dataSize / maxPacketSize) + 1;
-		int perPacket = dataSize / initialCount;
-		int totalDataWithExtra = initialCount * (perPacket + extraDataPerPacketSize); //gets the total data size
-		return (totalDataWithExtra / maxPacketSize) + 1;
+		int perPacket = maxPacketSize - extraDataPerPacketSize;
+		return Math.max(1, (dataSize + perPacket - 1) / perPacket);
 	}
 	
 	/** Converts a 4 byte long array to an integer.
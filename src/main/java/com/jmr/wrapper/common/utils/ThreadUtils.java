@@ -0,0 +1,117 @@
+package com.jmr.wrapper.common.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.config.Config;
+
+/**
+ * Networking Library
+ * ThreadUtils.java
+ * Purpose: Creates the executors used by the server and client to run their threads. When virtual threads are enabled
+ * and the JVM supports them (Java 21 and newer) every thread runs on its own virtual thread, otherwise the usual cached 
+ * thread pool is used. The virtual thread executor is looked up at runtime so the library still builds for Java 8. Also 
+ * creates the timer wheels that run the timeouts of a server or client, and hands the delayed tasks they time over to
+ * the executor.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class ThreadUtils {
+
+	/** The method telling whether a thread is virtual, or null if the JVM doesn't have virtual threads. */
+	private static final Method IS_VIRTUAL = getIsVirtualMethod();
+	
+	/** The length of a tick of the timer wheels in milliseconds, short enough for pacing UDP packets and delayed flushes. */
+	private static final long TIMER_WHEEL_TICK = 1;
+	
+	/** The amount of buckets of the timer wheels, a turn of about a second. */
+	private static final int TIMER_WHEEL_BUCKETS = 1024;
+
+	/** Creates the executor for all threads.
+	 * @param config The configuration settings.
+	 * @return The executor.
+	 */
+	public static ExecutorService createExecutor(Config config) {
+		if (config.VIRTUAL_THREADS) {
+			ExecutorService executor = createVirtualThreadExecutor();
+			if (executor != null)
+				return executor;
+			System.out.println("Virtual threads aren't supported by this JVM. Using a cached thread pool instead.");
+		}
+		return Executors.newCachedThreadPool();
+	}
+	
+	/** Runs a task on the protocol's executor once the delay has passed. The delay is timed by the protocol's timer wheel
+	 * and rounded up to its tick. The wheel's thread only hands the task over, so the task is free to block.
+	 * @param protocol The protocol whose executor runs the task.
+	 * @param task The task.
+	 * @param delay The delay in milliseconds.
+	 */
+	public static void schedule(final IProtocol protocol, final Runnable task, long delay) {
+		protocol.getTimerWheel().schedule(new Runnable() {
+			@Override
+			public void run() {
+				protocol.executeThread(task);
+			}
+		}, delay);
+	}
+	
+	/** Creates the timer wheel of a server or client. Its thread starts the first time a timeout is added.
+	 * @return The timer wheel.
+	 */
+	public static TimerWheel createTimerWheel() {
+		return new TimerWheel("NitroNet Timer Wheel", TIMER_WHEEL_TICK, TIMER_WHEEL_BUCKETS);
+	}
+	
+	/** @return Whether the JVM supports virtual threads. */
+	public static boolean isVirtualThreadSupported() {
+		return getVirtualThreadMethod() != null;
+	}
+	
+	/** @return Whether the current thread is a virtual thread. */
+	public static boolean isVirtualThread() {
+		if (IS_VIRTUAL == null)
+			return false;
+		try {
+			return (Boolean) IS_VIRTUAL.invoke(Thread.currentThread());
+		} catch (ReflectiveOperationException e) {
+			return false;
+		}
+	}
+	
+	/** @return An executor that starts a new virtual thread for every task, or null if they aren't supported. */
+	private static ExecutorService createVirtualThreadExecutor() {
+		Method method = getVirtualThreadMethod();
+		if (method == null)
+			return null;
+		try {
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/** @return The method creating the virtual thread executor, or null if it doesn't exist. */
+	private static Method getVirtualThreadMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+	
+	/** @return The method telling whether a thread is virtual, or null if it doesn't exist. */
+	private static Method getIsVirtualMethod() {
+		try {
+			return Thread.class.getMethod("isVirtual");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+	
+}
@@ -0,0 +1,190 @@
+package com.jmr.wrapper.common.utils;
+
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Networking Library
+ * TimerWheel.java
+ * Purpose: Runs timeouts for large amounts of objects, such as complex objects waiting for their pieces, idle connections
+ * and retransmit timeouts. Timeouts are put in the bucket of the tick they expire in, so adding and cancelling one never 
+ * depends on how many there are. A single thread moves through the buckets once every tick and runs the expired 
+ * timeouts, so they are only as exact as the tick and must return quickly. Every server and client has its own wheel,
+ * stopped once it's closed.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class TimerWheel implements Runnable {
+	
+	/** The length of a tick in nanoseconds. */
+	private final long tickNanos;
+	
+	/** The buckets, one for every tick of a turn. */
+	private final ArrayList<Timeout>[] buckets;
+	
+	/** The timeouts added since the last tick. Moved into the buckets by the wheel's thread. */
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+	
+	/** The name of the wheel's thread. */
+	private final String name;
+	
+	/** The time the wheel started at, in nanoseconds. */
+	private final long startTime = System.nanoTime();
+	
+	/** The wheel's thread. Started the first time a timeout is added, and again after it was stopped. */
+	private volatile Thread thread;
+	
+	/** The amount of ticks that have passed. */
+	private long tick = 0;
+	
+	/** Creates a new timer wheel.
+	 * @param name The name of the wheel's thread.
+	 * @param tickMillis The length of a tick in milliseconds.
+	 * @param bucketAmount The amount of buckets. Timeouts further away than a turn of the wheel take more turns.
+	 */
+	@SuppressWarnings("unchecked")
+	public TimerWheel(String name, long tickMillis, int bucketAmount) {
+		this.name = name;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+		buckets = (ArrayList<Timeout>[]) new ArrayList<?>[bucketAmount];
+		for (int i = 0; i < bucketAmount; i++)
+			buckets[i] = new ArrayList<Timeout>();
+	}
+	
+	/** Runs a task once the delay has passed. The task runs on the wheel's thread so it must not block.
+	 * @param task The task.
+	 * @param delay The delay in milliseconds.
+	 * @return The timeout, which can be cancelled.
+	 */
+	public Timeout schedule(Runnable task, long delay) {
+		start();
+		Timeout timeout = new Timeout(task, System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay)));
+		added.add(timeout);
+		return timeout;
+	}
+	
+	/** @return The length of a tick in milliseconds. */
+	public long getTickMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+	}
+	
+	/** Stops the wheel's thread and waits for it to finish its tick, unless it's the one stopping it. Timeouts that haven't
+	 * run yet are kept and run once a timeout is added again. */
+	public void stop() {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+			thread = null;
+		}
+		if (t == null)
+			return;
+		t.interrupt();
+		if (t != Thread.currentThread()) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/** Starts the wheel's thread if it isn't running yet. */
+	private void start() {
+		if (thread == null) {
+			synchronized (this) {
+				if (thread == null) {
+					Thread t = new Thread(this, name);
+					t.setDaemon(true);
+					thread = t; //Set first since the thread stops once it isn't the wheel's thread
+					t.start();
+				}
+			}
+		}
+	}
+	
+	@Override
+	public void run() {
+		while (thread == Thread.currentThread()) {
+			long sleep = startTime + tickNanos * (tick + 1) - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					return;
+				}
+				continue;
+			}
+			Timeout timeout;
+			while ((timeout = added.poll()) != null) {
+				if (timeout.cancelled)
+					continue;
+				long ticks = Math.max(timeout.deadline / tickNanos, tick);
+				timeout.rounds = (ticks - tick) / buckets.length;
+				buckets[(int) (ticks % buckets.length)].add(timeout);
+			}
+			expire(buckets[(int) (tick % buckets.length)]);
+			tick++;
+		}
+	}
+	
+	/** Runs the timeouts of a bucket that expire this turn and removes them and the cancelled ones.
+	 * @param bucket The bucket.
+	 */
+	private void expire(ArrayList<Timeout> bucket) {
+		int kept = 0;
+		for (int i = 0; i < bucket.size(); i++) {
+			Timeout timeout = bucket.get(i);
+			if (timeout.cancelled)
+				continue;
+			if (timeout.rounds > 0) {
+				timeout.rounds--;
+				bucket.set(kept++, timeout);
+				continue;
+			}
+			try {
+				timeout.task.run();
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+		}
+		for (int i = bucket.size() - 1; i >= kept; i--)
+			bucket.remove(i);
+	}
+	
+	/** A task waiting in the wheel. */
+	public static class Timeout {
+		
+		/** The task. */
+		private final Runnable task;
+		
+		/** The time the task runs at, in nanoseconds since the wheel started. */
+		private final long deadline;
+		
+		/** The amount of turns of the wheel left before the task runs. */
+		private long rounds;
+		
+		/** Whether the timeout was cancelled. */
+		private volatile boolean cancelled = false;
+		
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+		
+		/** Cancels the timeout. It's removed from the wheel the next time its bucket is reached. */
+		public void cancel() {
+			cancelled = true;
+		}
+		
+		/** @return Whether the timeout was cancelled. */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	
+	}
+	
+}
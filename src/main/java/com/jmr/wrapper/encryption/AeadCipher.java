@@ -0,0 +1,235 @@
+package com.jmr.wrapper.encryption;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Networking Library
+ * AeadCipher.java
+ * Purpose: Encrypts and authenticates the compact packets of one transport of a connection with its session keys, one
+ * key for each direction. Every packet gets the next sequence number as its nonce, so a nonce is never used twice with
+ * the same key. Over TCP both sides count the packets in the order they're written and read, so the sequence number
+ * isn't sent. Over UDP it's sent in front of the packet and a sliding window of the sequence numbers received drops 
+ * packets that arrive twice or too late, since packets can be lost, duplicated or reordered on the way.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class AeadCipher implements ICipher {
+	
+	/** The size of the nonce. */
+	public static final int NONCE_SIZE = 12;
+	
+	/** The size of the sequence number sent in front of UDP packets. */
+	public static final int SEQUENCE_SIZE = 8;
+	
+	/** The size of the tag after every packet. */
+	public static final int TAG_SIZE = 16;
+	
+	/** The amount of sequence numbers the replay window remembers. Packets older than that are dropped. */
+	public static final int REPLAY_WINDOW = 4096;
+	
+	/** The algorithms used. */
+	private final CipherSuite suite;
+	
+	/** Whether the packets are sent over UDP, with their sequence number. */
+	private final boolean datagrams;
+	
+	/** The key of the packets sent. */
+	private final SecretKeySpec sendKey;
+	
+	/** The key of the packets received. */
+	private final SecretKeySpec receiveKey;
+	
+	/** Encrypts the packets sent. */
+	private final Cipher encryptor;
+	
+	/** Decrypts the packets received. Replaced once a packet fails to decrypt, since ChaCha20-Poly1305 can't be started 
+	 * again with the nonce it was last started with, which would drop the real packet after a forged copy of it. */
+	private Cipher decryptor;
+	
+	/** Held while encrypting a packet. */
+	private final ReentrantLock encryptLock = new ReentrantLock();
+	
+	/** Held while decrypting a packet. */
+	private final ReentrantLock decryptLock = new ReentrantLock();
+	
+	/** The nonce of the packet being encrypted. */
+	private final byte[] encryptNonce = new byte[NONCE_SIZE];
+	
+	/** The nonce of the packet being decrypted. */
+	private final byte[] decryptNonce = new byte[NONCE_SIZE];
+	
+	/** The sequence number of the next packet sent. */
+	private long nextSequence = 0;
+	
+	/** The sequence number of the next packet read over TCP. */
+	private long receiveSequence = 0;
+	
+	/** The highest sequence number received over UDP, or -1 before the first packet. */
+	private long highest = -1;
+	
+	/** The sequence numbers received over UDP, one bit each, as the remainder of the window's size. */
+	private final long[] window = new long[REPLAY_WINDOW / 64];
+	
+	/** Creates the cipher of a transport.
+	 * @param suite The algorithms to use.
+	 * @param sendKey The key of the packets sent.
+	 * @param receiveKey The key of the packets received.
+	 * @param datagrams Whether the packets are sent over UDP.
+	 * @throws GeneralSecurityException Thrown when the JDK doesn't have the algorithms.
+	 */
+	public AeadCipher(CipherSuite suite, byte[] sendKey, byte[] receiveKey, boolean datagrams) throws GeneralSecurityException {
+		this.suite = suite;
+		this.datagrams = datagrams;
+		this.sendKey = new SecretKeySpec(sendKey, suite.getAlgorithm());
+		this.receiveKey = new SecretKeySpec(receiveKey, suite.getAlgorithm());
+		encryptor = Cipher.getInstance(suite.getTransformation());
+		decryptor = Cipher.getInstance(suite.getTransformation());
+	}
+	
+	@Override
+	public int getOverhead() {
+		return (datagrams ? SEQUENCE_SIZE : 0) + TAG_SIZE;
+	}
+	
+	@Override
+	public void encrypt(ByteBuffer header, ByteBuffer src, ByteBuffer dest) throws GeneralSecurityException {
+		encryptLock.lock();
+		try {
+			long sequence = nextSequence++;
+			init(encryptor, Cipher.ENCRYPT_MODE, sendKey, encryptNonce, sequence);
+			updateAAD(encryptor, header);
+			if (datagrams)
+				dest.putLong(sequence);
+			if (src.hasArray() && dest.hasArray()) {
+				int size = encryptor.doFinal(src.array(), src.arrayOffset() + src.position(), src.remaining(), dest.array(), dest.arrayOffset() + dest.position());
+				src.position(src.limit());
+				dest.position(dest.position() + size);
+			} else {
+				encryptor.doFinal(src, dest);
+			}
+		} finally {
+			encryptLock.unlock();
+		}
+	}
+	
+	@Override
+	public void decrypt(ByteBuffer header, ByteBuffer buffer) throws GeneralSecurityException {
+		decryptLock.lock();
+		try {
+			int start = buffer.position();
+			int length = buffer.remaining();
+			if (length < getOverhead())
+				throw new AEADBadTagException("The packet is too short.");
+			long sequence = receiveSequence;
+			if (datagrams) {
+				sequence = buffer.getLong(start);
+				if (isReplayed(sequence))
+					throw new AEADBadTagException("The packet was received before.");
+				start += SEQUENCE_SIZE;
+				length -= SEQUENCE_SIZE;
+			}
+			int size;
+			try {
+				init(decryptor, Cipher.DECRYPT_MODE, receiveKey, decryptNonce, sequence);
+				updateAAD(decryptor, header);
+				if (buffer.hasArray()) {
+					byte[] array = buffer.array();
+					size = decryptor.doFinal(array, buffer.arrayOffset() + start, length, array, buffer.arrayOffset() + start);
+				} else {
+					ByteBuffer in = buffer.duplicate();
+					in.position(start);
+					ByteBuffer copy = ByteBuffer.allocate(length);
+					copy.put(in).flip();
+					ByteBuffer out = buffer.duplicate();
+					out.position(start);
+					size = decryptor.doFinal(copy, out);
+				}
+			} catch (GeneralSecurityException e) {
+				decryptor = Cipher.getInstance(suite.getTransformation());
+				throw e;
+			}
+			if (datagrams)
+				accept(sequence);
+			else
+				receiveSequence++;
+			buffer.limit(start + size);
+			buffer.position(start);
+		} finally {
+			decryptLock.unlock();
+		}
+	}
+	
+	/** Starts encrypting or decrypting a packet.
+	 * @param cipher The cipher.
+	 * @param mode Whether to encrypt or decrypt.
+	 * @param key The key.
+	 * @param nonce The array to build the nonce in.
+	 * @param sequence The sequence number of the packet.
+	 * @throws GeneralSecurityException Thrown when the cipher can't be started.
+	 */
+	private void init(Cipher cipher, int mode, SecretKeySpec key, byte[] nonce, long sequence) throws GeneralSecurityException {
+		for (int i = 0; i < 8; i++)
+			nonce[NONCE_SIZE - 1 - i] = (byte) (sequence >>> (i * 8));
+		AlgorithmParameterSpec spec = suite == CipherSuite.AES_GCM ? new GCMParameterSpec(TAG_SIZE * 8, nonce) : new IvParameterSpec(nonce);
+		cipher.init(mode, key, spec);
+	}
+	
+	/** Authenticates the bytes that aren't encrypted with the packet.
+	 * @param cipher The cipher.
+	 * @param header The bytes, which are left as they are.
+	 */
+	private static void updateAAD(Cipher cipher, ByteBuffer header) {
+		if (header.hasArray())
+			cipher.updateAAD(header.array(), header.arrayOffset() + header.position(), header.remaining());
+		else
+			cipher.updateAAD(header.duplicate());
+	}
+	
+	/** Checks whether a UDP packet was received before or is too old to tell. The decrypt lock must be held.
+	 * @param sequence The packet's sequence number.
+	 * @return Whether it has to be dropped.
+	 */
+	private boolean isReplayed(long sequence) {
+		if (sequence < 0)
+			return true;
+		if (sequence > highest)
+			return false;
+		if (highest - sequence >= REPLAY_WINDOW)
+			return true;
+		int bit = (int) (sequence % REPLAY_WINDOW);
+		return (window[bit >>> 6] & 1L << (bit & 63)) != 0;
+	}
+	
+	/** Adds the sequence number of a UDP packet that was decrypted to the window. Moving the window forward forgets the
+	 * numbers that fell out of it. The decrypt lock must be held.
+	 * @param sequence The packet's sequence number.
+	 */
+	private void accept(long sequence) {
+		if (sequence > highest) {
+			if (sequence - highest >= REPLAY_WINDOW) {
+				Arrays.fill(window, 0);
+			} else {
+				for (long s = highest + 1; s < sequence; s++) {
+					int bit = (int) (s % REPLAY_WINDOW);
+					window[bit >>> 6] &= ~(1L << (bit & 63));
+				}
+			}
+			highest = sequence;
+		}
+		int bit = (int) (sequence % REPLAY_WINDOW);
+		window[bit >>> 6] |= 1L << (bit & 63);
+	}
+	
+}
@@ -0,0 +1,84 @@
+package com.jmr.wrapper.encryption;
+
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * Networking Library
+ * CipherSuite.java
+ * Purpose: The algorithms the session keys of a connection can be used with. Both are run by the JDK's own providers,
+ * which use the processor's AES and carry-less multiply instructions for AES-GCM. ChaCha20-Poly1305 is faster on
+ * processors without them but needs Java 11, so AES-GCM is used when it's missing on either side.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public enum CipherSuite {
+	
+	/** AES with a 256 bit key in Galois/Counter Mode. */
+	AES_GCM((byte) 1, "AES/GCM/NoPadding", "AES"),
+	
+	/** ChaCha20 with Poly1305. */
+	CHACHA20_POLY1305((byte) 2, "ChaCha20-Poly1305", "ChaCha20");
+	
+	/** The id sent in the handshake. */
+	private final byte id;
+	
+	/** The name of the cipher's transformation. */
+	private final String transformation;
+	
+	/** The name of the key's algorithm. */
+	private final String algorithm;
+	
+	private CipherSuite(byte id, String transformation, String algorithm) {
+		this.id = id;
+		this.transformation = transformation;
+		this.algorithm = algorithm;
+	}
+	
+	/** @return The id sent in the handshake. */
+	public byte getId() {
+		return id;
+	}
+	
+	/** @return The name of the cipher's transformation. */
+	public String getTransformation() {
+		return transformation;
+	}
+	
+	/** @return The name of the key's algorithm. */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+	
+	/** @return Whether the JDK running this side has the cipher. */
+	public boolean isAvailable() {
+		try {
+			Cipher.getInstance(transformation);
+			return true;
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+			return false;
+		}
+	}
+	
+	/** @return This suite if the JDK has it, otherwise AES-GCM. */
+	public CipherSuite orAvailable() {
+		return isAvailable() ? this : AES_GCM;
+	}
+	
+	/** Gets the suite with an id.
+	 * @param id The id.
+	 * @return The suite, or null if there's none with the id.
+	 */
+	public static CipherSuite getSuite(byte id) {
+		for (CipherSuite suite : values()) {
+			if (suite.id == id)
+				return suite;
+		}
+		return null;
+	}
+	
+}
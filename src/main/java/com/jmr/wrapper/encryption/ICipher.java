@@ -0,0 +1,40 @@
+package com.jmr.wrapper.encryption;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Networking Library
+ * ICipher.java
+ * Purpose: The interface for the ciphers of a connection's compact packets. Unlike encryptors they work on slices of
+ * buffers, so only the packet's own bytes are encrypted and nothing is copied into new arrays. Every packet is also
+ * authenticated along with its header, so a packet that was changed, forged or received before is rejected.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public interface ICipher {
+	
+	/** @return The amount of bytes encrypting adds to a packet. */
+	int getOverhead();
+	
+	/** Encrypts a packet's bytes into a buffer. 
+	 * @param header The bytes authenticated with the packet but not encrypted, such as its header.
+	 * @param src The bytes to encrypt, between its position and limit. Its position is moved to its limit.
+	 * @param dest The buffer the encrypted bytes are written to from its position, getOverhead() more than the packet's.
+	 * Its position is moved past them.
+	 * @throws GeneralSecurityException Thrown when the bytes can't be encrypted.
+	 */
+	void encrypt(ByteBuffer header, ByteBuffer src, ByteBuffer dest) throws GeneralSecurityException;
+	
+	/** Decrypts a packet's bytes in place.
+	 * @param header The bytes authenticated with the packet.
+	 * @param buffer The encrypted bytes, between its position and limit. Once they're decrypted its position and limit
+	 * surround the packet's bytes.
+	 * @throws GeneralSecurityException Thrown when the bytes were changed, weren't encrypted by the other side or were
+	 * received before.
+	 */
+	void decrypt(ByteBuffer header, ByteBuffer buffer) throws GeneralSecurityException;
+	
+}
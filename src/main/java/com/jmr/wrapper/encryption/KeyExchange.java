@@ -0,0 +1,128 @@
+package com.jmr.wrapper.encryption;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.jmr.wrapper.common.Connection;
+
+/**
+ * Networking Library
+ * KeyExchange.java
+ * Purpose: Agrees on the session keys of a connection while connecting. Each side creates a new elliptic curve key 
+ * pair for the connection and sends its public key in the handshake, then both derive the same shared secret with 
+ * ECDH. HKDF turns it into a key for each direction of TCP and UDP, bound to both public keys and the cipher suite. 
+ * A secret shared by both sides beforehand can be mixed in, without it the keys are safe from anyone listening but 
+ * not from a side in the middle of the connection.
+ *
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/25/2014
+ */
+
+public class KeyExchange {
+	
+	/** The curve of the key pairs. */
+	public static final String CURVE = "secp256r1";
+	
+	/** The size of the session keys, and of the salt used without a shared secret. */
+	private static final int KEY_SIZE = 32;
+	
+	/** The MAC used by HKDF. */
+	private static final String MAC = "HmacSHA256";
+	
+	/** This side's key pair. */
+	private final KeyPair keyPair;
+	
+	/** The cipher suite the keys are used with. */
+	private final CipherSuite suite;
+	
+	/** Creates a new key pair for a connection.
+	 * @param suite The cipher suite the keys are used with.
+	 * @throws GeneralSecurityException Thrown when the JDK doesn't have the curve.
+	 */
+	public KeyExchange(CipherSuite suite) throws GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec(CURVE));
+		keyPair = generator.generateKeyPair();
+		this.suite = suite;
+	}
+	
+	/** @return The encoded public key sent to the other side. */
+	public byte[] getPublicKey() {
+		return keyPair.getPublic().getEncoded();
+	}
+	
+	/** @return The cipher suite the keys are used with. */
+	public CipherSuite getSuite() {
+		return suite;
+	}
+	
+	/** Derives the session keys with the other side's public key and gives the connection its ciphers.
+	 * @param con The connection.
+	 * @param otherKey The other side's encoded public key.
+	 * @param server Whether this side is the server.
+	 * @param secret The secret shared by both sides beforehand, or null.
+	 * @throws GeneralSecurityException Thrown when the other side's key isn't valid.
+	 */
+	public void apply(Connection con, byte[] otherKey, boolean server, byte[] secret) throws GeneralSecurityException {
+		PublicKey other = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(otherKey));
+		if (!(other instanceof ECPublicKey) || !((ECPublicKey) other).getParams().getOrder().equals(((ECPublicKey) keyPair.getPublic()).getParams().getOrder()))
+			throw new InvalidKeyException("The other side's key isn't on " + CURVE + ".");
+		KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+		agreement.init(keyPair.getPrivate());
+		agreement.doPhase(other, true);
+		
+		byte[] prk = hmac(secret != null && secret.length > 0 ? secret : new byte[KEY_SIZE], agreement.generateSecret());
+		byte[] serverKey = server ? getPublicKey() : otherKey;
+		byte[] clientKey = server ? otherKey : getPublicKey();
+		byte[] clientTcp = expand(prk, "client tcp", serverKey, clientKey);
+		byte[] serverTcp = expand(prk, "server tcp", serverKey, clientKey);
+		byte[] clientUdp = expand(prk, "client udp", serverKey, clientKey);
+		byte[] serverUdp = expand(prk, "server udp", serverKey, clientKey);
+		con.setCiphers(new AeadCipher(suite, server ? serverTcp : clientTcp, server ? clientTcp : serverTcp, false),
+				new AeadCipher(suite, server ? serverUdp : clientUdp, server ? clientUdp : serverUdp, true));
+	}
+	
+	/** Derives one session key from the pseudorandom key, the expand step of HKDF. The single block SHA-256 gives is the size of a key.
+	 * @param prk The pseudorandom key.
+	 * @param label What the key is used for.
+	 * @param serverKey The server's encoded public key.
+	 * @param clientKey The client's encoded public key.
+	 * @return The key.
+	 * @throws GeneralSecurityException Thrown when the JDK doesn't have the MAC.
+	 */
+	private byte[] expand(byte[] prk, String label, byte[] serverKey, byte[] clientKey) throws GeneralSecurityException {
+		Mac mac = Mac.getInstance(MAC);
+		mac.init(new SecretKeySpec(prk, MAC));
+		mac.update(("NitroNet " + label).getBytes(StandardCharsets.US_ASCII));
+		mac.update(suite.getId());
+		mac.update(serverKey);
+		mac.update(clientKey);
+		mac.update((byte) 1);
+		return mac.doFinal();
+	}
+	
+	/** Calculates the HMAC of bytes, the extract step of HKDF.
+	 * @param key The key.
+	 * @param data The bytes.
+	 * @return The HMAC.
+	 * @throws GeneralSecurityException Thrown when the JDK doesn't have the MAC.
+	 */
+	private static byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+		Mac mac = Mac.getInstance(MAC);
+		mac.init(new SecretKeySpec(key, MAC));
+		return mac.doFinal(data);
+	}
+	
+}
@@ -1,15 +1,29 @@
 package com.jmr.wrapper.server;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
 
+import com.jmr.wrapper.common.BroadcastPacket;
 import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.utils.IntMap;
 
 /**
  * Networking Library
  * ConnectionManager.java
- * Purpose: Holds all connections currently connected to the server. It is a Singleton and provides
- * methods to get and receive information.
+ * Purpose: Holds all connections currently connected to a server or client. Every server and client has its own and it
+ * provides methods to get and receive information. Connections are indexed by their id, the address and port of their UDP packets
+ * and their TCP socket, so finding the connection of a packet doesn't depend on how many are connected. The indexes can
+ * be used from any thread, and broadcasts go over a copy of the connections so they can come and go meanwhile. A UDP
+ * endpoint is bound to a connection by the session token the client sends from it, so packets from an address and port
+ * no connection has are never guessed to belong to one.
  * 
  * @author Jon R (Baseball435)
  * @version 1.0 7/19/2014
@@ -17,23 +31,43 @@ import com.jmr.wrapper.common.Connection;
 
 public class ConnectionManager {
 
-	/** Instance of the class. */
-	private static final ConnectionManager instance = new ConnectionManager();
+	/** The connections by their id. */
+	private final IntMap<Connection> connections = new IntMap<Connection>();
 	
-	/** An array of all of the connected clients. */
-	private final ArrayList<Connection> connections = new ArrayList<Connection>();
+	/** The connections by the address and port their UDP packets come from. */
+	private final ConcurrentHashMap<InetSocketAddress, Connection> udpEndpoints = new ConcurrentHashMap<InetSocketAddress, Connection>();
 	
-	/** Private constructor. Used as Singleton. */
-	private ConnectionManager() {
+	/** The connections whose UDP port isn't known yet by their TCP address, oldest first. */
+	private final ConcurrentHashMap<InetAddress, Connection[]> unboundUdp = new ConcurrentHashMap<InetAddress, Connection[]>();
+	
+	/** The connections by their TCP socket. */
+	private final ConcurrentHashMap<Socket, Connection> tcpSockets = new ConcurrentHashMap<Socket, Connection>();
+	
+	/** The connections by their session token. */
+	private final ConcurrentHashMap<Long, Connection> tokens = new ConcurrentHashMap<Long, Connection>();
+	
+	/** Creates the session tokens. */
+	private final SecureRandom random = new SecureRandom();
+	
+	/** Counter used to set the id of connections. */
+	private final AtomicInteger counter = new AtomicInteger();
+	
+	/** Creates the connection manager of a server or client. */
+	public ConnectionManager() {
 		
 	}
 	
+	/** @return A new connection id, unique within this manager. */
+	public int nextId() {
+		return counter.incrementAndGet();
+	}
+	
 	/** Gets the connection with the set InetAddress.
 	 * @param address The address of the connection.
 	 * @return The connection.
 	 */
 	public Connection getConnection(InetAddress address) {
-		for (Connection con : connections) {
+		for (Connection con : getConnections()) {
 			if (con.getAddress().equals(address)) {
 				return con;
 			}
@@ -41,49 +75,218 @@ public class ConnectionManager {
 		return null;
 	}
 	
-	/** Gets the connection with the set InetAddress.
-	 * @param address The address of the connection.
-	 * @return The connection.
+	/** Gets the connection UDP packets from an address and port belong to.
+	 * @param address The address the packets come from.
+	 * @param port The port the packets come from.
+	 * @return The connection, or null if no connection has the address and port.
 	 */
 	public Connection getConnection(InetAddress address, int port) {
-		for (Connection con : connections) {
-			if (con.getAddress().equals(address) && (con.getUdpPort() == port || con.getUdpPort() == -1)) {
-				return con;
-			}
-		}
-		return null;
+		return udpEndpoints.get(new InetSocketAddress(address, port));
+	}
+	
+	/** Gets the oldest connection from an address whose UDP port isn't known yet. Only used for clients that don't send
+	 * a session token.
+	 * @param address The TCP address of the connection.
+	 * @return The connection, or null if there's none.
+	 */
+	public Connection getUnboundConnection(InetAddress address) {
+		Connection[] unbound = unboundUdp.get(address);
+		return unbound == null ? null : unbound[0];
+	}
+	
+	/** Gets a connection by its session token.
+	 * @param token The token.
+	 * @return The connection, or null if no connection has it.
+	 */
+	public Connection getConnectionByToken(long token) {
+		return token == 0 ? null : tokens.get(token);
+	}
+	
+	/** Gives a connection a new session token, which the client sends over UDP to bind the address and port it comes
+	 * from to the connection. Tokens are random so they can't be guessed from other connections' tokens.
+	 * @param con The connection.
+	 * @return The token.
+	 */
+	public long createToken(Connection con) {
+		long token;
+		do {
+			token = random.nextLong();
+		} while (token == 0 || tokens.putIfAbsent(token, con) != null);
+		long old = con.getUdpToken();
+		con.setUdpToken(token);
+		if (old != 0)
+			tokens.remove(old, con);
+		if (connections.get(con.getId()) != con)
+			tokens.remove(token, con); //Closed meanwhile
+		return token;
+	}
+	
+	/** Gets a connection by its id.
+	 * @param id The id of the connection.
+	 * @return The connection, or null if it isn't connected.
+	 */
+	public Connection getConnection(int id) {
+		return connections.get(id);
+	}
+	
+	/** Gets a connection by its TCP socket.
+	 * @param socket The socket.
+	 * @return The connection, or null if it isn't connected.
+	 */
+	public Connection getConnection(Socket socket) {
+		return tcpSockets.get(socket);
 	}
 	
 	/** Adds a new connection to the list.
 	 * @param con The connection.
 	 */
 	public void addConnection(Connection con) {
-		connections.add(con);
+		connections.put(con.getId(), con);
+		if (con.getSocket() != null)
+			tcpSockets.put(con.getSocket(), con);
+		udpEndpointChanged(con, con.getUdpAddress(), -1);
+	}
+	
+	/** Moves a connection to its new UDP address and port in the index. Called by the connection once they're set.
+	 * @param con The connection.
+	 * @param oldAddress The address it had before.
+	 * @param oldPort The port it had before, or -1 if it had none.
+	 */
+	public void udpEndpointChanged(final Connection con, InetAddress oldAddress, int oldPort) {
+		if (connections.get(con.getId()) != con)
+			return; //Not added yet or closed already
+		removeUdp(con, oldAddress, oldPort);
+		if (con.getUdpPort() == -1) {
+			unboundUdp.compute(con.getAddress(), new BiFunction<InetAddress, Connection[], Connection[]>() {
+				@Override
+				public Connection[] apply(InetAddress address, Connection[] unbound) {
+					if (unbound == null)
+						return new Connection[] { con };
+					for (Connection c : unbound) {
+						if (c == con)
+							return unbound;
+					}
+					Connection[] added = Arrays.copyOf(unbound, unbound.length + 1);
+					added[unbound.length] = con;
+					return added;
+				}
+			});
+		} else {
+			udpEndpoints.put(new InetSocketAddress(con.getUdpAddress(), con.getUdpPort()), con);
+		}
+	}
+	
+	/** Removes a connection from the UDP indexes.
+	 * @param con The connection.
+	 * @param address The address it's indexed under.
+	 * @param port The port it's indexed under, or -1 if it's waiting for its port.
+	 */
+	private void removeUdp(final Connection con, InetAddress address, int port) {
+		if (port != -1) {
+			udpEndpoints.remove(new InetSocketAddress(address, port), con);
+			return;
+		}
+		unboundUdp.computeIfPresent(con.getAddress(), new BiFunction<InetAddress, Connection[], Connection[]>() {
+			@Override
+			public Connection[] apply(InetAddress address, Connection[] unbound) {
+				ArrayList<Connection> left = new ArrayList<Connection>(Arrays.asList(unbound));
+				left.remove(con);
+				return left.isEmpty() ? null : left.toArray(new Connection[left.size()]);
+			}
+		});
 	}
 	
 	/** Closes a specific connection.
 	 * @param con The connection to close.
 	 */
 	public void close(Connection con) {
+		InetAddress address = con.getUdpAddress();
+		int port = con.getUdpPort();
+		Socket socket = con.getSocket(); //Read first since closing the connection clears it
 		con.close();
-		connections.remove(con);
+		if (connections.remove(con.getId(), con)) {
+			if (socket != null)
+				tcpSockets.remove(socket, con);
+			if (con.getUdpToken() != 0)
+				tokens.remove(con.getUdpToken(), con);
+			removeUdp(con, address, port);
+			if (con.getUdpPort() != port || !con.getUdpAddress().equals(address))
+				removeUdp(con, con.getUdpAddress(), con.getUdpPort()); //In case the endpoint was changed while closing
+			if (port != -1)
+				removeUdp(con, address, -1); //In case the port was set while closing
+		}
 	}
 	
-	/** @return All connections. */
+	/** @return A copy of all connections, which isn't changed as connections come and go. */
 	public ArrayList<Connection> getConnections() {
-		return connections;
+		int size = connections.size();
+		ArrayList<Connection> copy = new ArrayList<Connection>(size + size / 8 + 1);
+		connections.copyValues(copy);
+		return copy;
 	}
 	
-	/** Closes all connections. */
-	public void closeAll() {
-		for (Connection con : connections) {
-			con.close();
+	/** Sends an object over TCP to every connection. The object is only encoded once for every framing and codec used.
+	 * @param object The object to send.
+	 */
+	public void broadcastTcp(Object object) {
+		broadcastTcp(object, null);
+	}
+	
+	/** Sends an object over TCP to the connections accepted by the filter. The object is only encoded once for every 
+	 * framing and codec used. Doesn't wait for the object to be written, so a slow connection doesn't hold up the rest.
+	 * @param object The object to send.
+	 * @param filter Decides which connections receive the object, or null for all of them.
+	 */
+	public void broadcastTcp(Object object, Predicate<Connection> filter) {
+		BroadcastPacket broadcast = new BroadcastPacket(object);
+		try {
+			for (Connection con : getTargets(filter))
+				con.sendTcpAsync(broadcast);
+		} finally {
+			broadcast.release();
+		}
+	}
+	
+	/** Sends an object over UDP to every connection. The object is only encoded once for every framing and codec used.
+	 * @param object The object to send.
+	 */
+	public void broadcastUdp(Object object) {
+		broadcastUdp(object, null);
+	}
+	
+	/** Sends an object over UDP to the connections accepted by the filter. The object is only encoded once for every 
+	 * framing and codec used.
+	 * @param object The object to send.
+	 * @param filter Decides which connections receive the object, or null for all of them.
+	 */
+	public void broadcastUdp(Object object, Predicate<Connection> filter) {
+		BroadcastPacket broadcast = new BroadcastPacket(object);
+		try {
+			for (Connection con : getTargets(filter))
+				con.sendUdp(broadcast);
+		} finally {
+			broadcast.release();
 		}
 	}
 	
-	/** @return The instance of the class. */
-	public static ConnectionManager getInstance() {
-		return instance;
+	/** Gets the connections to broadcast to. A copy is used because sending can close a connection.
+	 * @param filter Decides which connections are used, or null for all of them.
+	 * @return The connections.
+	 */
+	private ArrayList<Connection> getTargets(Predicate<Connection> filter) {
+		ArrayList<Connection> targets = new ArrayList<Connection>(connections.size());
+		for (Connection con : getConnections()) {
+			if (filter == null || filter.test(con))
+				targets.add(con);
+		}
+		return targets;
+	}
+	
+	/** Closes all connections. */
+	public void closeAll() {
+		for (Connection con : getConnections()) {
+			close(con);
+		}
 	}
 	
 }
@@ -3,18 +3,29 @@ package com.jmr.wrapper.server;
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import com.jmr.wrapper.common.IProtocol;
 import com.jmr.wrapper.common.complex.ComplexManager;
+import com.jmr.wrapper.common.buffer.BufferPool;
+import com.jmr.wrapper.common.codec.Codec;
+import com.jmr.wrapper.common.codec.SerializationCodec;
 import com.jmr.wrapper.common.config.Config;
+import com.jmr.wrapper.common.dispatch.Dispatcher;
 import com.jmr.wrapper.common.exceptions.NNCantStartServer;
 import com.jmr.wrapper.common.listener.SocketListener;
+import com.jmr.wrapper.common.listener.StreamListener;
+import com.jmr.wrapper.common.request.RequestManager;
+import com.jmr.wrapper.common.stream.StreamManager;
+import com.jmr.wrapper.common.utils.ThreadUtils;
+import com.jmr.wrapper.common.utils.TimerWheel;
 import com.jmr.wrapper.encryption.IEncryptor;
+import com.jmr.wrapper.server.nio.NioEngine;
 import com.jmr.wrapper.server.threads.TcpAcceptThread;
 import com.jmr.wrapper.server.threads.UdpReadThread;
 
@@ -47,12 +58,42 @@ public class Server implements IProtocol {
 	/** The listener object. */
 	private SocketListener listener;
 	
+	/** The listener receiving streams, or null to refuse them. */
+	private StreamListener streamListener;
+	
 	/** The server configurations. */
 	private ServerConfig serverConfig;
 	
 	/** The type of encryption to use when sending objects. */
 	private IEncryptor encryptionMethod;
 	
+	/** The codec offered to connections. */
+	private Codec codec = SerializationCodec.INSTANCE;
+	
+	/** The pool of buffers used to send and receive packets. */
+	private final BufferPool bufferPool;
+	
+	/** The connections of the server. */
+	private final ConnectionManager connectionManager = new ConnectionManager();
+	
+	/** The complex objects being formed for the connections. */
+	private final ComplexManager complexManager = new ComplexManager(this);
+	
+	/** The streams of the connections. */
+	private final StreamManager streamManager = new StreamManager();
+	
+	/** The responders answering requests and the requests waiting for their responses. */
+	private final RequestManager requestManager = new RequestManager();
+	
+	/** The dispatcher passing received objects to the listener. */
+	private final Dispatcher dispatcher = new Dispatcher(this);
+	
+	/** The timer wheel running the timeouts of the connections. */
+	private final TimerWheel timerWheel = ThreadUtils.createTimerWheel();
+	
+	/** The selector engine that handles the connections. Null when each connection has its own threads. */
+	private NioEngine nioEngine;
+	
 	/** Starts a new server on the TCP and UDP port.
 	 * @param tcpPort The TCP port.
 	 * @param udpPort The UDP port.
@@ -60,9 +101,26 @@ public class Server implements IProtocol {
 	 * @throws UnknownHostException 
 	 */	
 	public Server(int tcpPort, int udpPort) throws NNCantStartServer {
-		serverConfig = new ServerConfig();
+		this(tcpPort, udpPort, new ServerConfig());
+	}
+	
+	/** Starts a new server on the TCP and UDP port with the given configurations.
+	 * @param tcpPort The TCP port.
+	 * @param udpPort The UDP port.
+	 * @param serverConfig The server configurations.
+	 * @throws NNCantStartServer 
+	 */	
+	public Server(int tcpPort, int udpPort, ServerConfig serverConfig) throws NNCantStartServer {
+		this.serverConfig = serverConfig;
+		this.bufferPool = new BufferPool(serverConfig.BUFFER_POOLING);
 		try {
-			tcpSocket = new ServerSocket(tcpPort, 1, InetAddress.getByName("0.0.0.0"));
+			if (serverConfig.NIO_ENGINE) {
+				ServerSocketChannel channel = ServerSocketChannel.open();
+				channel.bind(new InetSocketAddress(InetAddress.getByName("0.0.0.0"), tcpPort), 1);
+				tcpSocket = channel.socket();
+			} else {
+				tcpSocket = new ServerSocket(tcpPort, 1, InetAddress.getByName("0.0.0.0"));
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 			throw new NNCantStartServer();
@@ -74,9 +132,16 @@ public class Server implements IProtocol {
 			throw new NNCantStartServer();
 		}
 		this.udpPort = udpPort;
-		mainExecutor = Executors.newCachedThreadPool();
+		mainExecutor = ThreadUtils.createExecutor(serverConfig);
+		if (serverConfig.NIO_ENGINE) {
+			try {
+				nioEngine = new NioEngine(this, serverConfig.NIO_THREADS);
+			} catch (IOException e) {
+				e.printStackTrace();
+				throw new NNCantStartServer();
+			}
+		}
 		if (tcpSocket != null && udpSocket != null) {
-			ComplexManager.getInstance().setProtocol(this);
 			mainExecutor.execute(new UdpReadThread(this, udpSocket));
 			mainExecutor.execute(new TcpAcceptThread(this, tcpSocket));
 		}
@@ -94,6 +159,18 @@ public class Server implements IProtocol {
 		return listener;
 	}
 	
+	/** Sets the listener receiving streams. Streams are refused while it isn't set.
+	 * @param streamListener The listener.
+	 */
+	public void setStreamListener(StreamListener streamListener) {
+		this.streamListener = streamListener;
+	}
+	
+	@Override
+	public StreamListener getStreamListener() {
+		return streamListener;
+	}
+	
 	@Override
 	public IEncryptor getEncryptionMethod() {
 		return encryptionMethod;
@@ -104,6 +181,51 @@ public class Server implements IProtocol {
 		this.encryptionMethod = encryptor;
 	}
 	
+	@Override
+	public void setCodec(Codec codec) {
+		this.codec = codec;
+	}
+	
+	@Override
+	public Codec getCodec() {
+		return codec;
+	}
+	
+	@Override
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+	
+	@Override
+	public ConnectionManager getConnectionManager() {
+		return connectionManager;
+	}
+	
+	@Override
+	public ComplexManager getComplexManager() {
+		return complexManager;
+	}
+	
+	@Override
+	public StreamManager getStreamManager() {
+		return streamManager;
+	}
+	
+	@Override
+	public RequestManager getRequestManager() {
+		return requestManager;
+	}
+	
+	@Override
+	public Dispatcher getDispatcher() {
+		return dispatcher;
+	}
+	
+	@Override
+	public TimerWheel getTimerWheel() {
+		return timerWheel;
+	}
+	
 	@Override
 	public boolean isConnected() {
 		return udpSocket != null && tcpSocket != null;
@@ -132,8 +254,12 @@ public class Server implements IProtocol {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		ConnectionManager.getInstance().closeAll();
+		if (nioEngine != null)
+			nioEngine.shutdown();
+		connectionManager.closeAll();
 		udpSocket.close();
+		dispatcher.close();
+		timerWheel.stop();
 	}
 	
 	@Override
@@ -141,4 +267,9 @@ public class Server implements IProtocol {
 		return serverConfig;
 	}
 	
+	/** @return The selector engine, or null if it isn't used. */
+	public NioEngine getNioEngine() {
+		return nioEngine;
+	}
+	
 }
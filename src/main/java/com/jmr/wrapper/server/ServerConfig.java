@@ -16,7 +16,14 @@ public class ServerConfig extends Config {
 	/** Whether or not to ping connections to make sure they are still connected. */
 	public boolean PING_CLIENTS = true;
 	
-	/** The time between each ping being sent. */
+	/** The milliseconds a connection may go without being sent anything before it's pinged. */
 	public int PING_SLEEP_TIME = 5000;
 	
+	/** Whether to use the non-blocking selector engine instead of a read thread per connection. Must be set 
+	 * before the server is started, so pass the config to the server's constructor. */
+	public boolean NIO_ENGINE = false;
+	
+	/** The amount of event loop threads used by the selector engine. Connections are spread evenly across them. */
+	public int NIO_THREADS = Runtime.getRuntime().availableProcessors();
+	
 }
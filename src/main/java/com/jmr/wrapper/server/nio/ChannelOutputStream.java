@@ -0,0 +1,94 @@
+package com.jmr.wrapper.server.nio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import com.jmr.wrapper.common.buffer.BufferPool;
+
+/**
+ * Networking Library
+ * ChannelOutputStream.java
+ * Purpose: The stream a connection's TCP data is written to when the selector engine is used. Writing never blocks, the
+ * data is collected in pooled direct buffers that are queued on the channel's handler and sent by its event loop once the
+ * stream is flushed. The event loop gives the buffers back to the pool once they are written.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class ChannelOutputStream extends OutputStream {
+
+	/** The size of the buffers the data is collected in. */
+	private static final int BUFFER_SIZE = 8192;
+	
+	/** The handler of the channel. */
+	private final NioChannelHandler handler;
+	
+	/** The pool the buffers come from. */
+	private final BufferPool pool;
+	
+	/** The buffer the data is currently collected in. Only used while holding the connection's TCP lock. */
+	private ByteBuffer current;
+	
+	/** Creates a new stream that writes to the handler's queue.
+	 * @param handler The handler of the channel.
+	 * @param pool The pool the buffers come from.
+	 */
+	public ChannelOutputStream(NioChannelHandler handler, BufferPool pool) {
+		this.handler = handler;
+		this.pool = pool;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		if (handler.isClosed())
+			throw new IOException("Connection is closed.");
+		if (current == null || !current.hasRemaining())
+			next();
+		current.put((byte) b);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (handler.isClosed())
+			throw new IOException("Connection is closed.");
+		while (len > 0) {
+			if (current == null || !current.hasRemaining())
+				next();
+			int length = Math.min(len, current.remaining());
+			current.put(b, off, length);
+			off += length;
+			len -= length;
+		}
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		if (handler.isClosed())
+			throw new IOException("Connection is closed.");
+		drain();
+		handler.scheduleFlush();
+	}
+	
+	@Override
+	public void close() {
+		handler.closeLater();
+	}
+	
+	/** Queues the buffer being filled on the handler without asking the event loop to write it. */
+	void drain() {
+		if (current != null && current.position() > 0) {
+			current.flip();
+			handler.queue(current);
+			current = null;
+		}
+	}
+	
+	/** Queues the full buffer and takes a new one from the pool. */
+	private void next() {
+		drain();
+		current = pool.acquireDirect(BUFFER_SIZE);
+	}
+	
+}
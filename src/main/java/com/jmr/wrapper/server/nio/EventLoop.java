@@ -0,0 +1,172 @@
+package com.jmr.wrapper.server.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.jmr.wrapper.server.Server;
+
+/**
+ * Networking Library
+ * EventLoop.java
+ * Purpose: A single thread that owns a selector and every channel registered to it. It reads incoming data, writes the
+ * queued outgoing data once a connection has been flushed and removes the connections that were closed, so that one 
+ * thread can serve many connections instead of each connection needing its own read thread.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class EventLoop implements Runnable {
+
+	/** The most milliseconds to wait for the selector. */
+	private static final long SELECT_TIMEOUT = 1000;
+	
+	/** The selector that the channels are registered to. */
+	private final Selector selector;
+	
+	/** Instance of the server. */
+	private final Server server;
+	
+	/** Handlers waiting to be registered to the selector. */
+	private final Queue<NioChannelHandler> registrations = new ConcurrentLinkedQueue<NioChannelHandler>();
+	
+	/** Handlers that have data waiting to be written. */
+	private final Queue<NioChannelHandler> flushes = new ConcurrentLinkedQueue<NioChannelHandler>();
+	
+	/** Handlers that were closed, or whose connection was closed by the application. */
+	private final Queue<NioChannelHandler> closes = new ConcurrentLinkedQueue<NioChannelHandler>();
+	
+	/** All handlers owned by the loop. Only used on the loop's thread. */
+	private final HashSet<NioChannelHandler> handlers = new HashSet<NioChannelHandler>();
+	
+	/** Whether the loop is still running. */
+	private volatile boolean running = true;
+	
+	/** The thread the loop runs on. */
+	private volatile Thread thread;
+	
+	/** Creates a new event loop.
+	 * @param server Instance of the server.
+	 * @throws IOException Thrown when the selector can't be opened.
+	 */
+	public EventLoop(Server server) throws IOException {
+		this.server = server;
+		this.selector = Selector.open();
+	}
+	
+	@Override
+	public void run() {
+		thread = Thread.currentThread();
+		while (running) {
+			try {
+				selector.select(SELECT_TIMEOUT);
+			} catch (IOException e) {
+				e.printStackTrace();
+				break;
+			}
+			registerChannels();
+			handleSelectedKeys();
+			flushChannels();
+			removeClosedChannels();
+		}
+		for (NioChannelHandler handler : handlers) {
+			handler.close();
+			handler.release();
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Queues a handler to be registered to the selector.
+	 * @param handler The handler.
+	 */
+	public void register(NioChannelHandler handler) {
+		registrations.add(handler);
+		wakeup();
+	}
+	
+	/** Queues a handler to have its pending data written.
+	 * @param handler The handler.
+	 */
+	public void flushLater(NioChannelHandler handler) {
+		flushes.add(handler);
+		wakeup();
+	}
+	
+	/** Queues a handler to be closed and removed from the loop.
+	 * @param handler The handler.
+	 */
+	public void closeLater(NioChannelHandler handler) {
+		closes.add(handler);
+		wakeup();
+	}
+	
+	/** Stops the loop and closes all of its channels. */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+	
+	/** Wakes up the selector if it isn't called from the loop's own thread. */
+	private void wakeup() {
+		if (Thread.currentThread() != thread)
+			selector.wakeup();
+	}
+	
+	/** Registers all of the waiting handlers. */
+	private void registerChannels() {
+		NioChannelHandler handler;
+		while ((handler = registrations.poll()) != null) {
+			try {
+				handler.setKey(handler.getChannel().register(selector, SelectionKey.OP_READ, handler));
+				handlers.add(handler);
+				handler.scheduleFlush(); //Sends the stream header
+			} catch (ClosedChannelException e) {
+				handler.close();
+				handler.release();
+			}
+		}
+	}
+	
+	/** Reads from and writes to the channels that are ready. */
+	private void handleSelectedKeys() {
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			NioChannelHandler handler = (NioChannelHandler) key.attachment();
+			if (key.isValid() && key.isReadable())
+				handler.read();
+			if (key.isValid() && key.isWritable())
+				handler.flush();
+		}
+	}
+	
+	/** Writes the pending data of all the handlers that were flushed. */
+	private void flushChannels() {
+		NioChannelHandler handler;
+		while ((handler = flushes.poll()) != null)
+			handler.flush();
+	}
+	
+	/** Closes and removes the handlers that were queued to be closed. Handlers that weren't registered yet are released
+	 * when registering them fails. */
+	private void removeClosedChannels() {
+		NioChannelHandler handler;
+		while ((handler = closes.poll()) != null) {
+			handler.close();
+			if (handlers.remove(handler))
+				handler.release();
+		}
+	}
+	
+}
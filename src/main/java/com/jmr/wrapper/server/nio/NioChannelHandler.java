@@ -0,0 +1,328 @@
+package com.jmr.wrapper.server.nio;
+
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.buffer.BufferPool;
+import com.jmr.wrapper.common.utils.FrameUtils;
+import com.jmr.wrapper.common.utils.PacketUtils;
+import com.jmr.wrapper.server.Server;
+import com.jmr.wrapper.server.threads.DisconnectedThread;
+
+/**
+ * Networking Library
+ * NioChannelHandler.java
+ * Purpose: Holds the state of a single channel owned by an event loop. Incoming data is the same object stream that a
+ * blocking socket would read, so the block data headers are stripped here and the packets are passed on once a full
+ * packet has arrived. Outgoing data is queued by the connection and written by the event loop. The handler's buffers come
+ * from the server's buffer pool and go back to it once the channel is closed.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class NioChannelHandler {
+
+	/** The states of the incoming object stream. */
+	private static final int STREAM_HEADER = 0, BLOCK_HEADER = 1, BLOCK_DATA = 2;
+	
+	/** The max amount of buffers written at once. */
+	private static final int MAX_GATHER = 64;
+	
+	/** Instance of the server. */
+	private final Server server;
+	
+	/** The event loop that owns the channel. */
+	private final EventLoop loop;
+	
+	/** The channel of the connection. */
+	private final SocketChannel channel;
+	
+	/** The connection of the channel. */
+	private final Connection connection;
+	
+	/** The pooled direct buffer the channel is read into. */
+	private final ByteBuffer readBuffer;
+	
+	/** The stream the connection writes to. */
+	private final ChannelOutputStream out;
+	
+	/** Data queued by the connection that hasn't been picked up by the event loop. */
+	private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+	
+	/** Data picked up by the event loop that hasn't been completely written. Only used on the loop's thread. */
+	private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+	
+	/** Whether the handler is already waiting to be flushed. */
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	
+	/** Whether the channel was closed. */
+	private final AtomicBoolean closed = new AtomicBoolean();
+	
+	/** Holds the bytes of the stream and block headers. */
+	private final byte[] header = new byte[5];
+	
+	/** The pooled buffer holding the packet currently being read, large enough for an encrypted compact packet. */
+	private final byte[] packet;
+	
+	/** The size of a packet in the original framing. */
+	private final int packetSize;
+	
+	/** The key of the channel. */
+	private SelectionKey key;
+	
+	/** The current state of the incoming stream, the position in the header and the bytes left in the current block. */
+	private int state = STREAM_HEADER, headerPos = 0, blockRemaining = 0;
+	
+	/** The amount of bytes read into the current packet. */
+	private int packetPos = 0;
+	
+	/** The length of the current compact packet's object, or -1 if its header hasn't been read. */
+	private int frameLength = -1;
+	
+	/** Creates the handler and the connection of the channel.
+	 * @param server Instance of the server.
+	 * @param loop The event loop that owns the channel.
+	 * @param channel The accepted channel.
+	 * @throws IOException Thrown when the channel can't be made non-blocking.
+	 */
+	public NioChannelHandler(Server server, EventLoop loop, SocketChannel channel) throws IOException {
+		this.server = server;
+		this.loop = loop;
+		this.channel = channel;
+		channel.configureBlocking(false);
+		packetSize = server.getConfig().PACKET_BUFFER_SIZE;
+		packet = server.getBufferPool().acquire(FrameUtils.getMaxPacketSize(server));
+		readBuffer = server.getBufferPool().acquireDirect(16384);
+		out = new ChannelOutputStream(this, server.getBufferPool());
+		connection = new Connection(-1, channel.socket(), server.getUdpSocket(), out, server.getConfig());
+		out.drain(); //Queues the stream header
+	}
+	
+	/** Reads the available data from the channel. Called by the event loop. */
+	void read() {
+		try {
+			int read = channel.read(readBuffer);
+			if (read < 0) {
+				close();
+				return;
+			}
+			if (read > 0)
+				connection.markRead();
+			readBuffer.flip();
+			decode(readBuffer);
+			readBuffer.clear();
+		} catch (IOException | ClassNotFoundException | RuntimeException e) {
+			close();
+		}
+	}
+	
+	/** Removes the object stream headers from the data and handles every full packet, in either framing.
+	 * @param in The data read from the channel.
+	 * @throws IOException Thrown when the stream is corrupt or an object can't be read.
+	 * @throws ClassNotFoundException Thrown when the class of an object isn't found.
+	 */
+	private void decode(ByteBuffer in) throws IOException, ClassNotFoundException {
+		while (in.hasRemaining()) {
+			if (state == STREAM_HEADER) {
+				header[headerPos++] = in.get();
+				if (headerPos == 4) {
+					if ((short) ((header[0] << 8) | (header[1] & 0xFF)) != ObjectStreamConstants.STREAM_MAGIC)
+						throw new StreamCorruptedException("Invalid stream header.");
+					headerPos = 0;
+					state = BLOCK_HEADER;
+				}
+			} else if (state == BLOCK_HEADER) {
+				header[headerPos++] = in.get();
+				if (header[0] == ObjectStreamConstants.TC_RESET) {
+					headerPos = 0;
+				} else if (header[0] == ObjectStreamConstants.TC_BLOCKDATA) {
+					if (headerPos == 2)
+						startBlock(header[1] & 0xFF);
+				} else if (header[0] == ObjectStreamConstants.TC_BLOCKDATALONG) {
+					if (headerPos == 5)
+						startBlock(PacketUtils.intfromByteArray(new byte[] { header[1], header[2], header[3], header[4] }));
+				} else {
+					throw new StreamCorruptedException("Invalid block header: " + header[0]);
+				}
+			} else {
+				int size = getPacketSize();
+				int length = Math.min(Math.min(blockRemaining, in.remaining()), size - packetPos);
+				in.get(packet, packetPos, length);
+				packetPos += length;
+				blockRemaining -= length;
+				if (blockRemaining == 0)
+					state = BLOCK_HEADER;
+				if (packetPos == size && !readFrameLength())
+					handlePacket();
+			}
+		}
+	}
+	
+	/** @return The size of the packet currently being read. */
+	private int getPacketSize() {
+		if (!connection.isCompactTcpIn())
+			return packetSize;
+		return frameLength < 0 ? FrameUtils.HEADER_SIZE : FrameUtils.HEADER_SIZE + frameLength;
+	}
+	
+	/** Reads the length of a compact packet once its header has arrived.
+	 * @return Whether the packet's object still has to be read.
+	 * @throws StreamCorruptedException Thrown when the length isn't valid.
+	 */
+	private boolean readFrameLength() throws StreamCorruptedException {
+		if (!connection.isCompactTcpIn() || frameLength >= 0)
+			return false;
+		frameLength = FrameUtils.getLength(server, packet);
+		return frameLength > 0;
+	}
+	
+	/** Handles the packet that was read. The framing can change while a packet is handled, so the next packet's size
+	 * is only looked at afterwards.
+	 * @throws IOException Thrown when the object can't be read.
+	 * @throws ClassNotFoundException Thrown when the class of the object isn't found.
+	 */
+	private void handlePacket() throws IOException, ClassNotFoundException {
+		packetPos = 0;
+		if (connection.isCompactTcpIn()) {
+			int length = frameLength;
+			frameLength = -1;
+			FrameUtils.handleFrame(server, connection, true, packet, packet, FrameUtils.HEADER_SIZE, length);
+		} else {
+			PacketUtils.handleTcpPacket(server, connection, packet, packetSize);
+		}
+	}
+	
+	/** Starts reading a block of data.
+	 * @param size The size of the block.
+	 * @throws StreamCorruptedException Thrown when the size is negative.
+	 */
+	private void startBlock(int size) throws StreamCorruptedException {
+		if (size < 0)
+			throw new StreamCorruptedException("Invalid block size: " + size);
+		headerPos = 0;
+		blockRemaining = size;
+		state = size > 0 ? BLOCK_DATA : BLOCK_HEADER;
+	}
+	
+	/** Queues data to be written once the connection is flushed.
+	 * @param data The data.
+	 */
+	void queue(ByteBuffer data) {
+		connection.addUnsentBytes(data.remaining());
+		writeQueue.add(data);
+	}
+	
+	/** Asks the event loop to write the queued data. */
+	void scheduleFlush() {
+		if (flushScheduled.compareAndSet(false, true))
+			loop.flushLater(this);
+	}
+	
+	/** Writes as much of the queued data as the channel accepts. Called by the event loop. */
+	void flush() {
+		flushScheduled.set(false);
+		if (isClosed())
+			return;
+		ByteBuffer data;
+		while ((data = writeQueue.poll()) != null)
+			pending.add(data);
+		try {
+			while (!pending.isEmpty()) {
+				ByteBuffer[] buffers = new ByteBuffer[Math.min(pending.size(), MAX_GATHER)];
+				int i = 0;
+				for (ByteBuffer buffer : pending) {
+					if (i == buffers.length)
+						break;
+					buffers[i++] = buffer;
+				}
+				long written = channel.write(buffers);
+				connection.addUnsentBytes((int) -written);
+				while (!pending.isEmpty() && !pending.peek().hasRemaining())
+					server.getBufferPool().releaseDirect(pending.poll());
+				if (written == 0)
+					break;
+			}
+			if (key != null && key.isValid())
+				key.interestOps(pending.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		} catch (IOException e) {
+			close();
+		}
+	}
+	
+	/** Closes the channel, removes the connection and calls the 'disconnected' method of the listener. Only does so once.
+	 * The event loop removes the handler afterwards. */
+	public void close() {
+		if (!closed.compareAndSet(false, true))
+			return;
+		if (key != null)
+			key.cancel();
+		server.getConnectionManager().close(connection);
+		try {
+			channel.close();
+		} catch (IOException e) {
+			//channel already closed
+		}
+		server.getDispatcher().dispatch(connection, new DisconnectedThread(server.getListener(), connection));
+		loop.closeLater(this);
+	}
+	
+	/** Asks the event loop to close the channel. Used when the connection is closed by the application. */
+	void closeLater() {
+		loop.closeLater(this);
+	}
+	
+	/** Gives the handler's buffers back to the pool. Called by the event loop once the handler is closed and removed.
+	 * Data still waiting to be written is dropped. */
+	void release() {
+		BufferPool pool = server.getBufferPool();
+		pool.releaseDirect(readBuffer);
+		pool.release(packet);
+		ByteBuffer data;
+		while ((data = pending.poll()) != null) {
+			connection.addUnsentBytes(-data.remaining());
+			pool.releaseDirect(data);
+		}
+		while ((data = writeQueue.poll()) != null) {
+			connection.addUnsentBytes(-data.remaining());
+			pool.releaseDirect(data);
+		}
+	}
+	
+	/** @return Whether the channel was closed. */
+	public boolean isClosed() {
+		return closed.get();
+	}
+	
+	/** @return The connection of the channel. */
+	public Connection getConnection() {
+		return connection;
+	}
+	
+	/** @return The channel. */
+	SocketChannel getChannel() {
+		return channel;
+	}
+	
+	/** @return The event loop that owns the channel. */
+	EventLoop getLoop() {
+		return loop;
+	}
+	
+	/** Sets the key of the channel.
+	 * @param key The key.
+	 */
+	void setKey(SelectionKey key) {
+		this.key = key;
+	}
+	
+}
@@ -0,0 +1,70 @@
+package com.jmr.wrapper.server.nio;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jmr.wrapper.server.Server;
+
+/**
+ * Networking Library
+ * NioEngine.java
+ * Purpose: Owns a fixed set of event loops that handle the reading, writing and pinging of every connection accepted by
+ * the server. New channels are handed out to the loops in a round robin order so that the connections are spread evenly.
+ * 
+ * @author Jon R (Baseball435)
+ * @version 1.0 7/19/2014
+ */
+
+public class NioEngine {
+
+	/** The event loops that own the channels. */
+	private final EventLoop[] loops;
+	
+	/** Used to pick the next event loop. */
+	private final AtomicInteger next = new AtomicInteger();
+	
+	/** Instance of the server. */
+	private final Server server;
+	
+	/** Creates the event loops and starts each of them on its own thread.
+	 * @param server Instance of the server.
+	 * @param threads The amount of event loops.
+	 * @throws IOException Thrown when a selector can't be opened.
+	 */
+	public NioEngine(Server server, int threads) throws IOException {
+		this.server = server;
+		loops = new EventLoop[Math.max(1, threads)];
+		for (int i = 0; i < loops.length; i++)
+			loops[i] = new EventLoop(server);
+		for (int i = 0; i < loops.length; i++) { //Platform threads since the loops never finish and block in the selector
+			Thread thread = new Thread(loops[i], "NitroNet-EventLoop-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+	
+	/** Creates the handler for a newly accepted channel. The channel isn't read from until it is registered.
+	 * @param channel The accepted channel.
+	 * @return The handler holding the connection of the channel.
+	 * @throws IOException Thrown when the channel can't be configured.
+	 */
+	public NioChannelHandler createHandler(SocketChannel channel) throws IOException {
+		EventLoop loop = loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+		return new NioChannelHandler(server, loop, channel);
+	}
+	
+	/** Registers the handler's channel with its event loop so that it starts being read from.
+	 * @param handler The handler.
+	 */
+	public void register(NioChannelHandler handler) {
+		handler.getLoop().register(handler);
+	}
+	
+	/** Stops all of the event loops. */
+	public void shutdown() {
+		for (EventLoop loop : loops)
+			loop.shutdown();
+	}
+	
+}
@@ -1,19 +1,22 @@
 package com.jmr.wrapper.server.threads;
 
+import java.io.IOException;
 import java.net.Socket;
 
 import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.threads.IdleCheckThread;
+import com.jmr.wrapper.common.utils.FrameUtils;
 import com.jmr.wrapper.server.ConnectionManager;
 import com.jmr.wrapper.server.Server;
-import com.jmr.wrapper.server.ServerConfig;
+import com.jmr.wrapper.server.nio.NioChannelHandler;
 
 /**
  * Networking Library
  * AcceptedSocketThread.java
  * Purpose: Called when a new Socket connects to the server. Adds the connection to the 
- * ConnectionManager, calls the 'connected' method of the listener, starts a ping thread to 
- * make sure the connection stays alive, and starts a thread to listen to incoming packets
- * over TCP.
+ * ConnectionManager, calls the 'connected' method of the listener, starts checking whether the
+ * connection went idle on the server's timer wheel, and starts a thread to listen to incoming packets
+ * over TCP. When the selector engine is used the connection is registered to an event loop instead.
  * 
  * @author Jon R (Baseball435)
  * @version 1.0 7/19/2014
@@ -38,12 +41,33 @@ public class AcceptedSocketThread implements Runnable {
 	
 	@Override
 	public void run() {
-		Connection con = new Connection(-1, socket, server.getUdpSocket());
+		Connection con;
+		NioChannelHandler handler = null;
+		if (server.getNioEngine() != null) {
+			try {
+				handler = server.getNioEngine().createHandler(socket.getChannel());
+			} catch (IOException e) {
+				e.printStackTrace();
+				try {
+					socket.close();
+				} catch (IOException e1) {
+					//socket already closed
+				}
+				return;
+			}
+			con = handler.getConnection();
+		} else {
+			con = new Connection(-1, socket, server.getUdpSocket(), null, server.getConfig());
+		}
 		con.setProtocol(server);
-		ConnectionManager.getInstance().addConnection(con);
-		server.executeThread(new NewConnectionThread(server.getListener(), con));
-		if (((ServerConfig)server.getConfig()).PING_CLIENTS)
-			server.executeThread(new PingThread(server, con));
-		server.executeThread(new ServerTcpReadThread(server, con));
+		server.getConnectionManager().addConnection(con);
+		if (server.getConfig().COMPACT_FRAMING) //Must be the first packet sent to the connection
+			con.sendHandshake("TestAlivePing", FrameUtils.HANDSHAKE_OFFER, false);
+		server.getDispatcher().dispatch(con, new NewConnectionThread(server.getListener(), con));
+		new IdleCheckThread(con).run();
+		if (handler != null)
+			server.getNioEngine().register(handler); //The event loop reads the connection
+		else
+			server.executeThread(new ServerTcpReadThread(server, con));
 	}
 }
@@ -1,21 +1,20 @@
 package com.jmr.wrapper.server.threads;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 
 import com.jmr.wrapper.common.Connection;
-import com.jmr.wrapper.common.complex.ComplexManager;
-import com.jmr.wrapper.common.complex.ReceivedComplexPiece;
+import com.jmr.wrapper.common.listener.SocketListener;
+import com.jmr.wrapper.common.utils.FrameUtils;
 import com.jmr.wrapper.common.utils.PacketUtils;
-import com.jmr.wrapper.server.ConnectionManager;
 import com.jmr.wrapper.server.Server;
 
 /**
  * Networking Library
  * ServerTcpReadThread.java
  * Purpose: Waits for new incoming TCP packets from the server. Decrypts them and passes them
- * to the listener if the checksum's match.
+ * to the listener if the checksum's match. Calls the 'disconnected' method of the listener once
+ * the connection is lost.
  * 
  * @author Jon R (Baseball435)
  * @version 1.0 7/19/2014
@@ -48,59 +47,50 @@ public class ServerTcpReadThread implements Runnable {
 	
 	@Override
 	public void run() {
-		byte[] data = null;
+		/** Every packet is read into the same buffer since packets are handled before the next one is read. */
+		byte[] data = server.getBufferPool().acquire(FrameUtils.getMaxPacketSize(server));
+		byte[] header = new byte[FrameUtils.HEADER_SIZE];
+		try {
+			read(data, header);
+		} finally {
+			server.getBufferPool().release(data);
+		}
+	}
+	
+	/** Reads packets until the connection is closed.
+	 * @param data The buffer to read the packets into.
+	 * @param header The buffer to read the headers of compact packets into.
+	 */
+	private void read(byte[] data, byte[] header) {
 		while(con.getSocket() != null && !con.getSocket().isClosed() && in != null) {
 			try {
 				/** Get all data from the packet that was sent. */
-				data = new byte[server.getConfig().PACKET_BUFFER_SIZE];
+				boolean compact = con.isCompactTcpIn();
+				int length;
 				try { 
-					in.readFully(data);
+					if (compact) {
+						in.readFully(header);
+						length = FrameUtils.getLength(server, header);
+					} else {
+						length = server.getConfig().PACKET_BUFFER_SIZE;
+					}
+					in.readFully(data, 0, length);
 				} catch (Exception e) { //Client disconnected and data wasn't finished sending
-					ConnectionManager.getInstance().close(con);
+					server.getConnectionManager().close(con);
+					server.getDispatcher().dispatch(con, new DisconnectedThread((SocketListener)server.getListener(), con));
 					in.close();
 					in = null;
 					return;
 				}
-				/** Decrypt the data if the encryptor is set. */
-				if (server.getEncryptionMethod() != null)
-					data = server.getEncryptionMethod().decrypt(data);
-				
-				/** Get the checksum found before the packet was sent. */
-				String checksumSent = PacketUtils.getChecksumFromPacket(data);
-				
-				/** Return the object in bytes from the sent packet. */
-				byte[] objectArray = PacketUtils.getObjectFromPacket(data);
-				if (objectArray != null) {
-					
-					if (objectArray[0] == 99) { //Complex object
-						PacketUtils.handleComplexPiece(checksumSent, objectArray, con);
-					} else {
-					
-						/** Get the checksum value of the object array. */
-						String checksumVal = PacketUtils.getChecksumOfObject(objectArray);
-						
-						/** Get the object from the bytes. */
-						ByteArrayInputStream objIn = new ByteArrayInputStream(objectArray);
-						ObjectInputStream is = new ObjectInputStream(objIn);
-						Object object = is.readObject();
-						
-						/** Check if the checksums are equal. If they aren't it means the packet was edited or didn't send completely. */
-						if (checksumSent.equals(checksumVal)) {
-							if (!(object instanceof String)) {
-								server.executeThread(new ReceivedThread(server.getListener(), con, object));
-							} else if (!((String) object).equalsIgnoreCase("ConnectedToServer") && !((String)object).equalsIgnoreCase("TestAlivePing")) {
-								server.executeThread(new ReceivedThread(server.getListener(), con, object));
-							}
-						} else {
-							con.addPacketLoss();
-						}
-						is.close();
-						objIn.close();
-					}
-				}
+				con.markRead();
+				if (compact)
+					FrameUtils.handleFrame(server, con, true, header, data, 0, length);
+				else
+					PacketUtils.handleTcpPacket(server, con, data, length);
 			} catch (IOException | ClassNotFoundException e) { //disconnected
 				e.printStackTrace();
-				ConnectionManager.getInstance().close(con);
+				server.getConnectionManager().close(con);
+				server.getDispatcher().dispatch(con, new DisconnectedThread((SocketListener)server.getListener(), con));
 				try {
 					in.close();
 				} catch (IOException e1) {
@@ -109,6 +99,8 @@ public class ServerTcpReadThread implements Runnable {
 				in = null;
 			}
 		}
+		if (in != null) //The socket was closed between packets
+			server.getDispatcher().dispatch(con, new DisconnectedThread((SocketListener)server.getListener(), con));
 	}	
 	
 }
@@ -4,11 +4,12 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.net.DatagramPacket;
+import java.util.Arrays;
 
 import com.jmr.wrapper.common.Connection;
 import com.jmr.wrapper.common.IProtocol;
-import com.jmr.wrapper.common.complex.ComplexManager;
-import com.jmr.wrapper.common.complex.ReceivedComplexPiece;
+import com.jmr.wrapper.common.utils.ControlUtils;
+import com.jmr.wrapper.common.utils.FrameUtils;
 import com.jmr.wrapper.common.utils.PacketUtils;
 
 public class UdpHandleThread implements Runnable {
@@ -26,40 +27,72 @@ public class UdpHandleThread implements Runnable {
 	@Override
 	public void run() {
 		try {
+			if (con != null)
+				con.markRead();
+			
 			/** Get all data from the packet that was sent. */
 			byte[] data = readPacket.getData();
 			
-			/** Decrypt the data if the encryptor is set. */
-			if (protocol.getEncryptionMethod() != null)
-				data = protocol.getEncryptionMethod().decrypt(data);
+			int length = readPacket.getLength();
+			
+			if (FrameUtils.isFrame(data, length)) {
+				if (data[4] == FrameUtils.TYPE_CONTROL) {
+					ControlUtils.handleDatagram(protocol, readPacket);
+					return;
+				}
+				if (con == null) {
+					notConnected();
+					return;
+				}
+				FrameUtils.handleFrame(protocol, con, false, data, data, FrameUtils.HEADER_SIZE, length - FrameUtils.HEADER_SIZE);
+				return;
+			}
+			
+			/** Packets in the original framing from an address and port no connection has are only read if a connection from
+			 * the address is still waiting for its port, since they may be what binds it. Anything else is dropped unread. */
+			if (con == null && protocol.getConnectionManager().getUnboundConnection(readPacket.getAddress()) == null) {
+				notConnected();
+				return;
+			}
 			
-			/** Get the checksum found before the packet was sent. */
-			String checksumSent = PacketUtils.getChecksumFromPacket(data);
+			/** Packets in the original framing can't be authenticated, so they're dropped once there are session keys. */
+			if (con != null && con.getUdpCipher() != null)
+				return;
+			
+			/** Decrypt the data if the encryptor is set. */
+			if (protocol.getEncryptionMethod() != null) {
+				data = protocol.getEncryptionMethod().decrypt(Arrays.copyOf(data, length));
+				length = data.length;
+			}
 			
 			/** Return the object in bytes from the sent packet. */
-			byte[] objectArray = PacketUtils.getObjectFromPacket(data);
+			byte[] objectArray = PacketUtils.getObjectFromPacket(data, length);
 			
 			if (objectArray[0] == 99) { //Complex object
-				PacketUtils.handleComplexPiece(checksumSent, objectArray, con);
+				if (con == null) {
+					notConnected();
+					return;
+				}
+				PacketUtils.handleComplexPiece(PacketUtils.getChecksumFromPacket(data), objectArray, con);
 			} else {
-				/** Get the checksum value of the object array. */
-				String checksumVal = PacketUtils.getChecksumOfObject(objectArray);
-				
 				/** Get the object from the bytes. */
 				ByteArrayInputStream in = new ByteArrayInputStream(objectArray);
 				ObjectInputStream is = new ObjectInputStream(in);
 				Object object = is.readObject();
 				
 				/** Check if the checksums are equal. If they aren't it means the packet was edited or didn't send completely. */
-				if (checksumSent.equals(checksumVal)) {
+				if (PacketUtils.isChecksumValid(data, objectArray)) {
 					if (object instanceof String && ((String) object).equalsIgnoreCase("SettingUdpPort")) {
-						con.setUdpPort(readPacket.getPort());
+						bindUnverified();
+					} else if (con == null) {
+						notConnected();
 					} else {
-						protocol.executeThread(new ReceivedThread(protocol.getListener(), con, object));
+						protocol.getDispatcher().dispatch(con, new ReceivedThread(protocol.getListener(), con, object));
 					}
 				} else {
-					System.out.println("Lost: " + object + " Checksums: " + checksumSent + " - " + checksumVal);
-					con.addPacketLoss();
+					System.out.println("Lost: " + object + " Checksums: " + PacketUtils.getChecksumFromPacket(data) + " - " + PacketUtils.getChecksumOfObject(objectArray));
+					if (con != null)
+						con.addPacketLoss();
 				}
 				
 				is.close();
@@ -67,8 +100,35 @@ public class UdpHandleThread implements Runnable {
 			}
 		} catch (IOException | ClassNotFoundException e) {
 			e.printStackTrace();
-			
+		} finally {
+			protocol.getBufferPool().release(readPacket.getData());
 		}
 	}
+	
+	/** Binds the address and port a client without a session token sent its packet from to the oldest connection from
+	 * its address still waiting for its port. It's only a guess when clients share an address, so a connection bound 
+	 * with its token, or one with session keys whose packets have to be authenticated, is never changed by it.
+	 */
+	private void bindUnverified() {
+		Connection bound = con;
+		if (bound == null)
+			bound = protocol.getConnectionManager().getUnboundConnection(readPacket.getAddress());
+		if (bound == null)
+			notConnected();
+		else if (!bound.isUdpBound() && bound.getUdpCipher() == null)
+			bound.setUdpEndpoint(readPacket.getAddress(), readPacket.getPort());
+	}
+	
+	/** Drops the packet unread, since there are too many packets waiting to be read. */
+	public void drop() {
+		if (con != null)
+			con.addPacketLoss();
+		protocol.getBufferPool().release(readPacket.getData());
+	}
+	
+	/** Drops a packet from an address and port no connection has. */
+	private void notConnected() {
+		System.out.println("Connection tried sending a packet without being connected to TCP.");
+	}
 		
 }
@@ -6,7 +6,7 @@ import java.net.DatagramSocket;
 
 import com.jmr.wrapper.common.Connection;
 import com.jmr.wrapper.common.IProtocol;
-import com.jmr.wrapper.server.ConnectionManager;
+import com.jmr.wrapper.common.utils.FrameUtils;
 
 /**
  * Networking Library
@@ -39,15 +39,18 @@ public class UdpReadThread implements Runnable {
 	public void run() { 
 		while (udpSocket != null) {
 			try {
-				byte[] incomingData = new byte[protocol.getConfig().PACKET_BUFFER_SIZE];
-				DatagramPacket readPacket = new DatagramPacket(incomingData, incomingData.length);
-				udpSocket.receive(readPacket);
-				Connection con = ConnectionManager.getInstance().getConnection(readPacket.getAddress(), readPacket.getPort());
-				if (con == null) {
-					System.out.println("Connection tried sending a packet without being connected to TCP.");
-					return;
+				/** The buffer is given back to the pool by the handle thread once the packet is read. */
+				byte[] incomingData = protocol.getBufferPool().acquire(FrameUtils.getMaxPacketSize(protocol));
+				DatagramPacket readPacket = new DatagramPacket(incomingData, FrameUtils.getMaxPacketSize(protocol));
+				try {
+					udpSocket.receive(readPacket);
+				} catch (IOException e) {
+					protocol.getBufferPool().release(incomingData);
+					throw e;
 				}
-				protocol.executeThread(new UdpHandleThread(protocol, con, readPacket));
+				/** The connection is null if the address and port aren't bound yet, the packet may be what binds them. */
+				Connection con = protocol.getConnectionManager().getConnection(readPacket.getAddress(), readPacket.getPort());
+				protocol.getDispatcher().handleDatagram(new UdpHandleThread(protocol, con, readPacket));
 			} catch (IOException e) {
 				udpSocket = null;
 				protocol.close();
@@ -0,0 +1,150 @@
+package com.jmr.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.buffer.PooledOutputStream;
+import com.jmr.wrapper.common.codec.BinaryCodec;
+import com.jmr.wrapper.common.codec.ClassRegistry;
+import com.jmr.wrapper.server.Server;
+
+public class CodecTest {
+	
+	private static int failures = 0;
+	
+	public static void main(String[] args) throws Exception {
+		System.out.println("Codec Test.");
+		System.out.println("Starting server on localhost port 1911 for its buffer pool.");
+		Server server = new Server(1911, 1911);
+		
+		System.out.println("Checking BinaryCodec round-trips.");
+		ClassRegistry registry = new ClassRegistry();
+		registry.register(CodecColor.class);
+		registry.register(CodecPoint.class);
+		BinaryCodec codec = new BinaryCodec(registry);
+		for (Object value : createValues())
+			roundTrip(server, codec, value);
+		
+		server.close();
+		System.out.println(failures == 0 ? "All codec checks passed." : failures + " codec checks failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+	
+	private static List<Object> createValues() {
+		List<Object> values = new ArrayList<Object>();
+		values.add(null);
+		values.add(true);
+		values.add(false);
+		values.add((byte) -7);
+		values.add((short) 30000);
+		values.add('n');
+		values.add(Integer.MIN_VALUE);
+		values.add(Long.MAX_VALUE);
+		values.add(3.5f);
+		values.add(-0.25);
+		values.add("");
+		values.add("Networking \u00e9\u4e16");
+		values.add(new byte[] { 1, -2, 3 });
+		values.add(new short[] { 1, -2, 3 });
+		values.add(new char[] { 'a', 'b' });
+		values.add(new int[] { 1, Integer.MAX_VALUE });
+		values.add(new long[] { 1, Long.MIN_VALUE });
+		values.add(new float[] { 1.5f });
+		values.add(new double[] { 2.5, -1 });
+		values.add(new boolean[] { true, false, true });
+		values.add(new String[] { "a", null, "c" });
+		values.add(new Object[] { 1, "two", null, new int[] { 3 } });
+		values.add(new CodecPoint[] { new CodecPoint(1, 2), null, new CodecPoint(-3, 4) });
+		values.add(new ArrayList<Object>(Arrays.<Object>asList(1, "two", 3L)));
+		values.add(new LinkedList<Object>(Arrays.<Object>asList("a", null)));
+		values.add(new HashSet<Object>(Arrays.<Object>asList(1, 2, 3)));
+		values.add(new LinkedHashSet<Object>(Arrays.<Object>asList("c", "a", "b")));
+		values.add(new TreeSet<Object>(Arrays.<Object>asList("c", "a", "b")));
+		HashMap<Object, Object> map = new HashMap<Object, Object>();
+		map.put("one", 1);
+		map.put(2, new CodecPoint(5, 6));
+		values.add(map);
+		values.add(new LinkedHashMap<Object, Object>(map));
+		TreeMap<Object, Object> sorted = new TreeMap<Object, Object>();
+		sorted.put("b", 2);
+		sorted.put("a", 1);
+		values.add(sorted);
+		values.add(CodecColor.BLUE);
+		values.add(new CodecPoint(7, -8));
+		values.add(new Date(1406246400000L));
+		return values;
+	}
+	
+	private static void roundTrip(IProtocol protocol, BinaryCodec codec, Object value) {
+		try {
+			byte[] data = encode(protocol, codec, value);
+			Object decoded = codec.decode(protocol, data, 0, data.length);
+			check(Arrays.deepEquals(new Object[] { value }, new Object[] { decoded }), "Round-trip of " + describe(value) + " gave " + describe(decoded));
+			check(value == null || decoded.getClass() == value.getClass(), "Round-trip of " + describe(value) + " changed its class");
+		} catch (Exception e) {
+			check(false, "Round-trip of " + describe(value) + " threw " + e);
+		}
+	}
+	
+	private static byte[] encode(IProtocol protocol, BinaryCodec codec, Object value) throws Exception {
+		PooledOutputStream out = codec.encode(protocol, value);
+		return Arrays.copyOf(out.getBuffer(), out.size());
+	}
+	
+	private static String describe(Object value) {
+		return value instanceof Object[] ? Arrays.deepToString((Object[]) value) : String.valueOf(value);
+	}
+	
+	static void check(boolean passed, String message) {
+		if (passed)
+			return;
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+	
+}
+
+enum CodecColor {
+	RED, GREEN, BLUE
+}
+
+class CodecPoint {
+	
+	int x;
+	
+	int y;
+	
+	CodecPoint() {
+	}
+	
+	CodecPoint(int x, int y) {
+		this.x = x;
+		this.y = y;
+	}
+	
+	@Override
+	public boolean equals(Object object) {
+		return object instanceof CodecPoint && ((CodecPoint) object).x == x && ((CodecPoint) object).y == y;
+	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * x + y;
+	}
+	
+	@Override
+	public String toString() {
+		return "CodecPoint(" + x + ", " + y + ")";
+	}
+	
+}
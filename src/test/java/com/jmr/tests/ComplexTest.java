@@ -9,7 +9,6 @@ import com.jmr.wrapper.client.Client;
 import com.jmr.wrapper.common.Connection;
 import com.jmr.wrapper.common.exceptions.NNCantStartServer;
 import com.jmr.wrapper.common.listener.SocketListener;
-import com.jmr.wrapper.server.ConnectionManager;
 import com.jmr.wrapper.server.Server;
 
 public class ComplexTest {
@@ -49,7 +48,7 @@ class ComplexTestListener implements SocketListener {
 	
 	@Override
 	public void connected(Connection con) {
-		System.out.println("Client connected from " + con.getAddress() + ". Total: " + ConnectionManager.getInstance().getConnections().size());
+		System.out.println("Client connected from " + con.getAddress() + ". Total: " + con.getProtocol().getConnectionManager().getConnections().size());
 		clients.add(con);
 	}
 	
@@ -0,0 +1,172 @@
+package com.jmr.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.jmr.wrapper.client.Client;
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.listener.SocketListener;
+import com.jmr.wrapper.common.utils.IntMap;
+import com.jmr.wrapper.server.ConnectionManager;
+import com.jmr.wrapper.server.Server;
+
+public class ConnectionManagerTest {
+	
+	private static final int CLIENTS = 3;
+	
+	private static int failures = 0;
+	
+	public static void main(String[] args) throws Exception {
+		System.out.println("Connection Manager Test.");
+		System.out.println("Checking IntMap.");
+		checkIntMap();
+		System.out.println("Checking IntMap reads while it's changed.");
+		checkConcurrentReads();
+		
+		System.out.println("Starting server on localhost port 1961 and connecting " + CLIENTS + " clients.");
+		Server server = new Server(1961, 1961);
+		server.setListener(new ManagerListener());
+		List<Client> clients = new ArrayList<Client>();
+		for (int i = 0; i < CLIENTS; i++) {
+			Client client = new Client("localhost", 1961, 1961);
+			client.setListener(new ManagerListener());
+			client.connect();
+			clients.add(client);
+		}
+		ConnectionManager manager = server.getConnectionManager();
+		for (int i = 0; i < 100 && !isBound(manager); i++)
+			Thread.sleep(20);
+		check(isBound(manager), "The server didn't bind every client's UDP port");
+		
+		for (Connection con : manager.getConnections()) {
+			check(manager.getConnection(con.getId()) == con, "Connection " + con.getId() + " isn't found by its id");
+			check(manager.getConnection(con.getSocket()) == con, "Connection " + con.getId() + " isn't found by its socket");
+			check(manager.getConnection(con.getUdpAddress(), con.getUdpPort()) == con, "Connection " + con.getId() + " isn't found by its UDP endpoint");
+		}
+		check(manager.getUnboundConnection(clients.get(0).getServerConnection().getSocket().getLocalAddress()) == null, "A bound connection is still waiting for its UDP port");
+		
+		Client closed = clients.remove(0);
+		int port = closed.getUdpSocket().getLocalPort();
+		Connection con = null;
+		for (Connection c : manager.getConnections()) {
+			if (c.getUdpPort() == port)
+				con = c;
+		}
+		check(con != null, "No connection has the UDP port of the first client");
+		closed.close();
+		for (int i = 0; i < 100 && manager.getConnections().size() > CLIENTS - 1; i++)
+			Thread.sleep(20);
+		check(manager.getConnections().size() == CLIENTS - 1, manager.getConnections().size() + " connections are left, expected " + (CLIENTS - 1));
+		if (con != null) {
+			check(manager.getConnection(con.getId()) == null, "A closed connection is still found by its id");
+			check(manager.getConnection(con.getUdpAddress(), port) == null, "A closed connection is still found by its UDP endpoint");
+		}
+		
+		for (Client client : clients)
+			client.close();
+		server.close();
+		System.out.println(failures == 0 ? "All connection manager checks passed." : failures + " connection manager checks failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+	
+	private static void checkIntMap() {
+		IntMap<Integer> map = new IntMap<Integer>();
+		Integer[] values = new Integer[1001]; //Removed by identity, so the boxed values are kept
+		for (int key = -500; key <= 500; key++) {
+			values[key + 500] = Integer.valueOf(key);
+			if (key != 0)
+				check(map.put(key, values[key + 500]) == null, "Key " + key + " already had a value");
+		}
+		check(map.size() == 1000, "The map has " + map.size() + " values, expected 1000");
+		check(map.put(7, 70) == 7 && map.get(7) == 70, "A value wasn't replaced");
+		check(!map.remove(8, values[9 + 500]) && !map.remove(300, values[301 + 500]), "A key was removed with a value it doesn't have");
+		for (int key = -500; key <= 500; key += 2) {
+			if (key != 0)
+				check(map.remove(key, values[key + 500]), "Key " + key + " wasn't removed");
+		}
+		check(map.size() == 500, "The map has " + map.size() + " values after removing, expected 500");
+		for (int key = -499; key <= 499; key += 2)
+			check(map.get(key) != null, "Key " + key + " was lost");
+		for (int key = -500; key <= 500; key += 2)
+			check(map.get(key) == null, "Removed key " + key + " still has a value");
+		check(map.get(1000) == null, "A key that was never put has a value");
+		check(map.copyValues(new ArrayList<Integer>()).size() == 500, "Not every value was copied");
+		try {
+			map.put(0, 0);
+			check(false, "Key 0 was accepted");
+		} catch (IllegalArgumentException e) {
+		}
+		map.clear();
+		check(map.size() == 0 && map.get(1) == null, "The map wasn't cleared");
+	}
+	
+	private static void checkConcurrentReads() throws InterruptedException {
+		final IntMap<Integer> map = new IntMap<Integer>();
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicBoolean wrong = new AtomicBoolean();
+		for (int key = 1; key <= 100; key++)
+			map.put(key, key);
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!done.get()) {
+					for (int key = 1; key <= 100; key++) {
+						Integer value = map.get(key);
+						if (value == null || value != key)
+							wrong.set(true);
+					}
+				}
+			}
+		});
+		reader.start();
+		int size = 100;
+		for (int key = 101; key < 20000; key++) { //Rebuilds the table many times
+			Integer value = key;
+			map.put(key, value);
+			if (key % 3 == 0)
+				map.remove(key, value);
+			else
+				size++;
+		}
+		done.set(true);
+		reader.join();
+		check(!wrong.get(), "A key that was never removed was missing or had the wrong value while the map was changed");
+		check(map.size() == size, "The map has " + map.size() + " values after changing it, expected " + size);
+	}
+	
+	private static boolean isBound(ConnectionManager manager) {
+		List<Connection> cons = manager.getConnections();
+		if (cons.size() < CLIENTS)
+			return false;
+		for (Connection con : cons) {
+			if (!con.isUdpBound())
+				return false;
+		}
+		return true;
+	}
+	
+	static void check(boolean passed, String message) {
+		if (passed)
+			return;
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+	
+}
+
+class ManagerListener implements SocketListener {
+	
+	@Override
+	public void received(Connection con, Object object) {
+	}
+	
+	@Override
+	public void connected(Connection con) {
+	}
+	
+	@Override
+	public void disconnected(Connection con) {
+	}
+	
+}
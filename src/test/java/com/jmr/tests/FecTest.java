@@ -0,0 +1,185 @@
+package com.jmr.tests;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jmr.wrapper.client.Client;
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.complex.ComplexPiece;
+import com.jmr.wrapper.common.listener.SocketListener;
+import com.jmr.wrapper.common.utils.FrameUtils;
+import com.jmr.wrapper.server.Server;
+
+public class FecTest {
+	
+	private static final int OBJECTS = 20;
+	
+	private static final int PIECES = 8;
+	
+	private static int failures = 0;
+	
+	public static void main(String[] args) throws Exception {
+		System.out.println("FEC Test.");
+		System.out.println("Starting server on localhost port 1921 and a relay on port 1922 that drops pieces 1 and 4 of every object.");
+		Server server = new Server(1921, 1921);
+		FecServerListener listener = new FecServerListener();
+		server.setListener(listener);
+		FecRelay relay = new FecRelay(1922, 1921);
+		new Thread(relay, "FecRelay").start();
+		
+		Client client = new Client("localhost", 1921, 1922);
+		client.getConfig().COMPLEX_FEC_RATIO = 0.5;
+		client.setListener(new FecClientListener());
+		client.connect();
+		Connection con = client.getServerConnection();
+		for (int i = 0; i < 100 && (listener.con == null || !listener.con.isUdpBound()); i++)
+			Thread.sleep(20);
+		check(listener.con != null && listener.con.isUdpBound(), "The server didn't bind the client's UDP port");
+		check(con.isParitySupported(), "The server doesn't support parity pieces");
+		
+		relay.dropping = true;
+		Random random = new Random(3);
+		for (int i = 0; i < OBJECTS; i++) {
+			byte[] data = new byte[4000 + random.nextInt(4000)];
+			random.nextBytes(data);
+			data[0] = (byte) i;
+			listener.sent.put(i, data);
+			con.sendComplexObjectUdp((Object) data, PIECES);
+			Thread.sleep(20);
+		}
+		for (int i = 0; i < 100 && listener.rebuilt.size() < OBJECTS; i++)
+			Thread.sleep(20);
+		
+		check(relay.dropped.get() == OBJECTS * 2, "The relay dropped " + relay.dropped.get() + " pieces, expected " + OBJECTS * 2);
+		check(listener.rebuilt.size() == OBJECTS, "Rebuilt " + listener.rebuilt.size() + " of " + OBJECTS + " objects");
+		check(listener.corrupted.get() == 0, listener.corrupted.get() + " objects were rebuilt wrong");
+		
+		relay.close();
+		client.close();
+		server.close();
+		System.out.println(failures == 0 ? "All FEC checks passed." : failures + " FEC checks failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+	
+	static void check(boolean passed, String message) {
+		if (passed)
+			return;
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+	
+}
+
+class FecRelay implements Runnable {
+	
+	final DatagramSocket socket;
+	
+	final int serverPort;
+	
+	final AtomicInteger dropped = new AtomicInteger();
+	
+	volatile boolean dropping = false;
+	
+	volatile SocketAddress client;
+	
+	FecRelay(int port, int serverPort) throws IOException {
+		this.socket = new DatagramSocket(port);
+		this.serverPort = serverPort;
+	}
+	
+	@Override
+	public void run() {
+		byte[] buffer = new byte[65536];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		try {
+			while (true) {
+				packet.setData(buffer);
+				socket.receive(packet);
+				if (packet.getPort() == serverPort) {
+					if (client != null)
+						socket.send(new DatagramPacket(packet.getData(), packet.getLength(), client));
+					continue;
+				}
+				client = packet.getSocketAddress();
+				if (dropping && isDropped(packet.getData(), packet.getLength())) {
+					dropped.incrementAndGet();
+					continue;
+				}
+				socket.send(new DatagramPacket(packet.getData(), packet.getLength(), InetAddress.getByName("localhost"), serverPort));
+			}
+		} catch (IOException e) {
+			//closed
+		}
+	}
+	
+	/** Drops the second and fifth piece of every complex object, but none of the parity pieces. */
+	boolean isDropped(byte[] data, int length) {
+		if (length < FrameUtils.HEADER_SIZE + 13 || data[4] != FrameUtils.TYPE_COMPLEX || (data[5] & FrameUtils.FLAG_PARITY) != 0)
+			return false;
+		int index = FrameUtils.HEADER_SIZE + 1;
+		if (data[FrameUtils.HEADER_SIZE] == ComplexPiece.NUMBERED_KEY)
+			index += ComplexPiece.MESSAGE_ID_SIZE;
+		int id = (data[index] & 0xFF) << 24 | (data[index + 1] & 0xFF) << 16 | (data[index + 2] & 0xFF) << 8 | (data[index + 3] & 0xFF);
+		return id == 1 || id == 4;
+	}
+	
+	void close() {
+		socket.close();
+	}
+	
+}
+
+class FecServerListener implements SocketListener {
+	
+	final ConcurrentHashMap<Integer, byte[]> sent = new ConcurrentHashMap<Integer, byte[]>();
+	
+	final ConcurrentHashMap<Integer, Boolean> rebuilt = new ConcurrentHashMap<Integer, Boolean>();
+	
+	final AtomicInteger corrupted = new AtomicInteger();
+	
+	volatile Connection con;
+	
+	@Override
+	public void received(Connection con, Object object) {
+		if (!(object instanceof byte[]))
+			return;
+		byte[] data = (byte[]) object;
+		if (Arrays.equals(data, sent.get((int) data[0])))
+			rebuilt.put((int) data[0], true);
+		else
+			corrupted.incrementAndGet();
+	}
+	
+	@Override
+	public void connected(Connection con) {
+		this.con = con;
+	}
+	
+	@Override
+	public void disconnected(Connection con) {
+	}
+	
+}
+
+class FecClientListener implements SocketListener {
+	
+	@Override
+	public void received(Connection con, Object object) {
+	}
+	
+	@Override
+	public void connected(Connection con) {
+	}
+	
+	@Override
+	public void disconnected(Connection con) {
+	}
+	
+}
@@ -0,0 +1,195 @@
+package com.jmr.tests;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.jmr.wrapper.client.Client;
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.compression.DeflateCompressor;
+import com.jmr.wrapper.common.compression.Lz4Compressor;
+import com.jmr.wrapper.common.config.Config;
+import com.jmr.wrapper.common.listener.SocketListener;
+import com.jmr.wrapper.server.Server;
+import com.jmr.wrapper.server.ServerConfig;
+
+public class FramingTest {
+	
+	static final int MESSAGES = 50;
+	
+	private static int failures = 0;
+	
+	public static void main(String[] args) throws Exception {
+		System.out.println("Framing Test.");
+		
+		run("Compact server, original framing client", 1901, true, false, null, null);
+		run("Original framing server, compact client", 1902, false, true, null, null);
+		run("Compact server and client", 1903, true, true, null, null);
+		run("LZ4 compressed frames", 1904, true, true, "lz4", "lz4");
+		run("Deflate compressed frames", 1905, true, true, "deflate", "deflate");
+		run("Streaming deflate compressed frames", 1906, true, true, "deflate stream", "deflate stream");
+		run("Compressing server, original framing client", 1907, true, false, "lz4", null);
+		
+		System.out.println(failures == 0 ? "All framing checks passed." : failures + " framing checks failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+	
+	private static void run(String name, int port, boolean serverCompact, boolean clientCompact, String serverCompression, String clientCompression) throws Exception {
+		System.out.println(name + " on localhost port " + port + ".");
+		ServerConfig config = new ServerConfig();
+		config.COMPACT_FRAMING = serverCompact;
+		compression(config, serverCompression);
+		Server server = new Server(port, port, config);
+		FramingEchoListener echo = new FramingEchoListener();
+		server.setListener(echo);
+		
+		FramingClientListener listener = new FramingClientListener();
+		Client client = new Client("localhost", port, port);
+		client.getConfig().COMPACT_FRAMING = clientCompact;
+		compression(client.getConfig(), clientCompression);
+		client.setListener(listener);
+		client.connect();
+		
+		Connection con = client.getServerConnection();
+		for (int i = 0; i < MESSAGES; i++)
+			con.sendTcp(new FramingMessage("tcp", i, 10 * i));
+		con.sendComplexObjectTcp(new FramingMessage("complex", 0, 20000));
+		listener.tcp.await(5, TimeUnit.SECONDS);
+		check(listener.tcp.getCount() == 0, name + ": " + listener.tcp.getCount() + " TCP objects weren't echoed");
+		
+		/** The client switches to compact frames once the server's handshake reply is read. */
+		boolean compact = serverCompact && clientCompact;
+		for (int i = 0; i < 100 && (con.isCompactTcpOut() != compact || con.isCompactTcpIn() != compact); i++)
+			Thread.sleep(20);
+		check(con.isCompactTcpOut() == compact && con.isCompactTcpIn() == compact, name + ": compact framing negotiated " + con.isCompactTcpOut() + ", expected " + compact);
+		
+		/** The server binds the client's UDP socket with the session token, or from its port packet with original framing. */
+		for (int i = 0; i < 100 && !isUdpBound(echo.con, client); i++)
+			Thread.sleep(20);
+		check(isUdpBound(echo.con, client), name + ": the server didn't bind the client's UDP port");
+		for (int i = 0; i < MESSAGES; i++) {
+			con.sendUdp(new FramingMessage("udp", i, 10));
+			Thread.sleep(1);
+		}
+		listener.udp.await(5, TimeUnit.SECONDS);
+		check(listener.udp.getCount() == 0, name + ": " + listener.udp.getCount() + " UDP objects weren't echoed");
+		check(listener.corrupted == 0, name + ": " + listener.corrupted + " objects came back different");
+		
+		client.close();
+		server.close();
+	}
+	
+	private static boolean isUdpBound(Connection serverCon, Client client) {
+		return serverCon != null && (serverCon.isUdpBound() || serverCon.getUdpPort() == client.getUdpSocket().getLocalPort());
+	}
+	
+	private static void compression(Config config, String mode) {
+		if (mode == null)
+			return;
+		config.COMPRESSOR = mode.contains("lz4") ? Lz4Compressor.INSTANCE : DeflateCompressor.INSTANCE;
+		config.COMPRESSION_STREAMING = mode.contains("stream");
+		config.COMPRESSION_THRESHOLD = 64;
+	}
+	
+	static void check(boolean passed, String message) {
+		if (passed)
+			return;
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+	
+}
+
+class FramingMessage implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	final String kind;
+	
+	final int id;
+	
+	final String text;
+	
+	final byte[] data;
+	
+	FramingMessage(String kind, int id, int size) {
+		this.kind = kind;
+		this.id = id;
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < size / 10; i++)
+			builder.append("message ").append(i % 10).append(' ');
+		this.text = builder.toString();
+		this.data = createData(id, size);
+	}
+	
+	static byte[] createData(int id, int size) {
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++)
+			data[i] = (byte) (i * 7 + id);
+		return data;
+	}
+	
+	boolean isValid() {
+		return Arrays.equals(data, createData(id, data.length)) && text.length() == data.length / 10 * 10;
+	}
+	
+}
+
+class FramingEchoListener implements SocketListener {
+	
+	volatile Connection con;
+	
+	@Override
+	public void received(Connection con, Object object) {
+		FramingMessage message = (FramingMessage) object;
+		if (message.kind.equals("complex"))
+			con.sendComplexObjectTcp(message);
+		else if (message.kind.equals("udp"))
+			con.sendUdp(message);
+		else
+			con.sendTcp(message);
+	}
+	
+	@Override
+	public void connected(Connection con) {
+		this.con = con;
+	}
+	
+	@Override
+	public void disconnected(Connection con) {
+	}
+	
+}
+
+class FramingClientListener implements SocketListener {
+	
+	final ConcurrentHashMap<String, Boolean> received = new ConcurrentHashMap<String, Boolean>();
+	
+	final CountDownLatch tcp = new CountDownLatch(FramingTest.MESSAGES + 1);
+	
+	final CountDownLatch udp = new CountDownLatch(FramingTest.MESSAGES);
+	
+	volatile int corrupted = 0;
+	
+	@Override
+	public void received(Connection con, Object object) {
+		if (!(object instanceof FramingMessage))
+			return;
+		FramingMessage message = (FramingMessage) object;
+		if (!message.isValid())
+			corrupted++;
+		if (received.put(message.kind + message.id, true) == null)
+			(message.kind.equals("udp") ? udp : tcp).countDown();
+	}
+	
+	@Override
+	public void connected(Connection con) {
+	}
+	
+	@Override
+	public void disconnected(Connection con) {
+	}
+	
+}
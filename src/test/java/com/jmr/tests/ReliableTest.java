@@ -0,0 +1,174 @@
+package com.jmr.tests;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.jmr.wrapper.client.Client;
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.listener.SocketListener;
+import com.jmr.wrapper.server.Server;
+
+public class ReliableTest {
+	
+	private static final int OBJECTS = 300;
+	
+	private static int failures = 0;
+	
+	public static void main(String[] args) throws Exception {
+		System.out.println("Reliable UDP Test.");
+		System.out.println("Starting server on localhost port 1931 and a relay on port 1932 that loses a fifth of the packets both ways.");
+		Server server = new Server(1931, 1931);
+		ReliableServerListener listener = new ReliableServerListener();
+		server.setListener(listener);
+		ReliableRelay relay = new ReliableRelay(1932, 1931, 0.2);
+		new Thread(relay, "ReliableRelay").start();
+		
+		Client client = new Client("localhost", 1931, 1932);
+		client.setListener(new ReliableClientListener());
+		client.connect();
+		Connection con = client.getServerConnection();
+		for (int i = 0; i < 100 && (listener.con == null || !listener.con.isUdpBound()); i++)
+			Thread.sleep(20);
+		check(listener.con != null && listener.con.isUdpBound(), "The server didn't bind the client's UDP port");
+		check(con.isReliableUdpSupported(), "The server doesn't read reliable UDP packets");
+		
+		relay.dropping = true;
+		List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+		for (int i = 0; i < OBJECTS; i++)
+			futures.add(con.sendReliableUdp(i));
+		try {
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).get(30, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			check(false, "An object wasn't acknowledged: " + e.getCause());
+		}
+		for (int i = 0; i < 50 && listener.received.size() < OBJECTS; i++)
+			Thread.sleep(20);
+		
+		check(relay.dropped.get() > 0, "The relay didn't drop any packets");
+		check(listener.received.size() == OBJECTS, "Received " + listener.received.size() + " of " + OBJECTS + " objects");
+		boolean ordered = true;
+		for (int i = 0; i < listener.received.size() && ordered; i++)
+			ordered = listener.received.get(i) == i;
+		check(ordered, "The objects weren't received in the order they were sent");
+		
+		client.close();
+		CompletableFuture<Void> closed = con.sendReliableUdp(-1);
+		check(closed.isCompletedExceptionally(), "An object sent on a closed connection wasn't failed");
+		
+		relay.close();
+		server.close();
+		System.out.println(failures == 0 ? "All reliable UDP checks passed." : failures + " reliable UDP checks failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+	
+	static void check(boolean passed, String message) {
+		if (passed)
+			return;
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+	
+}
+
+class ReliableRelay implements Runnable {
+	
+	final DatagramSocket socket;
+	
+	final int serverPort;
+	
+	final double loss;
+	
+	final Random random = new Random(5);
+	
+	final AtomicInteger dropped = new AtomicInteger();
+	
+	volatile boolean dropping = false;
+	
+	volatile SocketAddress client;
+	
+	ReliableRelay(int port, int serverPort, double loss) throws IOException {
+		this.socket = new DatagramSocket(port);
+		this.serverPort = serverPort;
+		this.loss = loss;
+	}
+	
+	@Override
+	public void run() {
+		byte[] buffer = new byte[65536];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		try {
+			while (true) {
+				packet.setData(buffer);
+				socket.receive(packet);
+				boolean fromServer = packet.getPort() == serverPort;
+				if (!fromServer)
+					client = packet.getSocketAddress();
+				if (dropping && random.nextDouble() < loss) {
+					dropped.incrementAndGet();
+					continue;
+				}
+				if (!fromServer)
+					socket.send(new DatagramPacket(packet.getData(), packet.getLength(), InetAddress.getByName("localhost"), serverPort));
+				else if (client != null)
+					socket.send(new DatagramPacket(packet.getData(), packet.getLength(), client));
+			}
+		} catch (IOException e) {
+			//closed
+		}
+	}
+	
+	void close() {
+		socket.close();
+	}
+	
+}
+
+class ReliableServerListener implements SocketListener {
+	
+	final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+	
+	volatile Connection con;
+	
+	@Override
+	public void received(Connection con, Object object) {
+		if (object instanceof Integer)
+			received.add((Integer) object);
+	}
+	
+	@Override
+	public void connected(Connection con) {
+		this.con = con;
+	}
+	
+	@Override
+	public void disconnected(Connection con) {
+	}
+	
+}
+
+class ReliableClientListener implements SocketListener {
+	
+	@Override
+	public void received(Connection con, Object object) {
+	}
+	
+	@Override
+	public void connected(Connection con) {
+	}
+	
+	@Override
+	public void disconnected(Connection con) {
+	}
+	
+}
@@ -0,0 +1,113 @@
+package com.jmr.tests;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.jmr.wrapper.encryption.AeadCipher;
+import com.jmr.wrapper.encryption.CipherSuite;
+
+public class ReplayTest {
+	
+	private static final byte[] HEADER = { 0, 0, 0, 42, 0, 0, 0, 0, 0, 0 };
+	
+	private static int failures = 0;
+	
+	public static void main(String[] args) throws Exception {
+		System.out.println("AEAD Replay Window Test.");
+		for (CipherSuite suite : CipherSuite.values()) {
+			if (!suite.isAvailable()) {
+				System.out.println("Skipped " + suite + ": the JDK doesn't have it.");
+				continue;
+			}
+			System.out.println("Checking " + suite + ".");
+			checkDatagrams(suite);
+			checkStream(suite);
+		}
+		System.out.println(failures == 0 ? "All replay checks passed." : failures + " replay checks failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+	
+	private static void checkDatagrams(CipherSuite suite) throws GeneralSecurityException {
+		byte[] key1 = createKey(1), key2 = createKey(2);
+		AeadCipher sender = new AeadCipher(suite, key1, key2, true);
+		AeadCipher receiver = new AeadCipher(suite, key2, key1, true);
+		
+		List<byte[]> packets = new ArrayList<byte[]>();
+		for (int i = 0; i < 10; i++)
+			packets.add(encrypt(sender, createPayload(i)));
+		
+		for (int i = 0; i < 10; i++) {
+			if (i == 1 || i == 5 || i == 6)
+				continue;
+			check(Arrays.equals(decrypt(receiver, packets.get(i)), createPayload(i)), suite + ": packet " + i + " wasn't decrypted");
+		}
+		check(decrypt(receiver, packets.get(3)) == null, suite + ": a packet received twice was accepted");
+		check(decrypt(receiver, packets.get(9)) == null, suite + ": the newest packet received twice was accepted");
+		check(Arrays.equals(decrypt(receiver, packets.get(6)), createPayload(6)), suite + ": a reordered packet was dropped");
+		check(decrypt(receiver, packets.get(6)) == null, suite + ": a reordered packet received twice was accepted");
+		
+		byte[] tampered = packets.get(5).clone();
+		tampered[tampered.length - 1] ^= 1;
+		check(decrypt(receiver, tampered) == null, suite + ": a tampered packet was accepted");
+		check(Arrays.equals(decrypt(receiver, packets.get(5)), createPayload(5)), suite + ": a tampered copy kept the real packet from being accepted");
+		
+		for (int i = 10; i < AeadCipher.REPLAY_WINDOW + 10; i++)
+			decrypt(receiver, encrypt(sender, createPayload(i)));
+		check(decrypt(receiver, packets.get(1)) == null, suite + ": a packet older than the window was accepted");
+	}
+	
+	private static void checkStream(CipherSuite suite) throws GeneralSecurityException {
+		byte[] key1 = createKey(3), key2 = createKey(4);
+		AeadCipher sender = new AeadCipher(suite, key1, key2, false);
+		AeadCipher receiver = new AeadCipher(suite, key2, key1, false);
+		
+		byte[] first = encrypt(sender, createPayload(0));
+		byte[] second = encrypt(sender, createPayload(1));
+		check(Arrays.equals(decrypt(receiver, first), createPayload(0)), suite + ": the first TCP packet wasn't decrypted");
+		check(decrypt(receiver, first) == null, suite + ": a TCP packet written twice was accepted");
+		check(Arrays.equals(decrypt(receiver, second), createPayload(1)), suite + ": the TCP packet after a rejected one wasn't decrypted");
+	}
+	
+	private static byte[] encrypt(AeadCipher cipher, byte[] payload) throws GeneralSecurityException {
+		ByteBuffer dest = ByteBuffer.allocate(payload.length + cipher.getOverhead());
+		cipher.encrypt(ByteBuffer.wrap(HEADER), ByteBuffer.wrap(payload), dest);
+		return Arrays.copyOf(dest.array(), dest.position());
+	}
+	
+	private static byte[] decrypt(AeadCipher cipher, byte[] packet) {
+		ByteBuffer buffer = ByteBuffer.wrap(packet.clone());
+		try {
+			cipher.decrypt(ByteBuffer.wrap(HEADER), buffer);
+		} catch (GeneralSecurityException e) {
+			return null;
+		}
+		byte[] payload = new byte[buffer.remaining()];
+		buffer.get(payload);
+		return payload;
+	}
+	
+	private static byte[] createKey(int seed) {
+		byte[] key = new byte[32];
+		for (int i = 0; i < key.length; i++)
+			key[i] = (byte) (i * 31 + seed);
+		return key;
+	}
+	
+	private static byte[] createPayload(int id) {
+		byte[] payload = new byte[64 + id % 7];
+		for (int i = 0; i < payload.length; i++)
+			payload[i] = (byte) (i + id);
+		return payload;
+	}
+	
+	static void check(boolean passed, String message) {
+		if (passed)
+			return;
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+	
+}
@@ -0,0 +1,175 @@
+package com.jmr.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import com.jmr.wrapper.client.Client;
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.exceptions.NNRequestFailed;
+import com.jmr.wrapper.common.listener.Responder;
+import com.jmr.wrapper.common.listener.SocketListener;
+import com.jmr.wrapper.server.Server;
+
+public class RequestTest {
+	
+	private static final int REQUESTS = 100;
+	
+	private static int failures = 0;
+	
+	public static void main(String[] args) throws Exception {
+		System.out.println("Request Test.");
+		System.out.println("Starting server on localhost port 1951.");
+		Server server = new Server(1951, 1951);
+		server.setListener(new RequestListener());
+		server.getRequestManager().register(Integer.class, new Responder<Integer>() {
+			@Override
+			public Object respond(Connection con, Integer request) {
+				if (request % 2 == 1)
+					return request * request;
+				return later(request * request, 50); //Answered after the odd requests sent after it
+			}
+		});
+		server.getRequestManager().register(Number.class, new Responder<Number>() {
+			@Override
+			public Object respond(Connection con, Number request) {
+				return "number " + request;
+			}
+		});
+		server.getRequestManager().register(CharSequence.class, new Responder<CharSequence>() {
+			@Override
+			public Object respond(Connection con, CharSequence request) throws Exception {
+				if (request.equals("fail"))
+					throw new IllegalStateException("refused");
+				if (request.equals("slow"))
+					return later("slow", 500);
+				if (request.equals("never"))
+					return new CompletableFuture<Object>();
+				return request.length();
+			}
+		});
+		
+		Client client = new Client("localhost", 1951, 1951);
+		client.setListener(new RequestListener());
+		client.connect();
+		Connection con = client.getServerConnection();
+		for (int i = 0; i < 100 && !con.isRequestSupported(); i++)
+			Thread.sleep(20);
+		check(con.isRequestSupported(), "The server doesn't answer requests");
+		
+		System.out.println("Checking " + REQUESTS + " pipelined requests answered out of order.");
+		List<CompletableFuture<Object>> futures = new ArrayList<CompletableFuture<Object>>();
+		List<CompletableFuture<Void>> recorded = new ArrayList<CompletableFuture<Void>>();
+		final List<Integer> completed = new ArrayList<Integer>();
+		for (int i = 0; i < REQUESTS; i++) {
+			final int request = i;
+			CompletableFuture<Object> future = con.request(request, 5000);
+			recorded.add(future.thenRun(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (completed) {
+						completed.add(request);
+					}
+				}
+			}));
+			futures.add(future);
+		}
+		for (int i = 0; i < REQUESTS; i++) {
+			Object response = get(futures.get(i));
+			check(Integer.valueOf(i * i).equals(response), "Request " + i + " was answered with " + response);
+		}
+		for (CompletableFuture<Void> future : recorded)
+			future.exceptionally(new Function<Throwable, Void>() {
+				@Override
+				public Void apply(Throwable e) {
+					return null;
+				}
+			}).join();
+		synchronized (completed) {
+			check(completed.size() == REQUESTS && completed.get(REQUESTS - 1) % 2 == 0, "The responses weren't completed out of order: " + completed);
+		}
+		
+		System.out.println("Checking responders found by superclass and interface, and failures.");
+		check("number 7".equals(get(con.request(7L, 5000))), "A Long wasn't answered by the Number responder");
+		check(Integer.valueOf(5).equals(get(con.request("hello", 5000))), "A String wasn't answered by the CharSequence responder");
+		Throwable failed = getError(con.request("fail", 5000));
+		check(failed instanceof NNRequestFailed && failed.getMessage().contains("refused"), "A refused request failed with " + failed);
+		failed = getError(con.request(true, 5000));
+		check(failed instanceof NNRequestFailed, "A request nothing answers failed with " + failed);
+		
+		System.out.println("Checking timeouts.");
+		failed = getError(con.request("slow", 100));
+		check(failed instanceof TimeoutException, "A request answered too late failed with " + failed);
+		Thread.sleep(600);
+		check(Integer.valueOf(4).equals(get(con.request("four", 5000))), "A request after a late response wasn't answered");
+		
+		System.out.println("Checking requests waiting when the connection is closed.");
+		CompletableFuture<Object> waiting = con.request("never", 0);
+		Thread.sleep(100);
+		client.close();
+		failed = getError(waiting);
+		check(failed instanceof NNRequestFailed, "A request waiting on a closed connection failed with " + failed);
+		failed = getError(con.request("closed", 0));
+		check(failed instanceof NNRequestFailed, "A request on a closed connection failed with " + failed);
+		
+		server.close();
+		System.out.println(failures == 0 ? "All request checks passed." : failures + " request checks failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+	
+	private static CompletableFuture<Object> later(final Object response, final long delay) {
+		final CompletableFuture<Object> future = new CompletableFuture<Object>();
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+				}
+				future.complete(response);
+			}
+		}).start();
+		return future;
+	}
+	
+	private static Object get(CompletableFuture<Object> future) {
+		try {
+			return future.get(5, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			return e instanceof ExecutionException ? e.getCause() : e;
+		}
+	}
+	
+	private static Throwable getError(CompletableFuture<Object> future) {
+		Object result = get(future);
+		return result instanceof Throwable ? (Throwable) result : null;
+	}
+	
+	static void check(boolean passed, String message) {
+		if (passed)
+			return;
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+	
+}
+
+class RequestListener implements SocketListener {
+	
+	@Override
+	public void received(Connection con, Object object) {
+	}
+	
+	@Override
+	public void connected(Connection con) {
+	}
+	
+	@Override
+	public void disconnected(Connection con) {
+	}
+	
+}
@@ -0,0 +1,193 @@
+package com.jmr.tests;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.jmr.wrapper.client.Client;
+import com.jmr.wrapper.common.Connection;
+import com.jmr.wrapper.common.listener.SocketListener;
+import com.jmr.wrapper.common.utils.FrameUtils;
+import com.jmr.wrapper.server.Server;
+
+public class SequencedTest {
+	
+	private static final int OBJECTS = 60;
+	
+	private static int failures = 0;
+	
+	public static void main(String[] args) throws Exception {
+		System.out.println("Sequenced UDP Test.");
+		System.out.println("Starting server on localhost port 1941 and a relay on port 1942 that delays and repeats packets of channel 0.");
+		Server server = new Server(1941, 1941);
+		SequencedServerListener listener = new SequencedServerListener();
+		server.setListener(listener);
+		SequencedRelay relay = new SequencedRelay(1942, 1941);
+		new Thread(relay, "SequencedRelay").start();
+		
+		Client client = new Client("localhost", 1941, 1942);
+		client.setListener(new SequencedClientListener());
+		client.connect();
+		Connection con = client.getServerConnection();
+		for (int i = 0; i < 100 && (listener.con == null || !listener.con.isUdpBound()); i++)
+			Thread.sleep(20);
+		check(listener.con != null && listener.con.isUdpBound(), "The server didn't bind the client's UDP port");
+		check(con.isSequencedUdpSupported(), "The server doesn't read sequenced UDP packets");
+		
+		for (int i = 0; i < OBJECTS; i++) {
+			con.sendSequencedUdp(0, i);
+			con.sendSequencedUdp(1, OBJECTS + i);
+			Thread.sleep(5);
+		}
+		for (int i = 0; i < 50 && listener.received.size() < OBJECTS * 2 - relay.delayed.size(); i++)
+			Thread.sleep(20);
+		
+		List<Integer> first = new ArrayList<Integer>(), second = new ArrayList<Integer>();
+		synchronized (listener.received) {
+			for (int value : listener.received)
+				(value < OBJECTS ? first : second).add(value);
+		}
+		check(!relay.delayed.isEmpty() && relay.repeated > 0, "The relay didn't delay or repeat any packets");
+		check(isIncreasing(first), "Channel 0 passed an object older than one it passed before: " + first);
+		check(Collections.disjoint(first, relay.delayed), "Channel 0 passed a delayed object after a newer one");
+		check(first.size() == OBJECTS - relay.delayed.size(), "Channel 0 passed " + first.size() + " objects, expected " + (OBJECTS - relay.delayed.size()));
+		check(isIncreasing(second) && second.size() == OBJECTS, "Channel 1 passed " + second.size() + " of " + OBJECTS + " objects");
+		
+		client.close();
+		relay.close();
+		server.close();
+		System.out.println(failures == 0 ? "All sequenced UDP checks passed." : failures + " sequenced UDP checks failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+	
+	private static boolean isIncreasing(List<Integer> values) {
+		for (int i = 1; i < values.size(); i++)
+			if (values.get(i) <= values.get(i - 1))
+				return false;
+		return true;
+	}
+	
+	static void check(boolean passed, String message) {
+		if (passed)
+			return;
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+	
+}
+
+class SequencedRelay implements Runnable {
+	
+	final DatagramSocket socket;
+	
+	final int serverPort;
+	
+	final List<Integer> delayed = Collections.synchronizedList(new ArrayList<Integer>());
+	
+	volatile int repeated = 0;
+	
+	volatile SocketAddress client;
+	
+	SequencedRelay(int port, int serverPort) throws IOException {
+		this.socket = new DatagramSocket(port);
+		this.serverPort = serverPort;
+	}
+	
+	@Override
+	public void run() {
+		byte[] buffer = new byte[65536];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		byte[] held = null;
+		try {
+			while (true) {
+				packet.setData(buffer);
+				socket.receive(packet);
+				if (packet.getPort() == serverPort) {
+					if (client != null)
+						socket.send(new DatagramPacket(packet.getData(), packet.getLength(), client));
+					continue;
+				}
+				client = packet.getSocketAddress();
+				byte[] data = Arrays.copyOf(packet.getData(), packet.getLength());
+				int sequence = getSequence(data);
+				if (sequence % 3 == 1) { //Sent after the next two packets of its channel
+					held = data;
+					delayed.add(sequence);
+					continue;
+				}
+				send(data);
+				if (sequence >= 0 && sequence % 5 == 0) {
+					send(data);
+					repeated++;
+				}
+				if (held != null && sequence >= getSequence(held) + 2) {
+					send(held);
+					held = null;
+				}
+			}
+		} catch (IOException e) {
+			//closed
+		}
+	}
+	
+	/** Gets the sequence number of a packet of channel 0, or -1 for any other packet. */
+	int getSequence(byte[] data) {
+		if (data.length < FrameUtils.HEADER_SIZE + FrameUtils.CHANNEL_SIZE + FrameUtils.SEQUENCE_SIZE || data[4] != FrameUtils.TYPE_SEQUENCED || data[FrameUtils.HEADER_SIZE] != 0)
+			return -1;
+		return FrameUtils.readInt(data, FrameUtils.HEADER_SIZE + FrameUtils.CHANNEL_SIZE);
+	}
+	
+	void send(byte[] data) throws IOException {
+		socket.send(new DatagramPacket(data, data.length, InetAddress.getByName("localhost"), serverPort));
+	}
+	
+	void close() {
+		socket.close();
+	}
+	
+}
+
+class SequencedServerListener implements SocketListener {
+	
+	final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+	
+	volatile Connection con;
+	
+	@Override
+	public void received(Connection con, Object object) {
+		if (object instanceof Integer)
+			received.add((Integer) object);
+	}
+	
+	@Override
+	public void connected(Connection con) {
+		this.con = con;
+	}
+	
+	@Override
+	public void disconnected(Connection con) {
+	}
+	
+}
+
+class SequencedClientListener implements SocketListener {
+	
+	@Override
+	public void received(Connection con, Object object) {
+	}
+	
+	@Override
+	public void connected(Connection con) {
+	}
+	
+	@Override
+	public void disconnected(Connection con) {
+	}
+	
+}
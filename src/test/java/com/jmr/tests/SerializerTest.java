@@ -0,0 +1,177 @@
+package com.jmr.tests;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.jmr.wrapper.common.IProtocol;
+import com.jmr.wrapper.common.buffer.PooledOutputStream;
+import com.jmr.wrapper.common.codec.BinaryCodec;
+import com.jmr.wrapper.common.codec.ClassRegistry;
+import com.jmr.wrapper.common.codec.GeneratedSerializer;
+import com.jmr.wrapper.common.codec.NitroPacket;
+import com.jmr.wrapper.common.codec.ReflectionSerializer;
+import com.jmr.wrapper.server.Server;
+
+public class SerializerTest {
+	
+	private static int failures = 0;
+	
+	public static void main(String[] args) throws Exception {
+		System.out.println("Serializer Test.");
+		System.out.println("Starting server on localhost port 1912 for its buffer pool.");
+		Server server = new Server(1912, 1912);
+		
+		ClassRegistry registry = new ClassRegistry();
+		registry.register(SerializerColor.class);
+		registry.register(SerializerPoint.class);
+		registry.register(SerializerPacket.class);
+		
+		System.out.println("Checking a @NitroPacket class round-trip.");
+		BinaryCodec codec = new BinaryCodec(registry);
+		SerializerPacket packet = SerializerPacket.create();
+		byte[] data = encode(server, codec, packet);
+		SerializerPacket decoded = (SerializerPacket) codec.decode(server, data, 0, data.length);
+		check(packet.equals(decoded), "Round-trip of " + packet + " gave " + decoded);
+		check(decoded.skipped == 0, "The transient field was written");
+		
+		System.out.println("Checking generated and reflective serializer layout parity.");
+		checkLayoutParity(server, registry);
+		
+		server.close();
+		System.out.println(failures == 0 ? "All serializer checks passed." : failures + " serializer checks failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+	
+	private static void checkLayoutParity(IProtocol protocol, ClassRegistry registry) throws Exception {
+		if (!(registry.get(SerializerPacket.class).getSerializer() instanceof GeneratedSerializer)) {
+			System.out.println("Skipped: no generated serializer. Compile the tests with the NitroNet processor on the processor path.");
+			return;
+		}
+		GeneratedSerializer<?> generated = (GeneratedSerializer<?>) registry.get(SerializerPacket.class).getSerializer();
+		ReflectionSerializer<SerializerPacket> reflective = new ReflectionSerializer<SerializerPacket>(SerializerPacket.class);
+		check(generated.getLayout().equals(reflective.getLayout()), "Generated layout " + generated.getLayout() + " differs from " + reflective.getLayout());
+		
+		ClassRegistry reflectiveRegistry = new ClassRegistry();
+		reflectiveRegistry.register(SerializerColor.class);
+		reflectiveRegistry.register(SerializerPoint.class);
+		reflectiveRegistry.register(SerializerPacket.class, reflective);
+		BinaryCodec generatedCodec = new BinaryCodec(registry);
+		BinaryCodec reflectiveCodec = new BinaryCodec(reflectiveRegistry);
+		
+		SerializerPacket packet = SerializerPacket.create();
+		byte[] generatedData = encode(protocol, generatedCodec, packet);
+		byte[] reflectiveData = encode(protocol, reflectiveCodec, packet);
+		check(Arrays.equals(generatedData, reflectiveData), "Generated and reflective serializers wrote different bytes");
+		check(packet.equals(reflectiveCodec.decode(protocol, generatedData, 0, generatedData.length)), "Reflective serializer can't read generated bytes");
+		check(packet.equals(generatedCodec.decode(protocol, reflectiveData, 0, reflectiveData.length)), "Generated serializer can't read reflective bytes");
+	}
+	
+	private static byte[] encode(IProtocol protocol, BinaryCodec codec, Object value) throws Exception {
+		PooledOutputStream out = codec.encode(protocol, value);
+		return Arrays.copyOf(out.getBuffer(), out.size());
+	}
+	
+	static void check(boolean passed, String message) {
+		if (passed)
+			return;
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+	
+}
+
+enum SerializerColor {
+	RED, GREEN, BLUE
+}
+
+class SerializerPoint {
+	
+	int x;
+	
+	int y;
+	
+	SerializerPoint() {
+	}
+	
+	SerializerPoint(int x, int y) {
+		this.x = x;
+		this.y = y;
+	}
+	
+	@Override
+	public boolean equals(Object object) {
+		return object instanceof SerializerPoint && ((SerializerPoint) object).x == x && ((SerializerPoint) object).y == y;
+	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * x + y;
+	}
+	
+}
+
+@NitroPacket
+class SerializerPacket implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	int id;
+	
+	long time;
+	
+	boolean flag;
+	
+	char letter;
+	
+	float ratio;
+	
+	String name;
+	
+	double[] values;
+	
+	ArrayList<String> tags;
+	
+	SerializerColor color;
+	
+	SerializerPoint point;
+	
+	transient int skipped;
+	
+	static SerializerPacket create() {
+		SerializerPacket packet = new SerializerPacket();
+		packet.id = 42;
+		packet.time = 1406246400000L;
+		packet.flag = true;
+		packet.letter = 'x';
+		packet.ratio = 0.75f;
+		packet.name = "packet";
+		packet.values = new double[] { 1, 2.5 };
+		packet.tags = new ArrayList<String>(Arrays.asList("a", "b"));
+		packet.color = SerializerColor.GREEN;
+		packet.point = new SerializerPoint(3, 4);
+		packet.skipped = 9;
+		return packet;
+	}
+	
+	@Override
+	public boolean equals(Object object) {
+		if (!(object instanceof SerializerPacket))
+			return false;
+		SerializerPacket packet = (SerializerPacket) object;
+		return id == packet.id && time == packet.time && flag == packet.flag && letter == packet.letter && ratio == packet.ratio
+				&& name.equals(packet.name) && Arrays.equals(values, packet.values) && tags.equals(packet.tags)
+				&& color == packet.color && point.equals(packet.point);
+	}
+	
+	@Override
+	public int hashCode() {
+		return id;
+	}
+	
+	@Override
+	public String toString() {
+		return "SerializerPacket(" + id + ", " + name + ")";
+	}
+	
+}
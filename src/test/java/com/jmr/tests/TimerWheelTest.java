@@ -0,0 +1,126 @@
+package com.jmr.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.jmr.wrapper.common.utils.TimerWheel;
+
+public class TimerWheelTest {
+	
+	private static final long TICK = 10;
+	
+	private static final int BUCKETS = 8;
+	
+	private static int failures = 0;
+	
+	public static void main(String[] args) throws Exception {
+		System.out.println("Timer Wheel Test.");
+		System.out.println("Checking delays and order with " + BUCKETS + " buckets of " + TICK + "ms.");
+		checkDelays();
+		System.out.println("Checking cancelled timeouts.");
+		checkCancel();
+		System.out.println("Checking timeouts kept while the wheel is stopped.");
+		checkStop();
+		System.out.println(failures == 0 ? "All timer wheel checks passed." : failures + " timer wheel checks failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+	
+	private static void checkDelays() throws InterruptedException {
+		TimerWheel wheel = new TimerWheel("TimerWheelTest", TICK, BUCKETS);
+		long[] delays = { 0, 5, 30, 60, 90, 150, 250, 400, 610 }; //Past a turn of the wheel from 90ms on
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final long[] ran = new long[delays.length];
+		final CountDownLatch latch = new CountDownLatch(delays.length);
+		long start = System.nanoTime();
+		for (int i = delays.length - 1; i >= 0; i--) {
+			final int index = i;
+			wheel.schedule(new Runnable() {
+				@Override
+				public void run() {
+					ran[index] = System.nanoTime();
+					order.add(index);
+					latch.countDown();
+				}
+			}, delays[i]);
+		}
+		check(latch.await(5, TimeUnit.SECONDS), latch.getCount() + " timeouts didn't run");
+		for (int i = 0; i < delays.length; i++) {
+			if (ran[i] == 0)
+				continue;
+			long waited = TimeUnit.NANOSECONDS.toMillis(ran[i] - start);
+			check(ran[i] - start >= TimeUnit.MILLISECONDS.toNanos(delays[i]), "A " + delays[i] + "ms timeout ran after " + waited + "ms");
+			check(waited <= delays[i] + 2 * TICK + 100, "A " + delays[i] + "ms timeout ran late, after " + waited + "ms");
+		}
+		List<Integer> sorted = new ArrayList<Integer>(order);
+		Collections.sort(sorted.subList(0, Math.min(2, sorted.size()))); //0 and 5ms share a tick
+		for (int i = 0; i < sorted.size(); i++)
+			check(sorted.get(i) == i, "Timeouts ran in the order " + order);
+		
+		final CountDownLatch nested = new CountDownLatch(1);
+		wheel.schedule(new Runnable() {
+			@Override
+			public void run() {
+				wheel.schedule(new Runnable() {
+					@Override
+					public void run() {
+						nested.countDown();
+					}
+				}, 20);
+			}
+		}, 20);
+		check(nested.await(1, TimeUnit.SECONDS), "A timeout added by a running timeout didn't run");
+		wheel.stop();
+	}
+	
+	private static void checkCancel() throws InterruptedException {
+		TimerWheel wheel = new TimerWheel("TimerWheelTest", TICK, BUCKETS);
+		final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+		List<TimerWheel.Timeout> timeouts = new ArrayList<TimerWheel.Timeout>();
+		for (int i = 0; i < 20; i++) {
+			final int index = i;
+			timeouts.add(wheel.schedule(new Runnable() {
+				@Override
+				public void run() {
+					ran.add(index);
+				}
+			}, 20 + i * 10));
+		}
+		for (int i = 0; i < timeouts.size(); i += 2)
+			timeouts.get(i).cancel();
+		Thread.sleep(20 + 20 * 10 + 2 * TICK + 200);
+		check(ran.size() == 10, ran.size() + " of 10 timeouts that weren't cancelled ran");
+		for (int index : ran)
+			check(index % 2 == 1, "Cancelled timeout " + index + " ran");
+		check(timeouts.get(0).isCancelled() && !timeouts.get(1).isCancelled(), "A timeout's cancelled state is wrong");
+		wheel.stop();
+	}
+	
+	private static void checkStop() throws InterruptedException {
+		TimerWheel wheel = new TimerWheel("TimerWheelTest", TICK, BUCKETS);
+		final CountDownLatch latch = new CountDownLatch(2);
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		};
+		wheel.schedule(task, 30);
+		wheel.stop();
+		Thread.sleep(100);
+		check(latch.getCount() == 2, "A timeout ran while the wheel was stopped");
+		wheel.schedule(task, 0);
+		check(latch.await(1, TimeUnit.SECONDS), "A timeout added before stopping didn't run once the wheel was started again");
+		wheel.stop();
+	}
+	
+	static void check(boolean passed, String message) {
+		if (passed)
+			return;
+		failures++;
+		System.out.println("FAILED: " + message);
+	}
+	
+}